@@ -0,0 +1,556 @@
+package com.quexs.tool.httplib.cache;
+
+import android.text.TextUtils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * HTTP 响应磁盘缓存
+ * 按链接缓存响应文件，遵循 Cache-Control/Expires 新鲜度，保存 ETag/Last-Modified 用于条件请求
+ * 缓存总大小超出上限时按最近最少使用淘汰；索引以追加日志记录（CLEAN/READ/REMOVE），启动时只读取日志即可恢复访问顺序及大小
+ * 目录结构：journal 日志，{key}.0 元数据，{key}.1 响应数据
+ */
+public class HttpDiskCache {
+    private static final String JOURNAL_FILE = "journal";
+    private static final String JOURNAL_FILE_TMP = "journal.tmp";
+    private static final String MAGIC = "HttpDiskCache";
+    private static final String VERSION = "1";
+    private static final String CLEAN = "CLEAN";
+    private static final String READ = "READ";
+    private static final String REMOVE = "REMOVE";
+    //冗余日志达到该数量且超过条目数时重建日志
+    private static final int REDUNDANT_OP_COMPACT_THRESHOLD = 2000;
+    //临时文件序号
+    private static final AtomicLong TMP_SEQUENCE = new AtomicLong();
+
+    private final File directory;
+    private final long maxSize;
+    //key -> 数据长度，按访问顺序排列（最久未使用的在前）
+    private final LinkedHashMap<String, Long> lruEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private long size;
+    private int redundantOpCount;
+    private Writer journalWriter;
+    private boolean isInitialized;
+
+    /**
+     * @param directory 缓存目录（独占使用）
+     * @param maxSize 缓存最大字节数
+     */
+    public HttpDiskCache(File directory, long maxSize) {
+        if(maxSize <= 0) throw new IllegalArgumentException("maxSize <= 0");
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * 读取缓存
+     * @param url
+     * @return null 没有缓存
+     */
+    public synchronized Entry get(String url) {
+        String key = key(url);
+        try {
+            initialize();
+            if(!lruEntries.containsKey(key)) return null;
+            Entry entry = readEntry(key);
+            if(entry == null || !url.equals(entry.url) || !entry.getFile().exists()){
+                removeEntry(key);
+                return null;
+            }
+            lruEntries.get(key);
+            appendJournal(READ + " " + key, true);
+            return entry;
+        }catch (IOException e){
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * 写入缓存（复制文件），响应不可缓存时移除旧缓存
+     * @param url
+     * @param file 已下载完成的文件
+     * @param conn 响应题头
+     * @return 是否已写入
+     */
+    public boolean put(String url, File file, HttpURLConnection conn) {
+        String key = key(url);
+        Entry entry = newEntry(url, key, conn);
+        if(entry == null || file.length() > maxSize){
+            remove(url);
+            return false;
+        }
+        entry.length = file.length();
+        //先写入临时文件，再重命名替换
+        File dataTmp = tmpFile(key);
+        File metaTmp = tmpFile(key);
+        try {
+            //初始化（创建目录、清理临时文件）需在写入临时文件前完成
+            synchronized (this) {
+                initialize();
+            }
+            copyFile(file, dataTmp);
+            writeEntry(entry, metaTmp);
+            synchronized (this) {
+                Long oldLength = lruEntries.get(key);
+                if(!dataTmp.renameTo(getDataFile(key)) || !metaTmp.renameTo(getMetaFile(key))) throw new IOException("rename error:" + key);
+                lruEntries.put(key, entry.length);
+                size += entry.length - (oldLength == null ? 0 : oldLength);
+                appendJournal(CLEAN + " " + key + " " + entry.length, oldLength != null);
+                trimToSize();
+            }
+            return true;
+        }catch (IOException e){
+            e.printStackTrace();
+            remove(url);
+            return false;
+        }finally {
+            dataTmp.delete();
+            metaTmp.delete();
+        }
+    }
+
+    /**
+     * 条件请求返回 304 时更新缓存的新鲜度及校验值
+     * @param url
+     * @param conn 304 响应题头
+     */
+    public synchronized void update(String url, HttpURLConnection conn) {
+        String key = key(url);
+        try {
+            initialize();
+            Entry oldEntry = lruEntries.containsKey(key) ? readEntry(key) : null;
+            if(oldEntry == null) return;
+            Entry entry = newEntry(url, key, conn);
+            if(entry == null){
+                removeEntry(key);
+                return;
+            }
+            //304 未返回的校验值沿用缓存
+            if(entry.eTag == null) entry.eTag = oldEntry.eTag;
+            if(entry.lastModified == null) entry.lastModified = oldEntry.lastModified;
+            entry.length = oldEntry.length;
+            File metaTmp = tmpFile(key);
+            writeEntry(entry, metaTmp);
+            if(!metaTmp.renameTo(getMetaFile(key))){
+                metaTmp.delete();
+                throw new IOException("rename error:" + key);
+            }
+        }catch (IOException e){
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 移除缓存
+     * @param url
+     */
+    public synchronized void remove(String url) {
+        try {
+            initialize();
+            removeEntry(key(url));
+        }catch (IOException e){
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 清空缓存
+     */
+    public synchronized void clear() {
+        try {
+            initialize();
+            for (String key : new ArrayList<>(lruEntries.keySet())) {
+                removeEntry(key);
+            }
+            rebuildJournal();
+        }catch (IOException e){
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 缓存当前大小
+     */
+    public synchronized long size() {
+        try {
+            initialize();
+        }catch (IOException e){
+            e.printStackTrace();
+        }
+        return size;
+    }
+
+    /**
+     * 复制缓存文件
+     * @param entry
+     * @param dst 目标文件（覆盖）
+     * @throws IOException 缓存文件已被淘汰
+     */
+    public static void copyTo(Entry entry, File dst) throws IOException {
+        copyFile(entry.getFile(), dst);
+    }
+
+    /**
+     * 首次使用时读取日志
+     */
+    private void initialize() throws IOException {
+        if(isInitialized) return;
+        if(!directory.exists() && !directory.mkdirs()) throw new IOException("mkdirs error:" + directory);
+        //删除未完成写入的临时文件
+        File[] files = directory.listFiles();
+        if(files != null){
+            for (File file : files) {
+                if(file.getName().endsWith(".tmp")) file.delete();
+            }
+        }
+        File journalFile = new File(directory, JOURNAL_FILE);
+        if(journalFile.exists()){
+            try {
+                readJournal(journalFile);
+                journalWriter = new BufferedWriter(new FileWriter(journalFile, true));
+                isInitialized = true;
+                return;
+            }catch (IOException e){
+                //日志损坏，清空缓存
+                e.printStackTrace();
+                lruEntries.clear();
+                size = 0;
+                deleteContents();
+            }
+        }
+        rebuildJournal();
+        isInitialized = true;
+    }
+
+    private void readJournal(File journalFile) throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader(journalFile));
+        try {
+            if(!MAGIC.equals(reader.readLine()) || !VERSION.equals(reader.readLine())) throw new IOException("unexpected journal header");
+            int lineCount = 0;
+            String line;
+            while ((line = reader.readLine()) != null){
+                lineCount++;
+                String[] parts = line.split(" ");
+                //进程被杀时最后一行可能不完整，忽略
+                if(parts.length < 2) continue;
+                String key = parts[1];
+                if(CLEAN.equals(parts[0]) && parts.length == 3){
+                    try {
+                        lruEntries.put(key, Long.parseLong(parts[2]));
+                    }catch (NumberFormatException e){
+                        //忽略不完整的行
+                    }
+                }else if(READ.equals(parts[0])){
+                    lruEntries.get(key);
+                }else if(REMOVE.equals(parts[0])){
+                    lruEntries.remove(key);
+                }
+            }
+            redundantOpCount = lineCount - lruEntries.size();
+            size = 0;
+            for (Long length : lruEntries.values()) {
+                size += length;
+            }
+        }finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * 按当前条目重建日志，通过临时文件重命名替换
+     */
+    private void rebuildJournal() throws IOException {
+        if(journalWriter != null){
+            journalWriter.close();
+        }
+        File journalFileTmp = new File(directory, JOURNAL_FILE_TMP);
+        Writer writer = new BufferedWriter(new FileWriter(journalFileTmp));
+        try {
+            writer.write(MAGIC + "\n" + VERSION + "\n");
+            for (Map.Entry<String, Long> entry : lruEntries.entrySet()) {
+                writer.write(CLEAN + " " + entry.getKey() + " " + entry.getValue() + "\n");
+            }
+        }finally {
+            writer.close();
+        }
+        File journalFile = new File(directory, JOURNAL_FILE);
+        if(!journalFileTmp.renameTo(journalFile)) throw new IOException("rename error:" + journalFile);
+        journalWriter = new BufferedWriter(new FileWriter(journalFile, true));
+        redundantOpCount = 0;
+    }
+
+    /**
+     * 追加日志
+     * @param isRedundant 是否为冗余记录（重建日志时可省略）
+     */
+    private void appendJournal(String line, boolean isRedundant) throws IOException {
+        journalWriter.write(line + "\n");
+        journalWriter.flush();
+        if(isRedundant){
+            redundantOpCount++;
+        }
+        if(redundantOpCount >= REDUNDANT_OP_COMPACT_THRESHOLD && redundantOpCount >= lruEntries.size()){
+            rebuildJournal();
+        }
+    }
+
+    private void removeEntry(String key) throws IOException {
+        Long length = lruEntries.remove(key);
+        getDataFile(key).delete();
+        getMetaFile(key).delete();
+        if(length != null){
+            size -= length;
+            appendJournal(REMOVE + " " + key, true);
+        }
+    }
+
+    /**
+     * 淘汰最久未使用的条目
+     */
+    private void trimToSize() throws IOException {
+        Iterator<String> it = lruEntries.keySet().iterator();
+        List<String> evictKeys = new ArrayList<>();
+        long trimSize = size;
+        while (trimSize > maxSize && it.hasNext()){
+            String key = it.next();
+            trimSize -= lruEntries.get(key);
+            evictKeys.add(key);
+        }
+        for (String key : evictKeys) {
+            removeEntry(key);
+        }
+    }
+
+    private void deleteContents() {
+        File[] files = directory.listFiles();
+        if(files == null) return;
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
+    private File getMetaFile(String key) {
+        return new File(directory, key + ".0");
+    }
+
+    private File getDataFile(String key) {
+        return new File(directory, key + ".1");
+    }
+
+    private File tmpFile(String key) {
+        return new File(directory, key + "." + TMP_SEQUENCE.getAndIncrement() + ".tmp");
+    }
+
+    private Entry readEntry(String key) {
+        File metaFile = getMetaFile(key);
+        if(!metaFile.exists()) return null;
+        Properties properties = new Properties();
+        try {
+            FileInputStream fis = new FileInputStream(metaFile);
+            try {
+                properties.load(fis);
+            }finally {
+                fis.close();
+            }
+            Entry entry = new Entry(properties.getProperty("url"), getDataFile(key));
+            entry.eTag = properties.getProperty("eTag");
+            entry.lastModified = properties.getProperty("lastModified");
+            entry.expiresMillis = Long.parseLong(properties.getProperty("expiresMillis", "0"));
+            entry.isNoCache = Boolean.parseBoolean(properties.getProperty("noCache"));
+            entry.length = Long.parseLong(properties.getProperty("length", "0"));
+            return entry.url == null ? null : entry;
+        }catch (Exception e){
+            return null;
+        }
+    }
+
+    private static void writeEntry(Entry entry, File file) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("url", entry.url);
+        if(entry.eTag != null) properties.setProperty("eTag", entry.eTag);
+        if(entry.lastModified != null) properties.setProperty("lastModified", entry.lastModified);
+        properties.setProperty("expiresMillis", String.valueOf(entry.expiresMillis));
+        properties.setProperty("noCache", String.valueOf(entry.isNoCache));
+        properties.setProperty("length", String.valueOf(entry.length));
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            properties.store(fos, null);
+            fos.getFD().sync();
+        }finally {
+            fos.close();
+        }
+    }
+
+    /**
+     * 根据响应题头生成缓存条目
+     * @return null 响应不可缓存（no-store，或既无新鲜度也无校验值）
+     */
+    private Entry newEntry(String url, String key, HttpURLConnection conn) {
+        long now = System.currentTimeMillis();
+        String cacheControl = conn.getHeaderField("Cache-Control");
+        long maxAgeSeconds = -1;
+        boolean isNoCache = false;
+        if(!TextUtils.isEmpty(cacheControl)){
+            for (String directive : cacheControl.split(",")) {
+                String d = directive.trim().toLowerCase(Locale.US);
+                if(d.equals("no-store")) return null;
+                if(d.startsWith("no-cache")){
+                    isNoCache = true;
+                }else if(d.startsWith("max-age=")){
+                    try {
+                        maxAgeSeconds = Long.parseLong(d.substring(8).trim());
+                    }catch (NumberFormatException e){
+                        maxAgeSeconds = 0;
+                    }
+                }
+            }
+        }
+        long expiresMillis = 0;
+        if(maxAgeSeconds >= 0){
+            //扣除响应在中间缓存中已存放的时长
+            long ageSeconds = 0;
+            String age = conn.getHeaderField("Age");
+            if(!TextUtils.isEmpty(age)){
+                try {
+                    ageSeconds = Long.parseLong(age.trim());
+                }catch (NumberFormatException e){
+                    ageSeconds = 0;
+                }
+            }
+            expiresMillis = now + (maxAgeSeconds - ageSeconds) * 1000;
+        }else {
+            long expires = conn.getHeaderFieldDate("Expires", 0);
+            if(expires > 0){
+                //按服务端时间计算剩余有效期，避免本地时间偏差
+                long date = conn.getHeaderFieldDate("Date", now);
+                expiresMillis = now + (expires - date);
+            }
+        }
+        Entry entry = new Entry(url, getDataFile(key));
+        entry.eTag = conn.getHeaderField("ETag");
+        entry.lastModified = conn.getHeaderField("Last-Modified");
+        entry.expiresMillis = expiresMillis;
+        entry.isNoCache = isNoCache;
+        if(entry.eTag == null && entry.lastModified == null && (isNoCache || expiresMillis <= now)) return null;
+        return entry;
+    }
+
+    private static String key(String url) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            byte[] bytes = digest.digest(url.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder();
+            for (byte b : bytes) {
+                sb.append(String.format(Locale.US, "%02x", b & 0xFF));
+            }
+            return sb.toString();
+        }catch (Exception e){
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 复制文件（不存在的上级目录自动创建）
+     * @param src
+     * @param dst
+     * @throws IOException
+     */
+    public static void copyFile(File src, File dst) throws IOException {
+        File parent = dst.getParentFile();
+        if(parent != null && !parent.exists() && !parent.mkdirs()) throw new IOException("mkdirs error:" + parent);
+        FileInputStream fis = new FileInputStream(src);
+        try {
+            FileOutputStream fos = new FileOutputStream(dst);
+            try {
+                FileChannel in = fis.getChannel();
+                FileChannel out = fos.getChannel();
+                long size = in.size();
+                long position = 0;
+                while (position < size){
+                    position += in.transferTo(position, size - position, out);
+                }
+            }finally {
+                fos.close();
+            }
+        }finally {
+            fis.close();
+        }
+    }
+
+    /**
+     * 缓存条目
+     */
+    public static class Entry {
+        private final String url;
+        private final File file;
+        private String eTag;
+        private String lastModified;
+        //过期时间，0 无新鲜度信息
+        private long expiresMillis;
+        //每次使用前需重新验证
+        private boolean isNoCache;
+        private long length;
+
+        Entry(String url, File file) {
+            this.url = url;
+            this.file = file;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        /**
+         * 缓存文件（可能被淘汰，使用前需复制）
+         */
+        public File getFile() {
+            return file;
+        }
+
+        public String getETag() {
+            return eTag;
+        }
+
+        public String getLastModified() {
+            return lastModified;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        /**
+         * 是否在有效期内（无需请求网络）
+         */
+        public boolean isFresh() {
+            return !isNoCache && System.currentTimeMillis() < expiresMillis;
+        }
+
+        /**
+         * 是否可发起条件请求
+         */
+        public boolean canRevalidate() {
+            return eTag != null || lastModified != null;
+        }
+    }
+}
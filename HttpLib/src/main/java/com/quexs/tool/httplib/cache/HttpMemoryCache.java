@@ -0,0 +1,283 @@
+package com.quexs.tool.httplib.cache;
+
+import android.text.TextUtils;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * HTTP 响应内存缓存
+ * 缓存较小的响应消息体，按 请求方法 + 链接 查找，并比较响应 Vary 题头列出的请求题头
+ * 按字节数限制总大小，超出时淘汰最近最少使用的条目；条目过期时间取 Cache-Control max-age，未声明时使用默认有效期
+ * 默认有效期只用于 GET/HEAD，POST 等会改变服务端状态的请求只在响应明确声明 max-age 时缓存
+ */
+public class HttpMemoryCache {
+    //每个条目的额外开销（估算）
+    private static final int ENTRY_OVERHEAD = 64;
+
+    //缓存最大字节数
+    private final long maxBytes;
+    //默认有效期（单位：毫秒）
+    private final long defaultTtlMillis;
+    //单个条目最大字节数
+    private long maxEntryBytes;
+    //按访问顺序排列（最久未使用的在前）
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long size;
+    private int hitCount;
+    private int missCount;
+
+    /**
+     * @param maxBytes 缓存最大字节数
+     * @param defaultTtlMillis GET/HEAD 响应未声明 max-age 时的有效期
+     */
+    public HttpMemoryCache(long maxBytes, long defaultTtlMillis) {
+        if(maxBytes <= 0) throw new IllegalArgumentException("maxBytes <= 0");
+        this.maxBytes = maxBytes;
+        this.defaultTtlMillis = defaultTtlMillis;
+        this.maxEntryBytes = maxBytes / 8;
+    }
+
+    /**
+     * 单个条目最大字节数，更大的响应不缓存
+     * @param maxEntryBytes 默认为缓存最大字节数的 1/8
+     */
+    public synchronized void setMaxEntryBytes(long maxEntryBytes) {
+        this.maxEntryBytes = maxEntryBytes;
+    }
+
+    public synchronized long getMaxEntryBytes() {
+        return maxEntryBytes;
+    }
+
+    /**
+     * 读取缓存
+     * @param method 请求方法
+     * @param url 请求链接（或可区分请求的标识）
+     * @param requestHeaders 请求题头，用于比较 Vary
+     * @return null 没有缓存或已过期
+     */
+    public synchronized Entry get(String method, String url, Map<String, String> requestHeaders) {
+        String key = key(method, url);
+        Entry entry = entries.get(key);
+        if(entry != null && System.currentTimeMillis() >= entry.expiresMillis){
+            removeEntry(key);
+            entry = null;
+        }
+        if(entry == null || !entry.matchVary(requestHeaders)){
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        return entry;
+    }
+
+    /**
+     * 写入缓存
+     * @param method 请求方法
+     * @param url 请求链接（或可区分请求的标识）
+     * @param requestHeaders 请求题头，记录 Vary 列出的题头值
+     * @param responseCode
+     * @param responseHeaders 响应题头
+     * @param body 消息体
+     * @return false 响应不可缓存（no-store/no-cache/Vary: *，或超出单个条目大小）
+     */
+    public synchronized boolean put(String method, String url, Map<String, String> requestHeaders,
+                                    int responseCode, Map<String, List<String>> responseHeaders, byte[] body) {
+        String key = key(method, url);
+        Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        if(responseHeaders != null){
+            for (Map.Entry<String, List<String>> header : responseHeaders.entrySet()) {
+                //HttpURLConnection 的状态行 key 为 null
+                if(header.getKey() != null) headers.put(header.getKey(), header.getValue());
+            }
+        }
+        long ttlMillis = getTtlMillis(method, headers);
+        Map<String, String> varyHeaders = getVaryHeaders(headers, requestHeaders);
+        if(ttlMillis <= 0 || varyHeaders == null){
+            removeEntry(key);
+            return false;
+        }
+        Entry entry = new Entry(responseCode, Collections.unmodifiableMap(headers), body, varyHeaders,
+                System.currentTimeMillis() + ttlMillis, weigh(key, headers, body));
+        if(entry.weight > maxEntryBytes){
+            removeEntry(key);
+            return false;
+        }
+        removeEntry(key);
+        entries.put(key, entry);
+        size += entry.weight;
+        trimToSize();
+        return true;
+    }
+
+    /**
+     * 移除缓存
+     */
+    public synchronized void remove(String method, String url) {
+        removeEntry(key(method, url));
+    }
+
+    /**
+     * 清空缓存
+     */
+    public synchronized void clear() {
+        entries.clear();
+        size = 0;
+    }
+
+    /**
+     * 缓存当前字节数
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+    public synchronized int getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return missCount;
+    }
+
+    private void removeEntry(String key) {
+        Entry entry = entries.remove(key);
+        if(entry != null){
+            size -= entry.weight;
+        }
+    }
+
+    private void trimToSize() {
+        Iterator<Entry> it = entries.values().iterator();
+        while (size > maxBytes && it.hasNext()){
+            Entry entry = it.next();
+            size -= entry.weight;
+            it.remove();
+        }
+    }
+
+    /**
+     * 有效期：no-store/no-cache 不缓存，max-age 优先，否则 GET/HEAD 使用默认有效期，其他请求方法不缓存
+     */
+    private long getTtlMillis(String method, Map<String, List<String>> headers) {
+        long ttlMillis = "GET".equalsIgnoreCase(method) || "HEAD".equalsIgnoreCase(method) ? defaultTtlMillis : 0;
+        List<String> values = headers.get("Cache-Control");
+        if(values == null) return ttlMillis;
+        for (String value : values) {
+            if(value == null) continue;
+            for (String directive : value.split(",")) {
+                String d = directive.trim().toLowerCase(Locale.US);
+                if(d.equals("no-store") || d.startsWith("no-cache")) return 0;
+                if(d.startsWith("max-age=")){
+                    try {
+                        ttlMillis = Long.parseLong(d.substring(8).trim()) * 1000;
+                    }catch (NumberFormatException e){
+                        return 0;
+                    }
+                }
+            }
+        }
+        return ttlMillis;
+    }
+
+    /**
+     * 记录 Vary 列出的请求题头值
+     * @return null Vary: *，不可缓存
+     */
+    private static Map<String, String> getVaryHeaders(Map<String, List<String>> headers, Map<String, String> requestHeaders) {
+        List<String> values = headers.get("Vary");
+        if(values == null) return Collections.emptyMap();
+        Map<String, String> varyHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (String value : values) {
+            if(value == null) continue;
+            for (String name : value.split(",")) {
+                name = name.trim();
+                if(name.equals("*")) return null;
+                if(!TextUtils.isEmpty(name)) varyHeaders.put(name, getHeader(requestHeaders, name));
+            }
+        }
+        return varyHeaders;
+    }
+
+    private static String getHeader(Map<String, String> requestHeaders, String name) {
+        if(requestHeaders == null) return null;
+        for (Map.Entry<String, String> header : requestHeaders.entrySet()) {
+            if(name.equalsIgnoreCase(header.getKey())) return header.getValue();
+        }
+        return null;
+    }
+
+    private static long weigh(String key, Map<String, List<String>> headers, byte[] body) {
+        long weight = ENTRY_OVERHEAD + key.length() * 2L + (body != null ? body.length : 0);
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            weight += header.getKey().length() * 2L;
+            for (String value : header.getValue()) {
+                if(value != null) weight += value.length() * 2L;
+            }
+        }
+        return weight;
+    }
+
+    private static String key(String method, String url) {
+        return method.toUpperCase(Locale.US) + " " + url;
+    }
+
+    /**
+     * 缓存条目
+     */
+    public static class Entry {
+        private final int responseCode;
+        private final Map<String, List<String>> headers;
+        private final byte[] body;
+        //Vary 列出的请求题头值
+        private final Map<String, String> varyHeaders;
+        private final long expiresMillis;
+        private final long weight;
+
+        Entry(int responseCode, Map<String, List<String>> headers, byte[] body, Map<String, String> varyHeaders, long expiresMillis, long weight) {
+            this.responseCode = responseCode;
+            this.headers = headers;
+            this.body = body != null ? body : new byte[0];
+            this.varyHeaders = varyHeaders;
+            this.expiresMillis = expiresMillis;
+            this.weight = weight;
+        }
+
+        public int getResponseCode() {
+            return responseCode;
+        }
+
+        /**
+         * 响应题头（不区分大小写）
+         */
+        public Map<String, List<String>> getHeaders() {
+            return headers;
+        }
+
+        public String getHeaderField(String name) {
+            List<String> values = headers.get(name);
+            return values == null || values.isEmpty() ? null : values.get(values.size() - 1);
+        }
+
+        /**
+         * 消息体（共用，不可修改）
+         */
+        public byte[] getBody() {
+            return body;
+        }
+
+        private boolean matchVary(Map<String, String> requestHeaders) {
+            for (Map.Entry<String, String> vary : varyHeaders.entrySet()) {
+                String value = getHeader(requestHeaders, vary.getKey());
+                if(value == null ? vary.getValue() != null : !value.equals(vary.getValue())) return false;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.quexs.tool.httplib.conn;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+
+/**
+ * 连接释放工具
+ * 响应数据读完并关闭后，底层连接回到连接池供后续请求复用；只有无法读完时才断开连接
+ */
+public class HttpConnectionTool {
+    //最多读取丢弃的剩余数据 64K，超过则断开连接
+    private static final int MAX_DRAIN_LEN = 64 * 1024;
+
+    /**
+     * 关闭已收到的响应（未读取响应流时调用，须已获取响应码）
+     * @param conn
+     * @return true 响应已读完，连接可复用
+     */
+    public static boolean closeResponse(HttpURLConnection conn) {
+        try {
+            InputStream is = conn.getResponseCode() >= HttpURLConnection.HTTP_BAD_REQUEST ? conn.getErrorStream() : conn.getInputStream();
+            //没有响应数据
+            if(is == null) return true;
+            return closeResponse(is);
+        }catch (IOException e){
+            return false;
+        }
+    }
+
+    /**
+     * 关闭响应流，剩余数据较少时读取丢弃
+     * @param is 响应流
+     * @return true 响应已读完，连接可复用
+     */
+    public static boolean closeResponse(InputStream is) {
+        boolean isDrained = false;
+        try {
+            byte[] b = new byte[4096];
+            long drainLen = 0;
+            int len;
+            while (drainLen <= MAX_DRAIN_LEN && (len = is.read(b)) != -1){
+                drainLen += len;
+            }
+            isDrained = drainLen <= MAX_DRAIN_LEN;
+        }catch (Exception e){
+            //读取失败，连接不可复用
+        }
+        try {
+            is.close();
+        }catch (IOException e){
+            isDrained = false;
+        }
+        return isDrained;
+    }
+
+    /**
+     * 释放连接
+     * 响应已读完时保留底层连接供复用，否则断开连接
+     * @param conn
+     * @param isReusable 响应是否已读完并关闭
+     */
+    public static void release(HttpURLConnection conn, boolean isReusable) {
+        if(conn != null && !isReusable){
+            conn.disconnect();
+        }
+    }
+}
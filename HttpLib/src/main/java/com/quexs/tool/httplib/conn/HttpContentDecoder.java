@@ -0,0 +1,115 @@
+package com.quexs.tool.httplib.conn;
+
+import android.text.TextUtils;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * 响应内容解码
+ * 按 Content-Encoding 流式解压 gzip、deflate 响应（不支持 br，请求时不声明）
+ * 手动设置 Accept-Encoding 后 HttpURLConnection 不再自动解压，需经此类解码
+ */
+public class HttpContentDecoder {
+    //请求时声明支持的压缩格式
+    public static final String ACCEPT_ENCODING = "gzip, deflate";
+    //解压缓冲区大小
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * 响应内容是否已压缩
+     * @param contentEncoding Content-Encoding
+     * @return
+     */
+    public static boolean isEncoded(String contentEncoding) {
+        return !TextUtils.isEmpty(contentEncoding) && !"identity".equalsIgnoreCase(contentEncoding.trim());
+    }
+
+    /**
+     * 按连接的 Content-Encoding 解码响应流
+     * @param conn
+     * @param is 响应流
+     * @return 解码后的流，关闭时同时关闭响应流
+     * @throws IOException 不支持的压缩格式
+     */
+    public static InputStream decode(HttpURLConnection conn, InputStream is) throws IOException {
+        return decode(is, conn.getHeaderField("Content-Encoding"));
+    }
+
+    /**
+     * 按 Content-Encoding 解码响应流，多次压缩时按相反顺序解码
+     * @param is 响应流
+     * @param contentEncoding Content-Encoding
+     * @return 解码后的流，关闭时同时关闭响应流；未压缩时返回原响应流
+     * @throws IOException 不支持的压缩格式
+     */
+    public static InputStream decode(InputStream is, String contentEncoding) throws IOException {
+        if(is == null || !isEncoded(contentEncoding)) return is;
+        String[] codings = contentEncoding.split(",");
+        InputStream decoded = is;
+        for (int i = codings.length - 1; i >= 0; i--) {
+            String coding = codings[i].trim().toLowerCase(Locale.US);
+            if(coding.equals("gzip") || coding.equals("x-gzip")){
+                decoded = new GZIPInputStream(decoded, BUFFER_SIZE);
+            }else if(coding.equals("deflate")){
+                decoded = newDeflateStream(decoded);
+            }else if(!coding.isEmpty() && !coding.equals("identity")){
+                throw new IOException("unsupported Content-Encoding:" + contentEncoding);
+            }
+        }
+        return decoded == is ? is : new DecodedInputStream(decoded, is);
+    }
+
+    /**
+     * deflate 按规范为 zlib 格式，部分服务端返回不带 zlib 头的原始 deflate 数据，按前两个字节区分
+     */
+    private static InputStream newDeflateStream(InputStream is) throws IOException {
+        BufferedInputStream bis = new BufferedInputStream(is, BUFFER_SIZE);
+        bis.mark(2);
+        int cmf = bis.read();
+        int flg = bis.read();
+        bis.reset();
+        //zlib 头：压缩方式为 8，且 CMF*256+FLG 是 31 的倍数
+        boolean isZlib = cmf >= 0 && flg >= 0 && (cmf & 0x0f) == 8 && ((cmf << 8) | flg) % 31 == 0;
+        return new InflaterInputStream(bis, new Inflater(!isZlib), BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                //自行创建的 Inflater 需释放
+                try {
+                    super.close();
+                }finally {
+                    inf.end();
+                }
+            }
+        };
+    }
+
+    /**
+     * 解码流
+     * 压缩数据结束时响应流可能还未读到结尾，关闭前读取丢弃剩余数据，使连接可复用
+     */
+    private static class DecodedInputStream extends FilterInputStream {
+        //响应流
+        private final InputStream source;
+
+        DecodedInputStream(InputStream decoded, InputStream source) {
+            super(decoded);
+            this.source = source;
+        }
+
+        @Override
+        public void close() throws IOException {
+            //先读取丢弃响应流的剩余数据，再释放解压器
+            boolean isDrained = HttpConnectionTool.closeResponse(source);
+            super.close();
+            if(!isDrained) throw new IOException("response not drained");
+        }
+    }
+}
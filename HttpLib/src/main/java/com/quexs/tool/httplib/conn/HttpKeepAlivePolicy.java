@@ -0,0 +1,65 @@
+package com.quexs.tool.httplib.conn;
+
+/**
+ * 长连接复用策略
+ * 通过 http.keepAlive / http.maxConnections / http.keepAliveDuration 配置 HttpURLConnection 连接池：
+ * Android 中 maxIdleConnections 为连接池保留的空闲连接总数，JVM 中为每个主机保留的空闲连接数
+ * 系统属性进程内共用，连接池在首次请求时读取后不再变化，因此只能通过 install 设置一次，
+ * 且需在进程内首次发起 HttpURLConnection 请求前调用（如 Application.onCreate），之后设置不生效
+ */
+public class HttpKeepAlivePolicy {
+    //已设置的策略（进程内只能设置一次）
+    private static HttpKeepAlivePolicy installedPolicy;
+
+    //保留的空闲连接数
+    private final int maxIdleConnections;
+    //空闲连接存活时长（毫秒）
+    private final long keepAliveDurationMillis;
+
+    /**
+     * @param maxIdleConnections 保留的空闲连接数，0 表示不复用连接
+     * @param keepAliveDurationMillis 空闲连接存活时长（毫秒）
+     */
+    public HttpKeepAlivePolicy(int maxIdleConnections, long keepAliveDurationMillis) {
+        this.maxIdleConnections = maxIdleConnections;
+        this.keepAliveDurationMillis = keepAliveDurationMillis;
+    }
+
+    /**
+     * 默认策略：保留 5 个空闲连接，存活 5 分钟
+     * @return
+     */
+    public static HttpKeepAlivePolicy defaultPolicy() {
+        return new HttpKeepAlivePolicy(5, 5 * 60 * 1000L);
+    }
+
+    public int getMaxIdleConnections() {
+        return maxIdleConnections;
+    }
+
+    public long getKeepAliveDurationMillis() {
+        return keepAliveDurationMillis;
+    }
+
+    /**
+     * 设置进程内 HttpURLConnection 连接池的复用策略，只能调用一次，需在首次请求前调用
+     * 未调用时使用系统默认策略
+     * @param policy
+     * @throws IllegalStateException 已设置过策略
+     */
+    public static synchronized void install(HttpKeepAlivePolicy policy) {
+        if(policy == null) throw new IllegalArgumentException("policy is null");
+        if(installedPolicy != null) throw new IllegalStateException("keep-alive policy already installed");
+        installedPolicy = policy;
+        System.setProperty("http.keepAlive", String.valueOf(policy.maxIdleConnections > 0));
+        System.setProperty("http.maxConnections", String.valueOf(Math.max(1, policy.maxIdleConnections)));
+        System.setProperty("http.keepAliveDuration", String.valueOf(policy.keepAliveDurationMillis));
+    }
+
+    /**
+     * @return 已设置的策略，null 未设置（使用系统默认策略）
+     */
+    public static synchronized HttpKeepAlivePolicy getInstalledPolicy() {
+        return installedPolicy;
+    }
+}
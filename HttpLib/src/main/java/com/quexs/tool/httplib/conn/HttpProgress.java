@@ -0,0 +1,68 @@
+package com.quexs.tool.httplib.conn;
+
+/**
+ * 传输进度（下载进度、上传进度共用）
+ */
+public class HttpProgress {
+    //已传输长度
+    private final long transferLen;
+    //总长度，-1 未知
+    private final long transferTotal;
+    //瞬时速度（字节/秒）
+    private final double speed;
+    //平滑后的速度（字节/秒）
+    private final double averageSpeed;
+
+    protected HttpProgress(long transferLen, long transferTotal, double speed, double averageSpeed) {
+        this.transferLen = transferLen;
+        this.transferTotal = transferTotal;
+        this.speed = speed;
+        this.averageSpeed = averageSpeed;
+    }
+
+    protected long getTransferLen() {
+        return transferLen;
+    }
+
+    /**
+     * 总长度
+     * @return -1 未知
+     */
+    protected long getTransferTotal() {
+        return transferTotal;
+    }
+
+    /**
+     * 传输百分比（0-100）
+     * @return -1 总长度未知
+     */
+    public float getPercent() {
+        if(transferTotal <= 0) return -1;
+        return Math.min(100f, transferLen * 100f / transferTotal);
+    }
+
+    /**
+     * 最近一个采样周期的传输速度
+     * @return 字节/秒
+     */
+    public double getSpeed() {
+        return speed;
+    }
+
+    /**
+     * 平滑后的传输速度（指数加权移动平均），用于显示及估算剩余时间
+     * @return 字节/秒
+     */
+    public double getAverageSpeed() {
+        return averageSpeed;
+    }
+
+    /**
+     * 预计剩余时间
+     * @return 单位：毫秒，-1 无法估算（总长度未知或尚无速度）
+     */
+    public long getEta() {
+        if(transferTotal <= 0 || averageSpeed <= 0) return -1;
+        return (long) (Math.max(0, transferTotal - transferLen) * 1000 / averageSpeed);
+    }
+}
@@ -0,0 +1,82 @@
+package com.quexs.tool.httplib.conn;
+
+import java.util.concurrent.Executor;
+
+/**
+ * 传输进度回调设置（下载、上传共用）
+ * 按最小间隔、最小增量、百分比步长合并进度回调（同时满足已设置的条件才回调），传输完成前回调最终进度
+ * 设置回调线程后，监听的所有回调都在该线程池中按顺序执行（需为串行执行，如主线程 Handler）
+ */
+public class HttpProgressDispatcher {
+    //最小回调间隔（单位：毫秒）
+    private long minIntervalMillis;
+    //最小传输增量（单位：字节）
+    private long minBytes;
+    //百分比步长
+    private float percentStep;
+    //平均速度的平滑系数
+    private double smoothing = 0.3;
+    //回调线程池
+    private Executor executor;
+
+    /**
+     * 最小回调间隔
+     * @param minIntervalMillis 默认 0，不限制
+     */
+    public void setMinInterval(long minIntervalMillis) {
+        this.minIntervalMillis = minIntervalMillis;
+    }
+
+    /**
+     * 两次回调之间的最小传输增量
+     * @param minBytes 默认 0，不限制
+     */
+    public void setMinBytes(long minBytes) {
+        this.minBytes = minBytes;
+    }
+
+    /**
+     * 百分比步长，传输百分比每增加一个步长才回调（总长度未知时不生效）
+     * @param percentStep 如 1 表示每 1% 回调一次；默认 0，不限制
+     */
+    public void setPercentStep(float percentStep) {
+        this.percentStep = percentStep;
+    }
+
+    /**
+     * 平均速度的平滑系数，越大越接近瞬时速度
+     * @param smoothing 0-1，默认 0.3
+     */
+    public void setSmoothing(double smoothing) {
+        if(smoothing <= 0 || smoothing > 1) throw new IllegalArgumentException("smoothing:" + smoothing);
+        this.smoothing = smoothing;
+    }
+
+    /**
+     * 回调线程池
+     * @param executor null 在传输线程中回调（默认）
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    long getMinIntervalMillis() {
+        return minIntervalMillis;
+    }
+
+    long getMinBytes() {
+        return minBytes;
+    }
+
+    float getPercentStep() {
+        return percentStep;
+    }
+
+    double getSmoothing() {
+        return smoothing;
+    }
+
+    protected Executor getExecutor() {
+        return executor;
+    }
+}
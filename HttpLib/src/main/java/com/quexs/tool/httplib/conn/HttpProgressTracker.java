@@ -0,0 +1,137 @@
+package com.quexs.tool.httplib.conn;
+
+/**
+ * 传输进度合并及速度估算（下载、上传共用）
+ * 每次写入只更新计数，满足回调条件时才回调 onProgress（多线程传输时串行回调）
+ */
+public abstract class HttpProgressTracker {
+    //速度采样周期（单位：毫秒）
+    private static final long SPEED_SAMPLE_MILLIS = 250;
+
+    private final long minIntervalMillis;
+    private final long minBytes;
+    private final float percentStep;
+    private final double smoothing;
+
+    //最新的已传输长度
+    private long transferLen;
+    //最新的总长度，-1 未知
+    private long transferTotal = -1;
+    //上次回调时间，-1 尚未回调
+    private long dispatchMillis = -1;
+    //上次回调的已传输长度
+    private long dispatchLen;
+    //上次回调所在的百分比步数
+    private long dispatchStep = -1;
+    //是否有未回调的进度
+    private boolean isPending;
+    //速度采样
+    private long sampleMillis = -1;
+    private long sampleLen;
+    private double speed;
+    private double averageSpeed;
+
+    /**
+     * @param dispatcher null 不合并，每次写入都回调
+     */
+    protected HttpProgressTracker(HttpProgressDispatcher dispatcher) {
+        this.minIntervalMillis = dispatcher != null ? dispatcher.getMinIntervalMillis() : 0;
+        this.minBytes = dispatcher != null ? dispatcher.getMinBytes() : 0;
+        this.percentStep = dispatcher != null ? dispatcher.getPercentStep() : 0;
+        this.smoothing = dispatcher != null ? dispatcher.getSmoothing() : 0.3;
+    }
+
+    /**
+     * 重新开始传输
+     */
+    public synchronized void reset() {
+        transferLen = 0;
+        transferTotal = -1;
+        dispatchMillis = -1;
+        dispatchLen = 0;
+        dispatchStep = -1;
+        isPending = false;
+        sampleMillis = -1;
+        sampleLen = 0;
+        speed = 0;
+        averageSpeed = 0;
+    }
+
+    /**
+     * 更新进度
+     * @param transferLen 已传输长度
+     * @param transferTotal 总长度，-1 未知
+     */
+    public synchronized void update(long transferLen, long transferTotal) {
+        this.transferLen = transferLen;
+        this.transferTotal = transferTotal;
+        long now = now();
+        sampleSpeed(now);
+        boolean isFinish = transferTotal > 0 && transferLen >= transferTotal;
+        if(!isFinish && dispatchMillis >= 0){
+            if(now - dispatchMillis < minIntervalMillis || transferLen - dispatchLen < minBytes
+                    || (percentStep > 0 && transferTotal > 0 && getStep() <= dispatchStep)){
+                isPending = true;
+                return;
+            }
+        }
+        dispatch(now);
+    }
+
+    /**
+     * 回调尚未回调的最新进度（回调完成前调用）
+     */
+    public synchronized void flush() {
+        if(isPending) dispatch(now());
+    }
+
+    /**
+     * 回调进度（持有锁，多线程传输时串行执行）
+     */
+    protected abstract void onProgress(long transferLen, long transferTotal, double speed, double averageSpeed);
+
+    protected synchronized long getTransferLen() {
+        return transferLen;
+    }
+
+    protected synchronized long getTransferTotal() {
+        return transferTotal;
+    }
+
+    protected synchronized double getAverageSpeed() {
+        return averageSpeed;
+    }
+
+    private void dispatch(long now) {
+        dispatchMillis = now;
+        dispatchLen = transferLen;
+        dispatchStep = transferTotal > 0 ? getStep() : -1;
+        isPending = false;
+        onProgress(transferLen, transferTotal, speed, averageSpeed);
+    }
+
+    private long getStep() {
+        return percentStep > 0 ? (long) (transferLen * 100.0 / transferTotal / percentStep) : 0;
+    }
+
+    /**
+     * 每个采样周期计算一次瞬时速度，并按平滑系数更新平均速度
+     */
+    private void sampleSpeed(long now) {
+        if(sampleMillis < 0){
+            sampleMillis = now;
+            sampleLen = transferLen;
+            return;
+        }
+        long elapsed = now - sampleMillis;
+        if(elapsed < SPEED_SAMPLE_MILLIS) return;
+        speed = (transferLen - sampleLen) * 1000.0 / elapsed;
+        averageSpeed = averageSpeed <= 0 ? speed : smoothing * speed + (1 - smoothing) * averageSpeed;
+        sampleMillis = now;
+        sampleLen = transferLen;
+    }
+
+    protected static long now() {
+        return System.nanoTime() / 1000000L;
+    }
+}
@@ -0,0 +1,190 @@
+package com.quexs.tool.httplib.conn;
+
+import java.util.PriorityQueue;
+
+/**
+ * 传输限速（令牌桶）
+ * 可作为全局、HttpDownload/HttpUpload 实例或单个任务的限速，逐级等待令牌
+ * 同一限速下的多个传输按权重分配带宽（起始时间公平排队）：权重大的传输优先获得令牌，
+ * 只有一个传输时可用满全部速率
+ */
+public class HttpRateLimiter {
+    //全局限速
+    private static volatile HttpRateLimiter global;
+
+    //速率（字节/秒），0 不限速
+    private volatile long bytesPerSecond;
+    //令牌桶容量
+    private long burstBytes;
+    //当前令牌（可为负数，表示预支的字节数）
+    private double tokens;
+    private long refillNanos = System.nanoTime();
+    //虚拟时间：正在获得令牌的请求的起始标记
+    private double virtualTime;
+    private long sequence;
+    //等待令牌的请求，起始标记小的优先
+    private final PriorityQueue<Waiter> waiters = new PriorityQueue<>();
+
+    /**
+     * @param bytesPerSecond 速率（字节/秒），0 不限速
+     */
+    public HttpRateLimiter(long bytesPerSecond) {
+        setRate(bytesPerSecond);
+        tokens = burstBytes;
+    }
+
+    /**
+     * 设置全局限速，所有下载及上传共用
+     * @param limiter null 不限速
+     */
+    public static void setGlobal(HttpRateLimiter limiter) {
+        global = limiter;
+    }
+
+    public static HttpRateLimiter getGlobal() {
+        return global;
+    }
+
+    /**
+     * 调整速率，等待中的传输按新速率继续
+     * @param bytesPerSecond 0 不限速
+     */
+    public synchronized void setRate(long bytesPerSecond) {
+        if(bytesPerSecond < 0) throw new IllegalArgumentException("bytesPerSecond < 0");
+        refill(System.nanoTime());
+        this.bytesPerSecond = bytesPerSecond;
+        //最多积攒 1/4 秒的令牌，空闲后不会瞬间突发过多
+        this.burstBytes = Math.max(bytesPerSecond / 4, 8 * 1024);
+        tokens = Math.min(tokens, burstBytes);
+        notifyAll();
+    }
+
+    public long getRate() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * 创建一次传输，依次经过各级限速
+     * @param weight 带宽分配权重（大于 0，前台传输可设置较大的权重）
+     * @param limiters 任务、实例、全局等各级限速，可为 null
+     * @return null 没有限速
+     */
+    public static Transfer newTransfer(int weight, HttpRateLimiter... limiters) {
+        if(weight <= 0) throw new IllegalArgumentException("weight <= 0");
+        int count = 0;
+        for (HttpRateLimiter limiter : limiters) {
+            if(limiter != null) count++;
+        }
+        if(count == 0) return null;
+        HttpRateLimiter[] levels = new HttpRateLimiter[count];
+        int i = 0;
+        for (HttpRateLimiter limiter : limiters) {
+            //同一限速只计一次
+            if(limiter != null && !contains(levels, i, limiter)) levels[i++] = limiter;
+        }
+        HttpRateLimiter[] distinct = new HttpRateLimiter[i];
+        System.arraycopy(levels, 0, distinct, 0, i);
+        return new Transfer(weight, distinct);
+    }
+
+    private static boolean contains(HttpRateLimiter[] levels, int count, HttpRateLimiter limiter) {
+        for (int i = 0; i < count; i++) {
+            if(levels[i] == limiter) return true;
+        }
+        return false;
+    }
+
+    /**
+     * 获取令牌，令牌不足时等待
+     * @param transfer
+     * @param level 限速所在级别
+     * @param len 字节数
+     * @return false 等待被中断
+     */
+    private synchronized boolean acquire(Transfer transfer, int level, int len) {
+        if(bytesPerSecond <= 0) return true;
+        //起始标记：不早于虚拟时间及该传输上一次请求的结束标记
+        Waiter waiter = new Waiter(Math.max(virtualTime, transfer.finishTags[level]), sequence++);
+        transfer.finishTags[level] = waiter.tag + (double) len / transfer.weight;
+        waiters.add(waiter);
+        try {
+            while (true){
+                long rate = bytesPerSecond;
+                refill(System.nanoTime());
+                if(rate <= 0 || (waiters.peek() == waiter && tokens > 0)){
+                    waiters.remove(waiter);
+                    virtualTime = waiter.tag;
+                    //预支令牌，之后的请求等待补足
+                    tokens -= len;
+                    notifyAll();
+                    return true;
+                }
+                if(waiters.peek() == waiter){
+                    //补足令牌所需时间
+                    long waitNanos = (long) Math.ceil((1 - tokens) * 1000000000L / rate);
+                    wait(waitNanos / 1000000L, (int) (waitNanos % 1000000L));
+                }else {
+                    //等待排在前面的请求获得令牌
+                    wait();
+                }
+            }
+        }catch (InterruptedException e){
+            waiters.remove(waiter);
+            notifyAll();
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void refill(long now) {
+        if(bytesPerSecond > 0){
+            tokens = Math.min(burstBytes, tokens + (now - refillNanos) * (double) bytesPerSecond / 1000000000L);
+        }
+        refillNanos = now;
+    }
+
+    /**
+     * 一次传输（下载或上传任务），记录在各级限速中的排队标记
+     */
+    public static class Transfer {
+        private final int weight;
+        private final HttpRateLimiter[] levels;
+        //各级限速中上一次请求的结束标记（由对应限速的锁保护）
+        private final double[] finishTags;
+
+        private Transfer(int weight, HttpRateLimiter[] levels) {
+            this.weight = weight;
+            this.levels = levels;
+            this.finishTags = new double[levels.length];
+        }
+
+        /**
+         * 传输前获取令牌，按各级限速依次等待
+         * @param len 字节数
+         * @return false 等待被中断
+         */
+        public boolean acquire(int len) {
+            if(len <= 0) return true;
+            for (int i = 0; i < levels.length; i++) {
+                if(!levels[i].acquire(this, i, len)) return false;
+            }
+            return true;
+        }
+    }
+
+    private static class Waiter implements Comparable<Waiter> {
+        private final double tag;
+        private final long sequence;
+
+        Waiter(double tag, long sequence) {
+            this.tag = tag;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Waiter o) {
+            int result = Double.compare(tag, o.tag);
+            return result != 0 ? result : Long.compare(sequence, o.sequence);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.quexs.tool.httplib.conn;
+
+import java.io.IOException;
+
+/**
+ * 服务端返回非成功响应码
+ * 记录响应码及 Retry-After 题头，供重试策略判断
+ */
+public class HttpResponseException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final int responseCode;
+    //Retry-After 题头，可为 null
+    private final String retryAfter;
+
+    public HttpResponseException(String message, int responseCode, String retryAfter) {
+        super(message);
+        this.responseCode = responseCode;
+        this.retryAfter = retryAfter;
+    }
+
+    public int getResponseCode() {
+        return responseCode;
+    }
+
+    public String getRetryAfter() {
+        return retryAfter;
+    }
+}
@@ -0,0 +1,205 @@
+package com.quexs.tool.httplib.conn;
+
+import android.text.TextUtils;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.security.cert.CertificateException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLHandshakeException;
+import javax.net.ssl.SSLPeerUnverifiedException;
+
+/**
+ * 失败重试策略
+ * 网络异常及可重试的响应码（默认 408/429/500/502/503/504）按指数退避加随机抖动重试，Retry-After 优先
+ * 退避期间不占用线程：由重试调度线程计时，到时后重新提交至线程池排队
+ * 非幂等请求（普通上传 POST）默认只在请求未发出（连接失败）或服务端明确未处理（408/429/503）时重试
+ */
+public class HttpRetryPolicy {
+    //默认可重试的响应码
+    private static final int[] DEFAULT_RETRYABLE_CODES = {408, 429, 500, 502, 503, 504};
+    //服务端未处理请求的响应码，非幂等请求也可重试
+    private static final int[] UNPROCESSED_CODES = {408, 429, 503};
+    private static final Random RANDOM = new Random();
+    //重试调度线程（所有重试共用）
+    private static ScheduledThreadPoolExecutor scheduler;
+
+    //最大尝试次数（含首次请求）
+    private final int maxAttempts;
+    //首次重试的退避时间（单位：毫秒）
+    private long baseDelayMillis = 1000;
+    //最大退避时间（单位：毫秒）
+    private long maxDelayMillis = 30 * 1000;
+    //Retry-After 超过该时间时不再重试（单位：毫秒）
+    private long maxRetryAfterMillis = 60 * 1000;
+    //可重试的响应码
+    private Set<Integer> retryableCodes = toSet(DEFAULT_RETRYABLE_CODES);
+    //非幂等请求是否按幂等请求重试
+    private boolean isRetryNonIdempotent;
+
+    /**
+     * @param maxAttempts 最大尝试次数（含首次请求），1 不重试
+     */
+    public HttpRetryPolicy(int maxAttempts) {
+        if(maxAttempts < 1) throw new IllegalArgumentException("maxAttempts < 1");
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * 设置退避时间：第 n 次重试的退避上限为 baseDelayMillis * 2^(n-1)（不超过 maxDelayMillis），
+     * 实际退避时间在上限的 1/2 至上限之间随机，避免大量请求同时重试
+     * @param baseDelayMillis 默认 1 秒
+     * @param maxDelayMillis 默认 30 秒
+     */
+    public void setBackoff(long baseDelayMillis, long maxDelayMillis) {
+        if(baseDelayMillis < 0 || maxDelayMillis < baseDelayMillis) throw new IllegalArgumentException("backoff:" + baseDelayMillis + "-" + maxDelayMillis);
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * 服务端要求的 Retry-After 超过该时间时不再重试
+     * @param maxRetryAfterMillis 默认 60 秒
+     */
+    public void setMaxRetryAfter(long maxRetryAfterMillis) {
+        this.maxRetryAfterMillis = maxRetryAfterMillis;
+    }
+
+    /**
+     * 设置可重试的响应码
+     * @param codes 默认 408/429/500/502/503/504
+     */
+    public void setRetryableCodes(int... codes) {
+        this.retryableCodes = toSet(codes);
+    }
+
+    /**
+     * 非幂等请求是否按幂等请求重试（服务端可识别重复请求时开启）
+     * @param isRetryNonIdempotent 默认 false
+     */
+    public void setRetryNonIdempotent(boolean isRetryNonIdempotent) {
+        this.isRetryNonIdempotent = isRetryNonIdempotent;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * 计算重试前的等待时间
+     * @param e 本次失败的异常
+     * @param retryCount 已重试次数
+     * @param isIdempotent 请求是否幂等（可安全地重复发送）
+     * @return 等待时间（单位：毫秒），-1 不重试
+     */
+    public long getRetryDelay(Exception e, int retryCount, boolean isIdempotent) {
+        if(retryCount + 1 >= maxAttempts) return -1;
+        boolean canResend = isIdempotent || isRetryNonIdempotent;
+        long retryAfterMillis = 0;
+        if(e instanceof HttpResponseException){
+            int responseCode = ((HttpResponseException) e).getResponseCode();
+            if(!retryableCodes.contains(responseCode)) return -1;
+            if(!canResend && !contains(UNPROCESSED_CODES, responseCode)) return -1;
+            retryAfterMillis = parseRetryAfter(((HttpResponseException) e).getRetryAfter());
+            if(retryAfterMillis > maxRetryAfterMillis) return -1;
+        }else if(!isRetryableException(e, canResend)){
+            return -1;
+        }
+        return Math.max(retryAfterMillis, getBackoffMillis(retryCount));
+    }
+
+    /**
+     * 指数退避（等值抖动）
+     */
+    private long getBackoffMillis(int retryCount) {
+        long ceilMillis = Math.min(maxDelayMillis, baseDelayMillis * (1L << Math.min(retryCount, 20)));
+        long half = ceilMillis / 2;
+        return half + (long) (RANDOM.nextDouble() * (ceilMillis - half));
+    }
+
+    /**
+     * 网络异常是否可重试：本地文件不存在、证书校验失败不重试；
+     * 不可重复发送的请求只在连接未建立时重试
+     */
+    private static boolean isRetryableException(Exception e, boolean canResend) {
+        if(!(e instanceof IOException)) return false;
+        if(e instanceof FileNotFoundException || e instanceof SSLPeerUnverifiedException) return false;
+        if(e instanceof SSLHandshakeException && e.getCause() instanceof CertificateException) return false;
+        if(canResend) return true;
+        return e instanceof ConnectException || e instanceof NoRouteToHostException || e instanceof UnknownHostException;
+    }
+
+    /**
+     * 解析 Retry-After：秒数或 HTTP 日期
+     * @return 等待时间（单位：毫秒），无法解析时为 0
+     */
+    static long parseRetryAfter(String retryAfter) {
+        if(TextUtils.isEmpty(retryAfter)) return 0;
+        String value = retryAfter.trim();
+        try {
+            return Math.max(0, Long.parseLong(value) * 1000);
+        }catch (NumberFormatException e){
+            //HTTP 日期
+        }
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            Date date = format.parse(value);
+            return Math.max(0, date.getTime() - System.currentTimeMillis());
+        }catch (ParseException e){
+            return 0;
+        }
+    }
+
+    /**
+     * 延迟执行重试（在重试调度线程中执行，需尽快返回，如重新提交至线程池）
+     * @param runnable
+     * @param delayMillis 等待时间（单位：毫秒）
+     */
+    public static void schedule(Runnable runnable, long delayMillis) {
+        getScheduler().schedule(runnable, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static synchronized ScheduledThreadPoolExecutor getScheduler() {
+        if(scheduler == null){
+            scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "HttpRetry");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return scheduler;
+    }
+
+    private static Set<Integer> toSet(int[] codes) {
+        Set<Integer> set = new HashSet<>();
+        for (int code : codes) {
+            set.add(code);
+        }
+        return set;
+    }
+
+    private static boolean contains(int[] codes, int code) {
+        for (int c : codes) {
+            if(c == code) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,23 @@
+package com.quexs.tool.httplib.conn;
+
+import androidx.annotation.IntDef;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+public class HttpTransport {
+
+    @IntDef({TransportCode.URL_CONNECTION,
+            TransportCode.NIO,
+            TransportCode.HTTP2})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface TransportCode{
+        //HttpsURLConnection，每个任务占用一个线程
+        int URL_CONNECTION = 0;
+        //NIO SocketChannel + SSLEngine，单个 Selector 线程处理所有连接
+        int NIO = 1;
+        //HTTP/2，同一主机的请求复用一个连接（需 Android 10 及以上支持 ALPN，否则使用 HttpsURLConnection）
+        int HTTP2 = 2;
+
+    }
+}
@@ -0,0 +1,22 @@
+package com.quexs.tool.httplib.download;
+
+import java.io.IOException;
+
+/**
+ * 下载链接的主机处于熔断中，未发起请求
+ */
+public class HttpCircuitOpenException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    //熔断剩余时间（单位：毫秒）
+    private final long remainingMillis;
+
+    public HttpCircuitOpenException(String url, long remainingMillis) {
+        super("circuit open:" + url);
+        this.remainingMillis = remainingMillis;
+    }
+
+    public long getRemainingMillis() {
+        return remainingMillis;
+    }
+}
@@ -2,7 +2,16 @@ package com.quexs.tool.httplib.download;
 
 import android.util.ArrayMap;
 
+import com.quexs.tool.httplib.cache.HttpDiskCache;
+import com.quexs.tool.httplib.conn.HttpRateLimiter;
+import com.quexs.tool.httplib.conn.HttpRetryPolicy;
+import com.quexs.tool.httplib.conn.HttpTransport;
+import com.quexs.tool.httplib.http2.Http2ConnectionPool;
+import com.quexs.tool.httplib.nio.HttpNioEngine;
+
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -15,8 +24,30 @@ import java.util.concurrent.locks.ReentrantLock;
 public class HttpDownload {
 
     private final ThreadPoolExecutor threadPool;
-    private final ArrayMap<Object, HttpDownloadRunnable> keyMap = new ArrayMap<>();
+    private final ArrayMap<Object, HttpDownloadGroup> keyMap = new ArrayMap<>();
+    //合并中的下载（同一链接只传输一次）
+    private final ArrayMap<String, HttpDownloadGroup> coalesceMap = new ArrayMap<>();
     private final ReentrantLock lock;
+    //传输方式
+    private @HttpTransport.TransportCode int transport = HttpTransport.TransportCode.URL_CONNECTION;
+    //并发自适应控制
+    private HttpDownloadConcurrency concurrency;
+    //优先级老化间隔（单位：毫秒），0 不老化
+    private long agingIntervalMillis;
+    //是否合并同一链接的下载
+    private boolean isCoalesce;
+    //响应磁盘缓存
+    private HttpDiskCache diskCache;
+    //实例限速
+    private HttpRateLimiter rateLimiter;
+    //下载进度回调设置
+    private HttpDownloadProgressDispatcher progressDispatcher;
+    //实例重试策略
+    private HttpRetryPolicy retryPolicy;
+    //单主机熔断
+    private HttpDownloadCircuitBreaker circuitBreaker;
+    //请求对冲
+    private HttpDownloadHedging hedging;
 
     public HttpDownload(){
         int cpuCount = Runtime.getRuntime().availableProcessors();
@@ -33,51 +64,310 @@ public class HttpDownload {
 
     /**
      * 添加下载
+     * objKey 已存在时替换其下载监听；链接与下载中的相同时加入该下载，共用一次传输
      * @param httpDownloadRunnable
      * @param httpDownloadListener
      */
-    public void addDownload(HttpDownloadRunnable httpDownloadRunnable, HttpDownloadListener httpDownloadListener){
+    public void addDownload(final HttpDownloadRunnable httpDownloadRunnable, HttpDownloadListener httpDownloadListener){
+        if(progressDispatcher != null){
+            //在回调线程池中回调
+            httpDownloadListener = progressDispatcher.wrap(httpDownloadListener);
+        }
         lock.lock();
-        HttpDownloadRunnable exitHttpDownloadRunnable = keyMap.get(httpDownloadRunnable.getObjKey());
-        if(exitHttpDownloadRunnable != null){
-            exitHttpDownloadRunnable.setHttpDownloadListener(httpDownloadListener);
-        }else {
-            httpDownloadRunnable.setHttpDownloadRunnableEndListener(new HttpDownloadRunnable.HttpDownloadRunnableEndListener() {
-                @Override
-                public void endDownload(Object objKey) {
+        try {
+            HttpDownloadGroup exitHttpDownloadGroup = keyMap.get(httpDownloadRunnable.getObjKey());
+            String coalesceKey = isCoalesce ? HttpDownloadGroup.getCoalesceKey(httpDownloadRunnable) : null;
+            HttpDownloadGroup coalesceGroup = coalesceKey != null ? coalesceMap.get(coalesceKey) : null;
+            if(coalesceGroup != null && !coalesceGroup.isCoalescible(httpDownloadRunnable)){
+                //任务设置不同，单独传输（不替换合并中的下载）
+                coalesceGroup = null;
+                coalesceKey = null;
+            }
+            if(exitHttpDownloadGroup != null){
+                exitHttpDownloadGroup.setListener(httpDownloadRunnable.getObjKey(), httpDownloadListener);
+            }else if(coalesceGroup != null && coalesceGroup.addMember(httpDownloadRunnable.getObjKey(), httpDownloadRunnable.getSaveFilePath(), httpDownloadListener)){
+                //已合并至下载中的同一链接
+                keyMap.put(httpDownloadRunnable.getObjKey(), coalesceGroup);
+            }else {
+                final HttpDownloadGroup httpDownloadGroup = new HttpDownloadGroup(httpDownloadRunnable, coalesceKey);
+                httpDownloadGroup.addMember(httpDownloadRunnable.getObjKey(), httpDownloadRunnable.getSaveFilePath(), httpDownloadListener);
+                httpDownloadRunnable.setHttpDownloadRunnableEndListener(new HttpDownloadRunnable.HttpDownloadRunnableEndListener() {
+                    @Override
+                    public void endDownload(Object objKey) {
+                        endDownloadGroup(httpDownloadGroup);
+                        if(concurrency != null){
+                            concurrency.onTaskEnd(httpDownloadRunnable);
+                        }
+                    }
+                });
+                httpDownloadRunnable.setHttpDownloadListener(httpDownloadGroup);
+                //分段下载共用下载线程池
+                httpDownloadRunnable.setSegmentExecutor(threadPool);
+                httpDownloadRunnable.setConcurrency(concurrency);
+                httpDownloadRunnable.setPriorityAging(agingIntervalMillis);
+                httpDownloadRunnable.setDiskCache(diskCache);
+                httpDownloadRunnable.setInstanceRateLimiter(rateLimiter);
+                httpDownloadRunnable.setProgressDispatcher(progressDispatcher);
+                httpDownloadRunnable.setInstanceRetryPolicy(retryPolicy);
+                httpDownloadRunnable.setCircuitBreaker(circuitBreaker);
+                httpDownloadRunnable.setHedging(hedging);
+                keyMap.put(httpDownloadRunnable.getObjKey(),httpDownloadGroup);
+                if(coalesceKey != null){
+                    coalesceMap.put(coalesceKey, httpDownloadGroup);
+                }
+                try {
+                    if(!executeNio(httpDownloadRunnable) && !executeHttp2(httpDownloadRunnable)){
+                        //超出单主机并发上限时等待
+                        httpDownloadRunnable.submit();
+                    }
+                }catch (RuntimeException e){
+                    //线程池已关闭，移出未执行的下载
+                    keyMap.remove(httpDownloadRunnable.getObjKey());
+                    if(coalesceKey != null){
+                        coalesceMap.remove(coalesceKey);
+                    }
+                    throw e;
+                }
+            }
+        }finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 下载结束，移出合并的所有下载
+     */
+    private void endDownloadGroup(HttpDownloadGroup httpDownloadGroup){
+        lock.lock();
+        try {
+            for (Object objKey : httpDownloadGroup.getMemberKeys()) {
+                if(keyMap.get(objKey) == httpDownloadGroup){
                     keyMap.remove(objKey);
                 }
-            });
-            httpDownloadRunnable.setHttpDownloadListener(httpDownloadListener);
-            keyMap.put(httpDownloadRunnable.getObjKey(),httpDownloadRunnable);
-            threadPool.execute(httpDownloadRunnable);
+            }
+            String coalesceKey = httpDownloadGroup.getCoalesceKey();
+            if(coalesceKey != null && coalesceMap.get(coalesceKey) == httpDownloadGroup){
+                coalesceMap.remove(coalesceKey);
+            }
+        }finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 使用 NIO 传输执行下载
+     * @return false 不支持 NIO 传输，需使用线程池执行
+     */
+    private boolean executeNio(HttpDownloadRunnable httpDownloadRunnable){
+        if(transport != HttpTransport.TransportCode.NIO || !isSharedTransport(httpDownloadRunnable)) return false;
+        try {
+            HttpNioEngine.getInstance().execute(new HttpDownloadNioCall(httpDownloadRunnable, HttpNioEngine.getInstance()));
+            return true;
+        }catch (Exception e){
+            //链接不支持或无法打开 Selector
+            return false;
+        }
+    }
+
+    /**
+     * 使用 HTTP/2 传输执行下载，同一主机的下载共用一个连接
+     * @return false 不支持 HTTP/2 传输，需使用线程池执行
+     */
+    private boolean executeHttp2(HttpDownloadRunnable httpDownloadRunnable){
+        if(transport != HttpTransport.TransportCode.HTTP2 || !isSharedTransport(httpDownloadRunnable)) return false;
+        try {
+            //主机不支持 HTTP/2 时改由线程池执行
+            Http2ConnectionPool.getInstance().execute(new HttpDownloadHttp2Call(httpDownloadRunnable));
+            return true;
+        }catch (Exception e){
+            //非 https 链接
+            return false;
+        }
+    }
+
+    /**
+     * 是否可使用 NIO、HTTP/2 传输：未启用缓存、压缩、限速、重试、熔断及请求对冲的普通下载
+     */
+    private boolean isSharedTransport(HttpDownloadRunnable httpDownloadRunnable){
+        return diskCache == null && circuitBreaker == null && hedging == null && !httpDownloadRunnable.isCompression() && !httpDownloadRunnable.isRateLimited()
+                && httpDownloadRunnable.getRetryPolicy() == null
+                && httpDownloadRunnable.getClass() == HttpDownloadRunnable.class
+                && httpDownloadRunnable.isPlainDownload();
+    }
+
+    /**
+     * 调整下载优先级，排队中的下载（含分段下载辅助线程）按新优先级重新排队
+     * 已开始执行及使用 NIO、HTTP/2 传输的下载不受影响
+     * @param objKey
+     * @param priority
+     * @return false 下载不存在
+     */
+    public boolean reprioritize(Object objKey, long priority){
+        lock.lock();
+        try {
+            HttpDownloadGroup httpDownloadGroup = keyMap.get(objKey);
+            if(httpDownloadGroup == null) return false;
+            //合并的下载调整执行传输的下载
+            HttpDownloadRunnable httpDownloadRunnable = httpDownloadGroup.getHttpDownloadRunnable();
+            Object runnableKey = httpDownloadRunnable.getObjKey();
+            //从线程池队列中移出同一下载的任务
+            List<HttpDownloadRunnable> queuedRunnables = new ArrayList<>();
+            for (Runnable runnable : threadPool.getQueue().toArray(new Runnable[0])) {
+                if(!(runnable instanceof HttpDownloadRunnable)) continue;
+                HttpDownloadRunnable queued = (HttpDownloadRunnable) runnable;
+                Object queuedKey = queued.getObjKey();
+                boolean isSameKey = runnableKey == null ? queuedKey == null : runnableKey.equals(queuedKey);
+                if(isSameKey && threadPool.getQueue().remove(queued)){
+                    queuedRunnables.add(queued);
+                }
+            }
+            if(queuedRunnables.isEmpty() && (concurrency == null || !concurrency.reprioritize(httpDownloadRunnable, priority))){
+                httpDownloadRunnable.setPriority(priority);
+            }
+            for (HttpDownloadRunnable queued : queuedRunnables) {
+                queued.setPriority(priority);
+                threadPool.execute(queued);
+            }
+            return true;
+        }finally {
+            lock.unlock();
         }
-        lock.unlock();
     }
 
     /**
      * 取消下载
+     * 合并的下载只移出该 objKey，所有加入的下载都取消后才取消传输
      * @param objKey null 移除所有线程
      */
     public void cancelDownload(Object objKey){
         lock.lock();
-        if(objKey == null){
-            Iterator<Map.Entry<Object, HttpDownloadRunnable>> it = keyMap.entrySet().iterator();
-            while (it.hasNext()){
-                Map.Entry<Object,HttpDownloadRunnable> entry = it.next();
-                HttpDownloadRunnable httpDownloadRunnable = entry.getValue();
-                //取消下载请求
-                httpDownloadRunnable.cancelDownload();
-                //移出key
-                it.remove();
-            }
-        }else {
-            HttpDownloadRunnable httpDownloadRunnable = keyMap.remove(objKey);
-            if(httpDownloadRunnable != null){
-                httpDownloadRunnable.cancelDownload();
+        try {
+            if(objKey == null){
+                Iterator<Map.Entry<Object, HttpDownloadGroup>> it = keyMap.entrySet().iterator();
+                while (it.hasNext()){
+                    Map.Entry<Object,HttpDownloadGroup> entry = it.next();
+                    HttpDownloadRunnable httpDownloadRunnable = entry.getValue().getHttpDownloadRunnable();
+                    //取消下载请求
+                    httpDownloadRunnable.cancelDownload();
+                    //移出key
+                    it.remove();
+                }
+                coalesceMap.clear();
+            }else {
+                HttpDownloadGroup httpDownloadGroup = keyMap.remove(objKey);
+                if(httpDownloadGroup != null && httpDownloadGroup.removeMember(objKey) == 0){
+                    httpDownloadGroup.getHttpDownloadRunnable().cancelDownload();
+                    String coalesceKey = httpDownloadGroup.getCoalesceKey();
+                    if(coalesceKey != null && coalesceMap.get(coalesceKey) == httpDownloadGroup){
+                        coalesceMap.remove(coalesceKey);
+                    }
+                }
             }
+        }finally {
+            lock.unlock();
         }
-        lock.unlock();
+    }
+
+    /**
+     * 设置是否合并同一链接的下载（默认不合并）
+     * 链接、验证方式、压缩方式及任务设置（限速、重试、镜像链接、缓冲区、优先级）相同的普通下载共用一次传输，
+     * 保存路径不同的下载完成后复制文件；断点续传及分段下载不合并
+     * @param isCoalesce
+     */
+    public void setCoalesce(boolean isCoalesce){
+        this.isCoalesce = isCoalesce;
+    }
+
+    /**
+     * 设置传输方式
+     * NIO 传输由单个 Selector 线程处理所有普通下载，断点续传及分段下载仍使用线程池
+     * HTTP/2 传输同一主机的普通 https 下载共用一个连接，主机不支持时使用线程池
+     * @param transport 默认 HttpsURLConnection
+     */
+    public void setTransport(@HttpTransport.TransportCode int transport){
+        this.transport = transport;
+    }
+
+    /**
+     * 设置并发自适应控制（需在添加下载前设置）
+     * 根据吞吐量及响应延迟在上下限内调整线程池大小，并限制单主机并发数
+     * @param concurrency null 固定线程数
+     */
+    public void setConcurrency(HttpDownloadConcurrency concurrency){
+        if(concurrency != null){
+            concurrency.attach(threadPool);
+        }
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * 设置优先级老化，避免低优先级的下载一直等待（需在添加下载前设置）
+     * 排队时间每达到一个间隔，相当于优先级提升 1（升序时减 1，降序时加 1）
+     * @param agingIntervalMillis 0 不老化（默认）
+     */
+    public void setPriorityAging(long agingIntervalMillis){
+        this.agingIntervalMillis = agingIntervalMillis;
+    }
+
+    /**
+     * 设置响应磁盘缓存（需在添加下载前设置）
+     * 普通下载在缓存有效期内直接使用缓存文件，过期后发起条件请求，304 时使用缓存文件
+     * 启用缓存后普通下载使用线程池执行（不使用 NIO、HTTP/2 传输）
+     * @param diskCache null 不缓存
+     */
+    public void setDiskCache(HttpDiskCache diskCache){
+        this.diskCache = diskCache;
+    }
+
+    /**
+     * 设置实例限速，该实例的所有下载共用（需在添加下载前设置）
+     * 限速的下载使用线程池执行（不使用 NIO、HTTP/2 传输）
+     * @param rateLimiter null 不限速
+     */
+    public void setRateLimiter(HttpRateLimiter rateLimiter){
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * 设置下载进度回调（需在添加下载前设置）
+     * 合并频繁的进度回调，提供长整型文件长度及下载速度、剩余时间（监听实现 HttpDownloadProgressListener），
+     * 可指定回调线程
+     * @param progressDispatcher null 每次写入都回调（默认）
+     */
+    public void setProgressDispatcher(HttpDownloadProgressDispatcher progressDispatcher){
+        this.progressDispatcher = progressDispatcher;
+    }
+
+    /**
+     * 设置实例重试策略，该实例的所有下载默认使用（需在添加下载前设置）
+     * 失败的下载按策略退避后重新排队，断点续传及启用重试的下载从已下载位置继续；
+     * 重试中的下载不回调失败，重试用尽后才回调 downloadError
+     * 启用重试的下载使用线程池执行（不使用 NIO、HTTP/2 传输）
+     * @param retryPolicy null 不重试（默认）
+     */
+    public void setRetryPolicy(HttpRetryPolicy retryPolicy){
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * 设置单主机熔断（需在添加下载前设置）
+     * 主机连续失败时，排队中的该主机下载不再等待连接超时，立即失败或推迟至熔断结束，线程留给其他主机的下载
+     * 启用熔断后下载使用线程池执行（不使用 NIO、HTTP/2 传输）
+     * @param circuitBreaker null 不熔断（默认）
+     */
+    public void setCircuitBreaker(HttpDownloadCircuitBreaker circuitBreaker){
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * 设置请求对冲（需在添加下载前设置），适合对延迟敏感的小文件下载
+     * 普通下载在对冲延迟（最近响应延迟的百分位数）内未收到响应时，向镜像链接（HttpDownloadRunnable.setMirrorUrl，
+     * 未设置时为原链接）再发起一个请求，先完成的请求生效，另一个请求断开；两个请求分别写入临时文件
+     * 启用请求对冲后下载使用线程池执行（不使用 NIO、HTTP/2 传输），对冲请求与下载同优先级排队
+     * @param hedging null 不对冲（默认）
+     */
+    public void setHedging(HttpDownloadHedging hedging){
+        this.hedging = hedging;
     }
 
     /**
@@ -0,0 +1,253 @@
+package com.quexs.tool.httplib.download;
+
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 下载单主机熔断
+ * 按主机统计最近若干次请求的结果，失败（网络异常、5xx/408/429）及慢响应的比例达到阈值时熔断：
+ * 熔断期间该主机的下载立即失败（回调 HttpCircuitOpenException）或推迟至熔断结束后重新排队，不占用线程；
+ * 熔断时间结束后进入半开状态，只放行一个探测请求，由探测请求的结果决定恢复或再次熔断（熔断前发起的请求结果不计）
+ * 每个主机的请求结果（成功及失败）都记入统计窗口，主机数超出上限时只淘汰窗口内没有失败记录的主机
+ */
+public class HttpDownloadCircuitBreaker {
+    //半开状态下探测请求未结束时，推迟的下载再次检查的间隔（单位：毫秒）
+    private static final long HALF_OPEN_RECHECK_MILLIS = 1000;
+    //保留统计的主机数上限，超出时淘汰没有失败记录的主机
+    private static final int MAX_HOSTS = 64;
+
+    //统计最近的请求数
+    private int windowSize = 20;
+    //开始判定熔断的最少请求数
+    private int minCalls = 5;
+    //失败比例阈值
+    private float failureRateThreshold = 0.5f;
+    //慢响应阈值（单位：毫秒），0 不统计
+    private long slowCallMillis;
+    //熔断时间（单位：毫秒）
+    private long openMillis = 30 * 1000;
+    //熔断时是否推迟下载（false 立即失败）
+    private boolean isDeferWhenOpen = true;
+
+    //各主机状态
+    private final Map<String, Circuit> circuits = new HashMap<>();
+
+    /**
+     * 设置统计窗口
+     * @param windowSize 统计最近的请求数，默认 20
+     * @param minCalls 开始判定熔断的最少请求数，默认 5
+     */
+    public synchronized void setWindow(int windowSize, int minCalls) {
+        if(windowSize < 1 || minCalls < 1 || minCalls > windowSize) throw new IllegalArgumentException("window:" + windowSize + "/" + minCalls);
+        this.windowSize = windowSize;
+        this.minCalls = minCalls;
+        circuits.clear();
+    }
+
+    /**
+     * 失败比例阈值（慢响应计为失败）
+     * @param failureRateThreshold 0-1，默认 0.5
+     */
+    public synchronized void setFailureRateThreshold(float failureRateThreshold) {
+        if(failureRateThreshold <= 0 || failureRateThreshold > 1) throw new IllegalArgumentException("failureRateThreshold:" + failureRateThreshold);
+        this.failureRateThreshold = failureRateThreshold;
+    }
+
+    /**
+     * 慢响应阈值：发起连接至收到响应题头超过该时间计为失败
+     * @param slowCallMillis 0 不统计（默认）
+     */
+    public synchronized void setSlowCallThreshold(long slowCallMillis) {
+        this.slowCallMillis = slowCallMillis;
+    }
+
+    /**
+     * 熔断时间，结束后放行一个探测请求（探测请求超过该时间未结束时再放行一个）
+     * @param openMillis 默认 30 秒
+     */
+    public synchronized void setOpenDuration(long openMillis) {
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * 熔断时的处理方式
+     * @param isDeferWhenOpen true 推迟至熔断结束后重新排队（默认）；false 立即回调 downloadError
+     */
+    public synchronized void setDeferWhenOpen(boolean isDeferWhenOpen) {
+        this.isDeferWhenOpen = isDeferWhenOpen;
+    }
+
+    synchronized boolean isDeferWhenOpen() {
+        return isDeferWhenOpen;
+    }
+
+    /**
+     * 主机是否处于熔断中
+     * @param url 下载链接
+     */
+    public synchronized boolean isOpen(String url) {
+        Circuit circuit = circuits.get(getHost(url));
+        return circuit != null && circuit.state != Circuit.CLOSED;
+    }
+
+    /**
+     * 请求前检查主机是否可用，熔断结束后放行探测请求
+     * @param url 下载链接
+     * @param caller 发起请求的下载任务，被放行为探测请求时只有其结果改变熔断状态
+     * @return 0 可发起请求；大于 0 需等待的时间（单位：毫秒）
+     */
+    synchronized long acquire(String url, Object caller) {
+        Circuit circuit = circuits.get(getHost(url));
+        if(circuit == null || circuit.state == Circuit.CLOSED) return 0;
+        long now = System.currentTimeMillis();
+        if(circuit.state == Circuit.OPEN){
+            if(now < circuit.openUntilMillis) return circuit.openUntilMillis - now;
+            circuit.state = Circuit.HALF_OPEN;
+            circuit.probe = null;
+        }
+        //半开：没有探测请求或探测请求超时未结束时放行一个
+        if(circuit.probe == null || circuit.probe == caller || now - circuit.probeMillis >= openMillis){
+            circuit.probe = caller;
+            circuit.probeMillis = now;
+            return 0;
+        }
+        return HALF_OPEN_RECHECK_MILLIS;
+    }
+
+    /**
+     * 下载任务结束（含未发起请求即结束，如命中缓存、取消），探测请求未记录结果时放行下一个探测请求
+     * @param url 下载链接
+     * @param caller 下载任务
+     */
+    synchronized void release(String url, Object caller) {
+        Circuit circuit = circuits.get(getHost(url));
+        if(circuit != null && circuit.state == Circuit.HALF_OPEN && circuit.probe == caller){
+            circuit.probe = null;
+        }
+    }
+
+    /**
+     * 记录收到响应
+     * @param url 下载链接
+     * @param caller 下载任务
+     * @param latencyMillis 发起连接至收到响应题头的时间，未知时为 0
+     */
+    synchronized void onResponse(String url, Object caller, long latencyMillis) {
+        record(url, caller, slowCallMillis > 0 && latencyMillis >= slowCallMillis);
+    }
+
+    /**
+     * 记录请求失败（网络异常或服务端暂时不可用）
+     * @param url 下载链接
+     * @param caller 下载任务
+     */
+    synchronized void onFailure(String url, Object caller) {
+        record(url, caller, true);
+    }
+
+    private void record(String url, Object caller, boolean isFailure) {
+        String host = getHost(url);
+        Circuit circuit = circuits.get(host);
+        if(circuit == null){
+            evictHealthyHosts();
+            circuit = new Circuit(windowSize);
+            circuits.put(host, circuit);
+        }
+        switch (circuit.state){
+            case Circuit.OPEN:
+                //熔断前发起的请求，不再统计
+                return;
+            case Circuit.HALF_OPEN:
+                //只有探测请求的结果改变熔断状态
+                if(circuit.probe != caller) return;
+                if(isFailure){
+                    open(circuit);
+                }else {
+                    circuit.state = Circuit.CLOSED;
+                    circuit.probe = null;
+                    circuit.add(false);
+                }
+                return;
+            default:
+                circuit.add(isFailure);
+                if(circuit.count >= minCalls && circuit.failures >= circuit.count * failureRateThreshold){
+                    open(circuit);
+                }
+        }
+    }
+
+    private void open(Circuit circuit) {
+        circuit.state = Circuit.OPEN;
+        circuit.openUntilMillis = System.currentTimeMillis() + openMillis;
+        circuit.probe = null;
+        circuit.reset();
+    }
+
+    /**
+     * 主机数达到上限时淘汰统计窗口内全部成功的主机
+     */
+    private void evictHealthyHosts() {
+        if(circuits.size() < MAX_HOSTS) return;
+        Iterator<Circuit> it = circuits.values().iterator();
+        while (it.hasNext()){
+            Circuit circuit = it.next();
+            if(circuit.state == Circuit.CLOSED && circuit.failures == 0){
+                it.remove();
+            }
+        }
+    }
+
+    private static String getHost(String url) {
+        try {
+            URL u = new URL(url);
+            return u.getHost().toLowerCase(Locale.US) + ":" + (u.getPort() != -1 ? u.getPort() : u.getDefaultPort());
+        }catch (Exception e){
+            return "";
+        }
+    }
+
+    /**
+     * 单个主机的熔断状态及最近的请求结果
+     */
+    private static class Circuit {
+        static final int CLOSED = 0;
+        static final int OPEN = 1;
+        static final int HALF_OPEN = 2;
+
+        int state = CLOSED;
+        long openUntilMillis;
+        //半开状态下放行的探测请求（下载任务）
+        Object probe;
+        //探测请求放行时间
+        long probeMillis;
+        //最近的请求结果（环形）
+        private final boolean[] results;
+        private int next;
+        int count;
+        int failures;
+
+        Circuit(int windowSize) {
+            results = new boolean[windowSize];
+        }
+
+        void add(boolean isFailure) {
+            if(count == results.length){
+                if(results[next]) failures--;
+            }else {
+                count++;
+            }
+            results[next] = isFailure;
+            if(isFailure) failures++;
+            next = (next + 1) % results.length;
+        }
+
+        void reset() {
+            next = 0;
+            count = 0;
+            failures = 0;
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package com.quexs.tool.httplib.download;
+
+import java.net.URL;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 下载并发自适应控制（AIMD）
+ * 按采样周期统计总吞吐量、响应延迟及失败数，调整下载线程池大小：
+ * 吞吐量提升且线程已占满时加 1；出现失败，或延迟明显升高而吞吐量未提升时乘以 0.75
+ * 同一主机同时执行的下载数不超过单主机上限，超出的下载按优先级等待；分段下载及请求对冲的辅助线程同样计入单主机并发数
+ */
+public class HttpDownloadConcurrency {
+    //吞吐量提升判定比例
+    private static final double GAIN_THRESHOLD = 1.05;
+    //延迟升高判定倍数（相对基准延迟）
+    private static final double LATENCY_THRESHOLD = 2.0;
+    //乘性减小比例
+    private static final double DECREASE_FACTOR = 0.75;
+    //基准延迟重新采样的周期数
+    private static final int BASELINE_RESET_SAMPLES = 15;
+
+    //最小并发数
+    private final int minConcurrency;
+    //最大并发数
+    private final int maxConcurrency;
+    //单主机最大并发数
+    private int maxPerHost = Integer.MAX_VALUE;
+    //采样周期（单位：毫秒），下载线程不加锁读取
+    private volatile long sampleIntervalMillis = 2000;
+
+    private ThreadPoolExecutor threadPool;
+    //当前并发数
+    private volatile int concurrency;
+
+    //已提交至线程池的下载
+    private final Set<HttpDownloadRunnable> runningTasks = new HashSet<>();
+    //各主机已提交的下载数
+    private final Map<String, Integer> hostCounts = new HashMap<>();
+    //超出单主机上限等待的下载
+    private final Map<String, PriorityQueue<HttpDownloadRunnable>> hostWaiting = new HashMap<>();
+
+    //本周期下载量
+    private final AtomicLong sampleBytes = new AtomicLong();
+    private volatile long sampleStartMillis = System.currentTimeMillis();
+    private long sampleLatencySum;
+    private int sampleLatencyCount;
+    private int sampleErrors;
+    //上一周期吞吐量（字节/秒）
+    private double lastThroughput;
+    //基准延迟（较长时间内的最小延迟）
+    private long baselineLatency = Long.MAX_VALUE;
+    private int baselineSamples;
+
+    /**
+     * @param minConcurrency 最小并发数
+     * @param maxConcurrency 最大并发数
+     */
+    public HttpDownloadConcurrency(int minConcurrency, int maxConcurrency) {
+        if(minConcurrency < 1 || maxConcurrency < minConcurrency) throw new IllegalArgumentException("concurrency bounds:" + minConcurrency + "-" + maxConcurrency);
+        this.minConcurrency = minConcurrency;
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    /**
+     * 单主机最大并发数
+     * @param maxPerHost 默认不限制
+     */
+    public void setMaxPerHost(int maxPerHost) {
+        if(maxPerHost < 1) throw new IllegalArgumentException("maxPerHost:" + maxPerHost);
+        synchronized (this) {
+            this.maxPerHost = maxPerHost;
+        }
+    }
+
+    /**
+     * 采样周期
+     * @param sampleIntervalMillis 默认 2 秒，需大于 0
+     */
+    public void setSampleInterval(long sampleIntervalMillis) {
+        if(sampleIntervalMillis < 1) throw new IllegalArgumentException("sampleIntervalMillis:" + sampleIntervalMillis);
+        this.sampleIntervalMillis = sampleIntervalMillis;
+    }
+
+    /**
+     * 当前并发数
+     */
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * 绑定下载线程池，以线程池当前大小（限制在上下限内）开始
+     */
+    synchronized void attach(ThreadPoolExecutor threadPool) {
+        if(this.threadPool != null && this.threadPool != threadPool) throw new IllegalStateException("HttpDownloadConcurrency already attached");
+        this.threadPool = threadPool;
+        resize(Math.max(minConcurrency, Math.min(maxConcurrency, threadPool.getCorePoolSize())));
+    }
+
+    /**
+     * 提交下载，超出单主机上限时等待
+     */
+    void execute(HttpDownloadRunnable task) {
+        String host = getHost(task.getUrl());
+        synchronized (this) {
+            Integer count = hostCounts.get(host);
+            if(count != null && count >= maxPerHost){
+                PriorityQueue<HttpDownloadRunnable> waiting = hostWaiting.get(host);
+                if(waiting == null){
+                    waiting = new PriorityQueue<>();
+                    hostWaiting.put(host, waiting);
+                }
+                waiting.add(task);
+                return;
+            }
+            hostCounts.put(host, count == null ? 1 : count + 1);
+            runningTasks.add(task);
+        }
+        threadPool.execute(task);
+    }
+
+    /**
+     * 提交分段下载、请求对冲的辅助线程，计入单主机并发数
+     * 已达单主机上限时不等待，由下载线程自行完成
+     * @return false 已达单主机上限，未提交
+     */
+    boolean executeWorker(HttpDownloadRunnable worker) {
+        String host = getHost(worker.getUrl());
+        synchronized (this) {
+            Integer count = hostCounts.get(host);
+            if(count != null && count >= maxPerHost) return false;
+            hostCounts.put(host, count == null ? 1 : count + 1);
+            runningTasks.add(worker);
+        }
+        try {
+            threadPool.execute(worker);
+        }catch (RejectedExecutionException e){
+            onTaskEnd(worker);
+            throw e;
+        }
+        return true;
+    }
+
+    /**
+     * 调整等待中的下载的优先级
+     * @return false 下载不在等待中
+     */
+    synchronized boolean reprioritize(HttpDownloadRunnable task, long priority) {
+        PriorityQueue<HttpDownloadRunnable> waiting = hostWaiting.get(getHost(task.getUrl()));
+        if(waiting == null || !waiting.remove(task)) return false;
+        task.setPriority(priority);
+        waiting.add(task);
+        return true;
+    }
+
+    /**
+     * 下载结束，提交同主机等待中的下载
+     */
+    void onTaskEnd(HttpDownloadRunnable task) {
+        HttpDownloadRunnable next = null;
+        synchronized (this) {
+            if(!runningTasks.remove(task)) return;
+            String host = getHost(task.getUrl());
+            PriorityQueue<HttpDownloadRunnable> waiting = hostWaiting.get(host);
+            if(waiting != null && !waiting.isEmpty()){
+                next = waiting.poll();
+                runningTasks.add(next);
+                if(waiting.isEmpty()) hostWaiting.remove(host);
+            }else {
+                Integer count = hostCounts.get(host);
+                if(count == null || count <= 1) hostCounts.remove(host);
+                else hostCounts.put(host, count - 1);
+            }
+        }
+        if(next != null){
+            try {
+                threadPool.execute(next);
+            }catch (RejectedExecutionException e){
+                //线程池已关闭
+                onTaskEnd(next);
+            }
+        }
+    }
+
+    /**
+     * 记录下载量
+     */
+    void onTransfer(int len) {
+        sampleBytes.addAndGet(len);
+        sampleIfNeeded();
+    }
+
+    /**
+     * 记录响应延迟（发起连接至收到响应题头）
+     */
+    void onLatency(long latencyMillis) {
+        synchronized (this) {
+            sampleLatencySum += latencyMillis;
+            sampleLatencyCount++;
+        }
+        sampleIfNeeded();
+    }
+
+    /**
+     * 记录下载失败
+     */
+    void onError() {
+        synchronized (this) {
+            sampleErrors++;
+        }
+        sampleIfNeeded();
+    }
+
+    /**
+     * 采样周期结束时调整并发数
+     */
+    private void sampleIfNeeded() {
+        long now = System.currentTimeMillis();
+        if(now - sampleStartMillis < sampleIntervalMillis) return;
+        synchronized (this) {
+            long elapsed = now - sampleStartMillis;
+            if(elapsed < sampleIntervalMillis || threadPool == null) return;
+            sampleStartMillis = now;
+            double throughput = sampleBytes.getAndSet(0) * 1000.0 / elapsed;
+            long avgLatency = sampleLatencyCount > 0 ? sampleLatencySum / sampleLatencyCount : -1;
+            int errors = sampleErrors;
+            sampleLatencySum = 0;
+            sampleLatencyCount = 0;
+            sampleErrors = 0;
+            //基准延迟定期重新采样，适应网络切换
+            if(++baselineSamples >= BASELINE_RESET_SAMPLES){
+                baselineSamples = 0;
+                baselineLatency = Long.MAX_VALUE;
+            }
+            if(avgLatency >= 0 && avgLatency < baselineLatency){
+                baselineLatency = avgLatency;
+            }
+            boolean isGain = throughput > lastThroughput * GAIN_THRESHOLD;
+            boolean isCongested = avgLatency >= 0 && baselineLatency != Long.MAX_VALUE
+                    && avgLatency > baselineLatency * LATENCY_THRESHOLD;
+            int limit = concurrency;
+            if(errors > 0 || (isCongested && !isGain)){
+                limit = Math.min(limit - 1, (int) (limit * DECREASE_FACTOR));
+            }else if(isGain && runningTasks.size() >= limit){
+                //线程已占满且吞吐量仍在提升
+                limit++;
+            }
+            lastThroughput = throughput;
+            resize(Math.max(minConcurrency, Math.min(maxConcurrency, limit)));
+        }
+    }
+
+    /**
+     * 调整线程池大小
+     */
+    private void resize(int limit) {
+        if(limit == concurrency) return;
+        //核心线程数不能大于最大线程数，按调整方向决定设置顺序
+        if(limit > threadPool.getMaximumPoolSize()){
+            threadPool.setMaximumPoolSize(limit);
+            threadPool.setCorePoolSize(limit);
+        }else {
+            threadPool.setCorePoolSize(limit);
+            threadPool.setMaximumPoolSize(limit);
+        }
+        concurrency = limit;
+    }
+
+    private static String getHost(String url) {
+        try {
+            return new URL(url).getHost().toLowerCase(Locale.US);
+        }catch (Exception e){
+            return "";
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package com.quexs.tool.httplib.download;
+
+import com.quexs.tool.httplib.cache.HttpDiskCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * 合并下载监听
+ * 同一链接的多个下载合并为一次传输，进度及结果分发给所有加入的下载（objKey）
+ * 保存路径与执行下载不同的，下载完成后复制文件
+ * 执行下载的 objKey 已取消而其他下载仍在等待时，下载完成后文件移至剩余下载的保存路径，不保留已取消下载的文件
+ */
+class HttpDownloadGroup implements HttpDownloadListener {
+    //执行传输的下载
+    private final HttpDownloadRunnable httpDownloadRunnable;
+    //合并键（null 不参与合并）
+    private final String coalesceKey;
+    private final List<Member> members = new ArrayList<>();
+    //是否已开始下载
+    private boolean isStarted;
+    //是否已完成或失败
+    private boolean isFinished;
+    //执行下载的 objKey 已取消（传输继续供其他下载使用）
+    private boolean isTargetCancelled;
+
+    HttpDownloadGroup(HttpDownloadRunnable httpDownloadRunnable, String coalesceKey) {
+        this.httpDownloadRunnable = httpDownloadRunnable;
+        this.coalesceKey = coalesceKey;
+    }
+
+    HttpDownloadRunnable getHttpDownloadRunnable() {
+        return httpDownloadRunnable;
+    }
+
+    String getCoalesceKey() {
+        return coalesceKey;
+    }
+
+    /**
+     * 合并键：同一链接、同一验证方式、同一压缩方式的普通下载可合并（请求题头固定，无需比较）
+     * 其余影响传输的设置由 isCoalescible 比较
+     * @return null 不支持合并（自定义的下载类、断点续传及分段下载）
+     */
+    static String getCoalesceKey(HttpDownloadRunnable httpDownloadRunnable) {
+        if(httpDownloadRunnable.getClass() != HttpDownloadRunnable.class || httpDownloadRunnable.getUrl() == null
+                || !httpDownloadRunnable.isPlainDownload()) return null;
+        return httpDownloadRunnable.getUrl() + "#" + httpDownloadRunnable.getVerifyCode()
+                + "#" + httpDownloadRunnable.isCompression() + "#" + httpDownloadRunnable.isKeepCompressed();
+    }
+
+    /**
+     * 加入的下载与执行传输的下载设置相同时才可合并（限速、重试、镜像链接、缓冲区及优先级）
+     */
+    boolean isCoalescible(HttpDownloadRunnable joining) {
+        return httpDownloadRunnable.hasSameTransferSettings(joining);
+    }
+
+    /**
+     * 加入下载，下载已开始时立即回调开始
+     * @return false 下载已结束，不能再加入
+     */
+    boolean addMember(Object objKey, String saveFilePath, HttpDownloadListener httpDownloadListener) {
+        boolean isStarted;
+        synchronized (this) {
+            if(isFinished) return false;
+            members.add(new Member(objKey, saveFilePath, httpDownloadListener));
+            isStarted = this.isStarted;
+        }
+        if(isStarted && httpDownloadListener != null){
+            httpDownloadListener.downloadStart(objKey);
+        }
+        return true;
+    }
+
+    /**
+     * 替换下载监听
+     */
+    synchronized void setListener(Object objKey, HttpDownloadListener httpDownloadListener) {
+        for (Member member : members) {
+            if(Objects.equals(member.objKey, objKey)){
+                member.httpDownloadListener = httpDownloadListener;
+                return;
+            }
+        }
+    }
+
+    /**
+     * 移出下载
+     * @return 剩余的下载数量
+     */
+    synchronized int removeMember(Object objKey) {
+        for (int i = 0; i < members.size(); i++) {
+            if(Objects.equals(members.get(i).objKey, objKey)){
+                members.remove(i);
+                break;
+            }
+        }
+        if(!members.isEmpty() && Objects.equals(httpDownloadRunnable.getObjKey(), objKey)){
+            isTargetCancelled = true;
+        }
+        return members.size();
+    }
+
+    synchronized List<Object> getMemberKeys() {
+        List<Object> keys = new ArrayList<>();
+        for (Member member : members) {
+            keys.add(member.objKey);
+        }
+        return keys;
+    }
+
+    private synchronized List<Member> snapshot() {
+        return new ArrayList<>(members);
+    }
+
+    /**
+     * 标记结束，之后加入的下载重新传输
+     */
+    private synchronized List<Member> finish() {
+        isFinished = true;
+        return new ArrayList<>(members);
+    }
+
+    private synchronized boolean isTargetCancelled() {
+        return isTargetCancelled;
+    }
+
+    @Override
+    public void downloadStart(Object objKey) {
+        synchronized (this) {
+            isStarted = true;
+        }
+        for (Member member : snapshot()) {
+            if(member.httpDownloadListener != null){
+                member.httpDownloadListener.downloadStart(member.objKey);
+            }
+        }
+    }
+
+    @Override
+    public void downloadProgress(long downloadLen, int fileLen, Object objKey) {
+        for (Member member : snapshot()) {
+            if(member.httpDownloadListener != null){
+                member.httpDownloadListener.downloadProgress(downloadLen, fileLen, member.objKey);
+            }
+        }
+    }
+
+    /**
+     * 回调进度，有 HttpDownloadProgressListener 时才创建进度（每次回调最多创建一次）
+     * 未实现 HttpDownloadProgressListener 的监听按原接口回调
+     */
+    void downloadProgress(long downloadLen, long fileLen, double speed, double averageSpeed) {
+        HttpDownloadProgress progress = null;
+        for (Member member : snapshot()) {
+            if(member.httpDownloadListener instanceof HttpDownloadProgressListener){
+                if(progress == null){
+                    progress = newProgress(downloadLen, fileLen, speed, averageSpeed);
+                }
+                ((HttpDownloadProgressListener) member.httpDownloadListener).downloadProgress(progress, member.objKey);
+            }else if(member.httpDownloadListener != null){
+                member.httpDownloadListener.downloadProgress(downloadLen, HttpDownloadProgressTracker.toIntFileLen(fileLen), member.objKey);
+            }
+        }
+    }
+
+    HttpDownloadProgress newProgress(long downloadLen, long fileLen, double speed, double averageSpeed) {
+        return new HttpDownloadProgress(downloadLen, fileLen, speed, averageSpeed);
+    }
+
+    @Override
+    public void downloadComplete(String filePath, Object objKey) {
+        List<Member> members = finish();
+        File file = new File(filePath);
+        File source = file;
+        if(isTargetCancelled()){
+            //执行下载的 objKey 已取消，文件移至第一个剩余下载的保存路径
+            for (Member member : members) {
+                if(member.saveFilePath == null) continue;
+                File target = new File(member.saveFilePath);
+                if(!target.equals(file) && moveFile(file, target)){
+                    source = target;
+                }
+                break;
+            }
+        }
+        boolean isFileUsed = false;
+        for (Member member : members) {
+            String memberFilePath = source.getPath();
+            if(member.saveFilePath != null && !new File(member.saveFilePath).equals(source)){
+                try {
+                    HttpDiskCache.copyFile(source, new File(member.saveFilePath));
+                    memberFilePath = member.saveFilePath;
+                }catch (IOException e){
+                    if(member.httpDownloadListener != null){
+                        member.httpDownloadListener.downloadError(e, member.objKey);
+                    }
+                    continue;
+                }
+            }
+            if(new File(memberFilePath).equals(file)) isFileUsed = true;
+            if(member.httpDownloadListener != null){
+                member.httpDownloadListener.downloadComplete(memberFilePath, member.objKey);
+            }
+        }
+        if(isTargetCancelled() && !isFileUsed){
+            //文件已复制给剩余下载
+            file.delete();
+        }
+    }
+
+    @Override
+    public void downloadError(Exception e, Object objKey) {
+        List<Member> members = finish();
+        if(isTargetCancelled()){
+            //删除已取消下载的未完成文件（剩余下载使用同一保存路径时保留）
+            String filePath = httpDownloadRunnable.getSaveFilePath();
+            boolean isFileUsed = filePath == null;
+            for (Member member : members) {
+                if(filePath != null && member.saveFilePath != null && new File(member.saveFilePath).equals(new File(filePath))){
+                    isFileUsed = true;
+                }
+            }
+            if(!isFileUsed){
+                File file = new File(filePath);
+                HttpDownloadJournal.delete(file);
+                file.delete();
+            }
+        }
+        for (Member member : members) {
+            if(member.httpDownloadListener != null){
+                member.httpDownloadListener.downloadError(e, member.objKey);
+            }
+        }
+    }
+
+    /**
+     * 移动文件，不能重命名（如跨分区）时复制后删除原文件
+     * @return false 移动失败，仍使用原文件
+     */
+    private static boolean moveFile(File src, File dst) {
+        File parent = dst.getParentFile();
+        if(parent != null && !parent.exists() && !parent.mkdirs()) return false;
+        if(dst.exists() && !dst.delete()) return false;
+        if(src.renameTo(dst)) return true;
+        try {
+            HttpDiskCache.copyFile(src, dst);
+        }catch (IOException e){
+            return false;
+        }
+        src.delete();
+        return true;
+    }
+
+    private static class Member {
+        private final Object objKey;
+        private final String saveFilePath;
+        private HttpDownloadListener httpDownloadListener;
+
+        Member(Object objKey, String saveFilePath, HttpDownloadListener httpDownloadListener) {
+            this.objKey = objKey;
+            this.saveFilePath = saveFilePath;
+            this.httpDownloadListener = httpDownloadListener;
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package com.quexs.tool.httplib.download;
+
+import android.text.TextUtils;
+
+import com.quexs.tool.httplib.conn.HttpConnectionTool;
+import com.quexs.tool.httplib.conn.HttpResponseException;
+import com.quexs.tool.httplib.conn.HttpRetryPolicy;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.HttpsURLConnection;
+
+/**
+ * 请求对冲下载
+ * 主请求在下载线程中执行，对冲延迟内未收到响应时向镜像链接（未设置时为原链接）发起对冲请求，
+ * 两个请求分别写入各自的临时文件，先完成的请求将临时文件重命名为保存文件，并断开另一个请求
+ */
+class HttpDownloadHedge {
+    //主请求
+    private static final int PRIMARY = 0;
+    //对冲请求
+    private static final int HEDGE = 1;
+
+    //所属下载任务
+    private final HttpDownloadRunnable task;
+    private final HttpDownloadHedging hedging;
+    //保存文件
+    private final File file;
+    //各请求的链接
+    private final String[] urls = new String[2];
+    //各请求的连接，获胜后断开另一个请求
+    private final HttpsURLConnection[] conns = new HttpsURLConnection[2];
+    //先完成的请求，-1 尚未完成
+    private final AtomicInteger winner = new AtomicInteger(-1);
+    //回调下载进度的请求（先收到响应的请求）
+    private final AtomicInteger leader = new AtomicInteger(-1);
+    //对冲请求由辅助线程或下载线程领取，只执行一次
+    private final AtomicBoolean isHedgeClaimed = new AtomicBoolean();
+    private final CountDownLatch hedgeLatch = new CountDownLatch(1);
+    //主请求是否已收到响应
+    private volatile boolean isPrimaryResponded;
+    //主请求是否已结束
+    private boolean isPrimaryEnded;
+    //是否已安排对冲请求
+    private volatile boolean isHedgeStarted;
+    private volatile Exception hedgeException;
+    //先完成的请求重命名保存文件失败
+    private volatile Exception winnerException;
+
+    HttpDownloadHedge(HttpDownloadRunnable task, HttpDownloadHedging hedging) {
+        this.task = task;
+        this.hedging = hedging;
+        file = new File(task.getSaveFilePath());
+        urls[PRIMARY] = task.getUrl();
+        urls[HEDGE] = !TextUtils.isEmpty(task.getMirrorUrl()) ? task.getMirrorUrl() : task.getUrl();
+    }
+
+    /**
+     * 执行对冲下载（在下载任务线程中调用）
+     * @param factory 辅助线程创建
+     * @return false 取消下载
+     * @throws Exception 两个请求都失败时抛出主请求的异常
+     * 先完成的请求在其线程中回调下载完成，主请求可能仍在等待连接超时
+     */
+    boolean download(final HedgeWorkerFactory factory) throws Exception {
+        hedging.onRequest();
+        HttpRetryPolicy.schedule(new Runnable() {
+            @Override
+            public void run() {
+                startHedge(factory);
+            }
+        }, hedging.getDelayMillis());
+        Exception primaryException = null;
+        try {
+            runRequest(PRIMARY);
+        }catch (Exception e){
+            primaryException = e;
+        }
+        synchronized (this) {
+            isPrimaryEnded = true;
+        }
+        if(isHedgeStarted && winner.get() != PRIMARY){
+            //对冲请求尚未执行时由当前线程执行，避免线程池已满时互相等待；对冲请求先完成时等待其回调结束
+            runHedge();
+            hedgeLatch.await();
+        }
+        if(winnerException != null) throw winnerException;
+        if(winner.get() == -1){
+            if(task.isCancelDownload()) return false;
+            throw primaryException != null ? primaryException : hedgeException;
+        }
+        return true;
+    }
+
+    /**
+     * 回调下载完成（在先完成的请求的线程中调用）
+     */
+    private void complete() {
+        task.flushProgress();
+        HttpDownloadListener httpDownloadListener = task.getHttpDownloadListener();
+        if(httpDownloadListener != null){
+            httpDownloadListener.downloadComplete(task.getSaveFilePath(), task.getObjKey());
+        }
+    }
+
+    /**
+     * 对冲延迟已到，主请求仍未收到响应时发起对冲请求（在重试调度线程中调用）
+     */
+    private void startHedge(HedgeWorkerFactory factory) {
+        synchronized (this) {
+            if(isPrimaryEnded || isPrimaryResponded || task.isCancelDownload() || !hedging.tryHedge()) return;
+            try {
+                if(!factory.executeWorker(this)){
+                    //对冲链接的主机已达并发上限，不发起对冲请求
+                    hedging.cancelHedge();
+                    return;
+                }
+            }catch (RejectedExecutionException e){
+                //线程池已关闭，由下载线程在主请求结束后执行
+            }
+            isHedgeStarted = true;
+        }
+    }
+
+    /**
+     * 对冲请求的链接
+     */
+    String getHedgeUrl() {
+        return urls[HEDGE];
+    }
+
+    /**
+     * 执行对冲请求（辅助线程或下载线程）
+     */
+    void runHedge() {
+        if(!isHedgeClaimed.compareAndSet(false, true)) return;
+        try {
+            if(winner.get() == -1 && !task.isCancelDownload()){
+                runRequest(HEDGE);
+            }
+        }catch (Exception e){
+            hedgeException = e;
+        }finally {
+            hedgeLatch.countDown();
+        }
+    }
+
+    /**
+     * 执行一个请求，写入临时文件，先完成时重命名为保存文件
+     * @param request 主请求或对冲请求
+     */
+    private void runRequest(final int request) throws Exception {
+        File tmpFile = new File(file.getPath() + ".hedge" + request);
+        HttpsURLConnection conn = task.openConnection(urls[request]);
+        synchronized (this) {
+            conns[request] = conn;
+        }
+        InputStream is = null;
+        //响应已读完，连接可复用
+        boolean isReusable = false;
+        try {
+            conn.setRequestMethod("GET");
+            long startNanos = System.nanoTime();
+            conn.connect();
+            int responseCode = conn.getResponseCode();
+            if(responseCode != HttpURLConnection.HTTP_OK){
+                isReusable = HttpConnectionTool.closeResponse(conn);
+                throw new HttpResponseException("request result code:" + responseCode, responseCode, conn.getHeaderField("Retry-After"));
+            }
+            hedging.recordLatency((System.nanoTime() - startNanos) / 1000000L);
+            if(request == PRIMARY){
+                isPrimaryResponded = true;
+                task.recordLatency(startNanos);
+            }
+            leader.compareAndSet(-1, request);
+            final long fileLen = parseContentLength(conn.getHeaderField("Content-Length"));
+            is = conn.getInputStream();
+            if(tmpFile.exists() && !tmpFile.delete()) throw new IOException("old File delete error");
+            HttpDownloadSink sink = new HttpDownloadSink(task.getBufferSize(), false);
+            long len = sink.write(is, tmpFile, 0, -1, new HttpDownloadSink.WriteCallback() {
+                //已下载量
+                private long dlCount;
+
+                @Override
+                public boolean isCancel() {
+                    return task.isCancelDownload() || winner.get() != -1;
+                }
+
+                @Override
+                public void onWrite(int len) {
+                    dlCount += len;
+                    task.recordTransfer(len);
+                    if(leader.get() == request){
+                        task.dispatchProgress(dlCount, fileLen);
+                    }
+                }
+            });
+            if(task.isCancelDownload() || winner.get() != -1) return;
+            if(fileLen > 0 && len < fileLen) throw new IOException("download incomplete:" + len + "/" + fileLen);
+            if(!winner.compareAndSet(-1, request)) return;
+            isReusable = HttpConnectionTool.closeResponse(is);
+            is = null;
+            //断开另一个请求
+            HttpsURLConnection other;
+            synchronized (this) {
+                other = conns[1 - request];
+            }
+            if(other != null) other.disconnect();
+            try {
+                HttpDownloadJournal.delete(file);
+                if(file.exists() && !file.delete()) throw new IOException("old File delete error");
+                if(!tmpFile.renameTo(file)) throw new IOException("hedge File rename error");
+            }catch (IOException e){
+                winnerException = e;
+                throw e;
+            }
+            if(request == HEDGE) hedging.onHedgeWin();
+            if(leader.get() != request){
+                task.dispatchProgress(len, fileLen);
+            }
+            complete();
+        }finally {
+            if(is != null){
+                //未完成的请求直接关闭，不读取剩余数据
+                try {
+                    is.close();
+                }catch (IOException e){
+                    //连接已断开
+                }
+            }
+            HttpConnectionTool.release(conn, isReusable);
+            if(winner.get() != request && tmpFile.exists()){
+                tmpFile.delete();
+            }
+        }
+    }
+
+    /**
+     * 解析 Content-Length
+     * @return -1 未知长度
+     */
+    private static long parseContentLength(String contentLength) {
+        if(TextUtils.isEmpty(contentLength)) return -1;
+        try {
+            return Long.parseLong(contentLength.trim());
+        }catch (NumberFormatException e){
+            return -1;
+        }
+    }
+
+    /**
+     * 对冲请求辅助线程创建
+     */
+    interface HedgeWorkerFactory {
+        /**
+         * @return false 已达单主机并发上限，未创建
+         */
+        boolean executeWorker(HttpDownloadHedge httpDownloadHedge);
+    }
+}
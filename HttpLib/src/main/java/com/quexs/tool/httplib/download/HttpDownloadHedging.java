@@ -0,0 +1,126 @@
+package com.quexs.tool.httplib.download;
+
+import java.util.Arrays;
+
+/**
+ * 请求对冲设置（适合对延迟敏感的小文件下载）
+ * 按最近请求的响应延迟（发起连接至收到响应题头）取百分位数作为对冲延迟：
+ * 下载在对冲延迟内未收到响应时，再发起一个相同的请求（可指定镜像链接），先完成的请求生效，另一个请求断开
+ * 对冲请求数不超过请求总数的一定比例，避免服务端变慢时成倍增加负载
+ */
+public class HttpDownloadHedging {
+    //保留的延迟样本数
+    private static final int MAX_SAMPLES = 100;
+    //按百分位数计算延迟所需的最少样本数，不足时使用最大延迟
+    private static final int MIN_SAMPLES = 10;
+
+    //延迟百分位数
+    private float percentile = 0.95f;
+    //对冲延迟下限（单位：毫秒）
+    private long minDelayMillis = 50;
+    //对冲延迟上限（单位：毫秒）
+    private long maxDelayMillis = 1000;
+    //对冲请求占请求总数的最大比例
+    private float maxHedgeRatio = 0.1f;
+
+    //最近的响应延迟（环形）
+    private final long[] samples = new long[MAX_SAMPLES];
+    private int sampleCount;
+    private int nextSample;
+    //请求总数
+    private long requestCount;
+    //对冲请求数
+    private long hedgeCount;
+    //对冲请求先完成的次数
+    private long hedgeWinCount;
+
+    /**
+     * 设置对冲延迟
+     * @param percentile 延迟百分位数，0-1，默认 0.95
+     * @param minDelayMillis 下限，默认 50 毫秒
+     * @param maxDelayMillis 上限，样本不足时使用，默认 1 秒
+     */
+    public synchronized void setDelay(float percentile, long minDelayMillis, long maxDelayMillis) {
+        if(percentile <= 0 || percentile > 1) throw new IllegalArgumentException("percentile:" + percentile);
+        if(minDelayMillis < 0 || maxDelayMillis < minDelayMillis) throw new IllegalArgumentException("delay:" + minDelayMillis + "-" + maxDelayMillis);
+        this.percentile = percentile;
+        this.minDelayMillis = minDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * 对冲请求占请求总数的最大比例
+     * @param maxHedgeRatio 0-1，默认 0.1
+     */
+    public synchronized void setMaxHedgeRatio(float maxHedgeRatio) {
+        if(maxHedgeRatio < 0 || maxHedgeRatio > 1) throw new IllegalArgumentException("maxHedgeRatio:" + maxHedgeRatio);
+        this.maxHedgeRatio = maxHedgeRatio;
+    }
+
+    /**
+     * 已发起的对冲请求数
+     */
+    public synchronized long getHedgeCount() {
+        return hedgeCount;
+    }
+
+    /**
+     * 对冲请求先完成的次数
+     */
+    public synchronized long getHedgeWinCount() {
+        return hedgeWinCount;
+    }
+
+    /**
+     * 当前对冲延迟
+     * @return 单位：毫秒
+     */
+    synchronized long getDelayMillis() {
+        if(sampleCount < MIN_SAMPLES) return maxDelayMillis;
+        long[] sorted = Arrays.copyOf(samples, sampleCount);
+        Arrays.sort(sorted);
+        int index = Math.min(sampleCount - 1, Math.max(0, (int) Math.ceil(percentile * sampleCount) - 1));
+        return Math.max(minDelayMillis, Math.min(maxDelayMillis, sorted[index]));
+    }
+
+    /**
+     * 记录响应延迟
+     */
+    synchronized void recordLatency(long latencyMillis) {
+        samples[nextSample] = latencyMillis;
+        nextSample = (nextSample + 1) % MAX_SAMPLES;
+        if(sampleCount < MAX_SAMPLES) sampleCount++;
+    }
+
+    /**
+     * 记录发起下载
+     */
+    synchronized void onRequest() {
+        requestCount++;
+    }
+
+    /**
+     * 申请发起对冲请求
+     * @return false 对冲请求已达上限
+     */
+    synchronized boolean tryHedge() {
+        //至少允许一个对冲请求
+        if(hedgeCount >= requestCount * maxHedgeRatio + 1) return false;
+        hedgeCount++;
+        return true;
+    }
+
+    /**
+     * 已申请的对冲请求未能发起（主机已达并发上限），归还名额
+     */
+    synchronized void cancelHedge() {
+        hedgeCount--;
+    }
+
+    /**
+     * 记录对冲请求先完成
+     */
+    synchronized void onHedgeWin() {
+        hedgeWinCount++;
+    }
+}
@@ -0,0 +1,173 @@
+package com.quexs.tool.httplib.download;
+
+import com.quexs.tool.httplib.http2.Http2ConnectionPool;
+import com.quexs.tool.httplib.http2.Http2Stream;
+import com.quexs.tool.httplib.log.HttpLogBean;
+import com.quexs.tool.httplib.log.HttpPrintLog;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * HTTP/2 下载
+ * 同一主机的下载共用一个 HTTP/2 连接，在 HTTP/2 回调线程中写入文件，不占用下载线程池
+ * 只用于普通 https 下载，主机（含重定向后的主机）不支持 HTTP/2 时改由下载线程池执行 HttpDownloadRunnable
+ */
+class HttpDownloadHttp2Call extends Http2Stream {
+    //最多重定向次数
+    private static final int MAX_REDIRECTS = 5;
+
+    private final HttpDownloadRunnable task;
+    //已重定向次数
+    private final int redirectCount;
+    //重定向链接
+    private String redirectUrl;
+    private RandomAccessFile raf;
+    private long fileLen = -1;
+    private long dlCount;
+
+    HttpDownloadHttp2Call(HttpDownloadRunnable task) throws MalformedURLException {
+        this(task, task.getUrl(), 0);
+    }
+
+    private HttpDownloadHttp2Call(HttpDownloadRunnable task, String url, int redirectCount) throws MalformedURLException {
+        super(url, "GET", task.getVerifyCode(), task.getPriority(), task.getSort());
+        this.task = task;
+        this.redirectCount = redirectCount;
+        //默认表单请求
+        setRequestProperty("Content-Type", "application/x-www-form-urlencoded;charset=UTF-8");
+        setRequestProperty("Accept-Encoding", "identity");
+    }
+
+    @Override
+    protected void onStart() {
+        HttpDownloadListener httpDownloadListener = task.getHttpDownloadListener();
+        if(redirectCount == 0 && !isCancel() && httpDownloadListener != null){
+            httpDownloadListener.downloadStart(task.getObjKey());
+        }
+    }
+
+    @Override
+    protected void onResponse(int responseCode, Map<String, List<String>> headers) throws Exception {
+        String location = getHeaderField("Location");
+        if(responseCode >= 300 && responseCode < 400 && location != null){
+            if(redirectCount >= MAX_REDIRECTS) throw new IOException("Too many follow-up requests: " + (redirectCount + 1));
+            redirectUrl = new URL(getUrl(), location).toString();
+            return;
+        }
+        if(responseCode != HttpURLConnection.HTTP_OK) throw new Exception("request result code:" + responseCode);
+        String contentLength = getHeaderField("Content-Length");
+        fileLen = contentLength == null ? -1 : Long.parseLong(contentLength.trim());
+        File file = new File(task.getSaveFilePath());
+        HttpDownloadJournal.delete(file);
+        if(file.exists() && !file.delete()) throw new Exception("old File delete error");
+        if(!file.createNewFile()) throw new Exception("File create error");
+        raf = new RandomAccessFile(file, "rw");
+    }
+
+    @Override
+    protected void onResponseBody(byte[] data, int offset, int len) throws Exception {
+        //重定向响应的消息体
+        if(raf == null) return;
+        raf.write(data, offset, len);
+        dlCount += len;
+        //回调下载进度
+        task.dispatchProgress(dlCount, fileLen);
+    }
+
+    @Override
+    protected void onComplete() {
+        closeFile();
+        if(redirectUrl != null){
+            try {
+                //重定向至 http 链接时抛出 MalformedURLException
+                Http2ConnectionPool.getInstance().execute(new HttpDownloadHttp2Call(task, redirectUrl, redirectCount + 1));
+            }catch (Exception e){
+                onError(e);
+            }
+            return;
+        }
+        if(fileLen > 0 && dlCount < fileLen){
+            onError(new Exception("download incomplete:" + dlCount + "/" + fileLen));
+            return;
+        }
+        //打印日志
+        HttpPrintLog.getInstance().addPrintLog(new HttpLogBean(task.getUrl(), "GET", getRequestProperties(), getResponseCode(), "Download Complete"));
+        try {
+            task.flushProgress();
+            HttpDownloadListener httpDownloadListener = task.getHttpDownloadListener();
+            if(httpDownloadListener != null){
+                httpDownloadListener.downloadComplete(task.getSaveFilePath(), task.getObjKey());
+            }
+        }finally {
+            //监听抛出异常时也需结束下载
+            endDownload();
+        }
+    }
+
+    @Override
+    protected void onError(Exception e) {
+        closeFile();
+        //打印日志
+        HttpPrintLog.getInstance().addPrintLog(new HttpLogBean(task.getUrl(), "GET", getRequestProperties(), getResponseCode(), e));
+        try {
+            HttpDownloadListener httpDownloadListener = task.getHttpDownloadListener();
+            if(httpDownloadListener != null){
+                httpDownloadListener.downloadError(e, task.getObjKey());
+            }
+        }finally {
+            endDownload();
+        }
+    }
+
+    @Override
+    protected boolean isCancel() {
+        return task.isCancelDownload();
+    }
+
+    @Override
+    protected void onCancel() {
+        closeFile();
+        //打印日志
+        HttpPrintLog.getInstance().addPrintLog(new HttpLogBean(task.getUrl(), "GET", getRequestProperties(), getResponseCode(), "Cancel Download"));
+        endDownload();
+    }
+
+    @Override
+    protected void onFallback() {
+        if(redirectCount > 0){
+            //重定向后的主机不支持 HTTP/2，已回调开始，由 HttpsURLConnection 从原链接重新跟随重定向
+            task.markStarted();
+        }
+        try {
+            //与 HttpDownload.addDownload 一致，经并发自适应控制排队
+            task.submit();
+        }catch (Exception e){
+            //线程池已关闭
+            onError(e);
+        }
+    }
+
+    private void endDownload() {
+        HttpDownloadRunnable.HttpDownloadRunnableEndListener httpDownloadRunnableEndListener = task.getHttpDownloadRunnableEndListener();
+        if(httpDownloadRunnableEndListener != null){
+            httpDownloadRunnableEndListener.endDownload(task.getObjKey());
+        }
+    }
+
+    private void closeFile() {
+        if(raf == null) return;
+        try {
+            raf.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        raf = null;
+    }
+}
@@ -0,0 +1,274 @@
+package com.quexs.tool.httplib.download;
+
+import android.text.TextUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Properties;
+import java.util.zip.CRC32;
+
+/**
+ * 断点续传日志
+ * 记录下载地址、服务端校验值（ETag/Last-Modified）、分段提交位置及最后提交块的校验和
+ * 数据先落盘再提交日志，日志通过临时文件重命名原子替换，进程被杀后可从最后一次提交处续传
+ */
+class HttpDownloadJournal {
+    //每写入 1M 提交一次
+    static final long COMMIT_SIZE = 1024 * 1024;
+
+    private final File journalFile;
+    private final String url;
+    private String eTag;
+    private String lastModified;
+    //文件总长度，-1 未知
+    private long fileLen;
+    //分段 [start, end, committed]，end 为 -1 表示至文件结尾
+    private long[][] segments;
+    //分段最后提交块的起始位置
+    private long[] tailStarts;
+    //分段最后提交块的校验和
+    private long[] tailCrcs;
+
+    private HttpDownloadJournal(File journalFile, String url) {
+        this.journalFile = journalFile;
+        this.url = url;
+    }
+
+    /**
+     * 日志文件
+     * @param saveFile 保存文件
+     * @return
+     */
+    static File getJournalFile(File saveFile) {
+        return new File(saveFile.getPath() + ".journal");
+    }
+
+    /**
+     * 新建日志
+     * @param saveFile 保存文件
+     * @param url 下载链接
+     * @param eTag
+     * @param lastModified
+     * @param fileLen 文件总长度，-1 未知
+     * @param ranges 分段范围 [start, end]
+     * @return
+     * @throws IOException
+     */
+    static HttpDownloadJournal create(File saveFile, String url, String eTag, String lastModified, long fileLen, long[][] ranges) throws IOException {
+        HttpDownloadJournal journal = new HttpDownloadJournal(getJournalFile(saveFile), url);
+        journal.eTag = eTag;
+        journal.lastModified = lastModified;
+        journal.fileLen = fileLen;
+        journal.segments = new long[ranges.length][3];
+        journal.tailStarts = new long[ranges.length];
+        journal.tailCrcs = new long[ranges.length];
+        for (int i = 0; i < ranges.length; i++) {
+            journal.segments[i][0] = ranges[i][0];
+            journal.segments[i][1] = ranges[i][1];
+            journal.segments[i][2] = ranges[i][0];
+            journal.tailStarts[i] = ranges[i][0];
+        }
+        journal.save();
+        return journal;
+    }
+
+    /**
+     * 读取日志，并校验各分段最后提交块
+     * 校验失败的分段从分段起始位置重新下载
+     * @param saveFile 保存文件
+     * @param url 下载链接
+     * @return null 日志不存在、已损坏或与下载链接不一致
+     */
+    static HttpDownloadJournal load(File saveFile, String url) {
+        File journalFile = getJournalFile(saveFile);
+        if(!journalFile.exists() || !saveFile.exists()) return null;
+        Properties properties = new Properties();
+        try {
+            FileInputStream fis = new FileInputStream(journalFile);
+            try {
+                properties.load(fis);
+            }finally {
+                fis.close();
+            }
+            if(!TextUtils.equals(url, properties.getProperty("url"))) return null;
+            HttpDownloadJournal journal = new HttpDownloadJournal(journalFile, url);
+            journal.eTag = properties.getProperty("eTag");
+            journal.lastModified = properties.getProperty("lastModified");
+            journal.fileLen = Long.parseLong(properties.getProperty("fileLen"));
+            int segmentCount = Integer.parseInt(properties.getProperty("segmentCount"));
+            journal.segments = new long[segmentCount][3];
+            journal.tailStarts = new long[segmentCount];
+            journal.tailCrcs = new long[segmentCount];
+            for (int i = 0; i < segmentCount; i++) {
+                String[] values = properties.getProperty("segment." + i).split(",");
+                journal.segments[i][0] = Long.parseLong(values[0]);
+                journal.segments[i][1] = Long.parseLong(values[1]);
+                journal.segments[i][2] = Long.parseLong(values[2]);
+                journal.tailStarts[i] = Long.parseLong(values[3]);
+                journal.tailCrcs[i] = Long.parseLong(values[4]);
+            }
+            journal.verify(saveFile);
+            return journal;
+        }catch (Exception e){
+            //日志损坏
+            return null;
+        }
+    }
+
+    /**
+     * 删除日志
+     * @param saveFile 保存文件
+     */
+    static void delete(File saveFile) {
+        File journalFile = getJournalFile(saveFile);
+        if(journalFile.exists()){
+            journalFile.delete();
+        }
+    }
+
+    /**
+     * 校验各分段最后提交块，文件尾部丢失或损坏时回退该分段
+     */
+    private void verify(File saveFile) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(saveFile, "r");
+        try {
+            FileChannel fileChannel = raf.getChannel();
+            long length = fileChannel.size();
+            for (int i = 0; i < segments.length; i++) {
+                long committed = segments[i][2];
+                if(committed <= segments[i][0]) continue;
+                if(committed > length || checksum(fileChannel, tailStarts[i], committed) != tailCrcs[i]){
+                    segments[i][2] = segments[i][0];
+                    tailStarts[i] = segments[i][0];
+                    tailCrcs[i] = 0;
+                }
+            }
+        }finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * 提交分段写入位置
+     * 数据落盘后计算最后提交块的校验和，再原子写入日志
+     * @param index 分段
+     * @param fileChannel 文件
+     * @param committed 已写入位置
+     * @throws IOException
+     */
+    synchronized void commit(int index, FileChannel fileChannel, long committed) throws IOException {
+        if(committed <= segments[index][2]) return;
+        fileChannel.force(false);
+        long tailStart = Math.max(segments[index][2], committed - COMMIT_SIZE);
+        segments[index][2] = committed;
+        tailStarts[index] = tailStart;
+        tailCrcs[index] = checksum(fileChannel, tailStart, committed);
+        save();
+    }
+
+    /**
+     * 更新文件总长度（单线程续传时服务端才返回总长度）
+     * @param fileLen
+     */
+    synchronized void setFileLen(long fileLen) throws IOException {
+        this.fileLen = fileLen;
+        save();
+    }
+
+    /**
+     * 校验值是否与服务端一致
+     * @param eTag
+     * @param lastModified
+     * @return
+     */
+    boolean isValidatorMatch(String eTag, String lastModified) {
+        if(!TextUtils.isEmpty(this.eTag)) return this.eTag.equals(eTag);
+        return !TextUtils.isEmpty(this.lastModified) && this.lastModified.equals(lastModified);
+    }
+
+    /**
+     * If-Range 请求头的值，优先使用强 ETag
+     * @return null 没有可用的校验值
+     */
+    String getIfRange() {
+        if(!TextUtils.isEmpty(eTag) && !eTag.startsWith("W/")) return eTag;
+        if(!TextUtils.isEmpty(lastModified)) return lastModified;
+        return null;
+    }
+
+    long getFileLen() {
+        return fileLen;
+    }
+
+    int getSegmentCount() {
+        return segments.length;
+    }
+
+    long getSegmentStart(int index) {
+        return segments[index][0];
+    }
+
+    long getSegmentEnd(int index) {
+        return segments[index][1];
+    }
+
+    synchronized long getCommitted(int index) {
+        return segments[index][2];
+    }
+
+    /**
+     * 已提交的下载量
+     * @return
+     */
+    synchronized long getCommittedLen() {
+        long len = 0;
+        for (long[] segment : segments) {
+            len += segment[2] - segment[0];
+        }
+        return len;
+    }
+
+    private void save() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("url", url);
+        if(eTag != null) properties.setProperty("eTag", eTag);
+        if(lastModified != null) properties.setProperty("lastModified", lastModified);
+        properties.setProperty("fileLen", String.valueOf(fileLen));
+        properties.setProperty("segmentCount", String.valueOf(segments.length));
+        for (int i = 0; i < segments.length; i++) {
+            properties.setProperty("segment." + i, segments[i][0] + "," + segments[i][1] + "," + segments[i][2] + "," + tailStarts[i] + "," + tailCrcs[i]);
+        }
+        File tmpFile = new File(journalFile.getPath() + ".tmp");
+        FileOutputStream fos = new FileOutputStream(tmpFile);
+        try {
+            properties.store(fos, null);
+            fos.getFD().sync();
+        }finally {
+            fos.close();
+        }
+        if(!tmpFile.renameTo(journalFile)) throw new IOException("journal rename error");
+    }
+
+    /**
+     * 计算文件区间的校验和
+     */
+    private static long checksum(FileChannel fileChannel, long start, long end) throws IOException {
+        CRC32 crc32 = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        long position = start;
+        while (position < end){
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            int len = fileChannel.read(buffer, position);
+            if(len == -1) throw new IOException("journal checksum eof");
+            crc32.update(buffer.array(), 0, len);
+            position += len;
+        }
+        return crc32.getValue();
+    }
+}
@@ -0,0 +1,175 @@
+package com.quexs.tool.httplib.download;
+
+import com.quexs.tool.httplib.log.HttpLogBean;
+import com.quexs.tool.httplib.log.HttpPrintLog;
+import com.quexs.tool.httplib.nio.HttpNioEngine;
+import com.quexs.tool.httplib.nio.HttpNioExchange;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * NIO 下载
+ * 在 HttpNioEngine 的 Selector 线程中下载，不占用下载线程池
+ * 只用于普通下载，断点续传及分段下载仍由 HttpDownloadRunnable 执行
+ */
+class HttpDownloadNioCall extends HttpNioExchange {
+    //最多重定向次数
+    private static final int MAX_REDIRECTS = 5;
+
+    private final HttpDownloadRunnable task;
+    private final HttpNioEngine engine;
+    //已重定向次数
+    private final int redirectCount;
+    //重定向链接
+    private String redirectUrl;
+    private RandomAccessFile raf;
+    private FileChannel fileChannel;
+    private long fileLen = -1;
+    private long dlCount;
+
+    HttpDownloadNioCall(HttpDownloadRunnable task, HttpNioEngine engine) throws MalformedURLException {
+        this(task, engine, task.getUrl(), 0);
+    }
+
+    private HttpDownloadNioCall(HttpDownloadRunnable task, HttpNioEngine engine, String url, int redirectCount) throws MalformedURLException {
+        super(url, "GET", task.getVerifyCode(), task.getPriority(), task.getSort());
+        this.task = task;
+        this.engine = engine;
+        this.redirectCount = redirectCount;
+        //默认表单请求
+        setRequestProperty("Content-Type", "application/x-www-form-urlencoded;charset=UTF-8");
+        setRequestProperty("Accept-Encoding", "identity");
+    }
+
+    @Override
+    protected void onStart() {
+        HttpDownloadListener httpDownloadListener = task.getHttpDownloadListener();
+        if(redirectCount == 0 && !isCancel() && httpDownloadListener != null){
+            httpDownloadListener.downloadStart(task.getObjKey());
+        }
+    }
+
+    @Override
+    protected void onResponse(int responseCode, Map<String, List<String>> headers) throws Exception {
+        String location = getHeaderField("Location");
+        if(responseCode >= 300 && responseCode < 400 && location != null){
+            if(redirectCount >= MAX_REDIRECTS) throw new IOException("Too many follow-up requests: " + (redirectCount + 1));
+            URL url = new URL(getUrl(), location);
+            //与 HttpsURLConnection 一致，不从 https 重定向至 http
+            if("https".equalsIgnoreCase(getUrl().getProtocol()) && !"https".equalsIgnoreCase(url.getProtocol())){
+                throw new IOException("redirect from https to " + url.getProtocol() + " not allowed:" + url);
+            }
+            redirectUrl = url.toString();
+            return;
+        }
+        if(responseCode != HttpURLConnection.HTTP_OK) throw new Exception("request result code:" + responseCode);
+        String contentLength = getHeaderField("Content-Length");
+        fileLen = contentLength == null ? -1 : Long.parseLong(contentLength.trim());
+        File file = new File(task.getSaveFilePath());
+        HttpDownloadJournal.delete(file);
+        if(file.exists() && !file.delete()) throw new Exception("old File delete error");
+        if(!file.createNewFile()) throw new Exception("File create error");
+        raf = new RandomAccessFile(file, "rw");
+        fileChannel = raf.getChannel();
+    }
+
+    @Override
+    protected void onResponseBody(ByteBuffer body) throws Exception {
+        //重定向响应的消息体
+        if(fileChannel == null){
+            body.position(body.limit());
+            return;
+        }
+        int len = body.remaining();
+        while (body.hasRemaining()){
+            fileChannel.write(body);
+        }
+        dlCount += len;
+        //回调下载进度
+        task.dispatchProgress(dlCount, fileLen);
+    }
+
+    @Override
+    protected void onComplete() {
+        closeFile();
+        if(redirectUrl != null){
+            try {
+                engine.execute(new HttpDownloadNioCall(task, engine, redirectUrl, redirectCount + 1));
+            }catch (Exception e){
+                onError(e);
+            }
+            return;
+        }
+        if(fileLen > 0 && dlCount < fileLen){
+            onError(new Exception("download incomplete:" + dlCount + "/" + fileLen));
+            return;
+        }
+        //打印日志
+        HttpPrintLog.getInstance().addPrintLog(new HttpLogBean(task.getUrl(), "GET", getRequestProperties(), getResponseCode(), "Download Complete"));
+        try {
+            task.flushProgress();
+            HttpDownloadListener httpDownloadListener = task.getHttpDownloadListener();
+            if(httpDownloadListener != null){
+                httpDownloadListener.downloadComplete(task.getSaveFilePath(), task.getObjKey());
+            }
+        }finally {
+            //监听抛出异常时也需结束下载
+            endDownload();
+        }
+    }
+
+    @Override
+    protected void onError(Exception e) {
+        closeFile();
+        //打印日志
+        HttpPrintLog.getInstance().addPrintLog(new HttpLogBean(task.getUrl(), "GET", getRequestProperties(), getResponseCode(), e));
+        try {
+            HttpDownloadListener httpDownloadListener = task.getHttpDownloadListener();
+            if(httpDownloadListener != null){
+                httpDownloadListener.downloadError(e, task.getObjKey());
+            }
+        }finally {
+            endDownload();
+        }
+    }
+
+    @Override
+    protected boolean isCancel() {
+        return task.isCancelDownload();
+    }
+
+    @Override
+    protected void onCancel() {
+        closeFile();
+        //打印日志
+        HttpPrintLog.getInstance().addPrintLog(new HttpLogBean(task.getUrl(), "GET", getRequestProperties(), getResponseCode(), "Cancel Download"));
+        endDownload();
+    }
+
+    private void endDownload() {
+        HttpDownloadRunnable.HttpDownloadRunnableEndListener httpDownloadRunnableEndListener = task.getHttpDownloadRunnableEndListener();
+        if(httpDownloadRunnableEndListener != null){
+            httpDownloadRunnableEndListener.endDownload(task.getObjKey());
+        }
+    }
+
+    private void closeFile() {
+        if(raf == null) return;
+        try {
+            raf.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        raf = null;
+        fileChannel = null;
+    }
+}
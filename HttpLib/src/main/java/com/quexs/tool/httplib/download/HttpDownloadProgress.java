@@ -0,0 +1,25 @@
+package com.quexs.tool.httplib.download;
+
+import com.quexs.tool.httplib.conn.HttpProgress;
+
+/**
+ * 下载进度
+ */
+public class HttpDownloadProgress extends HttpProgress {
+
+    HttpDownloadProgress(long downloadLen, long fileLen, double speed, double averageSpeed) {
+        super(downloadLen, fileLen, speed, averageSpeed);
+    }
+
+    public long getDownloadLen() {
+        return getTransferLen();
+    }
+
+    /**
+     * 文件总长度
+     * @return -1 未知
+     */
+    public long getFileLen() {
+        return getTransferTotal();
+    }
+}
@@ -0,0 +1,99 @@
+package com.quexs.tool.httplib.download;
+
+import com.quexs.tool.httplib.conn.HttpProgressDispatcher;
+
+import java.util.concurrent.Executor;
+
+/**
+ * 下载进度回调设置（合并条件及回调线程见 HttpProgressDispatcher），下载完成前回调最终进度
+ */
+public class HttpDownloadProgressDispatcher extends HttpProgressDispatcher {
+
+    /**
+     * 包装下载监听，在回调线程池中回调
+     * @return 未设置回调线程池时返回原监听
+     */
+    HttpDownloadListener wrap(HttpDownloadListener httpDownloadListener) {
+        if(getExecutor() == null || httpDownloadListener == null) return httpDownloadListener;
+        if(httpDownloadListener instanceof HttpDownloadProgressListener){
+            return new ExecutorProgressListener(getExecutor(), (HttpDownloadProgressListener) httpDownloadListener);
+        }
+        //原接口的监听不实现 HttpDownloadProgressListener，回调时不创建进度
+        return new ExecutorListener(getExecutor(), httpDownloadListener);
+    }
+
+    /**
+     * 在回调线程池中回调的下载监听
+     */
+    private static class ExecutorListener implements HttpDownloadListener {
+        final Executor executor;
+        private final HttpDownloadListener httpDownloadListener;
+
+        ExecutorListener(Executor executor, HttpDownloadListener httpDownloadListener) {
+            this.executor = executor;
+            this.httpDownloadListener = httpDownloadListener;
+        }
+
+        @Override
+        public void downloadStart(final Object objKey) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    httpDownloadListener.downloadStart(objKey);
+                }
+            });
+        }
+
+        @Override
+        public void downloadProgress(final long downloadLen, final int fileLen, final Object objKey) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    httpDownloadListener.downloadProgress(downloadLen, fileLen, objKey);
+                }
+            });
+        }
+
+        @Override
+        public void downloadComplete(final String filePath, final Object objKey) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    httpDownloadListener.downloadComplete(filePath, objKey);
+                }
+            });
+        }
+
+        @Override
+        public void downloadError(final Exception e, final Object objKey) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    httpDownloadListener.downloadError(e, objKey);
+                }
+            });
+        }
+    }
+
+    /**
+     * 在回调线程池中回调的下载进度监听
+     */
+    private static class ExecutorProgressListener extends ExecutorListener implements HttpDownloadProgressListener {
+        private final HttpDownloadProgressListener httpDownloadListener;
+
+        ExecutorProgressListener(Executor executor, HttpDownloadProgressListener httpDownloadListener) {
+            super(executor, httpDownloadListener);
+            this.httpDownloadListener = httpDownloadListener;
+        }
+
+        @Override
+        public void downloadProgress(final HttpDownloadProgress progress, final Object objKey) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    httpDownloadListener.downloadProgress(progress, objKey);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package com.quexs.tool.httplib.download;
+
+/**
+ * 下载进度监听（长整型文件长度，含下载速度及剩余时间）
+ * 实现此接口时只回调 downloadProgress(HttpDownloadProgress, Object)，不再回调 downloadProgress(long, int, Object)
+ */
+public interface HttpDownloadProgressListener extends HttpDownloadListener {
+    void downloadProgress(HttpDownloadProgress progress, Object objKey);
+}
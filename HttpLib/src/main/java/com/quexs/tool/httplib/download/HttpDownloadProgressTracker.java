@@ -0,0 +1,40 @@
+package com.quexs.tool.httplib.download;
+
+import com.quexs.tool.httplib.conn.HttpProgressTracker;
+
+/**
+ * 下载进度合并及速度估算
+ * 只为 HttpDownloadProgressListener 创建进度，原接口的监听直接回调（分段下载多线程串行回调）
+ */
+class HttpDownloadProgressTracker extends HttpProgressTracker {
+    private final HttpDownloadRunnable task;
+
+    /**
+     * @param dispatcher null 不合并，每次写入都回调
+     */
+    HttpDownloadProgressTracker(HttpDownloadRunnable task, HttpDownloadProgressDispatcher dispatcher) {
+        super(dispatcher);
+        this.task = task;
+    }
+
+    @Override
+    protected void onProgress(long downloadLen, long fileLen, double speed, double averageSpeed) {
+        HttpDownloadListener httpDownloadListener = task.getHttpDownloadListener();
+        if(httpDownloadListener instanceof HttpDownloadGroup){
+            //合并下载监听按加入的监听决定是否创建进度
+            ((HttpDownloadGroup) httpDownloadListener).downloadProgress(downloadLen, fileLen, speed, averageSpeed);
+        }else if(httpDownloadListener instanceof HttpDownloadProgressListener){
+            ((HttpDownloadProgressListener) httpDownloadListener).downloadProgress(new HttpDownloadProgress(downloadLen, fileLen, speed, averageSpeed), task.getObjKey());
+        }else if(httpDownloadListener != null){
+            //原接口直接回调，不创建进度
+            httpDownloadListener.downloadProgress(downloadLen, toIntFileLen(fileLen), task.getObjKey());
+        }
+    }
+
+    /**
+     * 原接口的文件长度（超出 int 的文件长度按未知 -1 回调）
+     */
+    static int toIntFileLen(long fileLen) {
+        return fileLen > Integer.MAX_VALUE ? -1 : (int) fileLen;
+    }
+}
@@ -2,49 +2,109 @@ package com.quexs.tool.httplib.download;
 
 import android.text.TextUtils;
 
+import com.quexs.tool.httplib.cache.HttpDiskCache;
+import com.quexs.tool.httplib.conn.HttpConnectionTool;
+import com.quexs.tool.httplib.conn.HttpContentDecoder;
+import com.quexs.tool.httplib.conn.HttpRateLimiter;
+import com.quexs.tool.httplib.conn.HttpResponseException;
+import com.quexs.tool.httplib.conn.HttpRetryPolicy;
 import com.quexs.tool.httplib.log.HttpLogBean;
 import com.quexs.tool.httplib.log.HttpPrintLog;
 import com.quexs.tool.httplib.ssl.HttpSSLVerify;
 import com.quexs.tool.httplib.ssl.SSLSocketFactoryTool;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.security.KeyManagementException;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 
-import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.HttpsURLConnection;
-import javax.net.ssl.SSLSession;
 
 /**
  * 下载 Runnable
  */
 public class HttpDownloadRunnable implements Runnable, Comparable<HttpDownloadRunnable>{
+    //提交顺序，同优先级先提交先执行
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+    //优先级老化的计时起点（单调时钟，不受系统时间调整影响）
+    private static final long AGING_BASE_NANOS = System.nanoTime();
+
     //防重复Key
     private final Object objKey;
-    //优先级
-    private final long priority;
+    //优先级（可由 HttpDownload.reprioritize 调整）
+    private volatile long priority;
     //排序默认升序
     private final String sort;
+    private final long sequence = SEQUENCE.getAndIncrement();
+    //优先级老化间隔（单位：毫秒），0 不老化
+    private long agingIntervalMillis;
+    //加入队列时间（System.nanoTime）
+    private long enqueueNanos;
 
     //下载链接
     private String url;
     //保存文件路径
     private String saveFilePath;
+    //对冲请求使用的镜像链接
+    private String mirrorUrl;
 
     //下载监听
     private HttpDownloadListener httpDownloadListener;
     //取消下载
-    private boolean isCancelDownload;
+    private volatile boolean isCancelDownload;
     //是否断点续传
     private boolean isRange;
+    //分段下载数量（大于1时启用多线程分段下载）
+    private int segmentCount = 1;
+    //启用分段下载的最小文件长度
+    private long segmentMinFileLen = 4 * 1024 * 1024;
+    //分段下载线程池
+    private Executor segmentExecutor;
+    //并发自适应控制
+    private HttpDownloadConcurrency concurrency;
+    //单主机熔断
+    private HttpDownloadCircuitBreaker circuitBreaker;
+    //请求对冲
+    private HttpDownloadHedging hedging;
+    //响应磁盘缓存
+    private HttpDiskCache diskCache;
+    //任务限速
+    private HttpRateLimiter rateLimiter;
+    //HttpDownload 实例限速
+    private HttpRateLimiter instanceRateLimiter;
+    //带宽分配权重
+    private int rateWeight = 1;
+    //本次下载的限速（分段下载的各线程共用）
+    private volatile HttpRateLimiter.Transfer rateTransfer;
+    //任务重试策略
+    private HttpRetryPolicy retryPolicy;
+    //HttpDownload 实例重试策略
+    private HttpRetryPolicy instanceRetryPolicy;
+    //已重试次数
+    private int retryCount;
+    //已回调开始（重试及改用线程池执行时不再回调）
+    private volatile boolean isStarted;
+    //下载进度合并及速度估算
+    private HttpDownloadProgressTracker progressTracker = new HttpDownloadProgressTracker(this, null);
+    //是否启用压缩传输（只用于普通下载）
+    private boolean isCompression;
+    //压缩的响应是否按原样保存
+    private boolean isKeepCompressed;
+    //写入缓冲区大小
+    private int bufferSize = HttpDownloadSink.DEFAULT_BUFFER_SIZE;
+    //分段下载是否使用内存映射写入
+    private boolean isMappedWrite;
     //下载结束监听
     private HttpDownloadRunnableEndListener httpDownloadRunnableEndListener;
     //SSL验证编码
@@ -72,6 +132,14 @@ public class HttpDownloadRunnable implements Runnable, Comparable<HttpDownloadRu
         this.saveFilePath = saveFilePath;
     }
 
+    /**
+     * 设置镜像链接，启用请求对冲时对冲请求使用该链接
+     * @param mirrorUrl null 对冲请求使用下载链接
+     */
+    public void setMirrorUrl(String mirrorUrl) {
+        this.mirrorUrl = mirrorUrl;
+    }
+
     /**
      * 下载监听
      * @param httpDownloadListener
@@ -103,6 +171,227 @@ public class HttpDownloadRunnable implements Runnable, Comparable<HttpDownloadRu
         isRange = true;
     }
 
+    /**
+     * 启动多线程分段下载
+     * 服务端不支持Range或文件小于最小分段长度时，自动使用单线程下载
+     * @param segmentCount 分段数量
+     */
+    public void enableSegment(int segmentCount) {
+        this.segmentCount = segmentCount;
+    }
+
+    /**
+     * 设置启用分段下载的最小文件长度
+     * @param segmentMinFileLen 默认 4M
+     */
+    public void setSegmentMinFileLen(long segmentMinFileLen) {
+        this.segmentMinFileLen = segmentMinFileLen;
+    }
+
+    /**
+     * 启用压缩传输，适合文本等可压缩的文件（只用于普通下载，断点续传及分段下载按原始字节传输）
+     * 请求声明 Accept-Encoding: gzip, deflate，解压后保存时下载进度的文件总长度未知（-1）
+     * @param isKeepCompressed true 按原样保存压缩后的文件，不解压
+     */
+    public void enableCompression(boolean isKeepCompressed) {
+        this.isCompression = true;
+        this.isKeepCompressed = isKeepCompressed;
+    }
+
+    /**
+     * 设置任务限速（与 HttpDownload 实例限速、全局限速同时生效）
+     * @param rateLimiter 可由多个任务共用；null 不限速
+     */
+    public void setRateLimiter(HttpRateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * 设置带宽分配权重，同一限速下的传输按权重分配带宽
+     * @param rateWeight 默认 1，前台下载可设置较大的权重
+     */
+    public void setRateWeight(int rateWeight) {
+        if(rateWeight <= 0) throw new IllegalArgumentException("rateWeight <= 0");
+        this.rateWeight = rateWeight;
+    }
+
+    /**
+     * 设置任务重试策略（优先于 HttpDownload 实例重试策略）
+     * 启用重试的普通下载记录断点续传日志，重试时从已下载位置继续（未启用压缩传输、磁盘缓存及请求对冲时）
+     * @param retryPolicy null 使用实例重试策略
+     */
+    public void setRetryPolicy(HttpRetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * 设置写入缓冲区大小
+     * @param bufferSize 默认 64K
+     */
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * 分段下载启用内存映射写入（文件已预分配）
+     */
+    public void enableMappedWrite() {
+        isMappedWrite = true;
+    }
+
+    /**
+     * 分段下载线程池（由 HttpDownload 设置）
+     * @param segmentExecutor
+     */
+    void setSegmentExecutor(Executor segmentExecutor) {
+        this.segmentExecutor = segmentExecutor;
+    }
+
+    /**
+     * 并发自适应控制（由 HttpDownload 设置），统计下载量、响应延迟及失败数
+     * @param concurrency
+     */
+    void setConcurrency(HttpDownloadConcurrency concurrency) {
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * 单主机熔断（由 HttpDownload 设置），请求前检查主机是否可用，并记录请求结果
+     * @param circuitBreaker
+     */
+    void setCircuitBreaker(HttpDownloadCircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * 请求对冲（由 HttpDownload 设置），只用于普通下载
+     * @param hedging
+     */
+    void setHedging(HttpDownloadHedging hedging) {
+        this.hedging = hedging;
+    }
+
+    /**
+     * 是否使用请求对冲：未启用压缩传输及磁盘缓存的普通下载
+     */
+    boolean isHedged() {
+        return hedging != null && isPlainDownload() && !isCompression && diskCache == null;
+    }
+
+    /**
+     * 响应磁盘缓存（由 HttpDownload 设置），只用于普通下载
+     * @param diskCache
+     */
+    void setDiskCache(HttpDiskCache diskCache) {
+        this.diskCache = diskCache;
+    }
+
+    /**
+     * 下载进度回调设置（由 HttpDownload 设置）
+     * @param progressDispatcher null 每次写入都回调
+     */
+    void setProgressDispatcher(HttpDownloadProgressDispatcher progressDispatcher) {
+        this.progressTracker = new HttpDownloadProgressTracker(this, progressDispatcher);
+    }
+
+    /**
+     * 更新下载进度，满足回调条件时回调
+     * @param downloadLen 已下载长度
+     * @param fileLen 文件总长度，-1 未知
+     */
+    void dispatchProgress(long downloadLen, long fileLen) {
+        progressTracker.update(downloadLen, fileLen);
+    }
+
+    /**
+     * 回调尚未回调的最新进度（回调下载完成前调用）
+     */
+    void flushProgress() {
+        progressTracker.flush();
+    }
+
+    /**
+     * HttpDownload 实例限速（由 HttpDownload 设置）
+     * @param instanceRateLimiter
+     */
+    void setInstanceRateLimiter(HttpRateLimiter instanceRateLimiter) {
+        this.instanceRateLimiter = instanceRateLimiter;
+    }
+
+    /**
+     * HttpDownload 实例重试策略（由 HttpDownload 设置）
+     * @param instanceRetryPolicy
+     */
+    void setInstanceRetryPolicy(HttpRetryPolicy instanceRetryPolicy) {
+        this.instanceRetryPolicy = instanceRetryPolicy;
+    }
+
+    /**
+     * 生效的重试策略（NIO、HTTP/2 传输不支持，使用线程池执行）
+     * @return null 不重试
+     */
+    HttpRetryPolicy getRetryPolicy() {
+        return retryPolicy != null ? retryPolicy : instanceRetryPolicy;
+    }
+
+    /**
+     * 是否记录断点续传日志：启用断点续传，或启用重试的下载（未启用压缩传输、磁盘缓存及请求对冲时）
+     */
+    boolean isResumable() {
+        return isRange || (getRetryPolicy() != null && !isCompression && diskCache == null && !isHedged());
+    }
+
+    /**
+     * 是否限速（NIO、HTTP/2 传输不支持，使用线程池执行）
+     */
+    boolean isRateLimited() {
+        return rateLimiter != null || instanceRateLimiter != null || HttpRateLimiter.getGlobal() != null;
+    }
+
+    /**
+     * 记录下载量，限速时等待令牌
+     */
+    void recordTransfer(int len) {
+        HttpRateLimiter.Transfer rateTransfer = this.rateTransfer;
+        if(rateTransfer != null){
+            rateTransfer.acquire(len);
+        }
+        if(concurrency != null){
+            concurrency.onTransfer(len);
+        }
+    }
+
+    /**
+     * 记录响应延迟
+     * @param startNanos 发起连接时间
+     */
+    void recordLatency(long startNanos) {
+        long latencyMillis = (System.nanoTime() - startNanos) / 1000000L;
+        if(concurrency != null){
+            concurrency.onLatency(latencyMillis);
+        }
+        if(circuitBreaker != null){
+            circuitBreaker.onResponse(url, this, latencyMillis);
+        }
+    }
+
+    /**
+     * 记录失败的请求结果：网络异常及服务端暂时不可用计为主机失败，其他响应码说明主机可用
+     */
+    private void recordCircuitFailure(Exception e) {
+        if(circuitBreaker == null || isCancelDownload || e instanceof HttpCircuitOpenException) return;
+        if(e instanceof HttpResponseException){
+            int responseCode = ((HttpResponseException) e).getResponseCode();
+            if(responseCode >= 500 || responseCode == 408 || responseCode == 429){
+                circuitBreaker.onFailure(url, this);
+            }else {
+                circuitBreaker.onResponse(url, this, 0);
+            }
+        }else if(e instanceof IOException){
+            circuitBreaker.onFailure(url, this);
+        }
+    }
+
     /**
      * 取消下载
      */
@@ -114,12 +403,130 @@ public class HttpDownloadRunnable implements Runnable, Comparable<HttpDownloadRu
         return objKey;
     }
 
+    String getUrl() {
+        return url;
+    }
+
+    String getSaveFilePath() {
+        return saveFilePath;
+    }
+
+    String getMirrorUrl() {
+        return mirrorUrl;
+    }
+
+    HttpDownloadListener getHttpDownloadListener() {
+        return httpDownloadListener;
+    }
+
+    int getBufferSize() {
+        return bufferSize;
+    }
+
+    boolean isRange() {
+        return isRange;
+    }
+
+    boolean isMappedWrite() {
+        return isMappedWrite;
+    }
+
+    long getPriority() {
+        return priority;
+    }
+
+    /**
+     * 调整优先级（需先从队列中移除，调整后重新加入）
+     * @param priority
+     */
+    void setPriority(long priority) {
+        this.priority = priority;
+    }
+
+    /**
+     * 设置优先级老化（加入队列前设置），等待时间每达到一个间隔，相当于优先级提升 1
+     * @param agingIntervalMillis 0 不老化
+     */
+    void setPriorityAging(long agingIntervalMillis) {
+        this.agingIntervalMillis = agingIntervalMillis;
+        this.enqueueNanos = System.nanoTime();
+    }
+
+    /**
+     * 辅助线程沿用所属下载的优先级老化，与其他下载在同一队列中按相同规则比较
+     */
+    void inheritPriorityAging(HttpDownloadRunnable task) {
+        this.agingIntervalMillis = task.agingIntervalMillis;
+        this.enqueueNanos = task.enqueueNanos;
+    }
+
+    String getSort() {
+        return sort;
+    }
+
+    int getVerifyCode() {
+        return verifyCode;
+    }
+
+    HttpDownloadRunnableEndListener getHttpDownloadRunnableEndListener() {
+        return httpDownloadRunnableEndListener;
+    }
+
+    /**
+     * 是否为普通下载，可使用 NIO 或 HTTP/2 传输（断点续传及分段下载仍使用 HttpsURLConnection）
+     */
+    boolean isPlainDownload() {
+        return !isRange && segmentCount <= 1;
+    }
+
+    boolean isCancelDownload() {
+        return isCancelDownload;
+    }
+
+    /**
+     * 影响传输的任务设置是否相同（合并下载时比较）：限速、带宽权重、重试策略、镜像链接、缓冲区及优先级
+     */
+    boolean hasSameTransferSettings(HttpDownloadRunnable o) {
+        return rateLimiter == o.rateLimiter && rateWeight == o.rateWeight && retryPolicy == o.retryPolicy
+                && TextUtils.equals(mirrorUrl, o.mirrorUrl) && bufferSize == o.bufferSize
+                && priority == o.priority && TextUtils.equals(sort, o.sort);
+    }
+
+    /**
+     * 是否启用压缩传输（NIO、HTTP/2 传输不支持，使用线程池执行）
+     */
+    boolean isCompression() {
+        return isCompression;
+    }
+
+    boolean isKeepCompressed() {
+        return isKeepCompressed;
+    }
+
     @Override
     public int compareTo(HttpDownloadRunnable o) {
-        //降序
-        if(!TextUtils.isEmpty(sort) && "DESC".equalsIgnoreCase(sort)) return Long.compare(o.priority, priority);
-        //升序
-        return Long.compare(priority, o.priority);
+        boolean isDesc = !TextUtils.isEmpty(sort) && "DESC".equalsIgnoreCase(sort);
+        int result;
+        if(agingIntervalMillis <= 0 && o.agingIntervalMillis <= 0){
+            //降序
+            if(isDesc) result = Long.compare(o.priority, priority);
+            //升序
+            else result = Long.compare(priority, o.priority);
+        }else {
+            //老化后的优先级只与加入队列时间有关，队列中的顺序不会随时间变化，无需重新排序
+            if(isDesc) result = Double.compare(o.getAgedPriority(true), getAgedPriority(true));
+            else result = Double.compare(getAgedPriority(false), o.getAgedPriority(false));
+        }
+        return result != 0 ? result : Long.compare(sequence, o.sequence);
+    }
+
+    /**
+     * 老化后的优先级：越早加入队列，优先级越高
+     */
+    private double getAgedPriority(boolean isDesc) {
+        if(agingIntervalMillis <= 0) return priority;
+        double age = (enqueueNanos - AGING_BASE_NANOS) / 1000000.0 / agingIntervalMillis;
+        return isDesc ? priority - age : priority + age;
     }
 
     @Override
@@ -130,36 +537,96 @@ public class HttpDownloadRunnable implements Runnable, Comparable<HttpDownloadRu
             }
             return;
         }
-        if(httpDownloadListener != null){
-            httpDownloadListener.downloadStart(objKey);
+        //缓存在有效期内时不请求网络，不受熔断影响
+        HttpDiskCache.Entry freshCache = getFreshCache();
+        //已向熔断器申请请求（需在结束时释放）
+        boolean isCircuitAcquired = circuitBreaker != null && freshCache == null;
+        //主机熔断中
+        long circuitWaitMillis = isCircuitAcquired ? circuitBreaker.acquire(url, this) : 0;
+        if(circuitWaitMillis > 0 && circuitBreaker.isDeferWhenOpen()){
+            //推迟至熔断结束后重新排队
+            scheduleResubmit(new HttpCircuitOpenException(url, circuitWaitMillis), circuitWaitMillis);
+            return;
+        }
+        //重试时不再回调开始
+        if(!isStarted){
+            isStarted = true;
+            if(httpDownloadListener != null){
+                httpDownloadListener.downloadStart(objKey);
+            }
         }
         HttpsURLConnection conn = null;
+        //连接后不能再读取题头属性，提前记录用于打印日志
+        Map<String, List<String>> requestProperties = null;
+        //响应已读完，连接可复用
+        boolean isReusable = false;
+        //已安排重试，下载尚未结束
+        boolean isRetrying = false;
+        progressTracker.reset();
         try {
-            URL connUrl = new URL(url);
-            conn = (HttpsURLConnection) connUrl.openConnection();
-            //SSL验证规则
-            runVerify(conn);
-            //设置连接主机超时（单位：毫秒）
-            //连接主机超时时间（单位：毫秒）
-            int connectTimeout = 10 * 1000;
-            conn.setConnectTimeout(connectTimeout);
-            //设置从主机读取数据超时（单位：毫秒）
-            //设置从主机读取数据超时时间（单位：毫秒）
-            int readTimeout = 10 * 1000;
-            conn.setReadTimeout(readTimeout);
+            //熔断中立即失败，不占用线程等待连接超时
+            if(circuitWaitMillis > 0) throw new HttpCircuitOpenException(url, circuitWaitMillis);
+            rateTransfer = HttpRateLimiter.newTransfer(rateWeight, rateLimiter, instanceRateLimiter, HttpRateLimiter.getGlobal());
+            //缓存在有效期内，无需请求网络
+            if(freshCache != null){
+                if(runFreshCache(freshCache)){
+                    //打印日志
+                    HttpPrintLog.getInstance().addPrintLog(new HttpLogBean(url, "GET", Collections.<String, List<String>>emptyMap(), -1, "Cache Hit"));
+                    return;
+                }
+                //缓存不可用，改为请求网络
+                if(circuitBreaker != null){
+                    isCircuitAcquired = true;
+                    circuitWaitMillis = circuitBreaker.acquire(url, this);
+                    if(circuitWaitMillis > 0) throw new HttpCircuitOpenException(url, circuitWaitMillis);
+                }
+            }
+            if(segmentCount > 1 && segmentExecutor != null){
+                //探测文件长度及是否支持Range
+                conn = openConnection();
+                conn.setRequestMethod("HEAD");
+                conn.setRequestProperty("Accept-Encoding", "identity");
+                requestProperties = conn.getRequestProperties();
+                long fileLen = probeSegmentFileLen(conn);
+                isReusable = HttpConnectionTool.closeResponse(conn);
+                if(fileLen >= segmentMinFileLen){
+                    HttpDownloadSegment httpDownloadSegment = new HttpDownloadSegment(this, fileLen, segmentCount, conn.getHeaderField("ETag"), conn.getHeaderField("Last-Modified"));
+                    boolean isDownloadComplete = httpDownloadSegment.download(new SegmentRunnableFactory());
+                    //打印日志
+                    HttpPrintLog.getInstance().addPrintLog(new HttpLogBean(url, "GET", requestProperties, conn.getResponseCode(), isDownloadComplete ? "Segment Download Complete" : "Cancel Download"));
+                    return;
+                }
+                //不支持分段，使用单线程下载
+                HttpConnectionTool.release(conn, isReusable);
+                requestProperties = null;
+                isReusable = false;
+            }
+            if(isHedged()){
+                //主请求与对冲请求各自连接
+                HttpDownloadHedge httpDownloadHedge = new HttpDownloadHedge(this, hedging);
+                boolean isDownloadComplete = httpDownloadHedge.download(new HedgeRunnableFactory());
+                //打印日志
+                HttpPrintLog.getInstance().addPrintLog(new HttpLogBean(url, "GET", Collections.<String, List<String>>emptyMap(),
+                        isDownloadComplete ? HttpURLConnection.HTTP_OK : -1, isDownloadComplete ? "Hedged Download Complete" : "Cancel Download"));
+                return;
+            }
+            conn = openConnection();
             //默认表单请求
             conn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded;charset=UTF-8");
             //GET请求
             conn.setRequestMethod("GET");
-            //文件下载
-            boolean isDownloadComplete = isRange ? runRangeDownload(conn) : runDownload(conn);
+            requestProperties = conn.getRequestProperties();
+            //文件下载（下载完成时响应已读完）
+            boolean isDownloadComplete = isResumable() ? runRangeDownload(conn) : runDownload(conn);
+            isReusable = isDownloadComplete;
             //打印日志
-            HttpPrintLog.getInstance().addPrintLog(new HttpLogBean(url, "GET", conn.getRequestProperties(), conn.getResponseCode(), isDownloadComplete ? "Download Complete" : "Cancel Download"));
+            HttpPrintLog.getInstance().addPrintLog(new HttpLogBean(url, "GET", requestProperties, conn.getResponseCode(), isDownloadComplete ? "Download Complete" : "Cancel Download"));
         }catch (Exception e){
-            Map<String, List<String>> requestProperties = null;
             int responseCode = -1;
-            if(conn != null){
-                requestProperties = conn.getRequestProperties();
+            if(requestProperties == null){
+                //未发起连接
+                requestProperties = Collections.emptyMap();
+            }else if(conn != null){
                 try {
                     responseCode = conn.getResponseCode();
                 } catch (IOException ex) {
@@ -168,12 +635,88 @@ public class HttpDownloadRunnable implements Runnable, Comparable<HttpDownloadRu
             }
             //打印日志
             HttpPrintLog.getInstance().addPrintLog(new HttpLogBean(url, "GET", requestProperties, responseCode, e));
-            if (httpDownloadListener != null) {
+            if(concurrency != null && !isCancelDownload && !(e instanceof HttpCircuitOpenException)){
+                concurrency.onError();
+            }
+            recordCircuitFailure(e);
+            isRetrying = scheduleRetry(e);
+            if (!isRetrying && httpDownloadListener != null) {
                 httpDownloadListener.downloadError(e, objKey);
             }
         }finally {
-            if (conn != null) {
-                conn.disconnect();
+            //响应已读完时保留连接供复用
+            HttpConnectionTool.release(conn, isReusable);
+            if(isCircuitAcquired){
+                circuitBreaker.release(url, this);
+            }
+            if(!isRetrying && httpDownloadRunnableEndListener != null){
+                httpDownloadRunnableEndListener.endDownload(objKey);
+            }
+        }
+    }
+
+    /**
+     * 按重试策略安排重试，退避期间不占用线程
+     * @param e 本次失败的异常
+     * @return false 不重试
+     */
+    private boolean scheduleRetry(final Exception e) {
+        HttpRetryPolicy retryPolicy = getRetryPolicy();
+        if(retryPolicy == null || isCancelDownload || segmentExecutor == null) return false;
+        long delayMillis = retryPolicy.getRetryDelay(e, retryCount, true);
+        if(delayMillis < 0) return false;
+        retryCount++;
+        scheduleResubmit(e, delayMillis);
+        return true;
+    }
+
+    /**
+     * 等待后重新提交至线程池排队，等待期间不占用线程，并让出单主机并发名额
+     * @param e 线程池已关闭时回调的异常
+     * @param delayMillis 等待时间（单位：毫秒）
+     */
+    private void scheduleResubmit(final Exception e, long delayMillis) {
+        if(concurrency != null){
+            concurrency.onTaskEnd(this);
+        }
+        HttpRetryPolicy.schedule(new Runnable() {
+            @Override
+            public void run() {
+                resubmit(e);
+            }
+        }, delayMillis);
+    }
+
+    /**
+     * 提交至线程池排队，启用并发自适应控制时超出单主机并发上限等待（与 HttpDownload.addDownload 一致）
+     * @throws RejectedExecutionException 线程池已关闭
+     */
+    void submit() {
+        if(concurrency != null){
+            concurrency.execute(this);
+        }else {
+            segmentExecutor.execute(this);
+        }
+    }
+
+    /**
+     * 已由其他传输方式回调开始（HTTP/2 重定向后改用线程池执行）
+     */
+    void markStarted() {
+        isStarted = true;
+    }
+
+    /**
+     * 退避结束，重新提交至线程池排队
+     * @param e 上次失败的异常，线程池已关闭时回调
+     */
+    private void resubmit(Exception e) {
+        try {
+            submit();
+        }catch (RejectedExecutionException ex){
+            //线程池已关闭
+            if(httpDownloadListener != null){
+                httpDownloadListener.downloadError(e, objKey);
             }
             if(httpDownloadRunnableEndListener != null){
                 httpDownloadRunnableEndListener.endDownload(objKey);
@@ -181,6 +724,56 @@ public class HttpDownloadRunnable implements Runnable, Comparable<HttpDownloadRu
         }
     }
 
+    /**
+     * 打开连接，并设置SSL验证规则及超时时间
+     * @return
+     * @throws Exception
+     */
+    HttpsURLConnection openConnection() throws Exception {
+        return openConnection(url);
+    }
+
+    /**
+     * 打开指定链接的连接，并设置SSL验证规则及超时时间
+     * @param url 下载链接或镜像链接
+     * @return
+     * @throws Exception
+     */
+    HttpsURLConnection openConnection(String url) throws Exception {
+        URL connUrl = new URL(url);
+        HttpsURLConnection conn = (HttpsURLConnection) connUrl.openConnection();
+        //SSL验证规则
+        runVerify(conn);
+        //设置连接主机超时（单位：毫秒）
+        //连接主机超时时间（单位：毫秒）
+        int connectTimeout = 10 * 1000;
+        conn.setConnectTimeout(connectTimeout);
+        //设置从主机读取数据超时（单位：毫秒）
+        //设置从主机读取数据超时时间（单位：毫秒）
+        int readTimeout = 10 * 1000;
+        conn.setReadTimeout(readTimeout);
+        return conn;
+    }
+
+    /**
+     * 探测分段下载的文件长度
+     * @param conn HEAD 请求
+     * @return -1 服务端不支持分段下载
+     * @throws Exception
+     */
+    private long probeSegmentFileLen(HttpsURLConnection conn) throws Exception {
+        long startNanos = System.nanoTime();
+        conn.connect();
+        if(conn.getResponseCode() != HttpURLConnection.HTTP_OK) return -1;
+        recordLatency(startNanos);
+        //服务端声明支持字节范围请求
+        if(!"bytes".equalsIgnoreCase(conn.getHeaderField("Accept-Ranges"))) return -1;
+        //压缩后的内容无法按字节分段
+        String contentEncoding = conn.getHeaderField("Content-Encoding");
+        if(!TextUtils.isEmpty(contentEncoding) && !"identity".equalsIgnoreCase(contentEncoding)) return -1;
+        return parseContentLength(conn.getHeaderField("Content-Length"));
+    }
+
     /**
      * 执行SSL验证（目前只支持跳过验证、客户端单向验证）
      * @param conn
@@ -189,22 +782,8 @@ public class HttpDownloadRunnable implements Runnable, Comparable<HttpDownloadRu
      * @throws KeyManagementException
      */
     private void runVerify(HttpsURLConnection conn) throws Exception {
-        if(verifyCode != HttpSSLVerify.VerifyCode.DEFAULT_VERIFY){
-            if(verifyCode == HttpSSLVerify.VerifyCode.CLIENT_VERIFY){
-                //使用客户端默认密钥库验证-单向验证
-                conn.setSSLSocketFactory(SSLSocketFactoryTool.mGetClientVerifySSLSocketFactory());
-            }else {
-                //跳过所有验证
-                conn.setSSLSocketFactory(SSLSocketFactoryTool.mGetSkipVerifySSLSocketFactory());
-            }
-            //主机验证-默认true不验证
-            conn.setHostnameVerifier(new HostnameVerifier() {
-                @Override
-                public boolean verify(String hostname, SSLSession session) {
-                    return true;
-                }
-            });
-        }
+        //复用已初始化的 SSLSocketFactory
+        SSLSocketFactoryTool.applyVerify(conn, verifyCode);
     }
 
     /**
@@ -213,79 +792,351 @@ public class HttpDownloadRunnable implements Runnable, Comparable<HttpDownloadRu
      * @throws Exception
      */
     private boolean runDownload(HttpsURLConnection conn) throws Exception {
+        //有缓存时发起条件请求
+        HttpDiskCache.Entry cacheEntry = diskCache != null && isPlainDownload() ? diskCache.get(getCacheKey()) : null;
+        if(cacheEntry != null && cacheEntry.canRevalidate()){
+            if(cacheEntry.getETag() != null) conn.setRequestProperty("If-None-Match", cacheEntry.getETag());
+            if(cacheEntry.getLastModified() != null) conn.setRequestProperty("If-Modified-Since", cacheEntry.getLastModified());
+        }else {
+            cacheEntry = null;
+        }
+        if(isCompression){
+            //手动声明后 HttpURLConnection 不再自动解压，按 Content-Encoding 自行解码
+            conn.setRequestProperty("Accept-Encoding", HttpContentDecoder.ACCEPT_ENCODING);
+        }
         //连接
+        long startNanos = System.nanoTime();
         conn.connect();
-        if(conn.getResponseCode() != HttpURLConnection.HTTP_OK) throw new Exception("request result code:" + conn.getResponseCode());
-        int fileLen = conn.getContentLength();
+        if(cacheEntry != null && conn.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED){
+            //服务端文件未变化，使用缓存文件
+            HttpConnectionTool.closeResponse(conn);
+            recordLatency(startNanos);
+            diskCache.update(getCacheKey(), conn);
+            return completeFromCache(cacheEntry);
+        }
+        if(conn.getResponseCode() != HttpURLConnection.HTTP_OK){
+            HttpConnectionTool.closeResponse(conn);
+            throw new HttpResponseException("request result code:" + conn.getResponseCode(), conn.getResponseCode(), conn.getHeaderField("Retry-After"));
+        }
+        recordLatency(startNanos);
+        //压缩的响应解压后保存（按原样保存时不解压）
+        boolean isDecode = !isKeepCompressed && HttpContentDecoder.isEncoded(conn.getHeaderField("Content-Encoding"));
+        //解压后的长度未知
+        final long fileLen = isDecode ? -1 : parseContentLength(conn.getHeaderField("Content-Length"));
         InputStream is = conn.getInputStream();
-        File file = new File(saveFilePath);
-        if(file.exists() && !file.delete()) throw new Exception("old File delete error");
-        if(!file.createNewFile()) throw new Exception("File create error");
-        FileOutputStream fos = new FileOutputStream(file);
-        byte[] b = new byte[1024];
-        int dlCount = 0;//已下载量
-        int len;
-        while (!isCancelDownload && (len = is.read(b)) != -1){
-            fos.write(b, 0, len);
-            dlCount += len;
-            //回调下载进度
-            if(httpDownloadListener != null){
-                httpDownloadListener.downloadProgress(dlCount, fileLen, objKey);
+        try {
+            if(isDecode){
+                is = HttpContentDecoder.decode(conn, is);
             }
+            File file = new File(saveFilePath);
+            HttpDownloadJournal.delete(file);
+            if(file.exists() && !file.delete()) throw new Exception("old File delete error");
+            if(!file.createNewFile()) throw new Exception("File create error");
+            transferToFile(is, file, 0, fileLen, null);
+        }finally {
+            HttpConnectionTool.closeResponse(is);
+        }
+        if(isCancelDownload) return false;
+        if(diskCache != null && isPlainDownload()){
+            diskCache.put(getCacheKey(), new File(saveFilePath), conn);
+        }
+        flushProgress();
+        if(httpDownloadListener != null){
+            httpDownloadListener.downloadComplete(saveFilePath,objKey);
+        }
+        return true;
+    }
+
+    /**
+     * 有效期内的缓存
+     * @return null 没有有效缓存，需请求网络
+     */
+    private HttpDiskCache.Entry getFreshCache() {
+        if(diskCache == null || !isPlainDownload()) return null;
+        HttpDiskCache.Entry cacheEntry = diskCache.get(getCacheKey());
+        return cacheEntry != null && cacheEntry.isFresh() ? cacheEntry : null;
+    }
+
+    /**
+     * 使用有效期内的缓存
+     * @return false 缓存不可用，需请求网络
+     */
+    private boolean runFreshCache(HttpDiskCache.Entry cacheEntry) {
+        try {
+            return completeFromCache(cacheEntry);
+        }catch (IOException e){
+            //缓存文件已淘汰或损坏
+            diskCache.remove(getCacheKey());
+            return false;
         }
-        fos.flush();
-        fos.close();
-        is.close();
+    }
+
+    /**
+     * 磁盘缓存的键：按原样保存压缩文件时与解压后的文件分开缓存，只用于相同保存方式的下载
+     */
+    private String getCacheKey() {
+        return isKeepCompressed ? url + " encoded" : url;
+    }
+
+    /**
+     * 复制缓存文件至保存路径，回调下载完成
+     */
+    private boolean completeFromCache(HttpDiskCache.Entry cacheEntry) throws IOException {
+        File file = new File(saveFilePath);
+        HttpDownloadJournal.delete(file);
+        HttpDiskCache.copyTo(cacheEntry, file);
         if(isCancelDownload) return false;
+        dispatchProgress(file.length(), file.length());
+        flushProgress();
         if(httpDownloadListener != null){
-            httpDownloadListener.downloadComplete(saveFilePath,saveFilePath);
+            httpDownloadListener.downloadComplete(saveFilePath,objKey);
         }
         return true;
     }
 
     /**
      * 断点续传下载
+     * 续传位置以断点续传日志中已落盘并通过校验的位置为准，并通过 If-Range 确认服务端文件未变化
      */
     private boolean runRangeDownload(HttpsURLConnection conn) throws Exception {
         File file = new File(saveFilePath);
-        if(file.exists()){
-            // 设置断点续传的开始位置
-            conn.setRequestProperty("Range", "bytes=" + file.length() + "-");
-        }else {
-            file.createNewFile();
+        HttpDownloadJournal journal = HttpDownloadJournal.load(file, url);
+        //已下载量
+        long dlCount = 0;
+        if(journal != null && journal.getSegmentCount() == 1 && journal.getIfRange() != null){
+            dlCount = journal.getCommitted(0);
+        }
+        if(dlCount > 0){
+            // 设置断点续传的开始位置，服务端文件已变化时返回完整文件
+            conn.setRequestProperty("Range", "bytes=" + dlCount + "-");
+            conn.setRequestProperty("If-Range", journal.getIfRange());
         }
+        //压缩后的内容无法按字节续传
+        conn.setRequestProperty("Accept-Encoding", "identity");
         //连接
+        long startNanos = System.nanoTime();
         conn.connect();
         if(conn.getResponseCode() != HttpURLConnection.HTTP_OK
-                && conn.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) throw new Exception("request result code:" + conn.getResponseCode());
-        //已下载量
-        int dlCount = (int)file.length();
-        int fileLen = conn.getContentLength() + dlCount;
-        InputStream is = conn.getInputStream();
-        //true表示将会从断点处追加。
-        FileOutputStream fos = new FileOutputStream(file, true);
-        byte[] b = new byte[1024];
-        int len;
-        while (!isCancelDownload && (len = is.read(b)) != -1){
-            fos.write(b, 0, len);
-            dlCount += len;
-            //回调下载进度
-            if(httpDownloadListener != null){
-                httpDownloadListener.downloadProgress(dlCount, fileLen, objKey);
+                && conn.getResponseCode() != HttpURLConnection.HTTP_PARTIAL){
+            HttpConnectionTool.closeResponse(conn);
+            throw new HttpResponseException("request result code:" + conn.getResponseCode(), conn.getResponseCode(), conn.getHeaderField("Retry-After"));
+        }
+        recordLatency(startNanos);
+        long fileLen;
+        if(dlCount > 0 && conn.getResponseCode() == HttpURLConnection.HTTP_PARTIAL
+                && parseContentRange(conn.getHeaderField("Content-Range"), 0) == dlCount){
+            fileLen = parseContentRange(conn.getHeaderField("Content-Range"), 1);
+            if(fileLen > 0 && journal.getFileLen() != fileLen){
+                journal.setFileLen(fileLen);
             }
+        }else if(conn.getResponseCode() == HttpURLConnection.HTTP_PARTIAL){
+            //部分内容与续传位置不符（或缺少 Content-Range），不能当作完整文件写入；
+            //删除断点续传日志，重试时不带 Range 请求完整文件
+            HttpDownloadJournal.delete(file);
+            HttpConnectionTool.closeResponse(conn);
+            throw new IOException("unexpected partial response:" + conn.getHeaderField("Content-Range") + " resume at " + dlCount);
+        }else {
+            //服务端文件已变化或不支持Range（200 完整文件），重新下载
+            dlCount = 0;
+            fileLen = parseContentLength(conn.getHeaderField("Content-Length"));
+            HttpDownloadJournal.delete(file);
+            if(file.exists() && !file.delete()) throw new Exception("old File delete error");
+            if(!file.createNewFile()) throw new Exception("File create error");
+            String eTag = conn.getHeaderField("ETag");
+            String lastModified = conn.getHeaderField("Last-Modified");
+            journal = eTag != null || lastModified != null
+                    ? HttpDownloadJournal.create(file, url, eTag, lastModified, fileLen, new long[][]{{0, fileLen > 0 ? fileLen - 1 : -1}})
+                    : null;
+        }
+        InputStream is = conn.getInputStream();
+        long len;
+        try {
+            //从断点处写入
+            len = transferToFile(is, file, dlCount, fileLen, journal);
+        }finally {
+            HttpConnectionTool.closeResponse(is);
         }
-        fos.flush();
-        fos.close();
-        is.close();
         if(isCancelDownload) return false;
+        if(fileLen > 0 && dlCount + len < fileLen) throw new IOException("download incomplete:" + (dlCount + len) + "/" + fileLen);
+        //截断续传前未提交的尾部数据
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(dlCount + len);
+        }finally {
+            raf.close();
+        }
+        HttpDownloadJournal.delete(file);
+        flushProgress();
         if(httpDownloadListener != null){
-            httpDownloadListener.downloadComplete(saveFilePath,saveFilePath);
+            httpDownloadListener.downloadComplete(saveFilePath,objKey);
         }
         return true;
     }
 
+    /**
+     * 解析 Content-Range: bytes start-end/total
+     * @param contentRange
+     * @param index 0 起始位置 1 文件总长度
+     * @return -1 解析失败
+     */
+    private static long parseContentRange(String contentRange, int index) {
+        if(TextUtils.isEmpty(contentRange)) return -1;
+        try {
+            String range = contentRange.trim();
+            if(range.startsWith("bytes")) range = range.substring(5).trim();
+            int slash = range.indexOf('/');
+            if(index == 1){
+                return slash < 0 ? -1 : Long.parseLong(range.substring(slash + 1).trim());
+            }
+            return Long.parseLong(range.substring(0, range.indexOf('-')).trim());
+        }catch (Exception e){
+            return -1;
+        }
+    }
+
+    /**
+     * 解析 Content-Length
+     * @return -1 未知长度
+     */
+    private static long parseContentLength(String contentLength) {
+        if(TextUtils.isEmpty(contentLength)) return -1;
+        try {
+            return Long.parseLong(contentLength.trim());
+        }catch (NumberFormatException e){
+            return -1;
+        }
+    }
+
+    /**
+     * 网络流写入文件，并回调下载进度
+     * @param is 网络流
+     * @param file 保存文件
+     * @param position 写入起始位置（已下载量）
+     * @param fileLen 文件总长度，-1 未知
+     * @param journal 断点续传日志
+     * @return 写入长度
+     * @throws IOException
+     */
+    private long transferToFile(InputStream is, File file, final long position, final long fileLen, HttpDownloadJournal journal) throws IOException {
+        HttpDownloadSink sink = new HttpDownloadSink(bufferSize, false);
+        if(journal != null){
+            sink.setJournal(journal, 0);
+        }
+        return sink.write(is, file, position, -1, new HttpDownloadSink.WriteCallback() {
+            //已下载量
+            private long dlCount = position;
+
+            @Override
+            public boolean isCancel() {
+                return isCancelDownload;
+            }
+
+            @Override
+            public void onWrite(int len) {
+                dlCount += len;
+                recordTransfer(len);
+                //回调下载进度
+                dispatchProgress(dlCount, fileLen);
+            }
+        });
+    }
+
     public interface HttpDownloadRunnableEndListener{
         void endDownload(Object objKey);
     }
 
+    /**
+     * 提交辅助线程至 HttpDownload 线程池，设置了并发控制时计入单主机并发数
+     * @return false 已达单主机并发上限，未提交
+     */
+    private boolean executeWorker(HttpDownloadRunnable worker) {
+        if(concurrency == null){
+            segmentExecutor.execute(worker);
+            return true;
+        }
+        worker.setConcurrency(concurrency);
+        return concurrency.executeWorker(worker);
+    }
+
+    /**
+     * 辅助线程结束，让出单主机并发名额
+     */
+    void endWorker() {
+        if(concurrency != null){
+            concurrency.onTaskEnd(this);
+        }
+    }
+
+    /**
+     * 创建分段下载辅助线程，提交至 HttpDownload 线程池
+     */
+    private class SegmentRunnableFactory implements HttpDownloadSegment.SegmentWorkerFactory {
+        @Override
+        public boolean executeWorker(HttpDownloadSegment httpDownloadSegment) {
+            SegmentRunnable segmentRunnable = new SegmentRunnable(objKey, priority, sort, url, httpDownloadSegment);
+            segmentRunnable.inheritPriorityAging(HttpDownloadRunnable.this);
+            return HttpDownloadRunnable.this.executeWorker(segmentRunnable);
+        }
+    }
+
+    /**
+     * 创建对冲请求辅助线程，提交至 HttpDownload 线程池
+     */
+    private class HedgeRunnableFactory implements HttpDownloadHedge.HedgeWorkerFactory {
+        @Override
+        public boolean executeWorker(HttpDownloadHedge httpDownloadHedge) {
+            HedgeRunnable hedgeRunnable = new HedgeRunnable(objKey, priority, sort, httpDownloadHedge.getHedgeUrl(), httpDownloadHedge);
+            hedgeRunnable.inheritPriorityAging(HttpDownloadRunnable.this);
+            return HttpDownloadRunnable.this.executeWorker(hedgeRunnable);
+        }
+    }
+
+    /**
+     * 对冲请求辅助线程
+     * 与所属下载任务同优先级排队，主请求先结束时由下载线程执行
+     */
+    private static class HedgeRunnable extends HttpDownloadRunnable {
+        private final HttpDownloadHedge httpDownloadHedge;
+
+        HedgeRunnable(Object objKey, long priority, String sort, String url, HttpDownloadHedge httpDownloadHedge) {
+            super(objKey, priority, sort);
+            //用于统计对冲链接主机的并发数
+            setDownloadParams(url, null);
+            this.httpDownloadHedge = httpDownloadHedge;
+        }
+
+        @Override
+        public void run() {
+            try {
+                httpDownloadHedge.runHedge();
+            }finally {
+                endWorker();
+            }
+        }
+    }
+
+    /**
+     * 分段下载辅助线程
+     * 与所属下载任务同优先级排队，执行时领取尚未开始的分段
+     */
+    private static class SegmentRunnable extends HttpDownloadRunnable {
+        private final HttpDownloadSegment httpDownloadSegment;
+
+        SegmentRunnable(Object objKey, long priority, String sort, String url, HttpDownloadSegment httpDownloadSegment) {
+            super(objKey, priority, sort);
+            //用于统计主机并发数
+            setDownloadParams(url, null);
+            this.httpDownloadSegment = httpDownloadSegment;
+        }
+
+        @Override
+        public void run() {
+            try {
+                httpDownloadSegment.runSegments();
+            }finally {
+                endWorker();
+            }
+        }
+    }
+
 }
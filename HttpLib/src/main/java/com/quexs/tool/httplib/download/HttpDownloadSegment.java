@@ -0,0 +1,219 @@
+package com.quexs.tool.httplib.download;
+
+import com.quexs.tool.httplib.conn.HttpConnectionTool;
+import com.quexs.tool.httplib.conn.HttpResponseException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.HttpsURLConnection;
+
+/**
+ * 多线程分段下载
+ * 文件按字节范围拆分为多个分段，下载线程与辅助线程共同领取分段并写入预分配文件的对应位置
+ */
+class HttpDownloadSegment {
+    //所属下载任务
+    private final HttpDownloadRunnable task;
+    //文件总长度
+    private final long fileLen;
+    //分段数量
+    private final int segmentCount;
+    //服务端校验值
+    private final String eTag;
+    private final String lastModified;
+    //分段范围 [start, end]
+    private long[][] ranges;
+    //下一个待领取的分段
+    private final AtomicInteger nextIndex = new AtomicInteger();
+    //已结束的分段计数
+    private CountDownLatch endLatch;
+    //已下载量
+    private final AtomicLong dlCount = new AtomicLong();
+    //首个分段异常
+    private volatile Exception segmentException;
+    //保存文件
+    private final File file;
+    //断点续传日志
+    private HttpDownloadJournal journal;
+
+    HttpDownloadSegment(HttpDownloadRunnable task, long fileLen, int segmentCount, String eTag, String lastModified) {
+        this.task = task;
+        this.fileLen = fileLen;
+        this.segmentCount = (int) Math.max(1, Math.min(segmentCount, fileLen));
+        this.eTag = eTag;
+        this.lastModified = lastModified;
+        file = new File(task.getSaveFilePath());
+    }
+
+    /**
+     * 执行分段下载（在下载任务线程中调用）
+     * @param factory 辅助线程创建
+     * @return false 取消下载
+     * @throws Exception
+     */
+    boolean download(SegmentWorkerFactory factory) throws Exception {
+        if(task.isResumable()){
+            //断点续传：日志与服务端文件一致时从各分段提交位置继续下载
+            journal = HttpDownloadJournal.load(file, task.getUrl());
+            if(journal != null && (journal.getFileLen() != fileLen
+                    || journal.getIfRange() == null
+                    || !journal.isValidatorMatch(eTag, lastModified))){
+                journal = null;
+            }
+        }
+        if(journal != null){
+            ranges = new long[journal.getSegmentCount()][2];
+            for (int i = 0; i < ranges.length; i++) {
+                ranges[i][0] = journal.getSegmentStart(i);
+                ranges[i][1] = journal.getSegmentEnd(i);
+            }
+            dlCount.set(journal.getCommittedLen());
+        }else {
+            ranges = new long[segmentCount][2];
+            long segmentLen = fileLen / segmentCount;
+            for (int i = 0; i < segmentCount; i++) {
+                ranges[i][0] = i * segmentLen;
+                ranges[i][1] = i == segmentCount - 1 ? fileLen - 1 : (i + 1) * segmentLen - 1;
+            }
+            if(file.exists() && !file.delete()) throw new Exception("old File delete error");
+            //预分配文件
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.setLength(fileLen);
+            }finally {
+                raf.close();
+            }
+            if(task.isResumable() && (eTag != null || lastModified != null)){
+                journal = HttpDownloadJournal.create(file, task.getUrl(), eTag, lastModified, fileLen, ranges);
+            }
+        }
+        endLatch = new CountDownLatch(ranges.length);
+        //辅助线程与当前线程共同领取分段，线程池已满时由当前线程完成全部分段
+        for (int i = 1; i < ranges.length; i++) {
+            try {
+                //已达单主机并发上限
+                if(!factory.executeWorker(this)) break;
+            }catch (RejectedExecutionException e){
+                break;
+            }
+        }
+        runSegments();
+        //等待其他线程领取的分段结束
+        endLatch.await();
+        if(segmentException != null) throw segmentException;
+        if(task.isCancelDownload()) return false;
+        HttpDownloadJournal.delete(file);
+        task.flushProgress();
+        HttpDownloadListener httpDownloadListener = task.getHttpDownloadListener();
+        if(httpDownloadListener != null){
+            httpDownloadListener.downloadComplete(task.getSaveFilePath(), task.getObjKey());
+        }
+        return true;
+    }
+
+    /**
+     * 循环领取并下载分段，直至没有剩余分段
+     */
+    void runSegments() {
+        int index;
+        while ((index = nextIndex.getAndIncrement()) < ranges.length){
+            try {
+                if(segmentException == null && !task.isCancelDownload()){
+                    downloadRange(index);
+                }
+            }catch (Exception e){
+                if(segmentException == null){
+                    segmentException = e;
+                }
+            }finally {
+                endLatch.countDown();
+            }
+        }
+    }
+
+    /**
+     * 下载单个分段
+     * @param index 分段
+     * @throws Exception
+     */
+    private void downloadRange(int index) throws Exception {
+        long start = journal != null ? journal.getCommitted(index) : ranges[index][0];
+        long end = ranges[index][1];
+        //分段已下载完成
+        if(start > end) return;
+        HttpsURLConnection conn = task.openConnection();
+        InputStream is = null;
+        //响应已读完，连接可复用
+        boolean isReusable = false;
+        try {
+            conn.setRequestMethod("GET");
+            conn.setRequestProperty("Accept-Encoding", "identity");
+            conn.setRequestProperty("Range", "bytes=" + start + "-" + end);
+            if(journal != null){
+                //服务端文件已变化时返回完整文件
+                conn.setRequestProperty("If-Range", journal.getIfRange());
+            }
+            conn.connect();
+            int responseCode = conn.getResponseCode();
+            if(responseCode != HttpURLConnection.HTTP_PARTIAL){
+                //服务端文件已变化，下次重新下载（服务端暂时不可用时保留日志，重试时继续）
+                if(responseCode < 500 && responseCode != 408 && responseCode != 429){
+                    HttpDownloadJournal.delete(file);
+                }
+                isReusable = HttpConnectionTool.closeResponse(conn);
+                throw new HttpResponseException("segment request result code:" + responseCode, responseCode, conn.getHeaderField("Retry-After"));
+            }
+            is = conn.getInputStream();
+            long rangeLen = end - start + 1;
+            //文件已预分配，可使用内存映射写入
+            HttpDownloadSink sink = new HttpDownloadSink(task.getBufferSize(), task.isMappedWrite());
+            if(journal != null){
+                sink.setJournal(journal, index);
+            }
+            long len = sink.write(is, file, start, rangeLen, new HttpDownloadSink.WriteCallback() {
+                @Override
+                public boolean isCancel() {
+                    return segmentException != null || task.isCancelDownload();
+                }
+
+                @Override
+                public void onWrite(int len) {
+                    task.recordTransfer(len);
+                    dispatchProgress(dlCount.addAndGet(len));
+                }
+            });
+            if(len < rangeLen && segmentException == null && !task.isCancelDownload()) throw new IOException("segment incomplete:" + start + "-" + end);
+        }finally {
+            if(is != null){
+                isReusable = HttpConnectionTool.closeResponse(is);
+            }
+            HttpConnectionTool.release(conn, isReusable);
+        }
+    }
+
+    /**
+     * 回调下载进度（多线程串行回调）
+     * @param downloadLen
+     */
+    private void dispatchProgress(long downloadLen) {
+        task.dispatchProgress(downloadLen, fileLen);
+    }
+
+    /**
+     * 辅助线程创建
+     */
+    interface SegmentWorkerFactory {
+        /**
+         * @return false 已达单主机并发上限，未创建
+         */
+        boolean executeWorker(HttpDownloadSegment httpDownloadSegment);
+    }
+}
@@ -0,0 +1,176 @@
+package com.quexs.tool.httplib.download;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * 下载写入（FileChannel）
+ * 不是零拷贝：网络流（InputStream）经 Channels.newChannel 的堆内缓冲区复制到线程复用的直接内存缓冲区，
+ * 再按位置写入 FileChannel（内存映射写入时复制到映射内存）；InputStream 不能通过 transferFrom 省去这些复制，
+ * 作用是复用缓冲区、按缓冲区大小批量写入，避免逐块分配 byte[] 及 1K 小块写入
+ */
+class HttpDownloadSink {
+    //默认缓冲区大小 64K
+    static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    //内存映射窗口大小 8M
+    private static final long MAPPED_WINDOW_SIZE = 8 * 1024 * 1024;
+    //线程复用的直接内存缓冲区
+    private static final ThreadLocal<ByteBuffer> BUFFER_CACHE = new ThreadLocal<>();
+
+    //缓冲区大小
+    private final int bufferSize;
+    //是否使用内存映射写入（仅用于已预分配的文件）
+    private final boolean isMappedWrite;
+
+    //断点续传日志
+    private HttpDownloadJournal journal;
+    //日志分段
+    private int journalIndex;
+
+    HttpDownloadSink(int bufferSize, boolean isMappedWrite) {
+        this.bufferSize = bufferSize > 0 ? bufferSize : DEFAULT_BUFFER_SIZE;
+        this.isMappedWrite = isMappedWrite;
+    }
+
+    /**
+     * 写入时定期提交断点续传日志
+     * @param journal 日志
+     * @param journalIndex 分段
+     */
+    void setJournal(HttpDownloadJournal journal, int journalIndex) {
+        this.journal = journal;
+        this.journalIndex = journalIndex;
+    }
+
+    /**
+     * 将网络流写入文件指定位置
+     * @param is 网络流
+     * @param file 保存文件
+     * @param position 写入起始位置
+     * @param maxLen 最大写入长度，-1 表示写至流结束
+     * @param callback 写入回调
+     * @return 写入长度
+     * @throws IOException
+     */
+    long write(InputStream is, File file, long position, long maxLen, WriteCallback callback) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        FileChannel fileChannel = raf.getChannel();
+        try {
+            ReadableByteChannel src = Channels.newChannel(is);
+            ByteBuffer buffer = obtainBuffer();
+            if(isMappedWrite && maxLen > 0){
+                return writeMapped(src, fileChannel, buffer, position, maxLen, callback);
+            }
+            long total = 0;
+            //最后提交位置
+            long committed = position;
+            try {
+                while (maxLen < 0 || total < maxLen){
+                    if(callback.isCancel()) break;
+                    buffer.clear();
+                    buffer.limit(maxLen < 0 ? bufferSize : (int) Math.min(bufferSize, maxLen - total));
+                    int len = src.read(buffer);
+                    if(len == -1) break;
+                    buffer.flip();
+                    while (buffer.hasRemaining()){
+                        fileChannel.write(buffer, position + total + buffer.position());
+                    }
+                    total += len;
+                    callback.onWrite(len);
+                    if(journal != null && position + total - committed >= HttpDownloadJournal.COMMIT_SIZE){
+                        committed = position + total;
+                        journal.commit(journalIndex, fileChannel, committed);
+                    }
+                }
+            }finally {
+                commitQuietly(fileChannel, position + total);
+            }
+            return total;
+        }finally {
+            fileChannel.close();
+            raf.close();
+        }
+    }
+
+    /**
+     * 内存映射写入，按窗口映射避免一次占用过大的地址空间
+     */
+    private long writeMapped(ReadableByteChannel src, FileChannel fileChannel, ByteBuffer buffer, long position, long maxLen, WriteCallback callback) throws IOException {
+        long total = 0;
+        MappedByteBuffer mappedBuffer = null;
+        try {
+            while (total < maxLen && !callback.isCancel()){
+                if(mappedBuffer == null || !mappedBuffer.hasRemaining()){
+                    //映射窗口写满后落盘，再提交日志
+                    if(mappedBuffer != null && journal != null){
+                        mappedBuffer.force();
+                        journal.commit(journalIndex, fileChannel, position + total);
+                    }
+                    mappedBuffer = fileChannel.map(FileChannel.MapMode.READ_WRITE, position + total, Math.min(MAPPED_WINDOW_SIZE, maxLen - total));
+                }
+                buffer.clear();
+                buffer.limit(Math.min(bufferSize, mappedBuffer.remaining()));
+                int len = src.read(buffer);
+                if(len == -1) break;
+                buffer.flip();
+                mappedBuffer.put(buffer);
+                total += len;
+                callback.onWrite(len);
+            }
+        }finally {
+            if(mappedBuffer != null && journal != null){
+                mappedBuffer.force();
+            }
+            commitQuietly(fileChannel, position + total);
+        }
+        return total;
+    }
+
+    /**
+     * 写入结束（完成、取消或异常）时提交已写入的位置
+     */
+    private void commitQuietly(FileChannel fileChannel, long committed) {
+        if(journal == null) return;
+        try {
+            journal.commit(journalIndex, fileChannel, committed);
+        }catch (IOException e){
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 获取当前线程复用的缓冲区
+     * @return
+     */
+    private ByteBuffer obtainBuffer() {
+        ByteBuffer buffer = BUFFER_CACHE.get();
+        if(buffer == null || buffer.capacity() < bufferSize){
+            buffer = ByteBuffer.allocateDirect(bufferSize);
+            BUFFER_CACHE.set(buffer);
+        }
+        return buffer;
+    }
+
+    /**
+     * 写入回调
+     */
+    interface WriteCallback {
+        /**
+         * 是否停止写入
+         */
+        boolean isCancel();
+
+        /**
+         * 已写入
+         * @param len 本次写入长度
+         */
+        void onWrite(int len);
+    }
+}
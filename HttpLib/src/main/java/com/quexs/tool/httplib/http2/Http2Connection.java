@@ -0,0 +1,797 @@
+package com.quexs.tool.httplib.http2;
+
+import android.os.Build;
+
+import androidx.annotation.RequiresApi;
+
+import com.quexs.tool.httplib.ssl.SSLSocketFactoryTool;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSocket;
+
+/**
+ * HTTP/2 连接（RFC 7540）
+ * 一个连接承载同一主机的多个请求流，由一个读取线程接收并分发帧；请求不带请求体，只接收流量控制窗口
+ * 流的回调在回调线程池中执行，读取线程不等待回调；连接窗口收到即归还，流窗口在回调处理完数据后归还
+ */
+class Http2Connection implements Runnable {
+    private static final byte[] PREFACE = {'P', 'R', 'I', ' ', '*', ' ', 'H', 'T', 'T', 'P', '/', '2', '.', '0', '\r', '\n', '\r', '\n', 'S', 'M', '\r', '\n', '\r', '\n'};
+
+    private static final int TYPE_DATA = 0x0;
+    private static final int TYPE_HEADERS = 0x1;
+    private static final int TYPE_RST_STREAM = 0x3;
+    private static final int TYPE_SETTINGS = 0x4;
+    private static final int TYPE_PUSH_PROMISE = 0x5;
+    private static final int TYPE_PING = 0x6;
+    private static final int TYPE_GOAWAY = 0x7;
+    private static final int TYPE_WINDOW_UPDATE = 0x8;
+    private static final int TYPE_CONTINUATION = 0x9;
+
+    private static final int FLAG_END_STREAM = 0x1;
+    private static final int FLAG_ACK = 0x1;
+    private static final int FLAG_END_HEADERS = 0x4;
+    private static final int FLAG_PADDED = 0x8;
+    private static final int FLAG_PRIORITY = 0x20;
+
+    private static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+    private static final int SETTINGS_ENABLE_PUSH = 0x2;
+    private static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+    private static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+    private static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+
+    private static final int ERROR_NO_ERROR = 0x0;
+    private static final int ERROR_PROTOCOL_ERROR = 0x1;
+    private static final int ERROR_FLOW_CONTROL_ERROR = 0x3;
+    private static final int ERROR_FRAME_SIZE_ERROR = 0x6;
+    private static final int ERROR_REFUSED_STREAM = 0x7;
+    private static final int ERROR_CANCEL = 0x8;
+
+    //默认流量控制窗口
+    private static final int DEFAULT_WINDOW_SIZE = 65535;
+    //每个流的接收窗口
+    private static final int STREAM_WINDOW_SIZE = 1024 * 1024;
+    //连接的接收窗口
+    private static final int CONNECTION_WINDOW_SIZE = 16 * 1024 * 1024;
+    //最大帧长度（使用默认值）
+    private static final int MAX_FRAME_SIZE = 16384;
+    //SETTINGS_MAX_FRAME_SIZE 允许的最大值
+    private static final int MAX_FRAME_SIZE_LIMIT = 16777215;
+    //题头动态表大小（使用默认值）
+    private static final int HEADER_TABLE_SIZE = 4096;
+    //从主机读取数据超时时间（单位：毫秒）
+    private static final int READ_TIMEOUT = 10 * 1000;
+    //空闲连接存活时长 5 分钟
+    private static final long KEEP_ALIVE_MILLIS = 5 * 60 * 1000L;
+
+    private final Http2ConnectionPool pool;
+    private final String originKey;
+    private final Socket socket;
+    private final InputStream in;
+    private final OutputStream out;
+    //写入锁（获取顺序：this -> writeLock）
+    private final Object writeLock = new Object();
+    private final Http2Hpack.Encoder encoder = new Http2Hpack.Encoder();
+    private final Http2Hpack.Decoder decoder = new Http2Hpack.Decoder(HEADER_TABLE_SIZE);
+
+    //执行中的流
+    private final Map<Integer, Http2Stream> activeStreams = new HashMap<>();
+    //流数量达到上限时等待的流
+    private final PriorityQueue<Http2Stream> pendingStreams = new PriorityQueue<>();
+    //流已消耗未归还的接收窗口
+    private final Map<Integer, Integer> streamConsumed = new HashMap<>();
+    private int nextStreamId = 1;
+    //对端允许的最大并发流数
+    private int maxConcurrentStreams = Integer.MAX_VALUE;
+    //对端允许的最大帧长度
+    private int peerMaxFrameSize = MAX_FRAME_SIZE;
+    //连接已消耗未归还的接收窗口
+    private int connectionConsumed;
+    //不再创建新的流（GOAWAY 或连接异常）
+    private boolean isShutdown;
+    //空闲开始时间
+    private long idleSinceMillis;
+
+    //读取中的题头块
+    private final ByteArrayOutputStream headerBlock = new ByteArrayOutputStream();
+    private int headerStreamId;
+    private boolean isHeaderEndStream;
+
+    Http2Connection(Http2ConnectionPool pool, String originKey, Socket socket) throws IOException {
+        this.pool = pool;
+        this.originKey = originKey;
+        this.socket = socket;
+        this.in = socket.getInputStream();
+        this.out = new BufferedOutputStream(socket.getOutputStream(), MAX_FRAME_SIZE + 9);
+    }
+
+    /**
+     * 是否支持 ALPN 协商（Android 10 起 SSLSocket 支持设置应用层协议）
+     */
+    static boolean isAlpnSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q;
+    }
+
+    /**
+     * 连接主机并协商 HTTP/2
+     * @return null 主机不支持 HTTP/2
+     * @throws Exception 连接失败
+     */
+    static Http2Connection connect(Http2ConnectionPool pool, Http2Stream stream) throws Exception {
+        String host = stream.getUrl().getHost();
+        int port = stream.getPort();
+        Socket rawSocket = new Socket();
+        SSLSocket socket = null;
+        try {
+            rawSocket.connect(new InetSocketAddress(host, port), stream.getConnectTimeout());
+            rawSocket.setTcpNoDelay(true);
+            rawSocket.setSoTimeout(READ_TIMEOUT);
+            //复用已初始化的 SSLSocketFactory
+            socket = (SSLSocket) SSLSocketFactoryTool.getSSLSocketFactory(stream.getVerifyCode()).createSocket(rawSocket, host, port, true);
+            setApplicationProtocols(socket);
+            socket.startHandshake();
+            //与 HttpsURLConnection 一致，默认验证时校验主机名
+            if(!SSLSocketFactoryTool.getHostnameVerifier(stream.getVerifyCode()).verify(host, socket.getSession())){
+                throw new SSLPeerUnverifiedException("Hostname " + host + " not verified");
+            }
+            if(!"h2".equals(getApplicationProtocol(socket))){
+                socket.close();
+                return null;
+            }
+            Http2Connection connection = new Http2Connection(pool, stream.getOriginKey(), socket);
+            connection.start(host);
+            return connection;
+        }catch (Exception e){
+            if(socket != null){
+                socket.close();
+            }else {
+                rawSocket.close();
+            }
+            throw e;
+        }
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.Q)
+    private static void setApplicationProtocols(SSLSocket socket) {
+        SSLParameters sslParameters = socket.getSSLParameters();
+        sslParameters.setApplicationProtocols(new String[]{"h2", "http/1.1"});
+        socket.setSSLParameters(sslParameters);
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.Q)
+    private static String getApplicationProtocol(SSLSocket socket) {
+        return socket.getApplicationProtocol();
+    }
+
+    String getOriginKey() {
+        return originKey;
+    }
+
+    /**
+     * 发送连接前言及设置，启动读取线程
+     */
+    void start(String host) throws IOException {
+        synchronized (writeLock) {
+            out.write(PREFACE);
+            byte[] settings = new byte[12];
+            putSetting(settings, 0, SETTINGS_ENABLE_PUSH, 0);
+            putSetting(settings, 6, SETTINGS_INITIAL_WINDOW_SIZE, STREAM_WINDOW_SIZE);
+            writeFrame(TYPE_SETTINGS, 0, 0, settings, 0, settings.length);
+            writeWindowUpdate(0, CONNECTION_WINDOW_SIZE - DEFAULT_WINDOW_SIZE);
+            out.flush();
+        }
+        idleSinceMillis = System.currentTimeMillis();
+        Thread thread = new Thread(this, "Http2Connection-" + host);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 创建请求流
+     * @return false 连接已关闭，需使用其他连接
+     */
+    boolean newStream(Http2Stream stream) {
+        synchronized (this) {
+            if(isShutdown) return false;
+            if(activeStreams.size() >= maxConcurrentStreams){
+                pendingStreams.add(stream);
+                return true;
+            }
+        }
+        startStream(stream);
+        return true;
+    }
+
+    /**
+     * 发送请求题头，开始请求流
+     */
+    private void startStream(Http2Stream stream) {
+        if(stream.isCancel()){
+            postCancel(stream);
+            startPendingStreams();
+            return;
+        }
+        Exception error = null;
+        synchronized (this) {
+            if(isShutdown){
+                //连接已关闭，转移至其他连接
+                error = new IOException("connection shutdown");
+            }else {
+                int streamId = nextStreamId;
+                nextStreamId += 2;
+                //流 ID 即将用尽，新的流使用新连接
+                if(nextStreamId < 0 || nextStreamId > 0x7FFFFFFF - 2){
+                    isShutdown = true;
+                }
+                stream.streamId = streamId;
+                stream.isResponded = false;
+                stream.isHeadersReceived = false;
+                activeStreams.put(streamId, stream);
+                try {
+                    byte[] block = encoder.encode(stream.buildRequestHeaders());
+                    synchronized (writeLock) {
+                        writeHeaders(streamId, block);
+                        out.flush();
+                    }
+                }catch (IOException e){
+                    activeStreams.remove(streamId);
+                    error = e;
+                }
+            }
+        }
+        if(error == null){
+            postStart(stream);
+        }else if(isShutdown){
+            pool.onConnectionShutdown(this);
+            pool.execute(stream);
+        }else {
+            postError(stream, error);
+        }
+    }
+
+    /**
+     * 开始等待中的流
+     */
+    private void startPendingStreams() {
+        while (true){
+            Http2Stream stream;
+            synchronized (this) {
+                if(isShutdown || pendingStreams.isEmpty() || activeStreams.size() >= maxConcurrentStreams) return;
+                stream = pendingStreams.poll();
+            }
+            startStream(stream);
+        }
+    }
+
+    @Override
+    public void run() {
+        byte[] header = new byte[9];
+        byte[] payload = new byte[MAX_FRAME_SIZE];
+        Exception error = null;
+        try {
+            while (true){
+                if(!readFrameHeader(header)) break;
+                int len = ((header[0] & 0xFF) << 16) | ((header[1] & 0xFF) << 8) | (header[2] & 0xFF);
+                int type = header[3] & 0xFF;
+                int flags = header[4] & 0xFF;
+                int streamId = readInt(header, 5) & 0x7FFFFFFF;
+                if(len > MAX_FRAME_SIZE){
+                    goAway(ERROR_FRAME_SIZE_ERROR);
+                    throw new IOException("frame too large:" + len);
+                }
+                readFully(payload, 0, len);
+                if(headerStreamId != 0 && type != TYPE_CONTINUATION){
+                    goAway(ERROR_PROTOCOL_ERROR);
+                    throw new IOException("expected CONTINUATION frame");
+                }
+                switch (type){
+                    case TYPE_DATA:
+                        onData(streamId, flags, payload, len);
+                        break;
+                    case TYPE_HEADERS:
+                        onHeaders(streamId, flags, payload, len);
+                        break;
+                    case TYPE_CONTINUATION:
+                        onContinuation(streamId, flags, payload, len);
+                        break;
+                    case TYPE_RST_STREAM:
+                        onRstStream(streamId, readInt(payload, 0));
+                        break;
+                    case TYPE_SETTINGS:
+                        onSettings(flags, payload, len);
+                        break;
+                    case TYPE_PING:
+                        if((flags & FLAG_ACK) == 0){
+                            synchronized (writeLock) {
+                                writeFrame(TYPE_PING, FLAG_ACK, 0, payload, 0, len);
+                                out.flush();
+                            }
+                        }
+                        break;
+                    case TYPE_GOAWAY:
+                        onGoAway(readInt(payload, 0) & 0x7FFFFFFF);
+                        break;
+                    case TYPE_PUSH_PROMISE:
+                        //已禁用服务端推送
+                        goAway(ERROR_PROTOCOL_ERROR);
+                        throw new IOException("unexpected PUSH_PROMISE");
+                    case TYPE_WINDOW_UPDATE:
+                    default:
+                        //不发送消息体，忽略发送窗口；忽略 PRIORITY 及未知帧
+                        break;
+                }
+                synchronized (this) {
+                    //GOAWAY 后流已全部结束
+                    if(isShutdown && activeStreams.isEmpty()) break;
+                }
+            }
+        }catch (Exception e){
+            error = e;
+        }finally {
+            close(error);
+        }
+    }
+
+    /**
+     * 读取帧题头，处理空闲超时
+     * @return false 空闲超时，关闭连接
+     */
+    private boolean readFrameHeader(byte[] header) throws IOException {
+        while (true){
+            int len;
+            try {
+                len = in.read(header, 0, header.length);
+            }catch (SocketTimeoutException e){
+                synchronized (this) {
+                    //有执行中的流时为读取超时
+                    if(!activeStreams.isEmpty()) throw e;
+                    if(System.currentTimeMillis() - idleSinceMillis < KEEP_ALIVE_MILLIS) continue;
+                    isShutdown = true;
+                }
+                goAway(ERROR_NO_ERROR);
+                return false;
+            }
+            if(len < 0) throw new EOFException("connection closed");
+            //帧题头已开始读取，之后的超时为读取超时
+            if(len < header.length){
+                readFully(header, len, header.length - len);
+            }
+            return true;
+        }
+    }
+
+    private void readFully(byte[] b, int offset, int len) throws IOException {
+        while (len > 0){
+            int read = in.read(b, offset, len);
+            if(read < 0) throw new EOFException("connection closed");
+            offset += read;
+            len -= read;
+        }
+    }
+
+    private void onData(int streamId, int flags, byte[] payload, int len) throws IOException {
+        int offset = 0;
+        int dataLen = len;
+        if((flags & FLAG_PADDED) != 0){
+            int padLen = payload[0] & 0xFF;
+            offset = 1;
+            dataLen = len - 1 - padLen;
+            if(dataLen < 0) throw new IOException("invalid padding");
+        }
+        Http2Stream stream;
+        synchronized (this) {
+            stream = activeStreams.get(streamId);
+        }
+        boolean isEndStream = (flags & FLAG_END_STREAM) != 0;
+        if(stream != null){
+            if(stream.isCancel()){
+                resetStream(stream, ERROR_CANCEL);
+                postCancel(stream);
+                stream = null;
+            }else {
+                stream.isResponded = true;
+                postBody(stream, payload, offset, dataLen, isEndStream ? 0 : len);
+            }
+        }
+        //连接窗口收到即归还，慢速的流只占用自身的流窗口
+        synchronized (writeLock) {
+            connectionConsumed += len;
+            if(connectionConsumed >= CONNECTION_WINDOW_SIZE / 2){
+                writeWindowUpdate(0, connectionConsumed);
+                connectionConsumed = 0;
+                out.flush();
+            }
+        }
+        if(stream != null && isEndStream){
+            completeStream(stream);
+        }
+    }
+
+    /**
+     * 在回调线程写入消息体，处理完后归还流窗口
+     * @param windowLen 需归还的流窗口长度，0 流已结束无需归还
+     */
+    private void postBody(final Http2Stream stream, byte[] payload, int offset, final int dataLen, final int windowLen) {
+        final byte[] data = new byte[dataLen];
+        System.arraycopy(payload, offset, data, 0, dataLen);
+        stream.post(new Runnable() {
+            @Override
+            public void run() {
+                if(stream.isFinished()) return;
+                if(dataLen > 0){
+                    try {
+                        stream.onResponseBody(data, 0, dataLen);
+                    }catch (Exception e){
+                        resetStream(stream, ERROR_CANCEL);
+                        if(stream.finish()) stream.onError(e);
+                        return;
+                    }
+                }
+                if(windowLen > 0){
+                    releaseStreamWindow(stream, windowLen);
+                }
+            }
+        });
+    }
+
+    /**
+     * 归还流已处理的接收窗口
+     */
+    private void releaseStreamWindow(Http2Stream stream, int len) {
+        synchronized (this) {
+            if(activeStreams.get(stream.streamId) != stream) return;
+            synchronized (writeLock) {
+                Integer consumed = streamConsumed.get(stream.streamId);
+                int streamLen = (consumed == null ? 0 : consumed) + len;
+                if(streamLen >= STREAM_WINDOW_SIZE / 2){
+                    try {
+                        writeWindowUpdate(stream.streamId, streamLen);
+                        out.flush();
+                    }catch (IOException e){
+                        //连接已断开，由读取线程关闭
+                        return;
+                    }
+                    streamLen = 0;
+                }
+                streamConsumed.put(stream.streamId, streamLen);
+            }
+        }
+    }
+
+    private void onHeaders(int streamId, int flags, byte[] payload, int len) throws IOException {
+        int offset = 0;
+        int end = len;
+        if((flags & FLAG_PADDED) != 0){
+            offset = 1;
+            end -= payload[0] & 0xFF;
+        }
+        if((flags & FLAG_PRIORITY) != 0){
+            offset += 5;
+        }
+        if(end < offset) throw new IOException("invalid HEADERS frame");
+        headerBlock.reset();
+        headerBlock.write(payload, offset, end - offset);
+        headerStreamId = streamId;
+        isHeaderEndStream = (flags & FLAG_END_STREAM) != 0;
+        if((flags & FLAG_END_HEADERS) != 0){
+            onHeaderBlock();
+        }
+    }
+
+    private void onContinuation(int streamId, int flags, byte[] payload, int len) throws IOException {
+        if(streamId != headerStreamId){
+            goAway(ERROR_PROTOCOL_ERROR);
+            throw new IOException("unexpected CONTINUATION frame");
+        }
+        headerBlock.write(payload, 0, len);
+        if((flags & FLAG_END_HEADERS) != 0){
+            onHeaderBlock();
+        }
+    }
+
+    /**
+     * 题头块已完整，解码并分发（未知的流也需解码以同步动态表）
+     */
+    private void onHeaderBlock() throws IOException {
+        int streamId = headerStreamId;
+        headerStreamId = 0;
+        byte[] block = headerBlock.toByteArray();
+        List<String[]> headers = decoder.decode(block, 0, block.length);
+        Http2Stream stream;
+        synchronized (this) {
+            stream = activeStreams.get(streamId);
+        }
+        if(stream == null) return;
+        if(stream.isCancel()){
+            resetStream(stream, ERROR_CANCEL);
+            postCancel(stream);
+            return;
+        }
+        stream.isResponded = true;
+        //已收到最终响应后的题头为结尾题头，忽略
+        if(!stream.isHeadersReceived){
+            stream.isHeadersReceived = !Http2Stream.isInformational(headers);
+            postHeaders(stream, headers);
+        }
+        if(isHeaderEndStream){
+            completeStream(stream);
+        }
+    }
+
+    private void postHeaders(final Http2Stream stream, final List<String[]> headers) {
+        stream.post(new Runnable() {
+            @Override
+            public void run() {
+                if(stream.isFinished()) return;
+                try {
+                    stream.dispatchHeaders(headers);
+                }catch (Exception e){
+                    resetStream(stream, ERROR_CANCEL);
+                    if(stream.finish()) stream.onError(e);
+                }
+            }
+        });
+    }
+
+    private void onRstStream(int streamId, int errorCode) {
+        Http2Stream stream;
+        synchronized (this) {
+            stream = activeStreams.remove(streamId);
+            streamConsumed.remove(streamId);
+        }
+        if(stream == null) return;
+        if(errorCode == ERROR_REFUSED_STREAM && !stream.isResponded){
+            //服务端未处理，重新请求
+            pool.execute(stream);
+        }else {
+            postError(stream, new IOException("stream was reset: " + errorCode));
+        }
+        startPendingStreams();
+    }
+
+    private void onSettings(int flags, byte[] payload, int len) throws IOException {
+        if((flags & FLAG_ACK) != 0) return;
+        if(len % 6 != 0) throw new IOException("invalid SETTINGS frame");
+        synchronized (this) {
+            for (int i = 0; i < len; i += 6) {
+                int id = ((payload[i] & 0xFF) << 8) | (payload[i + 1] & 0xFF);
+                int value = readInt(payload, i + 2);
+                if(id == SETTINGS_MAX_CONCURRENT_STREAMS){
+                    maxConcurrentStreams = value < 0 ? Integer.MAX_VALUE : value;
+                }else if(id == SETTINGS_MAX_FRAME_SIZE){
+                    //RFC 7540 6.5.2：16384 至 16777215，否则为 PROTOCOL_ERROR
+                    if(value < MAX_FRAME_SIZE || value > MAX_FRAME_SIZE_LIMIT){
+                        goAway(ERROR_PROTOCOL_ERROR);
+                        throw new IOException("invalid SETTINGS_MAX_FRAME_SIZE:" + (value & 0xFFFFFFFFL));
+                    }
+                    peerMaxFrameSize = value;
+                }else if(id == SETTINGS_INITIAL_WINDOW_SIZE && value < 0){
+                    //超过 2^31-1 为 FLOW_CONTROL_ERROR
+                    goAway(ERROR_FLOW_CONTROL_ERROR);
+                    throw new IOException("invalid SETTINGS_INITIAL_WINDOW_SIZE:" + (value & 0xFFFFFFFFL));
+                }else if(id == SETTINGS_ENABLE_PUSH && value != 0 && value != 1){
+                    goAway(ERROR_PROTOCOL_ERROR);
+                    throw new IOException("invalid SETTINGS_ENABLE_PUSH:" + value);
+                }
+                //SETTINGS_HEADER_TABLE_SIZE：编码不使用动态表，无需处理
+                //SETTINGS_INITIAL_WINDOW_SIZE：不发送消息体，无需处理
+            }
+        }
+        synchronized (writeLock) {
+            writeFrame(TYPE_SETTINGS, FLAG_ACK, 0, payload, 0, 0);
+            out.flush();
+        }
+        startPendingStreams();
+    }
+
+    /**
+     * 服务端关闭连接：未处理的流转移至新连接，已处理的流继续接收
+     */
+    private void onGoAway(int lastStreamId) {
+        List<Http2Stream> retryStreams = new ArrayList<>();
+        synchronized (this) {
+            isShutdown = true;
+            for (Map.Entry<Integer, Http2Stream> entry : new ArrayList<>(activeStreams.entrySet())) {
+                if(entry.getKey() > lastStreamId){
+                    activeStreams.remove(entry.getKey());
+                    retryStreams.add(entry.getValue());
+                }
+            }
+            retryStreams.addAll(pendingStreams);
+            pendingStreams.clear();
+        }
+        pool.onConnectionShutdown(this);
+        for (Http2Stream stream : retryStreams) {
+            pool.execute(stream);
+        }
+    }
+
+    private void completeStream(Http2Stream stream) {
+        synchronized (this) {
+            activeStreams.remove(stream.streamId);
+            streamConsumed.remove(stream.streamId);
+            if(activeStreams.isEmpty()){
+                idleSinceMillis = System.currentTimeMillis();
+            }
+        }
+        postComplete(stream);
+        startPendingStreams();
+    }
+
+    /**
+     * 取消流
+     */
+    private void resetStream(Http2Stream stream, int errorCode) {
+        synchronized (this) {
+            activeStreams.remove(stream.streamId);
+            streamConsumed.remove(stream.streamId);
+            if(activeStreams.isEmpty()){
+                idleSinceMillis = System.currentTimeMillis();
+            }
+        }
+        byte[] payload = new byte[4];
+        putInt(payload, 0, errorCode);
+        try {
+            synchronized (writeLock) {
+                writeFrame(TYPE_RST_STREAM, 0, stream.streamId, payload, 0, payload.length);
+                out.flush();
+            }
+        }catch (IOException e){
+            e.printStackTrace();
+        }
+        startPendingStreams();
+    }
+
+    private void goAway(int errorCode) {
+        byte[] payload = new byte[8];
+        synchronized (this) {
+            isShutdown = true;
+            putInt(payload, 0, nextStreamId - 2 > 0 ? nextStreamId - 2 : 0);
+        }
+        putInt(payload, 4, errorCode);
+        try {
+            synchronized (writeLock) {
+                writeFrame(TYPE_GOAWAY, 0, 0, payload, 0, payload.length);
+                out.flush();
+            }
+        }catch (IOException e){
+            //连接已断开
+        }
+    }
+
+    /**
+     * 关闭连接，执行中的流回调失败，等待中的流转移至新连接
+     */
+    private void close(Exception error) {
+        List<Http2Stream> failStreams;
+        List<Http2Stream> retryStreams;
+        synchronized (this) {
+            isShutdown = true;
+            failStreams = new ArrayList<>(activeStreams.values());
+            retryStreams = new ArrayList<>(pendingStreams);
+            activeStreams.clear();
+            pendingStreams.clear();
+        }
+        pool.onConnectionShutdown(this);
+        try {
+            socket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        for (Http2Stream stream : failStreams) {
+            if(stream.isCancel()){
+                postCancel(stream);
+            }else {
+                postError(stream, error != null ? error : new IOException("connection closed"));
+            }
+        }
+        for (Http2Stream stream : retryStreams) {
+            pool.execute(stream);
+        }
+    }
+
+    private static void postStart(final Http2Stream stream) {
+        stream.post(new Runnable() {
+            @Override
+            public void run() {
+                if(!stream.isFinished()) stream.onStart();
+            }
+        });
+    }
+
+    private static void postComplete(final Http2Stream stream) {
+        stream.post(new Runnable() {
+            @Override
+            public void run() {
+                if(stream.finish()) stream.onComplete();
+            }
+        });
+    }
+
+    private static void postError(final Http2Stream stream, final Exception e) {
+        stream.post(new Runnable() {
+            @Override
+            public void run() {
+                if(stream.finish()) stream.onError(e);
+            }
+        });
+    }
+
+    private static void postCancel(final Http2Stream stream) {
+        stream.post(new Runnable() {
+            @Override
+            public void run() {
+                if(stream.finish()) stream.onCancel();
+            }
+        });
+    }
+
+    /**
+     * 写入 HEADERS 帧（超过最大帧长度时拆分为 CONTINUATION 帧），请求无消息体
+     */
+    private void writeHeaders(int streamId, byte[] block) throws IOException {
+        int offset = 0;
+        int type = TYPE_HEADERS;
+        do {
+            int len = Math.min(peerMaxFrameSize, block.length - offset);
+            boolean isLast = offset + len == block.length;
+            int flags = (isLast ? FLAG_END_HEADERS : 0) | (type == TYPE_HEADERS ? FLAG_END_STREAM : 0);
+            writeFrame(type, flags, streamId, block, offset, len);
+            offset += len;
+            type = TYPE_CONTINUATION;
+        } while (offset < block.length);
+    }
+
+    private void writeWindowUpdate(int streamId, int increment) throws IOException {
+        byte[] payload = new byte[4];
+        putInt(payload, 0, increment);
+        writeFrame(TYPE_WINDOW_UPDATE, 0, streamId, payload, 0, payload.length);
+    }
+
+    /**
+     * 写入帧（需持有 writeLock）
+     */
+    private void writeFrame(int type, int flags, int streamId, byte[] payload, int offset, int len) throws IOException {
+        out.write((len >>> 16) & 0xFF);
+        out.write((len >>> 8) & 0xFF);
+        out.write(len & 0xFF);
+        out.write(type);
+        out.write(flags);
+        byte[] id = new byte[4];
+        putInt(id, 0, streamId & 0x7FFFFFFF);
+        out.write(id);
+        out.write(payload, offset, len);
+    }
+
+    private static void putSetting(byte[] b, int offset, int id, int value) {
+        b[offset] = (byte) (id >>> 8);
+        b[offset + 1] = (byte) id;
+        putInt(b, offset + 2, value);
+    }
+
+    private static void putInt(byte[] b, int offset, int value) {
+        b[offset] = (byte) (value >>> 24);
+        b[offset + 1] = (byte) (value >>> 16);
+        b[offset + 2] = (byte) (value >>> 8);
+        b[offset + 3] = (byte) value;
+    }
+
+    private static int readInt(byte[] b, int offset) {
+        return ((b[offset] & 0xFF) << 24) | ((b[offset + 1] & 0xFF) << 16) | ((b[offset + 2] & 0xFF) << 8) | (b[offset + 3] & 0xFF);
+    }
+}
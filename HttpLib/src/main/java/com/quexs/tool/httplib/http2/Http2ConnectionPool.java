@@ -0,0 +1,134 @@
+package com.quexs.tool.httplib.http2;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HTTP/2 连接池
+ * 同一主机（主机、端口、验证方式）只建立一个连接，所有请求流在该连接上并发执行
+ */
+public class Http2ConnectionPool {
+    //主机不支持 HTTP/2 的记录有效时长 10 分钟
+    private static final long HTTP1_ORIGIN_TTL = 10 * 60 * 1000L;
+
+    private static volatile Http2ConnectionPool instance;
+
+    //已建立的连接
+    private final Map<String, Http2Connection> connections = new HashMap<>();
+    //连接建立中等待的流
+    private final Map<String, List<Http2Stream>> connectingStreams = new HashMap<>();
+    //不支持 HTTP/2 的主机及记录时间
+    private final Map<String, Long> http1Origins = new HashMap<>();
+    //建立连接的线程池（连接及 TLS 握手为阻塞操作）
+    private final ThreadPoolExecutor connector;
+
+    private Http2ConnectionPool() {
+        connector = new ThreadPoolExecutor(4, 4, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        connector.allowCoreThreadTimeOut(true);
+    }
+
+    public static Http2ConnectionPool getInstance() {
+        if(instance == null){
+            synchronized (Http2ConnectionPool.class){
+                if(instance == null){
+                    instance = new Http2ConnectionPool();
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * 执行请求流
+     * 主机不支持 HTTP/2 时回调 onFallback
+     * @param stream
+     */
+    public void execute(final Http2Stream stream) {
+        if(!Http2Connection.isAlpnSupported()){
+            stream.onFallback();
+            return;
+        }
+        final String originKey = stream.getOriginKey();
+        Http2Connection connection;
+        synchronized (this) {
+            Long http1Time = http1Origins.get(originKey);
+            if(http1Time != null && System.currentTimeMillis() - http1Time < HTTP1_ORIGIN_TTL){
+                connection = null;
+            }else {
+                http1Origins.remove(originKey);
+                connection = connections.get(originKey);
+                if(connection == null){
+                    List<Http2Stream> streams = connectingStreams.get(originKey);
+                    if(streams == null){
+                        streams = new ArrayList<>();
+                        connectingStreams.put(originKey, streams);
+                        connector.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                connect(originKey, stream);
+                            }
+                        });
+                    }
+                    streams.add(stream);
+                    return;
+                }
+            }
+        }
+        if(connection == null){
+            stream.onFallback();
+        }else if(!connection.newStream(stream)){
+            //连接已关闭，使用新连接
+            onConnectionShutdown(connection);
+            execute(stream);
+        }
+    }
+
+    /**
+     * 建立连接，执行等待中的流
+     */
+    private void connect(String originKey, Http2Stream stream) {
+        Http2Connection connection = null;
+        Exception error = null;
+        try {
+            connection = Http2Connection.connect(this, stream);
+        }catch (Exception e){
+            error = e;
+        }
+        List<Http2Stream> streams;
+        synchronized (this) {
+            streams = connectingStreams.remove(originKey);
+            if(connection != null){
+                connections.put(originKey, connection);
+            }else if(error == null){
+                http1Origins.put(originKey, System.currentTimeMillis());
+            }
+        }
+        if(streams == null) return;
+        for (Http2Stream waitStream : streams) {
+            if(connection != null){
+                if(!connection.newStream(waitStream)){
+                    onConnectionShutdown(connection);
+                    execute(waitStream);
+                }
+            }else if(error != null){
+                waitStream.onError(error);
+            }else {
+                waitStream.onFallback();
+            }
+        }
+    }
+
+    /**
+     * 连接不再接受新的流
+     */
+    synchronized void onConnectionShutdown(Http2Connection connection) {
+        if(connections.get(connection.getOriginKey()) == connection){
+            connections.remove(connection.getOriginKey());
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package com.quexs.tool.httplib.http2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * HPACK 题头压缩（RFC 7541）
+ * 编码只使用静态表（不写入动态表，无需跟踪对端的动态表大小），解码支持静态表、动态表及霍夫曼编码
+ */
+class Http2Hpack {
+    //静态表，下标从 1 开始
+    private static final String[][] STATIC_TABLE = {
+            null,
+            {":authority", ""},
+            {":method", "GET"},
+            {":method", "POST"},
+            {":path", "/"},
+            {":path", "/index.html"},
+            {":scheme", "http"},
+            {":scheme", "https"},
+            {":status", "200"},
+            {":status", "204"},
+            {":status", "206"},
+            {":status", "304"},
+            {":status", "400"},
+            {":status", "404"},
+            {":status", "500"},
+            {"accept-charset", ""},
+            {"accept-encoding", "gzip, deflate"},
+            {"accept-language", ""},
+            {"accept-ranges", ""},
+            {"accept", ""},
+            {"access-control-allow-origin", ""},
+            {"age", ""},
+            {"allow", ""},
+            {"authorization", ""},
+            {"cache-control", ""},
+            {"content-disposition", ""},
+            {"content-encoding", ""},
+            {"content-language", ""},
+            {"content-length", ""},
+            {"content-location", ""},
+            {"content-range", ""},
+            {"content-type", ""},
+            {"cookie", ""},
+            {"date", ""},
+            {"etag", ""},
+            {"expect", ""},
+            {"expires", ""},
+            {"from", ""},
+            {"host", ""},
+            {"if-match", ""},
+            {"if-modified-since", ""},
+            {"if-none-match", ""},
+            {"if-range", ""},
+            {"if-unmodified-since", ""},
+            {"last-modified", ""},
+            {"link", ""},
+            {"location", ""},
+            {"max-forwards", ""},
+            {"proxy-authenticate", ""},
+            {"proxy-authorization", ""},
+            {"range", ""},
+            {"referer", ""},
+            {"refresh", ""},
+            {"retry-after", ""},
+            {"server", ""},
+            {"set-cookie", ""},
+            {"strict-transport-security", ""},
+            {"transfer-encoding", ""},
+            {"user-agent", ""},
+            {"vary", ""},
+            {"via", ""},
+            {"www-authenticate", ""}
+    };
+    private static final int STATIC_TABLE_LENGTH = STATIC_TABLE.length - 1;
+    //每个动态表条目的额外开销
+    private static final int ENTRY_OVERHEAD = 32;
+
+    /**
+     * 题头编码
+     */
+    static class Encoder {
+
+        /**
+         * 编码题头块
+         * @param headers 题头（名称需为小写），依次为名称、值
+         * @return
+         */
+        byte[] encode(List<String[]> headers) throws IOException {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            for (String[] header : headers) {
+                String name = header[0];
+                String value = header[1];
+                int nameIndex = 0;
+                int index = 0;
+                for (int i = 1; i <= STATIC_TABLE_LENGTH; i++) {
+                    if(!STATIC_TABLE[i][0].equals(name)) continue;
+                    if(nameIndex == 0){
+                        nameIndex = i;
+                    }
+                    if(STATIC_TABLE[i][1].equals(value)){
+                        index = i;
+                        break;
+                    }
+                }
+                if(index > 0){
+                    //完全匹配：索引
+                    writeInt(bos, 0x80, 7, index);
+                }else {
+                    //不加入动态表的字面量
+                    writeInt(bos, 0x00, 4, nameIndex);
+                    if(nameIndex == 0){
+                        writeString(bos, name);
+                    }
+                    writeString(bos, value);
+                }
+            }
+            return bos.toByteArray();
+        }
+
+        private static void writeInt(ByteArrayOutputStream bos, int flags, int prefixBits, int value) {
+            int max = (1 << prefixBits) - 1;
+            if(value < max){
+                bos.write(flags | value);
+                return;
+            }
+            bos.write(flags | max);
+            value -= max;
+            while (value >= 0x80){
+                bos.write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bos.write(value);
+        }
+
+        private static void writeString(ByteArrayOutputStream bos, String str) throws IOException {
+            byte[] bytes = str.getBytes("ISO-8859-1");
+            //不使用霍夫曼编码
+            writeInt(bos, 0x00, 7, bytes.length);
+            bos.write(bytes);
+        }
+    }
+
+    /**
+     * 题头解码（连接内共用动态表，需按收到的顺序解码）
+     */
+    static class Decoder {
+        //动态表，最新的在前
+        private final LinkedList<String[]> dynamicTable = new LinkedList<>();
+        //动态表当前大小
+        private int dynamicTableSize;
+        //动态表最大大小（SETTINGS_HEADER_TABLE_SIZE）
+        private final int maxTableSize;
+        //动态表当前上限（可由编码方在 maxTableSize 内调整）
+        private int tableSizeLimit;
+
+        Decoder(int maxTableSize) {
+            this.maxTableSize = maxTableSize;
+            this.tableSizeLimit = maxTableSize;
+        }
+
+        /**
+         * 解码题头块
+         * @return 题头，依次为名称、值
+         * @throws IOException 压缩错误
+         */
+        List<String[]> decode(byte[] block, int offset, int len) throws IOException {
+            List<String[]> headers = new ArrayList<>();
+            int[] pos = {offset};
+            int end = offset + len;
+            while (pos[0] < end){
+                int b = block[pos[0]] & 0xFF;
+                if((b & 0x80) != 0){
+                    //索引
+                    String[] entry = getEntry(readInt(block, pos, end, 7));
+                    headers.add(new String[]{entry[0], entry[1]});
+                }else if((b & 0xC0) == 0x40){
+                    //加入动态表的字面量
+                    String[] header = readLiteral(block, pos, end, 6);
+                    headers.add(header);
+                    addEntry(header);
+                }else if((b & 0xE0) == 0x20){
+                    //动态表大小更新
+                    int size = readInt(block, pos, end, 5);
+                    if(size > maxTableSize) throw new IOException("hpack table size update too large:" + size);
+                    tableSizeLimit = size;
+                    evict(0);
+                }else {
+                    //不加入动态表的字面量
+                    headers.add(readLiteral(block, pos, end, 4));
+                }
+            }
+            return headers;
+        }
+
+        private String[] readLiteral(byte[] block, int[] pos, int end, int prefixBits) throws IOException {
+            int nameIndex = readInt(block, pos, end, prefixBits);
+            String name = nameIndex == 0 ? readString(block, pos, end) : getEntry(nameIndex)[0];
+            String value = readString(block, pos, end);
+            return new String[]{name, value};
+        }
+
+        private String[] getEntry(int index) throws IOException {
+            if(index <= 0) throw new IOException("hpack invalid index:" + index);
+            if(index <= STATIC_TABLE_LENGTH) return STATIC_TABLE[index];
+            int dynamicIndex = index - STATIC_TABLE_LENGTH - 1;
+            if(dynamicIndex >= dynamicTable.size()) throw new IOException("hpack invalid index:" + index);
+            return dynamicTable.get(dynamicIndex);
+        }
+
+        private void addEntry(String[] header) {
+            int entrySize = header[0].length() + header[1].length() + ENTRY_OVERHEAD;
+            //条目大于动态表上限时清空动态表
+            evict(entrySize);
+            if(entrySize <= tableSizeLimit){
+                dynamicTable.addFirst(header);
+                dynamicTableSize += entrySize;
+            }
+        }
+
+        /**
+         * 移除最旧的条目，直至可容纳新条目
+         */
+        private void evict(int entrySize) {
+            while (!dynamicTable.isEmpty() && dynamicTableSize + entrySize > tableSizeLimit){
+                String[] entry = dynamicTable.removeLast();
+                dynamicTableSize -= entry[0].length() + entry[1].length() + ENTRY_OVERHEAD;
+            }
+        }
+
+        private static int readInt(byte[] block, int[] pos, int end, int prefixBits) throws IOException {
+            int max = (1 << prefixBits) - 1;
+            int value = block[pos[0]++] & max;
+            if(value < max) return value;
+            int shift = 0;
+            while (true){
+                if(pos[0] >= end) throw new IOException("hpack integer truncated");
+                int b = block[pos[0]++] & 0xFF;
+                value += (b & 0x7F) << shift;
+                if((b & 0x80) == 0) break;
+                shift += 7;
+                if(shift > 28) throw new IOException("hpack integer overflow");
+            }
+            if(value < 0) throw new IOException("hpack integer overflow");
+            return value;
+        }
+
+        private static String readString(byte[] block, int[] pos, int end) throws IOException {
+            if(pos[0] >= end) throw new IOException("hpack string truncated");
+            boolean isHuffman = (block[pos[0]] & 0x80) != 0;
+            int len = readInt(block, pos, end, 7);
+            if(len > end - pos[0]) throw new IOException("hpack string truncated");
+            byte[] bytes = isHuffman ? Http2Huffman.decode(block, pos[0], len) : null;
+            String str = isHuffman ? new String(bytes, "ISO-8859-1") : new String(block, pos[0], len, "ISO-8859-1");
+            pos[0] += len;
+            return str;
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package com.quexs.tool.httplib.http2;
+
+import android.text.TextUtils;
+
+import com.quexs.tool.httplib.ssl.HttpSSLVerify;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * HTTP/2 请求流（无请求体）
+ * 同一主机的请求共用一个 HTTP/2 连接，回调在回调线程池中按顺序执行（同一流不并发），不阻塞连接的读取线程
+ * 主机不支持 HTTP/2（ALPN 未协商为 h2）时回调 onFallback，由调用方改用 HTTP/1.1
+ */
+public abstract class Http2Stream implements Comparable<Http2Stream> {
+    //提交顺序，同优先级先提交先执行
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+    //回调线程池（所有流共用，每个流最多占用一个线程）
+    private static final ThreadPoolExecutor CALLBACK_EXECUTOR = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>());
+
+    //优先级
+    private final long priority;
+    //排序默认升序
+    private final String sort;
+    private final long sequence = SEQUENCE.getAndIncrement();
+
+    private final URL url;
+    private final String method;
+    private final @HttpSSLVerify.VerifyCode int verifyCode;
+    //题头属性
+    private final Map<String, String> properties = new LinkedHashMap<>();
+    //连接主机超时时间（单位：毫秒）
+    private int connectTimeout = 10 * 1000;
+
+    //流 ID
+    int streamId;
+    //是否已收到响应数据（收到后不能再转移至其他连接重试）
+    boolean isResponded;
+    //已收到最终响应题头（读取线程访问）
+    boolean isHeadersReceived;
+    private int responseCode = -1;
+    private Map<String, List<String>> responseHeaders;
+
+    //等待执行的回调
+    private final ArrayDeque<Runnable> callbacks = new ArrayDeque<>();
+    //回调执行中
+    private boolean isDispatching;
+    //已回调结束（完成、失败或取消），之后的回调不再执行（仅回调线程访问）
+    private boolean isFinished;
+    private final Runnable drainCallbacks = new Runnable() {
+        @Override
+        public void run() {
+            while (true){
+                Runnable callback;
+                synchronized (callbacks) {
+                    callback = callbacks.poll();
+                    if(callback == null){
+                        isDispatching = false;
+                        return;
+                    }
+                }
+                try {
+                    callback.run();
+                }catch (RuntimeException e){
+                    e.printStackTrace();
+                }
+            }
+        }
+    };
+
+    protected Http2Stream(String url, String method, @HttpSSLVerify.VerifyCode int verifyCode, long priority, String sort) throws MalformedURLException {
+        this.url = new URL(url);
+        if(!"https".equalsIgnoreCase(this.url.getProtocol())) throw new MalformedURLException("HTTP/2 requires https:" + url);
+        this.method = method;
+        this.verifyCode = verifyCode;
+        this.priority = priority;
+        this.sort = sort;
+    }
+
+    public URL getUrl() {
+        return url;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    int getVerifyCode() {
+        return verifyCode;
+    }
+
+    int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    /**
+     * 设置题头属性（提交前设置）
+     */
+    protected void setRequestProperty(String key, String value) {
+        properties.put(key, value);
+    }
+
+    /**
+     * 请求题头（用于打印日志）
+     */
+    protected Map<String, List<String>> getRequestProperties() {
+        Map<String, List<String>> requestProperties = new LinkedHashMap<>();
+        for (Map.Entry<String, String> entry : properties.entrySet()) {
+            requestProperties.put(entry.getKey(), Collections.singletonList(entry.getValue()));
+        }
+        return requestProperties;
+    }
+
+    public int getResponseCode() {
+        return responseCode;
+    }
+
+    /**
+     * 响应题头
+     * @param name 不区分大小写
+     * @return
+     */
+    public String getHeaderField(String name) {
+        if(responseHeaders == null) return null;
+        List<String> values = responseHeaders.get(name);
+        return values == null || values.isEmpty() ? null : values.get(values.size() - 1);
+    }
+
+    @Override
+    public int compareTo(Http2Stream o) {
+        int result;
+        //降序
+        if(!TextUtils.isEmpty(sort) && "DESC".equalsIgnoreCase(sort)) result = Long.compare(o.priority, priority);
+        //升序
+        else result = Long.compare(priority, o.priority);
+        return result != 0 ? result : Long.compare(sequence, o.sequence);
+    }
+
+    /**
+     * 连接主机标识（同一主机、端口、验证方式共用连接）
+     */
+    String getOriginKey() {
+        return url.getHost().toLowerCase(Locale.US) + ":" + getPort() + "#" + verifyCode;
+    }
+
+    int getPort() {
+        return url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+    }
+
+    /**
+     * 生成请求题头（伪题头在前，名称小写，去除 HTTP/2 禁用的连接题头）
+     */
+    List<String[]> buildRequestHeaders() {
+        List<String[]> headers = new ArrayList<>();
+        String path = url.getFile();
+        String authority = url.getPort() != -1 && url.getPort() != url.getDefaultPort() ? url.getHost() + ":" + url.getPort() : url.getHost();
+        headers.add(new String[]{":method", method});
+        headers.add(new String[]{":scheme", "https"});
+        headers.add(new String[]{":authority", authority});
+        headers.add(new String[]{":path", TextUtils.isEmpty(path) ? "/" : path});
+        for (Map.Entry<String, String> entry : properties.entrySet()) {
+            String name = entry.getKey().toLowerCase(Locale.US);
+            if("connection".equals(name) || "keep-alive".equals(name) || "proxy-connection".equals(name)
+                    || "transfer-encoding".equals(name) || "upgrade".equals(name) || "host".equals(name)) continue;
+            headers.add(new String[]{name, entry.getValue()});
+        }
+        return headers;
+    }
+
+    /**
+     * 在回调线程池中执行回调，同一流的回调按提交顺序执行
+     */
+    void post(Runnable callback) {
+        synchronized (callbacks) {
+            callbacks.add(callback);
+            if(isDispatching) return;
+            isDispatching = true;
+        }
+        CALLBACK_EXECUTOR.execute(drainCallbacks);
+    }
+
+    boolean isFinished() {
+        return isFinished;
+    }
+
+    /**
+     * 标记回调结束（回调线程调用）
+     * @return false 已结束，不再回调
+     */
+    boolean finish() {
+        if(isFinished) return false;
+        isFinished = true;
+        return true;
+    }
+
+    /**
+     * 是否为信息响应（1xx）的题头（读取线程判断，缺少 :status 时由 dispatchHeaders 回调失败）
+     */
+    static boolean isInformational(List<String[]> headers) {
+        for (String[] header : headers) {
+            if(":status".equals(header[0])){
+                return header[1].length() == 3 && header[1].charAt(0) == '1';
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 收到响应题头
+     * @return false 信息响应（1xx），继续等待最终响应
+     */
+    boolean dispatchHeaders(List<String[]> headers) throws Exception {
+        int code = -1;
+        Map<String, List<String>> map = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (String[] header : headers) {
+            if(":status".equals(header[0])){
+                code = Integer.parseInt(header[1]);
+                continue;
+            }
+            List<String> values = map.get(header[0]);
+            if(values == null){
+                values = new ArrayList<>();
+                map.put(header[0], values);
+            }
+            values.add(header[1]);
+        }
+        if(code < 0) throw new IOException("missing :status");
+        if(code >= 100 && code < 200) return false;
+        responseCode = code;
+        responseHeaders = map;
+        onResponse(code, Collections.unmodifiableMap(map));
+        return true;
+    }
+
+    /**
+     * 已发送请求题头
+     */
+    protected void onStart() {
+    }
+
+    /**
+     * 收到响应题头
+     * @param responseCode
+     * @param headers 不区分大小写
+     * @throws Exception 抛出异常结束请求（发送 RST_STREAM）
+     */
+    protected abstract void onResponse(int responseCode, Map<String, List<String>> headers) throws Exception;
+
+    /**
+     * 收到消息体数据
+     * @throws Exception 抛出异常结束请求（发送 RST_STREAM）
+     */
+    protected abstract void onResponseBody(byte[] data, int offset, int len) throws Exception;
+
+    /**
+     * 响应已读完
+     */
+    protected abstract void onComplete();
+
+    /**
+     * 请求失败
+     */
+    protected abstract void onError(Exception e);
+
+    /**
+     * 是否已取消
+     */
+    protected abstract boolean isCancel();
+
+    /**
+     * 已取消
+     */
+    protected abstract void onCancel();
+
+    /**
+     * 主机不支持 HTTP/2，需改用 HTTP/1.1
+     */
+    protected abstract void onFallback();
+}
@@ -0,0 +1,256 @@
+package com.quexs.tool.httplib.nio;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * NIO 请求引擎
+ * 单个 Selector 线程处理所有连接的读写，同时执行的请求数超过上限时按优先级排队
+ * DNS 解析为阻塞调用，在独立线程中执行
+ * 回调抛出的异常只结束该请求，不影响 Selector 线程
+ */
+public class HttpNioEngine {
+
+    private static volatile HttpNioEngine instance;
+
+    //Selector 线程空闲后的存活时长 60 秒
+    private static final long IDLE_MILLIS = 60 * 1000L;
+    //检查超时的间隔
+    private static final long SELECT_TIMEOUT_MILLIS = 500L;
+
+    private final Object lock = new Object();
+    //等待执行的请求
+    private final PriorityQueue<HttpNioExchange> pendingQueue = new PriorityQueue<>();
+    //需在 Selector 线程执行的任务
+    private final List<ExchangeTask> postQueue = new ArrayList<>();
+    //执行中的请求（仅 Selector 线程访问）
+    private final List<HttpNioExchange> activeExchanges = new ArrayList<>();
+    //DNS 解析线程
+    private final ThreadPoolExecutor resolver;
+    //同时执行的请求数上限
+    private volatile int maxConcurrent = 64;
+
+    private Selector selector;
+    private Thread selectorThread;
+
+    public static HttpNioEngine getInstance() {
+        if (instance == null) {
+            synchronized (HttpNioEngine.class) {
+                if (instance == null) {
+                    instance = new HttpNioEngine();
+                }
+            }
+        }
+        return instance;
+    }
+
+    public HttpNioEngine() {
+        resolver = new ThreadPoolExecutor(2, 2, 30L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        //允许核心线程超时关闭
+        resolver.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 设置同时执行的请求数上限
+     * @param maxConcurrent 默认 64
+     */
+    public void setMaxConcurrent(int maxConcurrent) {
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        wakeup();
+    }
+
+    /**
+     * 提交请求
+     * @param exchange
+     * @throws IOException 无法打开 Selector
+     */
+    public void execute(HttpNioExchange exchange) throws IOException {
+        synchronized (lock) {
+            ensureStarted();
+            pendingQueue.add(exchange);
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * 在 Selector 线程执行任务
+     */
+    private void post(ExchangeTask task) {
+        synchronized (lock) {
+            postQueue.add(task);
+            if(selector != null){
+                selector.wakeup();
+            }
+        }
+    }
+
+    private void wakeup() {
+        synchronized (lock) {
+            if(selector != null){
+                selector.wakeup();
+            }
+        }
+    }
+
+    /**
+     * 启动 Selector 线程（需持有 lock）
+     */
+    private void ensureStarted() throws IOException {
+        if(selectorThread != null) return;
+        selector = Selector.open();
+        final Selector loopSelector = selector;
+        selectorThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    loop(loopSelector);
+                }finally {
+                    //异常退出时下次提交重新启动
+                    synchronized (lock) {
+                        if(selectorThread == Thread.currentThread()){
+                            HttpNioEngine.this.selector = null;
+                            selectorThread = null;
+                        }
+                    }
+                }
+            }
+        }, "HttpNioEngine");
+        selectorThread.setDaemon(true);
+        selectorThread.start();
+    }
+
+    private void loop(Selector selector) {
+        long idleSinceMillis = System.currentTimeMillis();
+        List<ExchangeTask> tasks = new ArrayList<>();
+        while (true){
+            try {
+                selector.select(SELECT_TIMEOUT_MILLIS);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            synchronized (lock) {
+                tasks.addAll(postQueue);
+                postQueue.clear();
+                //空闲后关闭 Selector 线程，下次提交时重新启动
+                if(tasks.isEmpty() && activeExchanges.isEmpty() && pendingQueue.isEmpty()){
+                    if(System.currentTimeMillis() - idleSinceMillis > IDLE_MILLIS){
+                        this.selector = null;
+                        selectorThread = null;
+                        break;
+                    }
+                }else {
+                    idleSinceMillis = System.currentTimeMillis();
+                }
+                //按优先级取出等待执行的请求
+                while (activeExchanges.size() < maxConcurrent && !pendingQueue.isEmpty()){
+                    HttpNioExchange exchange = pendingQueue.poll();
+                    activeExchanges.add(exchange);
+                    tasks.add(newStartTask(selector, exchange));
+                }
+            }
+            for (ExchangeTask task : tasks) {
+                try {
+                    task.run();
+                }catch (RuntimeException e){
+                    abort(task.exchange, e);
+                }
+            }
+            tasks.clear();
+            Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+            while (it.hasNext()){
+                SelectionKey key = it.next();
+                it.remove();
+                HttpNioExchange exchange = (HttpNioExchange) key.attachment();
+                try {
+                    exchange.handle();
+                }catch (RuntimeException e){
+                    abort(exchange, e);
+                }
+            }
+            long nowMillis = System.currentTimeMillis();
+            for (int i = activeExchanges.size() - 1; i >= 0; i--) {
+                HttpNioExchange exchange = activeExchanges.get(i);
+                try {
+                    exchange.checkTimeout(nowMillis);
+                }catch (RuntimeException e){
+                    abort(exchange, e);
+                }
+                if(exchange.isDone()){
+                    activeExchanges.remove(i);
+                }
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 回调抛出异常，结束该请求（已结束的请求只打印异常）
+     */
+    private static void abort(HttpNioExchange exchange, RuntimeException e) {
+        e.printStackTrace();
+        try {
+            exchange.fail(e);
+        }catch (RuntimeException ex){
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * 开始请求：回调开始，在 DNS 线程解析地址后回到 Selector 线程连接
+     */
+    private ExchangeTask newStartTask(final Selector selector, final HttpNioExchange exchange) {
+        return new ExchangeTask(exchange) {
+            @Override
+            public void run() {
+                exchange.onStart();
+                resolver.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            final InetSocketAddress address = new InetSocketAddress(exchange.getHost(), exchange.getPort());
+                            if(address.isUnresolved()) throw new UnknownHostException(exchange.getHost());
+                            post(new ExchangeTask(exchange) {
+                                @Override
+                                public void run() {
+                                    exchange.connect(selector, address);
+                                }
+                            });
+                        }catch (final Exception e){
+                            post(new ExchangeTask(exchange) {
+                                @Override
+                                public void run() {
+                                    exchange.fail(e);
+                                }
+                            });
+                        }
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * 在 Selector 线程执行的请求任务
+     */
+    private abstract static class ExchangeTask implements Runnable {
+        final HttpNioExchange exchange;
+
+        ExchangeTask(HttpNioExchange exchange) {
+            this.exchange = exchange;
+        }
+    }
+}
@@ -0,0 +1,743 @@
+package com.quexs.tool.httplib.nio;
+
+import android.text.TextUtils;
+
+import com.quexs.tool.httplib.ssl.HttpSSLVerify;
+import com.quexs.tool.httplib.ssl.SSLSocketFactoryTool;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLPeerUnverifiedException;
+
+/**
+ * NIO 请求
+ * 在 HttpNioEngine 的 Selector 线程中完成一次 HTTP/1.1 请求：连接、TLS 握手、写入请求、解析响应
+ * 所有回调均在 Selector 线程执行，不能阻塞
+ */
+public abstract class HttpNioExchange implements Comparable<HttpNioExchange> {
+    //提交顺序，同优先级先提交先执行
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+    //响应题头最大长度
+    private static final int MAX_HEAD_LEN = 64 * 1024;
+    //非 TLS 连接的读写缓冲区大小
+    private static final int PLAIN_BUFFER_SIZE = 16 * 1024;
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private static final int STATE_CONNECT = 0;
+    private static final int STATE_HANDSHAKE = 1;
+    private static final int STATE_SEND = 2;
+    private static final int STATE_RECEIVE = 3;
+    private static final int STATE_DONE = 4;
+
+    private static final int CHUNK_SIZE = 0;
+    private static final int CHUNK_DATA = 1;
+    private static final int CHUNK_DATA_END = 2;
+    private static final int CHUNK_TRAILER = 3;
+
+    //优先级
+    private final long priority;
+    //排序默认升序
+    private final String sort;
+    private final long sequence = SEQUENCE.getAndIncrement();
+
+    private final URL url;
+    private final String method;
+    private final @HttpSSLVerify.VerifyCode int verifyCode;
+    //题头属性
+    private final Map<String, String> properties = new LinkedHashMap<>();
+    //请求体长度，-1 没有请求体
+    private long contentLength = -1;
+    //连接主机超时时间（单位：毫秒）
+    private int connectTimeout = 10 * 1000;
+    //从主机读取数据超时时间（单位：毫秒）
+    private int readTimeout = 10 * 1000;
+
+    private int state = STATE_CONNECT;
+    private SocketChannel channel;
+    private SelectionKey key;
+    private SSLEngine sslEngine;
+    //已接收的网络数据（TLS 解密前）
+    private ByteBuffer netIn;
+    //待发送的网络数据（TLS 加密后），非 TLS 连接与 appOut 为同一缓冲区
+    private ByteBuffer netOut;
+    //已解密的响应数据
+    private ByteBuffer appIn;
+    //待加密的请求数据
+    private ByteBuffer appOut;
+    //TLS 连接已被服务端关闭
+    private boolean isInboundClosed;
+    //最后一次读写时间
+    private long lastActiveMillis;
+
+    //请求行及题头
+    private ByteBuffer requestHead;
+    //已写入的请求体长度
+    private long bodyWritten;
+
+    //响应题头
+    private ByteArrayOutputStream responseHead = new ByteArrayOutputStream();
+    private int responseCode = -1;
+    private Map<String, List<String>> responseHeaders;
+    //剩余消息体长度，-1 读取至连接关闭
+    private long bodyRemaining;
+    //分块传输
+    private boolean isChunked;
+    private int chunkState = CHUNK_SIZE;
+    private final StringBuilder chunkLine = new StringBuilder();
+    private long chunkRemaining;
+
+    protected HttpNioExchange(String url, String method, @HttpSSLVerify.VerifyCode int verifyCode, long priority, String sort) throws MalformedURLException {
+        this.url = new URL(url);
+        if(!"http".equalsIgnoreCase(this.url.getProtocol()) && !"https".equalsIgnoreCase(this.url.getProtocol())) throw new MalformedURLException("unsupported protocol:" + url);
+        this.method = method;
+        this.verifyCode = verifyCode;
+        this.priority = priority;
+        this.sort = sort;
+    }
+
+    public URL getUrl() {
+        return url;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * 设置题头属性（开始请求前设置）
+     */
+    protected void setRequestProperty(String key, String value) {
+        properties.put(key, value);
+    }
+
+    protected void addRequestProperties(Map<String, String> properties) {
+        if(properties == null) return;
+        for (Map.Entry<String, String> entry : properties.entrySet()) {
+            String key = entry.getKey();
+            String value = entry.getValue();
+            if(TextUtils.isEmpty(key) || TextUtils.isEmpty(value)) continue;
+            this.properties.put(key, value);
+        }
+    }
+
+    /**
+     * 设置请求体长度（开始请求前设置），请求体由 readRequestBody 提供
+     */
+    protected void setContentLength(long contentLength) {
+        this.contentLength = contentLength;
+    }
+
+    public void setTimeout(int connectTimeout, int readTimeout) {
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * 请求题头（用于打印日志）
+     */
+    protected Map<String, List<String>> getRequestProperties() {
+        Map<String, List<String>> requestProperties = new LinkedHashMap<>();
+        for (Map.Entry<String, String> entry : properties.entrySet()) {
+            requestProperties.put(entry.getKey(), Collections.singletonList(entry.getValue()));
+        }
+        return requestProperties;
+    }
+
+    public int getResponseCode() {
+        return responseCode;
+    }
+
+    /**
+     * 响应题头
+     * @param name 不区分大小写
+     * @return
+     */
+    public String getHeaderField(String name) {
+        if(responseHeaders == null) return null;
+        List<String> values = responseHeaders.get(name);
+        return values == null || values.isEmpty() ? null : values.get(values.size() - 1);
+    }
+
+    @Override
+    public int compareTo(HttpNioExchange o) {
+        int result;
+        //降序
+        if(!TextUtils.isEmpty(sort) && "DESC".equalsIgnoreCase(sort)) result = Long.compare(o.priority, priority);
+        //升序
+        else result = Long.compare(priority, o.priority);
+        return result != 0 ? result : Long.compare(sequence, o.sequence);
+    }
+
+    /**
+     * 开始执行（已从等待队列取出）
+     */
+    protected void onStart() {
+    }
+
+    /**
+     * 写入请求体
+     * @param dst
+     * @return 写入长度，-1 请求体已结束
+     * @throws IOException
+     */
+    protected int readRequestBody(ByteBuffer dst) throws IOException {
+        return -1;
+    }
+
+    /**
+     * 收到响应题头
+     * @param responseCode
+     * @param headers 不区分大小写
+     * @throws Exception 抛出异常结束请求
+     */
+    protected abstract void onResponse(int responseCode, Map<String, List<String>> headers) throws Exception;
+
+    /**
+     * 收到消息体数据
+     * @param body 需在返回前读取完
+     * @throws Exception 抛出异常结束请求
+     */
+    protected abstract void onResponseBody(ByteBuffer body) throws Exception;
+
+    /**
+     * 响应已读完
+     */
+    protected abstract void onComplete();
+
+    /**
+     * 请求失败
+     */
+    protected abstract void onError(Exception e);
+
+    /**
+     * 是否已取消
+     */
+    protected abstract boolean isCancel();
+
+    /**
+     * 已取消
+     */
+    protected abstract void onCancel();
+
+    boolean isDone() {
+        return state == STATE_DONE;
+    }
+
+    String getHost() {
+        return url.getHost();
+    }
+
+    int getPort() {
+        return url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+    }
+
+    /**
+     * 连接主机
+     * @param selector
+     * @param address 已解析的地址
+     */
+    void connect(Selector selector, InetSocketAddress address) {
+        if(isCancel()){
+            cancel();
+            return;
+        }
+        try {
+            lastActiveMillis = System.currentTimeMillis();
+            requestHead = ByteBuffer.wrap(buildRequestHead());
+            if("https".equalsIgnoreCase(url.getProtocol())){
+                sslEngine = SSLSocketFactoryTool.getSSLContext(verifyCode).createSSLEngine(getHost(), getPort());
+                sslEngine.setUseClientMode(true);
+                int packetBufferSize = sslEngine.getSession().getPacketBufferSize();
+                int appBufferSize = sslEngine.getSession().getApplicationBufferSize();
+                netIn = ByteBuffer.allocate(packetBufferSize);
+                netOut = ByteBuffer.allocate(packetBufferSize);
+                appIn = ByteBuffer.allocate(appBufferSize);
+                appOut = ByteBuffer.allocate(appBufferSize);
+            }else {
+                appIn = ByteBuffer.allocate(PLAIN_BUFFER_SIZE);
+                appOut = ByteBuffer.allocate(PLAIN_BUFFER_SIZE);
+                netOut = appOut;
+            }
+            netOut.flip();
+            appOut.flip();
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            key = channel.register(selector, SelectionKey.OP_CONNECT, this);
+            if(channel.connect(address)){
+                onConnected();
+                pump();
+            }
+        }catch (Exception e){
+            fail(e);
+        }
+    }
+
+    /**
+     * 处理 Selector 事件
+     */
+    void handle() {
+        if(state == STATE_DONE) return;
+        if(isCancel()){
+            cancel();
+            return;
+        }
+        try {
+            if(state == STATE_CONNECT){
+                if(!key.isConnectable() || !channel.finishConnect()) return;
+                onConnected();
+            }
+            pump();
+        }catch (Exception e){
+            fail(e);
+        }
+    }
+
+    /**
+     * 检查取消及超时
+     * @param nowMillis
+     */
+    void checkTimeout(long nowMillis) {
+        if(state == STATE_DONE || channel == null) return;
+        if(isCancel()){
+            cancel();
+            return;
+        }
+        int timeout = state == STATE_CONNECT || state == STATE_HANDSHAKE ? connectTimeout : readTimeout;
+        if(timeout > 0 && nowMillis - lastActiveMillis > timeout){
+            fail(new SocketTimeoutException(state == STATE_CONNECT ? "connect timed out" : "Read timed out"));
+        }
+    }
+
+    /**
+     * 请求失败（DNS 解析失败等）
+     */
+    void fail(Exception e) {
+        if(state == STATE_DONE) return;
+        state = STATE_DONE;
+        close();
+        onError(e);
+    }
+
+    void cancel() {
+        if(state == STATE_DONE) return;
+        state = STATE_DONE;
+        close();
+        onCancel();
+    }
+
+    private void complete() {
+        state = STATE_DONE;
+        close();
+        onComplete();
+    }
+
+    private void close() {
+        if(key != null){
+            key.cancel();
+        }
+        if(channel != null){
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if(sslEngine != null){
+            sslEngine.closeOutbound();
+        }
+    }
+
+    private void onConnected() throws SSLException {
+        lastActiveMillis = System.currentTimeMillis();
+        if(sslEngine != null){
+            sslEngine.beginHandshake();
+            state = STATE_HANDSHAKE;
+        }else {
+            state = STATE_SEND;
+        }
+    }
+
+    /**
+     * 推进请求，直至需要等待网络
+     */
+    private void pump() throws Exception {
+        while (state != STATE_DONE){
+            if(!flush()){
+                key.interestOps(SelectionKey.OP_WRITE);
+                return;
+            }
+            if(state == STATE_HANDSHAKE){
+                if(!handshake()) return;
+            }else if(state == STATE_SEND){
+                send();
+            }else if(!receive()){
+                return;
+            }
+        }
+    }
+
+    /**
+     * 发送待发送的网络数据
+     * @return true 已全部发送
+     */
+    private boolean flush() throws IOException {
+        while (netOut.hasRemaining()){
+            if(channel.write(netOut) == 0) return false;
+            lastActiveMillis = System.currentTimeMillis();
+        }
+        return true;
+    }
+
+    /**
+     * TLS 握手
+     * @return false 等待网络数据
+     */
+    private boolean handshake() throws IOException {
+        SSLEngineResult result;
+        switch (sslEngine.getHandshakeStatus()){
+            case NEED_TASK:
+                runDelegatedTasks();
+                return true;
+            case NEED_WRAP:
+                netOut.clear();
+                result = sslEngine.wrap(EMPTY, netOut);
+                netOut.flip();
+                if(result.getStatus() == SSLEngineResult.Status.CLOSED) throw new SSLException("connection closed during handshake");
+                return true;
+            case FINISHED:
+            case NOT_HANDSHAKING:
+                //与 HttpsURLConnection 一致，默认验证时校验主机名
+                if(!SSLSocketFactoryTool.getHostnameVerifier(verifyCode).verify(getHost(), sslEngine.getSession())){
+                    throw new SSLPeerUnverifiedException("Hostname " + getHost() + " not verified");
+                }
+                state = STATE_SEND;
+                return true;
+            default:
+                //NEED_UNWRAP
+                netIn.flip();
+                result = sslEngine.unwrap(netIn, appIn);
+                netIn.compact();
+                if(result.getStatus() == SSLEngineResult.Status.CLOSED) throw new SSLException("connection closed during handshake");
+                if(result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW
+                        || (result.bytesConsumed() == 0 && result.bytesProduced() == 0)){
+                    int len = channel.read(netIn);
+                    if(len < 0) throw new EOFException("connection closed during handshake");
+                    if(len == 0){
+                        key.interestOps(SelectionKey.OP_READ);
+                        return false;
+                    }
+                    lastActiveMillis = System.currentTimeMillis();
+                }
+                return true;
+        }
+    }
+
+    private void runDelegatedTasks() {
+        Runnable task;
+        while ((task = sslEngine.getDelegatedTask()) != null){
+            task.run();
+        }
+    }
+
+    /**
+     * 写入请求（请求行、题头、请求体）
+     */
+    private void send() throws IOException {
+        if(!appOut.hasRemaining()){
+            appOut.clear();
+            boolean isEnd = fillRequest(appOut);
+            appOut.flip();
+            if(isEnd && !appOut.hasRemaining()){
+                //请求已发送，等待响应
+                state = STATE_RECEIVE;
+                return;
+            }
+        }
+        if(sslEngine != null){
+            netOut.clear();
+            SSLEngineResult result = sslEngine.wrap(appOut, netOut);
+            netOut.flip();
+            if(result.getStatus() == SSLEngineResult.Status.CLOSED) throw new SSLException("connection closed");
+        }
+    }
+
+    /**
+     * 填充请求数据
+     * @return true 请求已全部填充
+     */
+    private boolean fillRequest(ByteBuffer dst) throws IOException {
+        if(requestHead.hasRemaining()){
+            int len = Math.min(dst.remaining(), requestHead.remaining());
+            ByteBuffer slice = requestHead.duplicate();
+            slice.limit(slice.position() + len);
+            dst.put(slice);
+            requestHead.position(requestHead.position() + len);
+            if(requestHead.hasRemaining()) return false;
+        }
+        if(contentLength <= 0) return true;
+        while (dst.hasRemaining() && bodyWritten < contentLength){
+            int limit = dst.limit();
+            if(contentLength - bodyWritten < dst.remaining()){
+                dst.limit(dst.position() + (int) (contentLength - bodyWritten));
+            }
+            int len = readRequestBody(dst);
+            dst.limit(limit);
+            if(len < 0) throw new IOException("request body shorter than Content-Length:" + bodyWritten + "/" + contentLength);
+            if(len == 0) break;
+            bodyWritten += len;
+        }
+        return bodyWritten >= contentLength;
+    }
+
+    /**
+     * 读取并解析响应
+     * @return false 等待网络数据或已结束
+     */
+    private boolean receive() throws Exception {
+        int len = read();
+        if(appIn.position() > 0){
+            appIn.flip();
+            parse(appIn);
+            appIn.compact();
+            if(state == STATE_DONE) return false;
+        }
+        if(len < 0){
+            //连接已关闭
+            if(responseHeaders != null && !isChunked && bodyRemaining < 0){
+                complete();
+                return false;
+            }
+            throw new EOFException("unexpected end of stream");
+        }
+        if(len == 0){
+            key.interestOps(SelectionKey.OP_READ);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 读取网络数据至 appIn
+     * @return 新增的响应数据长度，-1 连接已关闭
+     */
+    private int read() throws IOException {
+        if(sslEngine == null){
+            int len = channel.read(appIn);
+            if(len > 0){
+                lastActiveMillis = System.currentTimeMillis();
+            }
+            return len;
+        }
+        //先解密已接收的数据
+        int produced = unwrap();
+        if(produced > 0) return produced;
+        if(isInboundClosed) return -1;
+        int len = channel.read(netIn);
+        if(len < 0) return -1;
+        if(len == 0) return 0;
+        lastActiveMillis = System.currentTimeMillis();
+        return unwrap();
+    }
+
+    private int unwrap() throws SSLException {
+        netIn.flip();
+        int produced = 0;
+        try {
+            while (netIn.hasRemaining()){
+                SSLEngineResult result = sslEngine.unwrap(netIn, appIn);
+                produced += result.bytesProduced();
+                if(result.getStatus() == SSLEngineResult.Status.CLOSED){
+                    isInboundClosed = true;
+                    break;
+                }
+                //数据不完整或 appIn 已满
+                if(result.getStatus() != SSLEngineResult.Status.OK) break;
+                if(result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK){
+                    runDelegatedTasks();
+                }
+            }
+        }finally {
+            netIn.compact();
+        }
+        return produced;
+    }
+
+    /**
+     * 解析响应数据
+     */
+    private void parse(ByteBuffer data) throws Exception {
+        while (data.hasRemaining() && state != STATE_DONE){
+            if(responseHeaders == null){
+                byte b = data.get();
+                responseHead.write(b);
+                if(responseHead.size() > MAX_HEAD_LEN) throw new IOException("response head too large");
+                if(b == '\n' && isHeadEnd()){
+                    parseHead();
+                }
+            }else if(isChunked){
+                parseChunk(data);
+            }else {
+                int len = bodyRemaining < 0 ? data.remaining() : (int) Math.min(data.remaining(), bodyRemaining);
+                deliverBody(data, len);
+                if(bodyRemaining > 0){
+                    bodyRemaining -= len;
+                    if(bodyRemaining == 0){
+                        complete();
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean isHeadEnd() {
+        int size = responseHead.size();
+        if(size < 4) return false;
+        byte[] head = responseHead.toByteArray();
+        return head[size - 4] == '\r' && head[size - 3] == '\n' && head[size - 2] == '\r' && head[size - 1] == '\n';
+    }
+
+    /**
+     * 解析状态行及响应题头
+     */
+    private void parseHead() throws Exception {
+        String[] lines = new String(responseHead.toByteArray(), "ISO-8859-1").split("\r\n");
+        responseHead = new ByteArrayOutputStream();
+        String[] statusLine = lines[0].split(" ", 3);
+        if(statusLine.length < 2 || !statusLine[0].startsWith("HTTP/")) throw new IOException("unexpected status line:" + lines[0]);
+        int code = Integer.parseInt(statusLine[1].trim());
+        //忽略 100 Continue 等中间响应
+        if(code >= 100 && code < 200) return;
+        Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (int i = 1; i < lines.length; i++) {
+            int index = lines[i].indexOf(':');
+            if(index <= 0) continue;
+            String name = lines[i].substring(0, index).trim();
+            List<String> values = headers.get(name);
+            if(values == null){
+                values = new ArrayList<>();
+                headers.put(name, values);
+            }
+            values.add(lines[i].substring(index + 1).trim());
+        }
+        responseCode = code;
+        responseHeaders = headers;
+        String transferEncoding = getHeaderField("Transfer-Encoding");
+        String contentLength = getHeaderField("Content-Length");
+        if("HEAD".equals(method) || code == 204 || code == 304){
+            bodyRemaining = 0;
+        }else if(transferEncoding != null && transferEncoding.toLowerCase().contains("chunked")){
+            isChunked = true;
+        }else if(contentLength != null){
+            bodyRemaining = Long.parseLong(contentLength.trim());
+        }else {
+            bodyRemaining = -1;
+        }
+        onResponse(code, Collections.unmodifiableMap(headers));
+        if(state != STATE_DONE && !isChunked && bodyRemaining == 0){
+            complete();
+        }
+    }
+
+    /**
+     * 解析分块传输数据
+     */
+    private void parseChunk(ByteBuffer data) throws Exception {
+        switch (chunkState){
+            case CHUNK_DATA:
+                int len = (int) Math.min(data.remaining(), chunkRemaining);
+                deliverBody(data, len);
+                chunkRemaining -= len;
+                if(chunkRemaining == 0){
+                    chunkState = CHUNK_DATA_END;
+                }
+                break;
+            case CHUNK_DATA_END:
+                //分块结束的换行
+                if(data.get() == '\n'){
+                    chunkState = CHUNK_SIZE;
+                }
+                break;
+            default:
+                //分块长度行或结尾题头行
+                char c = (char) data.get();
+                if(c != '\n'){
+                    chunkLine.append(c);
+                    if(chunkLine.length() > MAX_HEAD_LEN) throw new IOException("chunk line too large");
+                    break;
+                }
+                String line = chunkLine.toString().trim();
+                chunkLine.setLength(0);
+                if(chunkState == CHUNK_TRAILER){
+                    if(line.isEmpty()){
+                        complete();
+                    }
+                    break;
+                }
+                int index = line.indexOf(';');
+                long size = Long.parseLong((index >= 0 ? line.substring(0, index) : line).trim(), 16);
+                if(size == 0){
+                    chunkState = CHUNK_TRAILER;
+                }else {
+                    chunkRemaining = size;
+                    chunkState = CHUNK_DATA;
+                }
+                break;
+        }
+    }
+
+    private void deliverBody(ByteBuffer data, int len) throws Exception {
+        if(len <= 0) return;
+        ByteBuffer body = data.slice();
+        body.limit(len);
+        data.position(data.position() + len);
+        onResponseBody(body);
+    }
+
+    /**
+     * 生成请求行及题头
+     */
+    private byte[] buildRequestHead() throws IOException {
+        String file = url.getFile();
+        StringBuilder builder = new StringBuilder();
+        builder.append(method).append(' ').append(TextUtils.isEmpty(file) ? "/" : file).append(" HTTP/1.1\r\n");
+        if(!properties.containsKey("Host")){
+            builder.append("Host: ").append(getHost());
+            if(url.getPort() != -1 && url.getPort() != url.getDefaultPort()){
+                builder.append(':').append(url.getPort());
+            }
+            builder.append("\r\n");
+        }
+        //不复用连接
+        builder.append("Connection: close\r\n");
+        if(contentLength >= 0){
+            builder.append("Content-Length: ").append(contentLength).append("\r\n");
+        }
+        for (Map.Entry<String, String> entry : properties.entrySet()) {
+            if("Connection".equalsIgnoreCase(entry.getKey()) || "Content-Length".equalsIgnoreCase(entry.getKey())) continue;
+            builder.append(entry.getKey()).append(": ").append(entry.getValue()).append("\r\n");
+        }
+        builder.append("\r\n");
+        return builder.toString().getBytes("ISO-8859-1");
+    }
+}
@@ -0,0 +1,306 @@
+package com.quexs.tool.httplib.request;
+
+import com.quexs.tool.httplib.ssl.HttpSSLVerify;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 通用请求（GET/POST/PUT/DELETE 等）
+ * 通过 Builder 创建，创建后不可修改
+ */
+public class HttpRequest {
+    //防重复Key
+    private final Object objKey;
+    //优先级
+    private final long priority;
+    //排序默认升序
+    private final String sort;
+    //请求链接
+    private final String url;
+    //请求方法
+    private final String method;
+    //题头属性
+    private final Map<String, String> properties;
+    //请求体
+    private final byte[] body;
+    //SSL验证编码
+    private final @HttpSSLVerify.VerifyCode int verifyCode;
+    //连接主机超时时间（单位：毫秒）
+    private final int connectTimeout;
+    //从主机读取数据超时时间（单位：毫秒）
+    private final int readTimeout;
+    //HttpURLConnection 不支持的请求方法是否以 POST + X-HTTP-Method-Override 发送
+    private final boolean isMethodOverride;
+
+    private HttpRequest(Builder builder) {
+        this.objKey = builder.objKey != null ? builder.objKey : this;
+        this.priority = builder.priority;
+        this.sort = builder.sort;
+        this.url = builder.url;
+        this.method = builder.method;
+        this.properties = Collections.unmodifiableMap(new LinkedHashMap<>(builder.properties));
+        this.body = builder.body;
+        this.verifyCode = builder.verifyCode;
+        this.connectTimeout = builder.connectTimeout;
+        this.readTimeout = builder.readTimeout;
+        this.isMethodOverride = builder.isMethodOverride;
+    }
+
+    public Object getObjKey() {
+        return objKey;
+    }
+
+    public long getPriority() {
+        return priority;
+    }
+
+    public String getSort() {
+        return sort;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public Map<String, String> getProperties() {
+        return properties;
+    }
+
+    /**
+     * 请求体
+     * @return null 没有请求体
+     */
+    public byte[] getBody() {
+        return body;
+    }
+
+    public int getVerifyCode() {
+        return verifyCode;
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    public boolean isMethodOverride() {
+        return isMethodOverride;
+    }
+
+    public Builder newBuilder() {
+        return new Builder(this);
+    }
+
+    public static class Builder {
+        private Object objKey;
+        private long priority;
+        private String sort;
+        private String url;
+        private String method = "GET";
+        private final Map<String, String> properties = new LinkedHashMap<>();
+        private byte[] body;
+        private @HttpSSLVerify.VerifyCode int verifyCode = HttpSSLVerify.VerifyCode.DEFAULT_VERIFY;
+        private int connectTimeout = 10 * 1000;
+        private int readTimeout = 10 * 1000;
+        private boolean isMethodOverride;
+
+        public Builder() {
+        }
+
+        private Builder(HttpRequest request) {
+            this.objKey = request.objKey == request ? null : request.objKey;
+            this.priority = request.priority;
+            this.sort = request.sort;
+            this.url = request.url;
+            this.method = request.method;
+            this.properties.putAll(request.properties);
+            this.body = request.body;
+            this.verifyCode = request.verifyCode;
+            this.connectTimeout = request.connectTimeout;
+            this.readTimeout = request.readTimeout;
+            this.isMethodOverride = request.isMethodOverride;
+        }
+
+        /**
+         * 防重复Key（默认使用请求本身）
+         * @param objKey
+         * @return
+         */
+        public Builder objKey(Object objKey) {
+            this.objKey = objKey;
+            return this;
+        }
+
+        /**
+         * 优先级
+         * @param priority
+         * @param sort 排序默认升序，"DESC" 降序
+         * @return
+         */
+        public Builder priority(long priority, String sort) {
+            this.priority = priority;
+            this.sort = sort;
+            return this;
+        }
+
+        public Builder url(String url) {
+            this.url = url;
+            return this;
+        }
+
+        public Builder get() {
+            return method("GET", null);
+        }
+
+        public Builder head() {
+            return method("HEAD", null);
+        }
+
+        public Builder post(byte[] body, String contentType) {
+            return method("POST", body).contentType(contentType);
+        }
+
+        public Builder put(byte[] body, String contentType) {
+            return method("PUT", body).contentType(contentType);
+        }
+
+        /**
+         * PATCH 请求
+         * HttpURLConnection 不支持 PATCH，需服务端支持 X-HTTP-Method-Override 并设置 methodOverride(true)，
+         * 否则请求失败（ProtocolException）
+         * @param body
+         * @param contentType
+         * @return
+         */
+        public Builder patch(byte[] body, String contentType) {
+            return method("PATCH", body).contentType(contentType);
+        }
+
+        public Builder delete() {
+            return method("DELETE", null);
+        }
+
+        /**
+         * 提交 JSON
+         * @param method 请求方法
+         * @param json
+         * @return
+         */
+        public Builder json(String method, String json) {
+            try {
+                return method(method, json.getBytes("utf-8")).contentType("application/json;charset=UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+
+        /**
+         * 提交表单
+         * @param method 请求方法
+         * @param params 表单参数
+         * @return
+         */
+        public Builder form(String method, Map<String, String> params) {
+            try {
+                StringBuilder builder = new StringBuilder();
+                if(params != null){
+                    for (Map.Entry<String, String> entry : params.entrySet()) {
+                        if(builder.length() > 0) builder.append('&');
+                        builder.append(URLEncoder.encode(entry.getKey(), "utf-8"))
+                                .append('=')
+                                .append(URLEncoder.encode(entry.getValue() == null ? "" : entry.getValue(), "utf-8"));
+                    }
+                }
+                return method(method, builder.toString().getBytes("utf-8")).contentType("application/x-www-form-urlencoded;charset=UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+
+        /**
+         * 设置请求方法及请求体
+         * @param method 请求方法
+         * @param body 请求体，null 没有请求体
+         * @return
+         */
+        public Builder method(String method, byte[] body) {
+            if(method == null || method.length() == 0) throw new IllegalArgumentException("method is empty");
+            this.method = method.toUpperCase();
+            this.body = body;
+            return this;
+        }
+
+        public Builder contentType(String contentType) {
+            if(contentType != null){
+                properties.put("Content-Type", contentType);
+            }
+            return this;
+        }
+
+        /**
+         * 设置题头属性
+         * @param key
+         * @param value null 移除
+         * @return
+         */
+        public Builder property(String key, String value) {
+            if(value == null){
+                properties.remove(key);
+            }else {
+                properties.put(key, value);
+            }
+            return this;
+        }
+
+        public Builder properties(Map<String, String> properties) {
+            if(properties != null){
+                this.properties.putAll(properties);
+            }
+            return this;
+        }
+
+        public Builder verifyCode(@HttpSSLVerify.VerifyCode int verifyCode) {
+            this.verifyCode = verifyCode;
+            return this;
+        }
+
+        /**
+         * 超时时间
+         * @param connectTimeout 连接主机超时时间（单位：毫秒）
+         * @param readTimeout 从主机读取数据超时时间（单位：毫秒）
+         * @return
+         */
+        public Builder timeout(int connectTimeout, int readTimeout) {
+            this.connectTimeout = connectTimeout;
+            this.readTimeout = readTimeout;
+            return this;
+        }
+
+        /**
+         * HttpURLConnection 不支持的请求方法（如 PATCH）以 POST 发送，实际方法放在 X-HTTP-Method-Override 题头
+         * 需服务端支持该题头，否则会按 POST 处理
+         * @param isMethodOverride 默认 false，不支持的方法请求失败
+         * @return
+         */
+        public Builder methodOverride(boolean isMethodOverride) {
+            this.isMethodOverride = isMethodOverride;
+            return this;
+        }
+
+        public HttpRequest build() {
+            if(url == null || url.length() == 0) throw new IllegalArgumentException("url is empty");
+            return new HttpRequest(this);
+        }
+    }
+}
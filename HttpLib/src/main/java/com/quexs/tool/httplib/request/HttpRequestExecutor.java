@@ -0,0 +1,149 @@
+package com.quexs.tool.httplib.request;
+
+import android.util.ArrayMap;
+
+import com.quexs.tool.httplib.cache.HttpMemoryCache;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Http 通用请求类
+ * 同步请求在调用线程执行，异步请求按优先级在线程池中执行
+ */
+public class HttpRequestExecutor {
+
+    private final ThreadPoolExecutor threadPool;
+    private final ArrayMap<Object, HttpRequestRunnable> keyMap = new ArrayMap<>();
+    private final ReentrantLock lock;
+    //响应内存缓存
+    private HttpMemoryCache memoryCache;
+
+    public HttpRequestExecutor(){
+        int cpuCount = Runtime.getRuntime().availableProcessors();
+        //核心线程总数 设定为3个
+        int corPoolSize = Math.min(cpuCount * 2, 3);
+        //线程空闲后的存活时长 1 秒
+        long keepAliveTime = 1L;
+        threadPool = new ThreadPoolExecutor(corPoolSize,corPoolSize, keepAliveTime, TimeUnit.SECONDS, new PriorityBlockingQueue<>());
+        //允许核心线程超时关闭
+        threadPool.allowCoreThreadTimeOut(true);
+        //公平锁
+        lock = new ReentrantLock();
+    }
+
+    /**
+     * 同步请求（在调用线程执行）
+     * @param httpRequest
+     * @return 请求结果，读取完成后需关闭
+     * @throws Exception
+     */
+    public HttpResponse execute(HttpRequest httpRequest) throws Exception {
+        HttpRequestRunnable httpRequestRunnable = new HttpRequestRunnable(httpRequest);
+        httpRequestRunnable.setMemoryCache(memoryCache);
+        return httpRequestRunnable.execute();
+    }
+
+    /**
+     * 异步请求
+     * 命中内存缓存时在调用线程直接回调结果
+     * @param httpRequest
+     * @param httpRequestListener
+     */
+    public void enqueue(HttpRequest httpRequest, HttpRequestListener httpRequestListener){
+        if(enqueueCached(httpRequest, httpRequestListener)) return;
+        lock.lock();
+        try {
+            HttpRequestRunnable exitHttpRequestRunnable = keyMap.get(httpRequest.getObjKey());
+            if(exitHttpRequestRunnable != null){
+                exitHttpRequestRunnable.setHttpRequestListener(httpRequestListener);
+            }else {
+                HttpRequestRunnable httpRequestRunnable = new HttpRequestRunnable(httpRequest);
+                httpRequestRunnable.setHttpRequestRunnableEndListener(new HttpRequestRunnable.HttpRequestRunnableEndListener() {
+                    @Override
+                    public void endRequest(Object objKey) {
+                        lock.lock();
+                        try {
+                            keyMap.remove(objKey);
+                        }finally {
+                            lock.unlock();
+                        }
+                    }
+                });
+                httpRequestRunnable.setHttpRequestListener(httpRequestListener);
+                httpRequestRunnable.setMemoryCache(memoryCache);
+                keyMap.put(httpRequest.getObjKey(), httpRequestRunnable);
+                threadPool.execute(httpRequestRunnable);
+            }
+        }finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 命中内存缓存时直接回调结果，不进入线程池
+     * @return false 未命中
+     */
+    private boolean enqueueCached(HttpRequest httpRequest, HttpRequestListener httpRequestListener){
+        if(memoryCache == null) return false;
+        HttpRequestRunnable httpRequestRunnable = new HttpRequestRunnable(httpRequest);
+        httpRequestRunnable.setMemoryCache(memoryCache);
+        HttpResponse response = httpRequestRunnable.getCachedResponse();
+        if(response == null) return false;
+        if(httpRequestListener != null){
+            httpRequestListener.requestStart(httpRequest.getObjKey());
+            httpRequestListener.requestComplete(response, httpRequest.getObjKey());
+        }
+        response.close();
+        return true;
+    }
+
+    /**
+     * 取消请求
+     * @param objKey null 取消所有请求
+     */
+    public void cancelRequest(Object objKey){
+        lock.lock();
+        try {
+            if(objKey == null){
+                Iterator<Map.Entry<Object, HttpRequestRunnable>> it = keyMap.entrySet().iterator();
+                while (it.hasNext()){
+                    Map.Entry<Object, HttpRequestRunnable> entry = it.next();
+                    //取消请求
+                    entry.getValue().cancelRequest();
+                    //移出key
+                    it.remove();
+                }
+            }else {
+                HttpRequestRunnable httpRequestRunnable = keyMap.remove(objKey);
+                if(httpRequestRunnable != null){
+                    httpRequestRunnable.cancelRequest();
+                }
+            }
+        }finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 设置响应内存缓存（需在发起请求前设置）
+     * GET 请求命中缓存时不发起连接；200 且长度不超过单个条目大小的响应读取全部消息体后缓存
+     * @param memoryCache null 不缓存
+     */
+    public void setMemoryCache(HttpMemoryCache memoryCache){
+        this.memoryCache = memoryCache;
+    }
+
+    /**
+     * 关闭线程池
+     */
+    public void close(){
+        threadPool.shutdown();
+        cancelRequest(null);
+    }
+
+}
@@ -0,0 +1,9 @@
+package com.quexs.tool.httplib.request;
+
+public interface HttpRequestListener {
+    void requestStart(Object objKey);
+    //回调返回后响应自动关闭，需在回调内读取消息体
+    void requestComplete(HttpResponse response, Object objKey);
+    void requestError(Exception e, Object objKey);
+
+}
@@ -0,0 +1,244 @@
+package com.quexs.tool.httplib.request;
+
+import android.text.TextUtils;
+
+import com.quexs.tool.httplib.cache.HttpMemoryCache;
+import com.quexs.tool.httplib.conn.HttpConnectionTool;
+import com.quexs.tool.httplib.conn.HttpContentDecoder;
+import com.quexs.tool.httplib.log.HttpLogBean;
+import com.quexs.tool.httplib.log.HttpPrintLog;
+import com.quexs.tool.httplib.ssl.SSLSocketFactoryTool;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.HttpsURLConnection;
+
+/**
+ * 通用请求 Runnable
+ */
+public class HttpRequestRunnable implements Runnable, Comparable<HttpRequestRunnable> {
+    //提交顺序，同优先级先提交先执行
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+    //HttpURLConnection 支持的请求方法
+    private static final List<String> SUPPORTED_METHODS = Arrays.asList("GET", "POST", "HEAD", "OPTIONS", "PUT", "DELETE", "TRACE");
+
+    private final HttpRequest httpRequest;
+    private final long sequence = SEQUENCE.getAndIncrement();
+    //请求监听
+    private HttpRequestListener httpRequestListener;
+    //请求结束监听
+    private HttpRequestRunnableEndListener httpRequestRunnableEndListener;
+    //取消请求
+    private volatile boolean isCancelRequest;
+    //响应内存缓存
+    private HttpMemoryCache memoryCache;
+
+    public HttpRequestRunnable(HttpRequest httpRequest) {
+        this.httpRequest = httpRequest;
+    }
+
+    public HttpRequest getHttpRequest() {
+        return httpRequest;
+    }
+
+    public Object getObjKey() {
+        return httpRequest.getObjKey();
+    }
+
+    public void setHttpRequestListener(HttpRequestListener httpRequestListener) {
+        this.httpRequestListener = httpRequestListener;
+    }
+
+    public void setHttpRequestRunnableEndListener(HttpRequestRunnableEndListener httpRequestRunnableEndListener) {
+        this.httpRequestRunnableEndListener = httpRequestRunnableEndListener;
+    }
+
+    /**
+     * 设置响应内存缓存，GET 请求命中时不发起连接
+     * @param memoryCache null 不缓存
+     */
+    public void setMemoryCache(HttpMemoryCache memoryCache) {
+        this.memoryCache = memoryCache;
+    }
+
+    /**
+     * 取消请求
+     */
+    public void cancelRequest() {
+        isCancelRequest = true;
+    }
+
+    public boolean isCancelRequest() {
+        return isCancelRequest;
+    }
+
+    @Override
+    public int compareTo(HttpRequestRunnable o) {
+        String sort = httpRequest.getSort();
+        int result;
+        //降序
+        if(!TextUtils.isEmpty(sort) && "DESC".equalsIgnoreCase(sort)) result = Long.compare(o.httpRequest.getPriority(), httpRequest.getPriority());
+        //升序
+        else result = Long.compare(httpRequest.getPriority(), o.httpRequest.getPriority());
+        return result != 0 ? result : Long.compare(sequence, o.sequence);
+    }
+
+    @Override
+    public void run() {
+        Object objKey = getObjKey();
+        if(isCancelRequest){
+            if(httpRequestRunnableEndListener != null){
+                httpRequestRunnableEndListener.endRequest(objKey);
+            }
+            return;
+        }
+        if(httpRequestListener != null){
+            httpRequestListener.requestStart(objKey);
+        }
+        HttpResponse response = null;
+        try {
+            response = execute();
+            if(!isCancelRequest && httpRequestListener != null){
+                httpRequestListener.requestComplete(response, objKey);
+            }
+        }catch (Exception e){
+            if(!isCancelRequest && httpRequestListener != null){
+                httpRequestListener.requestError(e, objKey);
+            }
+        }finally {
+            if(response != null){
+                response.close();
+            }
+            if(httpRequestRunnableEndListener != null){
+                httpRequestRunnableEndListener.endRequest(objKey);
+            }
+        }
+    }
+
+    /**
+     * 发起请求，返回时已收到响应题头
+     * @return 请求结果，读取完成后需关闭
+     * @throws Exception
+     */
+    HttpResponse execute() throws Exception {
+        HttpResponse cachedResponse = getCachedResponse();
+        if(cachedResponse != null) return cachedResponse;
+        String url = httpRequest.getUrl();
+        String method = httpRequest.getMethod();
+        HttpURLConnection conn = null;
+        //连接后不能再读取题头属性，提前记录用于打印日志
+        Map<String, List<String>> requestProperties = null;
+        int responseCode = -1;
+        try {
+            conn = openConnection();
+            byte[] body = httpRequest.getBody();
+            if(body != null){
+                conn.setDoOutput(true);
+                //请求体长度已知，直接写入不在内存中再缓存一份
+                conn.setFixedLengthStreamingMode(body.length);
+            }
+            requestProperties = conn.getRequestProperties();
+            if(body != null){
+                OutputStream os = conn.getOutputStream();
+                try {
+                    os.write(body);
+                }finally {
+                    os.close();
+                }
+            }
+            responseCode = conn.getResponseCode();
+            InputStream is = responseCode >= HttpURLConnection.HTTP_BAD_REQUEST ? conn.getErrorStream() : conn.getInputStream();
+            //手动声明 Accept-Encoding 时按 Content-Encoding 解压（自动解压的响应已去除该题头）
+            is = HttpContentDecoder.decode(conn, is);
+            HttpResponse response = new HttpResponse(httpRequest, conn, responseCode, is);
+            //打印日志
+            HttpPrintLog.getInstance().addPrintLog(new HttpLogBean(url, method, requestProperties, responseCode,
+                    "Content-Type=" + conn.getContentType() + ", Content-Length=" + response.getContentLength()));
+            cacheResponse(response);
+            return response;
+        }catch (Exception e){
+            if(requestProperties == null){
+                //未发起连接
+                requestProperties = Collections.emptyMap();
+            }else if(conn != null && responseCode == -1){
+                try {
+                    responseCode = conn.getResponseCode();
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                }
+            }
+            //打印日志
+            HttpPrintLog.getInstance().addPrintLog(new HttpLogBean(url, method, requestProperties, responseCode, e));
+            HttpConnectionTool.release(conn, false);
+            throw e;
+        }
+    }
+
+    /**
+     * 读取内存缓存
+     * @return null 未命中
+     */
+    HttpResponse getCachedResponse() {
+        if(memoryCache == null || !isCacheable()) return null;
+        HttpMemoryCache.Entry entry = memoryCache.get(httpRequest.getMethod(), httpRequest.getUrl(), httpRequest.getProperties());
+        return entry != null ? new HttpResponse(httpRequest, entry) : null;
+    }
+
+    /**
+     * 写入内存缓存：200 且长度已知、不超过单个条目大小的响应读取全部消息体后缓存
+     */
+    private void cacheResponse(HttpResponse response) throws IOException {
+        if(memoryCache == null || !isCacheable() || response.getResponseCode() != HttpURLConnection.HTTP_OK) return;
+        long contentLength = response.getContentLength();
+        if(contentLength < 0 || contentLength > memoryCache.getMaxEntryBytes()) return;
+        byte[] bytes = response.bytes();
+        memoryCache.put(httpRequest.getMethod(), httpRequest.getUrl(), httpRequest.getProperties(),
+                response.getResponseCode(), response.getHeaderFields(), bytes);
+    }
+
+    private boolean isCacheable() {
+        return "GET".equals(httpRequest.getMethod()) && httpRequest.getBody() == null;
+    }
+
+    /**
+     * 打开连接，并设置请求方法、SSL验证规则、超时时间及题头属性
+     * @return
+     * @throws Exception
+     */
+    private HttpURLConnection openConnection() throws Exception {
+        HttpURLConnection conn = (HttpURLConnection) new URL(httpRequest.getUrl()).openConnection();
+        if(conn instanceof HttpsURLConnection){
+            //复用已初始化的 SSLSocketFactory
+            SSLSocketFactoryTool.applyVerify((HttpsURLConnection) conn, httpRequest.getVerifyCode());
+        }
+        conn.setConnectTimeout(httpRequest.getConnectTimeout());
+        conn.setReadTimeout(httpRequest.getReadTimeout());
+        conn.setUseCaches(false);
+        String method = httpRequest.getMethod();
+        if(httpRequest.isMethodOverride() && !SUPPORTED_METHODS.contains(method)){
+            //HttpURLConnection 不支持的方法（如 PATCH）
+            conn.setRequestMethod("POST");
+            conn.setRequestProperty("X-HTTP-Method-Override", method);
+        }else {
+            //不支持的方法抛出 ProtocolException
+            conn.setRequestMethod(method);
+        }
+        for (Map.Entry<String, String> entry : httpRequest.getProperties().entrySet()) {
+            conn.setRequestProperty(entry.getKey(), entry.getValue());
+        }
+        return conn;
+    }
+
+    public interface HttpRequestRunnableEndListener{
+        void endRequest(Object objKey);
+    }
+}
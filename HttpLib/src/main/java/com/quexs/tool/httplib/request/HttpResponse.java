@@ -0,0 +1,158 @@
+package com.quexs.tool.httplib.request;
+
+import com.quexs.tool.httplib.cache.HttpMemoryCache;
+import com.quexs.tool.httplib.conn.HttpConnectionTool;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 请求结果
+ * 消息体可按流、字节或字符串读取，读取完成或关闭后连接回到连接池
+ * 命中内存缓存的结果没有连接，消息体已在内存中
+ */
+public class HttpResponse implements Closeable {
+    private final HttpRequest request;
+    private final HttpURLConnection conn;
+    //内存缓存条目（未命中缓存为 null）
+    private final HttpMemoryCache.Entry cacheEntry;
+    private final int responseCode;
+    //消息体
+    private final InputStream body;
+    //已读取的消息体
+    private byte[] bytes;
+    //是否已关闭
+    private boolean isClosed;
+
+    HttpResponse(HttpRequest request, HttpURLConnection conn, int responseCode, InputStream body) {
+        this.request = request;
+        this.conn = conn;
+        this.cacheEntry = null;
+        this.responseCode = responseCode;
+        this.body = body != null ? body : new ByteArrayInputStream(new byte[0]);
+    }
+
+    HttpResponse(HttpRequest request, HttpMemoryCache.Entry cacheEntry) {
+        this.request = request;
+        this.conn = null;
+        this.cacheEntry = cacheEntry;
+        this.responseCode = cacheEntry.getResponseCode();
+        //复制一份，避免调用方修改缓存
+        this.bytes = cacheEntry.getBody().clone();
+        this.body = new ByteArrayInputStream(bytes);
+        this.isClosed = true;
+    }
+
+    public HttpRequest getRequest() {
+        return request;
+    }
+
+    public int getResponseCode() {
+        return responseCode;
+    }
+
+    /**
+     * 响应码是否为 2xx
+     * @return
+     */
+    public boolean isSuccessful() {
+        return responseCode >= 200 && responseCode < 300;
+    }
+
+    /**
+     * 是否来自内存缓存
+     * @return
+     */
+    public boolean isFromCache() {
+        return cacheEntry != null;
+    }
+
+    public String getHeaderField(String name) {
+        return cacheEntry != null ? cacheEntry.getHeaderField(name) : conn.getHeaderField(name);
+    }
+
+    public Map<String, List<String>> getHeaderFields() {
+        return cacheEntry != null ? cacheEntry.getHeaders() : conn.getHeaderFields();
+    }
+
+    /**
+     * 消息体长度（压缩的响应为压缩后的长度）
+     * @return -1 长度未知
+     */
+    public long getContentLength() {
+        if(cacheEntry != null) return bytes.length;
+        String contentLength = conn.getHeaderField("Content-Length");
+        try {
+            return contentLength == null ? -1 : Long.parseLong(contentLength.trim());
+        }catch (NumberFormatException e){
+            return -1;
+        }
+    }
+
+    /**
+     * 消息体流（已按 Content-Encoding 解压），读取完成后需调用 close
+     * @return
+     */
+    public synchronized InputStream byteStream() {
+        //消息体已全部读取时返回内存中的数据
+        return bytes != null ? new ByteArrayInputStream(bytes) : body;
+    }
+
+    /**
+     * 读取全部消息体
+     * @return
+     * @throws IOException
+     */
+    public synchronized byte[] bytes() throws IOException {
+        if(bytes != null) return bytes;
+        if(isClosed) throw new IOException("response closed");
+        long contentLength = getContentLength();
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(contentLength > 0 && contentLength < Integer.MAX_VALUE ? (int) contentLength : 1024);
+        byte[] b = new byte[8 * 1024];
+        int len;
+        while ((len = body.read(b)) != -1){
+            bos.write(b, 0, len);
+        }
+        bytes = bos.toByteArray();
+        close();
+        return bytes;
+    }
+
+    /**
+     * 按 Content-Type 的字符集读取消息体，默认 UTF-8
+     * @return
+     * @throws IOException
+     */
+    public String string() throws IOException {
+        return new String(bytes(), charset());
+    }
+
+    /**
+     * 关闭消息体，已读完时保留连接供复用
+     */
+    @Override
+    public synchronized void close() {
+        if(isClosed) return;
+        isClosed = true;
+        HttpConnectionTool.release(conn, HttpConnectionTool.closeResponse(body));
+    }
+
+    private String charset() {
+        String contentType = getHeaderField("Content-Type");
+        if(contentType != null){
+            for (String param : contentType.split(";")) {
+                param = param.trim();
+                if(param.regionMatches(true, 0, "charset=", 0, 8)){
+                    return param.substring(8).replace("\"", "").trim();
+                }
+            }
+        }
+        return "utf-8";
+    }
+}
@@ -0,0 +1,144 @@
+package com.quexs.tool.httplib.ssl;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLSession;
+
+/**
+ * TLS 握手统计
+ * 统计完整握手与会话复用握手的次数及耗时（从创建 SSLSocket 到握手完成）
+ */
+public class HttpSSLStatistics {
+
+    private static volatile HttpSSLStatistics instance;
+
+    //最多记录的会话数量
+    private static final int MAX_SESSION_IDS = 256;
+
+    //完整握手次数
+    private final AtomicLong fullHandshakeCount = new AtomicLong();
+    //会话复用握手次数
+    private final AtomicLong resumedHandshakeCount = new AtomicLong();
+    //完整握手总耗时（毫秒）
+    private final AtomicLong fullHandshakeMillis = new AtomicLong();
+    //会话复用握手总耗时（毫秒）
+    private final AtomicLong resumedHandshakeMillis = new AtomicLong();
+    //已建立的会话
+    private final Map<String, Boolean> sessionIds = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > MAX_SESSION_IDS;
+        }
+    };
+
+    public static HttpSSLStatistics getInstance() {
+        if (instance == null) {
+            synchronized (HttpSSLStatistics.class) {
+                if (instance == null) {
+                    instance = new HttpSSLStatistics();
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * 记录握手完成
+     * 会话创建时间早于本次握手开始，或会话 ID 已出现过，视为会话复用
+     * @param session 握手完成的会话
+     * @param startMillis 握手开始时间（System.currentTimeMillis）
+     */
+    void onHandshakeCompleted(SSLSession session, long startMillis) {
+        long costMillis = Math.max(0, System.currentTimeMillis() - startMillis);
+        boolean isResumed = session.getCreationTime() < startMillis;
+        byte[] id = session.getId();
+        if(id != null && id.length > 0){
+            String sessionId = toHex(id);
+            synchronized (sessionIds) {
+                if(sessionIds.put(sessionId, Boolean.TRUE) != null){
+                    isResumed = true;
+                }
+            }
+        }
+        if(isResumed){
+            resumedHandshakeCount.incrementAndGet();
+            resumedHandshakeMillis.addAndGet(costMillis);
+        }else {
+            fullHandshakeCount.incrementAndGet();
+            fullHandshakeMillis.addAndGet(costMillis);
+        }
+    }
+
+    /**
+     * 完整握手次数
+     */
+    public long getFullHandshakeCount() {
+        return fullHandshakeCount.get();
+    }
+
+    /**
+     * 会话复用握手次数
+     */
+    public long getResumedHandshakeCount() {
+        return resumedHandshakeCount.get();
+    }
+
+    /**
+     * 完整握手平均耗时（毫秒）
+     */
+    public long getAverageFullHandshakeMillis() {
+        long count = fullHandshakeCount.get();
+        return count == 0 ? 0 : fullHandshakeMillis.get() / count;
+    }
+
+    /**
+     * 会话复用握手平均耗时（毫秒）
+     */
+    public long getAverageResumedHandshakeMillis() {
+        long count = resumedHandshakeCount.get();
+        return count == 0 ? 0 : resumedHandshakeMillis.get() / count;
+    }
+
+    /**
+     * 会话复用率
+     * @return 0 ~ 1
+     */
+    public float getResumedRate() {
+        long resumed = resumedHandshakeCount.get();
+        long total = resumed + fullHandshakeCount.get();
+        return total == 0 ? 0 : (float) resumed / total;
+    }
+
+    /**
+     * 重置统计
+     */
+    public void reset() {
+        fullHandshakeCount.set(0);
+        resumedHandshakeCount.set(0);
+        fullHandshakeMillis.set(0);
+        resumedHandshakeMillis.set(0);
+        synchronized (sessionIds) {
+            sessionIds.clear();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "HttpSSLStatistics{" +
+                "fullHandshakeCount=" + getFullHandshakeCount() +
+                ", resumedHandshakeCount=" + getResumedHandshakeCount() +
+                ", averageFullHandshakeMillis=" + getAverageFullHandshakeMillis() +
+                ", averageResumedHandshakeMillis=" + getAverageResumedHandshakeMillis() +
+                '}';
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,83 @@
+package com.quexs.tool.httplib.ssl;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+
+import javax.net.ssl.HandshakeCompletedEvent;
+import javax.net.ssl.HandshakeCompletedListener;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * 统计握手的 SSLSocketFactory
+ * 代理创建 SSLSocket，握手完成后记录至 HttpSSLStatistics
+ */
+class HttpStatsSSLSocketFactory extends SSLSocketFactory {
+
+    private final SSLSocketFactory delegate;
+
+    HttpStatsSSLSocketFactory(SSLSocketFactory delegate) {
+        this.delegate = delegate;
+    }
+
+    SSLSocketFactory getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public String[] getDefaultCipherSuites() {
+        return delegate.getDefaultCipherSuites();
+    }
+
+    @Override
+    public String[] getSupportedCipherSuites() {
+        return delegate.getSupportedCipherSuites();
+    }
+
+    @Override
+    public Socket createSocket(Socket s, String host, int port, boolean autoClose) throws IOException {
+        return observe(delegate.createSocket(s, host, port, autoClose));
+    }
+
+    @Override
+    public Socket createSocket() throws IOException {
+        return observe(delegate.createSocket());
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        return observe(delegate.createSocket(host, port));
+    }
+
+    @Override
+    public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+        return observe(delegate.createSocket(host, port, localHost, localPort));
+    }
+
+    @Override
+    public Socket createSocket(InetAddress host, int port) throws IOException {
+        return observe(delegate.createSocket(host, port));
+    }
+
+    @Override
+    public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+        return observe(delegate.createSocket(address, port, localAddress, localPort));
+    }
+
+    /**
+     * 监听握手完成
+     */
+    private Socket observe(Socket socket) {
+        if(socket instanceof SSLSocket){
+            final long startMillis = System.currentTimeMillis();
+            ((SSLSocket) socket).addHandshakeCompletedListener(new HandshakeCompletedListener() {
+                @Override
+                public void handshakeCompleted(HandshakeCompletedEvent event) {
+                    HttpSSLStatistics.getInstance().onHandshakeCompleted(event.getSession(), startMillis);
+                }
+            });
+        }
+        return socket;
+    }
+}
@@ -16,6 +16,9 @@ import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
 
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.HttpsURLConnection;
@@ -23,6 +26,7 @@ import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
 import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.TrustManagerFactory;
@@ -35,12 +39,283 @@ import javax.net.ssl.X509TrustManager;
  */
 public class SSLSocketFactoryTool {
 
+    //缓存Key-系统默认验证
+    private static final String KEY_DEFAULT_VERIFY = "default";
+    //缓存Key-跳过所有验证
+    private static final String KEY_SKIP_VERIFY = "skip";
+    //缓存Key-客户端默认密钥库单向验证
+    private static final String KEY_CLIENT_VERIFY = "client";
+    //缓存Key前缀-服务端证书单向验证
+    private static final String KEY_PREFIX_CRT_CLIENT_VERIFY = "crt:";
+    //缓存Key前缀-双向验证
+    private static final String KEY_PREFIX_CLIENT_HOST_VERIFY = "bks:";
+    //已初始化的 SSLContext 缓存（按验证方式及证书区分），复用以避免每次请求重建及支持会话复用
+    private static final Map<String, SSLContext> SSL_CONTEXT_CACHE = new HashMap<>();
+    private static final Map<String, SSLSocketFactory> SSL_SOCKET_FACTORY_CACHE = new HashMap<>();
+    //客户端会话缓存数量，0 表示不限制，-1 使用系统默认
+    private static int sessionCacheSize = -1;
+    //客户端会话超时时间（秒），0 表示不限制，-1 使用系统默认
+    private static int sessionTimeout = -1;
+    //不验证主机名
+    private static final HostnameVerifier SKIP_HOSTNAME_VERIFIER = new HostnameVerifier() {
+        @Override
+        public boolean verify(String hostname, SSLSession session) {
+            return true;
+        }
+    };
+
+    /**
+     * 为连接设置SSL验证规则（目前只支持跳过验证、客户端单向验证）
+     * 使用缓存的 SSLSocketFactory
+     * @param conn
+     * @param verifyCode
+     * @throws Exception
+     */
+    public static void applyVerify(HttpsURLConnection conn, @HttpSSLVerify.VerifyCode int verifyCode) throws Exception {
+        if(verifyCode == HttpSSLVerify.VerifyCode.DEFAULT_VERIFY){
+            //统计默认验证的握手
+            conn.setSSLSocketFactory(getDefaultSSLSocketFactory());
+            return;
+        }
+        if(verifyCode == HttpSSLVerify.VerifyCode.CLIENT_VERIFY){
+            //使用客户端默认密钥库验证-单向验证
+            conn.setSSLSocketFactory(getClientVerifySSLSocketFactory());
+        }else {
+            //跳过所有验证
+            conn.setSSLSocketFactory(getSkipVerifySSLSocketFactory());
+        }
+        //主机验证-默认true不验证
+        conn.setHostnameVerifier(SKIP_HOSTNAME_VERIFIER);
+    }
+
+    /**
+     * 获取验证方式对应的 SSLSocketFactory（供直接创建 SSLSocket 使用，与 applyVerify 规则一致）
+     * @param verifyCode
+     * @return
+     * @throws Exception
+     */
+    public static SSLSocketFactory getSSLSocketFactory(@HttpSSLVerify.VerifyCode int verifyCode) throws Exception {
+        if(verifyCode == HttpSSLVerify.VerifyCode.DEFAULT_VERIFY) return getDefaultSSLSocketFactory();
+        if(verifyCode == HttpSSLVerify.VerifyCode.CLIENT_VERIFY) return getClientVerifySSLSocketFactory();
+        return getSkipVerifySSLSocketFactory();
+    }
+
+    /**
+     * 获取验证方式对应的 SSLContext（供 SSLEngine 使用，与 applyVerify 规则一致）
+     * @param verifyCode
+     * @return
+     * @throws Exception
+     */
+    public static SSLContext getSSLContext(@HttpSSLVerify.VerifyCode int verifyCode) throws Exception {
+        if(verifyCode == HttpSSLVerify.VerifyCode.DEFAULT_VERIFY) return SSLContext.getDefault();
+        synchronized (SSL_CONTEXT_CACHE) {
+            if(verifyCode == HttpSSLVerify.VerifyCode.CLIENT_VERIFY){
+                getClientVerifySSLSocketFactory();
+                return SSL_CONTEXT_CACHE.get(KEY_CLIENT_VERIFY);
+            }
+            getSkipVerifySSLSocketFactory();
+            return SSL_CONTEXT_CACHE.get(KEY_SKIP_VERIFY);
+        }
+    }
+
+    /**
+     * 获取验证方式对应的主机名验证（与 applyVerify 规则一致）
+     * @param verifyCode
+     * @return
+     */
+    public static HostnameVerifier getHostnameVerifier(@HttpSSLVerify.VerifyCode int verifyCode) {
+        return verifyCode == HttpSSLVerify.VerifyCode.DEFAULT_VERIFY ? HttpsURLConnection.getDefaultHostnameVerifier() : SKIP_HOSTNAME_VERIFIER;
+    }
+
+    /**
+     * 设置客户端TLS会话缓存
+     * 对已缓存及之后创建的 SSLContext 生效
+     * @param cacheSize 会话缓存数量，0 表示不限制
+     * @param timeoutSeconds 会话超时时间（秒），0 表示不限制
+     */
+    public static void setSessionCacheConfig(int cacheSize, int timeoutSeconds) {
+        synchronized (SSL_CONTEXT_CACHE) {
+            sessionCacheSize = cacheSize;
+            sessionTimeout = timeoutSeconds;
+            for (SSLContext sslContext : SSL_CONTEXT_CACHE.values()) {
+                applySessionCacheConfig(sslContext);
+            }
+            try {
+                applySessionCacheConfig(SSLContext.getDefault());
+            } catch (NoSuchAlgorithmException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 获取系统默认验证的SSLSocketFactory（统计握手）
+     * @return
+     */
+    public static SSLSocketFactory getDefaultSSLSocketFactory() {
+        SSLSocketFactory defaultFactory = HttpsURLConnection.getDefaultSSLSocketFactory();
+        //已通过 enableDefault* 设置为缓存的 SSLSocketFactory
+        if(defaultFactory instanceof HttpStatsSSLSocketFactory) return defaultFactory;
+        synchronized (SSL_CONTEXT_CACHE) {
+            SSLSocketFactory sslSocketFactory = SSL_SOCKET_FACTORY_CACHE.get(KEY_DEFAULT_VERIFY);
+            if(!(sslSocketFactory instanceof HttpStatsSSLSocketFactory)
+                    || ((HttpStatsSSLSocketFactory) sslSocketFactory).getDelegate() != defaultFactory){
+                sslSocketFactory = new HttpStatsSSLSocketFactory(defaultFactory);
+                SSL_SOCKET_FACTORY_CACHE.put(KEY_DEFAULT_VERIFY, sslSocketFactory);
+            }
+            return sslSocketFactory;
+        }
+    }
+
+    /**
+     * 获取跳过所有验证的SSLSocketFactory（缓存）
+     * @return
+     * @throws Exception
+     */
+    public static SSLSocketFactory getSkipVerifySSLSocketFactory() throws Exception {
+        synchronized (SSL_CONTEXT_CACHE) {
+            SSLContext sslContext = SSL_CONTEXT_CACHE.get(KEY_SKIP_VERIFY);
+            if(sslContext == null){
+                sslContext = mCreateSkipVerifySSLContext();
+            }
+            return cacheSSLContext(KEY_SKIP_VERIFY, sslContext);
+        }
+    }
+
+    /**
+     * 获取-客户端单向验证的SSLSocketFactory（缓存）
+     * @return
+     * @throws Exception
+     */
+    public static SSLSocketFactory getClientVerifySSLSocketFactory() throws Exception {
+        synchronized (SSL_CONTEXT_CACHE) {
+            SSLContext sslContext = SSL_CONTEXT_CACHE.get(KEY_CLIENT_VERIFY);
+            if(sslContext == null){
+                sslContext = mCreateClientVerifySSLContext();
+            }
+            return cacheSSLContext(KEY_CLIENT_VERIFY, sslContext);
+        }
+    }
+
+    /**
+     * 获取-客户端单向验证（服务端给的证书）的SSLSocketFactory（缓存）
+     * @param context
+     * @param alias
+     * @param clintCrtName
+     * @return
+     * @throws Exception
+     */
+    public static SSLSocketFactory getCrtClientVerifySSLSocketFactory(Context context, String alias, String clintCrtName) throws Exception {
+        String key = KEY_PREFIX_CRT_CLIENT_VERIFY + alias + "/" + clintCrtName;
+        synchronized (SSL_CONTEXT_CACHE) {
+            SSLContext sslContext = SSL_CONTEXT_CACHE.get(key);
+            if(sslContext == null){
+                sslContext = mCreateCrtClientVerifySSLContext(context, alias, clintCrtName);
+            }
+            return cacheSSLContext(key, sslContext);
+        }
+    }
+
+    /**
+     * 获取 双向验证 的SSLSocketFactory（缓存，证书文件名相同时复用）
+     * @param context
+     * @param clintBKSName
+     * @param clintKbsPwd
+     * @param serverBksName
+     * @param serverKbsPwd
+     * @return
+     * @throws Exception
+     */
+    public static SSLSocketFactory getClientHostVerify2SSLSocketFactory(Context context, String clintBKSName, String clintKbsPwd, String serverBksName, String serverKbsPwd) throws Exception {
+        String key = KEY_PREFIX_CLIENT_HOST_VERIFY + clintBKSName + "/" + serverBksName;
+        synchronized (SSL_CONTEXT_CACHE) {
+            SSLContext sslContext = SSL_CONTEXT_CACHE.get(key);
+            if(sslContext == null){
+                sslContext = mCreateClientHostVerify2SSLContext(context, clintBKSName, clintKbsPwd, serverBksName, serverKbsPwd);
+            }
+            return cacheSSLContext(key, sslContext);
+        }
+    }
+
+    /**
+     * 移除指定验证方式的缓存（证书更新后调用）
+     * @param verifyCode
+     */
+    public static void invalidateSSLCache(@HttpSSLVerify.VerifyCode int verifyCode) {
+        String prefix;
+        switch (verifyCode){
+            case HttpSSLVerify.VerifyCode.SKIP_VERIFY:
+                prefix = KEY_SKIP_VERIFY;
+                break;
+            case HttpSSLVerify.VerifyCode.CLIENT_VERIFY:
+                prefix = KEY_CLIENT_VERIFY;
+                break;
+            case HttpSSLVerify.VerifyCode.CLIENT_CLINT_VERIFY:
+                prefix = KEY_PREFIX_CRT_CLIENT_VERIFY;
+                break;
+            case HttpSSLVerify.VerifyCode.CLIENT_HOST_CERTIFICATE_VERIFY:
+                prefix = KEY_PREFIX_CLIENT_HOST_VERIFY;
+                break;
+            default:
+                return;
+        }
+        synchronized (SSL_CONTEXT_CACHE) {
+            Iterator<String> it = SSL_CONTEXT_CACHE.keySet().iterator();
+            while (it.hasNext()){
+                String key = it.next();
+                if(key.startsWith(prefix)){
+                    it.remove();
+                    SSL_SOCKET_FACTORY_CACHE.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * 清空所有缓存
+     */
+    public static void clearSSLCache() {
+        synchronized (SSL_CONTEXT_CACHE) {
+            SSL_CONTEXT_CACHE.clear();
+            SSL_SOCKET_FACTORY_CACHE.clear();
+        }
+    }
+
+    /**
+     * 缓存 SSLContext 并返回其 SSLSocketFactory（需持有 SSL_CONTEXT_CACHE 锁）
+     */
+    private static SSLSocketFactory cacheSSLContext(String key, SSLContext sslContext) {
+        if(SSL_CONTEXT_CACHE.put(key, sslContext) == null){
+            applySessionCacheConfig(sslContext);
+        }
+        SSLSocketFactory sslSocketFactory = SSL_SOCKET_FACTORY_CACHE.get(key);
+        if(sslSocketFactory == null){
+            sslSocketFactory = new HttpStatsSSLSocketFactory(sslContext.getSocketFactory());
+            SSL_SOCKET_FACTORY_CACHE.put(key, sslSocketFactory);
+        }
+        return sslSocketFactory;
+    }
+
+    /**
+     * 设置 SSLContext 的客户端会话缓存
+     */
+    private static void applySessionCacheConfig(SSLContext sslContext) {
+        SSLSessionContext sessionContext = sslContext.getClientSessionContext();
+        if(sessionContext == null) return;
+        if(sessionCacheSize >= 0){
+            sessionContext.setSessionCacheSize(sessionCacheSize);
+        }
+        if(sessionTimeout >= 0){
+            sessionContext.setSessionTimeout(sessionTimeout);
+        }
+    }
+
     /**
      * 启动跳过所有验证
      */
     public static void enableDefaultSkipVerify(){
         try {
-            HttpsURLConnection.setDefaultSSLSocketFactory(mGetSkipVerifySSLSocketFactory());
+            HttpsURLConnection.setDefaultSSLSocketFactory(getSkipVerifySSLSocketFactory());
             HttpsURLConnection.setDefaultHostnameVerifier(new HostnameVerifier() {
                 @Override
                 public boolean verify(String hostname, SSLSession session) {
@@ -57,7 +332,7 @@ public class SSLSocketFactoryTool {
      */
     public static void enableDefaultClientVerify(){
         try {
-            HttpsURLConnection.setDefaultSSLSocketFactory(mGetClientVerifySSLSocketFactory());
+            HttpsURLConnection.setDefaultSSLSocketFactory(getClientVerifySSLSocketFactory());
             HttpsURLConnection.setDefaultHostnameVerifier(new HostnameVerifier() {
                 @Override
                 public boolean verify(String hostname, SSLSession session) {
@@ -77,7 +352,7 @@ public class SSLSocketFactoryTool {
      */
     public static void enableCrtClientVerify(Context context, String alias,String crtName){
         try {
-            HttpsURLConnection.setDefaultSSLSocketFactory(mGetCrtClientVerifySSLSocketFactory(context,alias,crtName));
+            HttpsURLConnection.setDefaultSSLSocketFactory(getCrtClientVerifySSLSocketFactory(context,alias,crtName));
             HttpsURLConnection.setDefaultHostnameVerifier(new HostnameVerifier() {
                 @Override
                 public boolean verify(String hostname, SSLSession session) {
@@ -100,7 +375,7 @@ public class SSLSocketFactoryTool {
      */
     public static void enableClientHostVerify2SSLSocketFactory(Context context, String clintKbsName, String clintKbsPwd, String serverKbsName, String serverKbsPwd){
         try {
-            HttpsURLConnection.setDefaultSSLSocketFactory(mGetClientHostVerify2SSLSocketFactory(context, clintKbsName,clintKbsPwd,serverKbsName,serverKbsPwd));
+            HttpsURLConnection.setDefaultSSLSocketFactory(getClientHostVerify2SSLSocketFactory(context, clintKbsName,clintKbsPwd,serverKbsName,serverKbsPwd));
             //设置ip授权认证：如果已经安装该证书，可以不设置，否则需要设置
             HttpsURLConnection.setDefaultHostnameVerifier(new HostnameVerifier() {
                 @Override
@@ -123,13 +398,17 @@ public class SSLSocketFactoryTool {
      * @throws KeyManagementException
      */
     public static SSLSocketFactory mGetSkipVerifySSLSocketFactory() throws Exception {
+        return mCreateSkipVerifySSLContext().getSocketFactory();
+    }
+
+    private static SSLContext mCreateSkipVerifySSLContext() throws Exception {
         SSLContext sslContext = SSLContext.getInstance("SSL");
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
             sslContext.init(null, new TrustManager[]{mGetX509ExtendedTrustManager()}, new SecureRandom());
         }else {
             sslContext.init(null, new TrustManager[]{mGetX509TrustManager()}, new SecureRandom());
         }
-        return sslContext.getSocketFactory();
+        return sslContext;
     }
 
     /**
@@ -141,6 +420,10 @@ public class SSLSocketFactoryTool {
      * @throws KeyManagementException
      */
     public static SSLSocketFactory mGetClientVerifySSLSocketFactory() throws Exception {
+        return mCreateClientVerifySSLContext().getSocketFactory();
+    }
+
+    private static SSLContext mCreateClientVerifySSLContext() throws Exception {
         SSLContext sslContext = SSLContext.getInstance("SSL");
         //使用系统默认的客户端密钥库验证做单向验证
         TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
@@ -149,7 +432,7 @@ public class SSLSocketFactoryTool {
         trustManagerFactory.init(keyStore);
         //需要服务端验证客户端的证书，new SecureRandom()生成的随机数
         sslContext.init(null, trustManagerFactory.getTrustManagers(), new SecureRandom());
-        return sslContext.getSocketFactory();
+        return sslContext;
     }
 
     /**
@@ -162,6 +445,10 @@ public class SSLSocketFactoryTool {
      * @throws Exception
      */
     public static SSLSocketFactory mGetCrtClientVerifySSLSocketFactory(Context context, String alias,String clintCrtName) throws Exception{
+        return mCreateCrtClientVerifySSLContext(context, alias, clintCrtName).getSocketFactory();
+    }
+
+    private static SSLContext mCreateCrtClientVerifySSLContext(Context context, String alias,String clintCrtName) throws Exception{
         //获取证书
         InputStream stream = context.getAssets().open(clintCrtName);
         SSLContext sslContext = SSLContext.getInstance("SSL");
@@ -178,7 +465,7 @@ public class SSLSocketFactoryTool {
         TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(algorithm);
         trustManagerFactory.init(keystore);
         sslContext.init(null, trustManagerFactory.getTrustManagers(), new SecureRandom());
-        return sslContext.getSocketFactory();
+        return sslContext;
     }
 
     /**
@@ -192,6 +479,10 @@ public class SSLSocketFactoryTool {
      * @throws Exception
      */
     public static SSLSocketFactory mGetClientHostVerify2SSLSocketFactory(Context context, String clintBKSName, String clintKbsPwd, String serverBksName, String serverKbsPwd) throws Exception{
+        return mCreateClientHostVerify2SSLContext(context, clintBKSName, clintKbsPwd, serverBksName, serverKbsPwd).getSocketFactory();
+    }
+
+    private static SSLContext mCreateClientHostVerify2SSLContext(Context context, String clintBKSName, String clintKbsPwd, String serverBksName, String serverKbsPwd) throws Exception{
         //客户端证书
         KeyStore clientKey = KeyStore.getInstance("BKS");
         InputStream ksIn = context.getAssets().open(clintBKSName);
@@ -208,7 +499,7 @@ public class SSLSocketFactoryTool {
         trustManagerFactory.init(serverKey);
         SSLContext sslContext = SSLContext.getInstance("SSL");
         sslContext.init(keyManagerFactory.getKeyManagers(), trustManagerFactory.getTrustManagers(), new SecureRandom());
-        return sslContext.getSocketFactory();
+        return sslContext;
     }
 
     @RequiresApi(api = Build.VERSION_CODES.N)
@@ -0,0 +1,245 @@
+package com.quexs.tool.httplib.upload;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * multipart/form-data 请求体
+ * 预先生成各部分的分隔及题头，可在写入前计算出请求体的准确长度，文件内容流式写入
+ * 文件长度在创建时确定，写入时只写入该长度（文件变长时忽略多出的部分，变短时写入失败），保证与声明的请求体长度一致
+ */
+class HttpMultipartBody {
+    //默认缓冲区大小 64K
+    static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    //线程复用的写入缓冲区
+    private static final ThreadLocal<byte[]> BUFFER_CACHE = new ThreadLocal<>();
+
+    // 换行，或者说是回车
+    private static final String NEW_LINE = "\r\n";
+    // 固定的前缀
+    private static final String PRE_FIX = "--";
+
+    //请求体各部分（byte[] 或 FilePart）
+    private final List<Object> parts = new ArrayList<>();
+
+    /**
+     * @param bounDary 分界线
+     * @param params 上传参数
+     * @param file 上传文件
+     * @throws IOException
+     */
+    HttpMultipartBody(String bounDary, Map<String, Object> params, File file) throws IOException {
+        if(params != null){
+            for(Map.Entry<String, Object> entry : params.entrySet()) {
+                //分割线 + 参数题头 + 空行 + 参数值 + 换行
+                parts.add((PRE_FIX + bounDary + NEW_LINE
+                        + "Content-Disposition: form-data; " + "name=\"" + URLEncoder.encode(entry.getKey(), "utf-8") + "\"" + NEW_LINE
+                        + NEW_LINE
+                        + URLEncoder.encode(String.valueOf(entry.getValue()), "utf-8")
+                        + NEW_LINE).getBytes("utf-8"));
+            }
+        }
+        if(file != null){
+            //分割线 + 文件题头 + 空行
+            parts.add((PRE_FIX + bounDary + NEW_LINE
+                    + "Content-Disposition: form-data; " + "name=\"" + URLEncoder.encode("file", "utf-8") + "\"" + ";filename=\"" + URLEncoder.encode(file.getName(), "utf-8") + "\"" + NEW_LINE
+                    + NEW_LINE).getBytes("utf-8"));
+            parts.add(new FilePart(file));
+            parts.add(NEW_LINE.getBytes("utf-8"));
+        }
+        //结束分割线
+        parts.add((PRE_FIX + bounDary + PRE_FIX + NEW_LINE).getBytes("utf-8"));
+    }
+
+    /**
+     * 请求体长度
+     * @return -1 长度未知（上传文件不是普通文件）
+     */
+    long contentLength() {
+        long len = 0;
+        for (Object part : parts) {
+            if(part instanceof FilePart){
+                FilePart filePart = (FilePart) part;
+                if(filePart.length < 0) return -1;
+                len += filePart.length;
+            }else {
+                len += ((byte[]) part).length;
+            }
+        }
+        return len;
+    }
+
+    /**
+     * 写入请求体
+     * @param os 输出流
+     * @param bufferSize 文件写入缓冲区大小
+     * @param callback 写入回调（限速及上传进度），可为 null
+     * @throws IOException
+     */
+    void writeTo(OutputStream os, int bufferSize, WriteCallback callback) throws IOException {
+        for (Object part : parts) {
+            if(part instanceof FilePart){
+                writeFile(os, (FilePart) part, obtainBuffer(bufferSize), callback);
+            }else {
+                byte[] bytes = (byte[]) part;
+                if(callback != null) callback.onWrite(bytes.length);
+                os.write(bytes);
+            }
+        }
+        os.flush();
+    }
+
+    /**
+     * 创建请求体读取器（NIO 传输按缓冲区读取）
+     */
+    Source newSource() {
+        return new Source();
+    }
+
+    /**
+     * 写入上传文件，长度已知时只写入创建时的长度
+     */
+    private void writeFile(OutputStream os, FilePart filePart, byte[] buffer, WriteCallback callback) throws IOException {
+        InputStream in = new FileInputStream(filePart.file);
+        try {
+            //剩余长度，-1 写入至文件末尾
+            long remaining = filePart.length;
+            int len;
+            while (remaining != 0 && (len = in.read(buffer, 0, remaining > 0 ? (int) Math.min(buffer.length, remaining) : buffer.length)) != -1){
+                if(callback != null) callback.onWrite(len);
+                //写入流文件
+                os.write(buffer, 0, len);
+                if(remaining > 0) remaining -= len;
+            }
+            if(remaining > 0) throw new IOException("upload file shrank:" + filePart.file.getPath() + " " + (filePart.length - remaining) + "/" + filePart.length);
+        }finally {
+            in.close();
+        }
+    }
+
+    /**
+     * 获取当前线程复用的缓冲区
+     */
+    private static byte[] obtainBuffer(int bufferSize) {
+        int size = bufferSize > 0 ? bufferSize : DEFAULT_BUFFER_SIZE;
+        byte[] buffer = BUFFER_CACHE.get();
+        if(buffer == null || buffer.length != size){
+            buffer = new byte[size];
+            BUFFER_CACHE.set(buffer);
+        }
+        return buffer;
+    }
+
+    /**
+     * 上传文件及创建时的长度
+     */
+    private static class FilePart {
+        final File file;
+        //-1 不是普通文件，长度未知
+        final long length;
+
+        FilePart(File file) {
+            this.file = file;
+            this.length = file.isFile() ? file.length() : -1;
+        }
+    }
+
+    /**
+     * 写入回调
+     */
+    interface WriteCallback {
+        /**
+         * 写入前回调
+         * @param len 本次写入长度
+         */
+        void onWrite(int len);
+    }
+
+    /**
+     * 请求体读取器，按顺序将各部分读取至缓冲区
+     */
+    class Source {
+        //当前部分
+        private int partIndex;
+        //当前部分（byte[]）已读取位置
+        private int offset;
+        //当前部分（FilePart）
+        private FileChannel fileChannel;
+        //当前文件剩余长度，-1 读取至文件末尾
+        private long fileRemaining;
+
+        /**
+         * 读取请求体
+         * @param dst
+         * @return 读取长度，-1 请求体已结束
+         * @throws IOException
+         */
+        int read(ByteBuffer dst) throws IOException {
+            int total = 0;
+            while (dst.hasRemaining() && partIndex < parts.size()){
+                Object part = parts.get(partIndex);
+                if(part instanceof FilePart){
+                    FilePart filePart = (FilePart) part;
+                    if(fileChannel == null){
+                        fileChannel = new FileInputStream(filePart.file).getChannel();
+                        fileRemaining = filePart.length;
+                    }
+                    int len = fileRemaining != 0 ? readFile(dst) : -1;
+                    if(len < 0){
+                        close();
+                        if(fileRemaining > 0) throw new IOException("upload file shrank:" + filePart.file.getPath() + " " + (filePart.length - fileRemaining) + "/" + filePart.length);
+                        partIndex++;
+                    }else {
+                        total += len;
+                    }
+                }else {
+                    byte[] bytes = (byte[]) part;
+                    int len = Math.min(dst.remaining(), bytes.length - offset);
+                    dst.put(bytes, offset, len);
+                    offset += len;
+                    total += len;
+                    if(offset == bytes.length){
+                        offset = 0;
+                        partIndex++;
+                    }
+                }
+            }
+            return total == 0 && partIndex >= parts.size() ? -1 : total;
+        }
+
+        /**
+         * 读取当前文件，长度已知时不超过剩余长度
+         */
+        private int readFile(ByteBuffer dst) throws IOException {
+            if(fileRemaining < 0) return fileChannel.read(dst);
+            int limit = dst.limit();
+            if(dst.remaining() > fileRemaining) dst.limit(dst.position() + (int) fileRemaining);
+            try {
+                int len = fileChannel.read(dst);
+                if(len > 0) fileRemaining -= len;
+                return len;
+            }finally {
+                dst.limit(limit);
+            }
+        }
+
+        void close() {
+            if(fileChannel == null) return;
+            try {
+                fileChannel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            fileChannel = null;
+        }
+    }
+}
@@ -2,6 +2,12 @@ package com.quexs.tool.httplib.upload;
 
 import android.util.ArrayMap;
 
+import com.quexs.tool.httplib.cache.HttpMemoryCache;
+import com.quexs.tool.httplib.conn.HttpRateLimiter;
+import com.quexs.tool.httplib.conn.HttpRetryPolicy;
+import com.quexs.tool.httplib.conn.HttpTransport;
+import com.quexs.tool.httplib.nio.HttpNioEngine;
+
 import java.util.Iterator;
 import java.util.Map;
 import java.util.concurrent.PriorityBlockingQueue;
@@ -17,7 +23,16 @@ public class HttpUpload {
     private final ThreadPoolExecutor threadPool;
     private final ArrayMap<Object, HttpUploadRunnable> keyMap = new ArrayMap<>();
     private final ReentrantLock lock;
-
+    //传输方式
+    private @HttpTransport.TransportCode int transport = HttpTransport.TransportCode.URL_CONNECTION;
+    //响应内存缓存
+    private HttpMemoryCache memoryCache;
+    //实例限速
+    private HttpRateLimiter rateLimiter;
+    //上传进度回调设置
+    private HttpUploadProgressDispatcher progressDispatcher;
+    //实例重试策略
+    private HttpRetryPolicy retryPolicy;
 
     public HttpUpload(){
         int cpuCount = Runtime.getRuntime().availableProcessors();
@@ -38,6 +53,10 @@ public class HttpUpload {
      * @param httpUploadListener
      */
     public void addUpload(HttpUploadRunnable httpUploadRunnable, HttpUploadListener httpUploadListener){
+        if(progressDispatcher != null){
+            //在回调线程池中回调
+            httpUploadListener = progressDispatcher.wrap(httpUploadListener);
+        }
         lock.lock();
         HttpUploadRunnable exitHttpUploadRunnable = keyMap.get(httpUploadRunnable.getObjKey());
         if(exitHttpUploadRunnable != null){
@@ -50,12 +69,60 @@ public class HttpUpload {
                 }
             });
             httpUploadRunnable.setHttpUploadListener(httpUploadListener);
+            //分片上传共用上传线程池
+            httpUploadRunnable.setUploadExecutor(threadPool);
+            httpUploadRunnable.setInstanceRateLimiter(rateLimiter);
+            httpUploadRunnable.setProgressDispatcher(progressDispatcher);
+            httpUploadRunnable.setInstanceRetryPolicy(retryPolicy);
+            //只缓存声明幂等的普通上传，在线程池中查找缓存
+            if(httpUploadRunnable.isIdempotent() && httpUploadRunnable.getClass() == HttpUploadRunnable.class){
+                httpUploadRunnable.setMemoryCache(memoryCache);
+            }
             keyMap.put(httpUploadRunnable.getObjKey(),httpUploadRunnable);
-            threadPool.execute(httpUploadRunnable);
+            if(!executeNio(httpUploadRunnable)){
+                threadPool.execute(httpUploadRunnable);
+            }
         }
         lock.unlock();
     }
 
+    /**
+     * 使用 NIO 传输执行上传
+     * @return false 不支持 NIO 传输，需使用线程池执行
+     */
+    private boolean executeNio(HttpUploadRunnable httpUploadRunnable){
+        if(transport != HttpTransport.TransportCode.NIO || httpUploadRunnable.getMemoryCache() != null || httpUploadRunnable.isGzipBody()
+                || httpUploadRunnable.isRateLimited() || httpUploadRunnable.isStallDetection()
+                || httpUploadRunnable.getRetryPolicy() != null || httpUploadRunnable.getClass() != HttpUploadRunnable.class) return false;
+        try {
+            HttpUploadNioCall httpUploadNioCall = HttpUploadNioCall.create(httpUploadRunnable);
+            if(httpUploadNioCall == null) return false;
+            HttpNioEngine.getInstance().execute(httpUploadNioCall);
+            return true;
+        }catch (Exception e){
+            //链接不支持或无法打开 Selector
+            return false;
+        }
+    }
+
+    /**
+     * 添加分块断点续传上传
+     * @param httpUploadChunkRunnable
+     * @param httpUploadListener
+     */
+    public void addChunkUpload(HttpUploadChunkRunnable httpUploadChunkRunnable, HttpUploadListener httpUploadListener){
+        addUpload(httpUploadChunkRunnable, httpUploadListener);
+    }
+
+    /**
+     * 添加大文件分片并行上传
+     * @param httpUploadMultiPartRunnable
+     * @param httpUploadListener
+     */
+    public void addMultiPartUpload(HttpUploadMultiPartRunnable httpUploadMultiPartRunnable, HttpUploadListener httpUploadListener){
+        addUpload(httpUploadMultiPartRunnable, httpUploadListener);
+    }
+
     /**
      * 取消下载
      * @param objKey null 移除所有线程
@@ -79,6 +146,57 @@ public class HttpUpload {
                 httpUploadRunnable.cancelUpload();
             }
         }
+        lock.unlock();
+    }
+
+    /**
+     * 设置传输方式
+     * NIO 传输由单个 Selector 线程处理所有普通上传，分块上传及分片上传仍使用线程池
+     * @param transport 默认 HttpsURLConnection
+     */
+    public void setTransport(@HttpTransport.TransportCode int transport){
+        this.transport = transport;
+    }
+
+    /**
+     * 设置响应内存缓存（需在添加上传前设置）
+     * 只缓存通过 HttpUploadRunnable.setIdempotent 声明幂等的普通上传，按 链接 + 上传参数 + 上传文件
+     * 缓存服务端返回的消息体，相同上传命中时不再发起请求；缓存在上传线程中查找，命中时照常回调开始及完成
+     * 只缓存明确声明 Cache-Control: max-age 的响应（不使用默认有效期），避免重复上传被静默丢弃
+     * 启用缓存的上传使用线程池执行（不使用 NIO 传输）
+     * @param memoryCache null 不缓存
+     */
+    public void setMemoryCache(HttpMemoryCache memoryCache){
+        this.memoryCache = memoryCache;
+    }
+
+    /**
+     * 设置实例限速，该实例的所有上传共用（需在添加上传前设置）
+     * 限速的上传使用线程池执行（不使用 NIO 传输）
+     * @param rateLimiter null 不限速
+     */
+    public void setRateLimiter(HttpRateLimiter rateLimiter){
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * 设置上传进度回调（需在添加上传前设置）
+     * 合并频繁的进度回调，提供上传速度、剩余时间及停滞检测（监听实现 HttpUploadProgressListener），
+     * 可指定回调线程；启用停滞检测的上传使用线程池执行（不使用 NIO 传输）
+     * @param progressDispatcher null 每次写入都回调（默认）
+     */
+    public void setProgressDispatcher(HttpUploadProgressDispatcher progressDispatcher){
+        this.progressDispatcher = progressDispatcher;
+    }
+
+    /**
+     * 设置实例重试策略，该实例的所有上传默认使用（需在添加上传前设置）
+     * 失败的上传按策略退避后重新排队；重试中的上传不回调失败，重试用尽后才回调 uploadError
+     * 启用重试的上传使用线程池执行（不使用 NIO 传输）
+     * @param retryPolicy null 不重试（默认）
+     */
+    public void setRetryPolicy(HttpRetryPolicy retryPolicy){
+        this.retryPolicy = retryPolicy;
     }
 
     /**
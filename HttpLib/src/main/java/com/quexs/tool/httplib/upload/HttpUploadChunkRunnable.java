@@ -0,0 +1,285 @@
+package com.quexs.tool.httplib.upload;
+
+import android.text.TextUtils;
+
+import com.quexs.tool.httplib.conn.HttpConnectionTool;
+import com.quexs.tool.httplib.conn.HttpResponseException;
+import com.quexs.tool.httplib.log.HttpLogBean;
+import com.quexs.tool.httplib.log.HttpPrintLog;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import javax.net.ssl.HttpsURLConnection;
+
+/**
+ * 分块断点续传上传
+ * 文件按固定大小分块，使用 PUT 逐块上传：
+ * 查询：Content-Range: bytes *&#47;total，服务端返回 308 及 Range: bytes=0-n 表示已接收的位置，返回 200/201 表示已完成
+ * 分块：Content-Range: bytes start-end/total，服务端返回 308 继续上传下一块，返回 200/201 表示已完成
+ * 每块确认后更新本地进度记录，失败后重新上传时先向服务端查询已接收的位置，查询失败时以本地记录的位置续传
+ */
+public class HttpUploadChunkRunnable extends HttpUploadRunnable {
+    //服务端已接收部分数据
+    private static final int HTTP_RESUME_INCOMPLETE = 308;
+
+    //上传链接（上传会话地址）
+    private String uploadUrl;
+    //本地进度记录文件
+    private File recordFile;
+    //分块大小
+    private long chunkSize = 1024 * 1024;
+
+    public HttpUploadChunkRunnable(Object objKey, long priority, String sort) {
+        super(objKey, priority, sort);
+    }
+
+    /**
+     * 分块上传配置
+     * @param url 上传链接（上传会话地址）
+     * @param uploadFile 上传文件
+     * @param recordFile 本地进度记录文件
+     * @param properties 题头属性
+     */
+    public void setChunkUploadParams(String url, File uploadFile, File recordFile, Map<String, String> properties){
+        setUploadParams(url, uploadFile, null, properties);
+        this.uploadUrl = url;
+        this.recordFile = recordFile;
+    }
+
+    /**
+     * 设置分块大小
+     * @param chunkSize 默认 1M
+     */
+    public void setChunkSize(long chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * 分块上传以服务端已接收的位置续传，可重复发送
+     */
+    @Override
+    boolean isIdempotent() {
+        return true;
+    }
+
+    @Override
+    String runUpload() throws Exception {
+        File file = getUploadFile();
+        if(file == null || !file.isFile()) throw new FileNotFoundException("upload file not found");
+        long fileLen = file.length();
+        setProgressTotalLen(fileLen);
+        //已上传位置
+        long offset = 0;
+        //本地记录的已上传位置，-1 没有当前上传的记录
+        long recordCommitted = readRecord(file);
+        if(fileLen == 0 || recordCommitted >= 0){
+            try {
+                //向服务端查询已接收的位置
+                ChunkResult chunkResult = uploadChunk(file, fileLen, -1, -1);
+                if(chunkResult.body != null){
+                    deleteRecord();
+                    return chunkResult.body;
+                }
+                offset = chunkResult.committed;
+            }catch (IOException e){
+                //服务端不支持查询或查询失败，以本地记录的位置续传（服务端位置不一致时上传分块会失败）
+                if(recordCommitted <= 0 || isCancelUpload()) throw e;
+                offset = recordCommitted;
+            }
+        }
+        saveRecord(file, offset);
+        setProgressLen(offset);
+        byte[] buffer = new byte[getBufferSize()];
+        while (offset < fileLen){
+            if(isCancelUpload()) return null;
+            long end = Math.min(offset + chunkSize, fileLen) - 1;
+            ChunkResult chunkResult = uploadChunk(file, fileLen, offset, end, buffer);
+            if(chunkResult.body != null){
+                deleteRecord();
+                return chunkResult.body;
+            }
+            if(chunkResult.committed <= offset) throw new IOException("chunk not committed:" + offset + "-" + end);
+            offset = chunkResult.committed;
+            saveRecord(file, offset);
+            setProgressLen(offset);
+        }
+        throw new IOException("upload not completed by server");
+    }
+
+    private ChunkResult uploadChunk(File file, long fileLen, long start, long end) throws Exception {
+        return uploadChunk(file, fileLen, start, end, null);
+    }
+
+    /**
+     * 上传分块
+     * @param file 上传文件
+     * @param fileLen 文件长度
+     * @param start 起始位置，-1 仅查询已接收的位置
+     * @param end 结束位置（包含）
+     * @param buffer 写入缓冲区
+     * @return
+     * @throws Exception
+     */
+    private ChunkResult uploadChunk(File file, long fileLen, long start, long end, byte[] buffer) throws Exception {
+        HttpsURLConnection conn = null;
+        Map<String, List<String>> requestProperties = null;
+        int responseCode = -1;
+        //响应已读完，连接可复用
+        boolean isReusable = false;
+        try {
+            conn = openConnection(uploadUrl);
+            conn.setDoOutput(true);
+            conn.setRequestMethod("PUT");
+            conn.setUseCaches(false);
+            //308 不作为重定向处理
+            conn.setInstanceFollowRedirects(false);
+            conn.setRequestProperty("Content-Type", "application/octet-stream");
+            addRequestProperty(conn, getProperties());
+            long chunkLen = start < 0 ? 0 : end - start + 1;
+            conn.setRequestProperty("Content-Range", start < 0 ? "bytes */" + fileLen : "bytes " + start + "-" + end + "/" + fileLen);
+            conn.setFixedLengthStreamingMode(chunkLen);
+            //连接后不能再读取题头属性
+            requestProperties = conn.getRequestProperties();
+            beginWrite(conn);
+            try {
+                OutputStream os = conn.getOutputStream();
+                try {
+                    if(chunkLen > 0){
+                        writeChunk(os, file, start, chunkLen, buffer);
+                    }
+                }finally {
+                    os.close();
+                }
+            }finally {
+                endWrite(conn);
+            }
+            responseCode = conn.getResponseCode();
+            ChunkResult chunkResult = new ChunkResult();
+            if(responseCode == HttpURLConnection.HTTP_OK || responseCode == HttpURLConnection.HTTP_CREATED){
+                chunkResult.body = readBody(conn);
+                isReusable = true;
+                HttpPrintLog.getInstance().addPrintLog(new HttpLogBean(uploadUrl, "PUT", requestProperties, responseCode, chunkResult.body));
+            }else if(responseCode == HTTP_RESUME_INCOMPLETE){
+                chunkResult.committed = parseCommitted(conn.getHeaderField("Range"));
+                isReusable = HttpConnectionTool.closeResponse(conn);
+                HttpPrintLog.getInstance().addPrintLog(new HttpLogBean(uploadUrl, "PUT", requestProperties, responseCode, "committed=" + chunkResult.committed));
+            }else {
+                isReusable = HttpConnectionTool.closeResponse(conn);
+                throw new HttpResponseException("responseCode=" + responseCode, responseCode, conn.getHeaderField("Retry-After"));
+            }
+            return chunkResult;
+        }catch (Exception e){
+            printErrorLog(conn, uploadUrl, "PUT", requestProperties, responseCode, e);
+            throw e;
+        }finally {
+            //响应已读完时保留连接供复用
+            HttpConnectionTool.release(conn, isReusable);
+        }
+    }
+
+    /**
+     * 写入文件分块
+     */
+    private void writeChunk(OutputStream os, File file, long start, long chunkLen, byte[] buffer) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            raf.seek(start);
+            long remain = chunkLen;
+            int len;
+            while (remain > 0 && (len = raf.read(buffer, 0, (int) Math.min(buffer.length, remain))) != -1){
+                recordWrite(len);
+                os.write(buffer, 0, len);
+                remain -= len;
+            }
+            if(remain > 0) throw new IOException("upload file changed");
+        }finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * 解析服务端已接收的位置 Range: bytes=0-n
+     * @return 下一个待上传的位置
+     */
+    private static long parseCommitted(String range) {
+        if(TextUtils.isEmpty(range)) return 0;
+        try {
+            int index = range.lastIndexOf('-');
+            return Long.parseLong(range.substring(index + 1).trim()) + 1;
+        }catch (Exception e){
+            return 0;
+        }
+    }
+
+    /**
+     * 读取本地进度记录
+     * @return 记录的已上传位置；-1 没有记录或记录不属于当前上传（上传链接不同、文件已修改）
+     */
+    private long readRecord(File file) {
+        if(recordFile == null || !recordFile.exists()) return -1;
+        Properties properties = new Properties();
+        try {
+            FileInputStream fis = new FileInputStream(recordFile);
+            try {
+                properties.load(fis);
+            }finally {
+                fis.close();
+            }
+            if(!TextUtils.equals(uploadUrl, properties.getProperty("url"))
+                    || !TextUtils.equals(file.getAbsolutePath(), properties.getProperty("filePath"))
+                    || !String.valueOf(file.length()).equals(properties.getProperty("fileLen"))
+                    || !String.valueOf(file.lastModified()).equals(properties.getProperty("lastModified"))) return -1;
+            long committed = Long.parseLong(properties.getProperty("committed", "0"));
+            return committed >= 0 && committed <= file.length() ? committed : -1;
+        }catch (IOException | NumberFormatException e){
+            return -1;
+        }
+    }
+
+    /**
+     * 保存本地进度记录
+     */
+    private void saveRecord(File file, long committed) throws IOException {
+        if(recordFile == null) return;
+        Properties properties = new Properties();
+        properties.setProperty("url", uploadUrl);
+        properties.setProperty("filePath", file.getAbsolutePath());
+        properties.setProperty("fileLen", String.valueOf(file.length()));
+        properties.setProperty("lastModified", String.valueOf(file.lastModified()));
+        properties.setProperty("committed", String.valueOf(committed));
+        File tmpFile = new File(recordFile.getPath() + ".tmp");
+        FileOutputStream fos = new FileOutputStream(tmpFile);
+        try {
+            properties.store(fos, null);
+        }finally {
+            fos.close();
+        }
+        if(!tmpFile.renameTo(recordFile)) throw new IOException("record rename error");
+    }
+
+    private void deleteRecord() {
+        if(recordFile != null && recordFile.exists()){
+            recordFile.delete();
+        }
+    }
+
+    /**
+     * 分块上传结果
+     */
+    private static class ChunkResult {
+        //服务端已接收的位置
+        long committed;
+        //上传完成后服务端返回的消息体
+        String body;
+    }
+}
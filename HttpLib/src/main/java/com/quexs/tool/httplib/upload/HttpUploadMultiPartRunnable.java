@@ -0,0 +1,305 @@
+package com.quexs.tool.httplib.upload;
+
+import android.text.TextUtils;
+
+import com.quexs.tool.httplib.conn.HttpConnectionTool;
+import com.quexs.tool.httplib.conn.HttpResponseException;
+import com.quexs.tool.httplib.log.HttpLogBean;
+import com.quexs.tool.httplib.log.HttpPrintLog;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.HttpsURLConnection;
+
+/**
+ * 大文件分片并行上传
+ * 文件按分片大小拆分，上传线程与辅助线程共同领取分片，使用 PUT partUrl?partNumber=n 上传，
+ * 记录每个分片的确认值（ETag 题头，没有时使用消息体），全部完成后向 completeUrl 提交分片列表：
+ * {"parts":[{"partNumber":1,"eTag":"..."}]}
+ */
+public class HttpUploadMultiPartRunnable extends HttpUploadRunnable {
+    //分片上传链接
+    private String partUrl;
+    //完成上传链接
+    private String completeUrl;
+    //分片大小
+    private long partSize = 5 * 1024 * 1024;
+    //并行上传数量
+    private int parallelism = 3;
+
+    //分片数量
+    private int partCount;
+    //分片确认值
+    private String[] partETags;
+    //下一个待领取的分片
+    private final AtomicInteger nextPart = new AtomicInteger();
+    //已结束的分片计数
+    private CountDownLatch endLatch;
+    //首个分片异常
+    private volatile Exception partException;
+
+    public HttpUploadMultiPartRunnable(Object objKey, long priority, String sort) {
+        super(objKey, priority, sort);
+    }
+
+    /**
+     * 分片上传配置
+     * @param partUrl 分片上传链接，分片序号以 partNumber 参数追加
+     * @param completeUrl 完成上传链接
+     * @param uploadFile 上传文件
+     * @param properties 题头属性
+     */
+    public void setMultiPartParams(String partUrl, String completeUrl, File uploadFile, Map<String, String> properties){
+        setUploadParams(partUrl, uploadFile, null, properties);
+        this.partUrl = partUrl;
+        this.completeUrl = completeUrl;
+    }
+
+    /**
+     * 设置分片大小
+     * @param partSize 默认 5M，需大于 0
+     */
+    public void setPartSize(long partSize) {
+        if(partSize <= 0) throw new IllegalArgumentException("partSize <= 0");
+        this.partSize = partSize;
+    }
+
+    /**
+     * 设置并行上传数量
+     * @param parallelism 默认 3，需大于 0
+     */
+    public void setParallelism(int parallelism) {
+        if(parallelism <= 0) throw new IllegalArgumentException("parallelism <= 0");
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * 分片以序号 PUT 上传，可重复发送
+     */
+    @Override
+    boolean isIdempotent() {
+        return true;
+    }
+
+    @Override
+    String runUpload() throws Exception {
+        File file = getUploadFile();
+        if(file == null || !file.isFile()) throw new FileNotFoundException("upload file not found");
+        long fileLen = file.length();
+        setProgressTotalLen(fileLen);
+        //分片数向上取整（避免 fileLen + partSize 溢出）
+        long partTotal = Math.max(1, fileLen / partSize + (fileLen % partSize == 0 ? 0 : 1));
+        if(partTotal > Integer.MAX_VALUE) throw new IllegalArgumentException("partSize too small:" + partSize);
+        int count = (int) partTotal;
+        //重试时保留已完成分片的确认值，只上传未完成的分片
+        long uploadedLen = 0;
+        if(partETags != null && partCount == count){
+            for (int i = 0; i < partCount; i++) {
+                if(partETags[i] != null) uploadedLen += Math.min(partSize, fileLen - i * partSize);
+            }
+        }else {
+            partCount = count;
+            partETags = new String[partCount];
+        }
+        setProgressLen(uploadedLen);
+        nextPart.set(0);
+        partException = null;
+        endLatch = new CountDownLatch(partCount);
+        //辅助线程与当前线程共同领取分片，线程池已满时由当前线程完成全部分片
+        Executor executor = getUploadExecutor();
+        int workerCount = Math.min(parallelism, partCount) - 1;
+        for (int i = 0; executor != null && i < workerCount; i++) {
+            try {
+                executor.execute(new PartRunnable(getObjKey(), getPriority(), getSort(), this));
+            }catch (RejectedExecutionException e){
+                break;
+            }
+        }
+        runParts();
+        //等待其他线程领取的分片结束
+        endLatch.await();
+        if(partException != null) throw partException;
+        if(isCancelUpload()) return null;
+        return completeUpload();
+    }
+
+    /**
+     * 循环领取并上传分片，直至没有剩余分片
+     */
+    private void runParts() {
+        byte[] buffer = new byte[getBufferSize()];
+        int index;
+        while ((index = nextPart.getAndIncrement()) < partCount){
+            try {
+                if(partETags[index] == null && partException == null && !isCancelUpload()){
+                    partETags[index] = uploadPart(index, buffer);
+                }
+            }catch (Exception e){
+                if(partException == null){
+                    partException = e;
+                }
+            }finally {
+                endLatch.countDown();
+            }
+        }
+    }
+
+    /**
+     * 上传分片
+     * @param index 分片
+     * @param buffer 写入缓冲区
+     * @return 分片确认值
+     * @throws Exception
+     */
+    private String uploadPart(int index, byte[] buffer) throws Exception {
+        File file = getUploadFile();
+        long start = index * partSize;
+        long partLen = Math.min(partSize, file.length() - start);
+        String url = partUrl + (partUrl.contains("?") ? "&" : "?") + "partNumber=" + (index + 1);
+        HttpsURLConnection conn = null;
+        Map<String, List<String>> requestProperties = null;
+        int responseCode = -1;
+        //响应已读完，连接可复用
+        boolean isReusable = false;
+        try {
+            conn = openConnection(url);
+            conn.setDoOutput(true);
+            conn.setRequestMethod("PUT");
+            conn.setUseCaches(false);
+            conn.setRequestProperty("Content-Type", "application/octet-stream");
+            addRequestProperty(conn, getProperties());
+            conn.setFixedLengthStreamingMode(partLen);
+            //连接后不能再读取题头属性
+            requestProperties = conn.getRequestProperties();
+            beginWrite(conn);
+            try {
+                OutputStream os = conn.getOutputStream();
+                RandomAccessFile raf = new RandomAccessFile(file, "r");
+                try {
+                    raf.seek(start);
+                    long remain = partLen;
+                    int len;
+                    while (remain > 0 && partException == null && !isCancelUpload()
+                            && (len = raf.read(buffer, 0, (int) Math.min(buffer.length, remain))) != -1){
+                        recordWrite(len);
+                        os.write(buffer, 0, len);
+                        remain -= len;
+                    }
+                    if(remain > 0 && partException == null && !isCancelUpload()) throw new IOException("upload file changed");
+                }finally {
+                    raf.close();
+                    os.close();
+                }
+            }finally {
+                endWrite(conn);
+            }
+            responseCode = conn.getResponseCode();
+            if(responseCode != HttpURLConnection.HTTP_OK && responseCode != HttpURLConnection.HTTP_CREATED){
+                isReusable = HttpConnectionTool.closeResponse(conn);
+                throw new HttpResponseException("responseCode=" + responseCode, responseCode, conn.getHeaderField("Retry-After"));
+            }
+            String eTag = conn.getHeaderField("ETag");
+            if(TextUtils.isEmpty(eTag)){
+                eTag = readBody(conn);
+                isReusable = true;
+            }else {
+                isReusable = HttpConnectionTool.closeResponse(conn);
+            }
+            HttpPrintLog.getInstance().addPrintLog(new HttpLogBean(url, "PUT", requestProperties, responseCode, "eTag=" + eTag));
+            return eTag;
+        }catch (Exception e){
+            printErrorLog(conn, url, "PUT", requestProperties, responseCode, e);
+            throw e;
+        }finally {
+            //响应已读完时保留连接供复用
+            HttpConnectionTool.release(conn, isReusable);
+        }
+    }
+
+    /**
+     * 提交分片列表，完成上传
+     * @return 服务端返回的消息体
+     * @throws Exception
+     */
+    private String completeUpload() throws Exception {
+        JSONArray parts = new JSONArray();
+        for (int i = 0; i < partCount; i++) {
+            JSONObject part = new JSONObject();
+            part.put("partNumber", i + 1);
+            part.put("eTag", partETags[i]);
+            parts.put(part);
+        }
+        JSONObject json = new JSONObject();
+        json.put("parts", parts);
+        byte[] data = json.toString().getBytes("utf-8");
+        HttpsURLConnection conn = null;
+        Map<String, List<String>> requestProperties = null;
+        int responseCode = -1;
+        //响应已读完，连接可复用
+        boolean isReusable = false;
+        try {
+            conn = openConnection(completeUrl);
+            conn.setDoOutput(true);
+            conn.setRequestMethod("POST");
+            conn.setUseCaches(false);
+            conn.setRequestProperty("Content-Type", "application/json;charset=UTF-8");
+            addRequestProperty(conn, getProperties());
+            conn.setFixedLengthStreamingMode(data.length);
+            //连接后不能再读取题头属性
+            requestProperties = conn.getRequestProperties();
+            OutputStream os = conn.getOutputStream();
+            try {
+                os.write(data);
+            }finally {
+                os.close();
+            }
+            responseCode = conn.getResponseCode();
+            if(responseCode != HttpURLConnection.HTTP_OK && responseCode != HttpURLConnection.HTTP_CREATED){
+                isReusable = HttpConnectionTool.closeResponse(conn);
+                throw new HttpResponseException("responseCode=" + responseCode, responseCode, conn.getHeaderField("Retry-After"));
+            }
+            String body = readBody(conn);
+            isReusable = true;
+            HttpPrintLog.getInstance().addPrintLog(new HttpLogBean(completeUrl, "POST", requestProperties, responseCode, body));
+            return body;
+        }catch (Exception e){
+            printErrorLog(conn, completeUrl, "POST", requestProperties, responseCode, e);
+            throw e;
+        }finally {
+            //响应已读完时保留连接供复用
+            HttpConnectionTool.release(conn, isReusable);
+        }
+    }
+
+    /**
+     * 分片上传辅助线程
+     * 与所属上传任务同优先级排队，执行时领取尚未开始的分片
+     */
+    private static class PartRunnable extends HttpUploadRunnable {
+        private final HttpUploadMultiPartRunnable task;
+
+        PartRunnable(Object objKey, long priority, String sort, HttpUploadMultiPartRunnable task) {
+            super(objKey, priority, sort);
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            task.runParts();
+        }
+    }
+}
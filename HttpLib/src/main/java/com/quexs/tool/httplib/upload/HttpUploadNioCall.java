@@ -0,0 +1,177 @@
+package com.quexs.tool.httplib.upload;
+
+import com.quexs.tool.httplib.conn.HttpContentDecoder;
+import com.quexs.tool.httplib.log.HttpLogBean;
+import com.quexs.tool.httplib.log.HttpPrintLog;
+import com.quexs.tool.httplib.nio.HttpNioExchange;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * NIO 上传
+ * 在 HttpNioEngine 的 Selector 线程中上传 multipart/form-data 请求体，不占用上传线程池
+ * 只用于请求体长度已知的普通上传，分块上传及分片上传仍由线程池执行
+ */
+class HttpUploadNioCall extends HttpNioExchange {
+    private final HttpUploadRunnable task;
+    private final HttpMultipartBody.Source source;
+    //服务端返回的消息体
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    //响应的 Content-Encoding
+    private String contentEncoding;
+    //请求体长度
+    private final long contentLength;
+
+    private HttpUploadNioCall(HttpUploadRunnable task, HttpMultipartBody multipartBody, long contentLength) throws IOException {
+        super(task.getUrl(), "POST", task.getVerifyCode(), task.getPriority(), task.getSort());
+        this.task = task;
+        this.source = multipartBody.newSource();
+        this.contentLength = contentLength;
+        //文件上传固定属性
+        setRequestProperty("Accept", "*/*");
+        setRequestProperty("Accept-Encoding", HttpContentDecoder.ACCEPT_ENCODING);
+        setRequestProperty("Cache-Control", "no-cache");
+        setRequestProperty("Content-Type", "multipart/form-data; boundary=" + task.getBounDary());
+        setRequestProperty("User-Agent", "(Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/68.0.3440.84 Safari/537.36)");
+        //添加属性
+        addRequestProperties(task.getProperties());
+        setContentLength(contentLength);
+    }
+
+    /**
+     * 创建 NIO 上传
+     * @param task
+     * @return null 请求体长度未知，不支持 NIO 传输
+     * @throws IOException
+     */
+    static HttpUploadNioCall create(HttpUploadRunnable task) throws IOException {
+        HttpMultipartBody multipartBody = new HttpMultipartBody(task.getBounDary(), task.getParams(), task.getUploadFile());
+        long contentLength = multipartBody.contentLength();
+        if(contentLength < 0) return null;
+        return new HttpUploadNioCall(task, multipartBody, contentLength);
+    }
+
+    @Override
+    protected void onStart() {
+        task.startProgress();
+        task.setProgressTotalLen(contentLength);
+        HttpUploadListener httpUploadListener = task.getHttpUploadListener();
+        if(!isCancel() && httpUploadListener != null){
+            httpUploadListener.uploadStart(task.getObjKey());
+        }
+    }
+
+    @Override
+    protected int readRequestBody(ByteBuffer dst) throws IOException {
+        int len = source.read(dst);
+        //NIO 上传不限速，只更新进度
+        if(len > 0) task.recordWrite(len);
+        return len;
+    }
+
+    @Override
+    protected void onResponse(int responseCode, Map<String, List<String>> headers) throws Exception {
+        if(responseCode != HttpURLConnection.HTTP_OK) throw new IOException("responseCode=" + responseCode);
+        List<String> values = headers.get("Content-Encoding");
+        contentEncoding = values != null && !values.isEmpty() ? values.get(values.size() - 1) : null;
+    }
+
+    @Override
+    protected void onResponseBody(ByteBuffer data) throws Exception {
+        if(data.hasArray()){
+            body.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+            data.position(data.limit());
+        }else {
+            while (data.hasRemaining()){
+                body.write(data.get());
+            }
+        }
+    }
+
+    @Override
+    protected void onComplete() {
+        source.close();
+        String result;
+        try {
+            //与 readBody 一致，去除换行
+            result = decodeBody().replace("\r", "").replace("\n", "");
+        } catch (IOException e) {
+            onError(e);
+            return;
+        }
+        //打印日志
+        HttpPrintLog.getInstance().addPrintLog(new HttpLogBean(task.getUrl(), "POST", getRequestProperties(), getResponseCode(), result));
+        try {
+            task.flushProgress();
+            task.stopProgress();
+            HttpUploadListener httpUploadListener = task.getHttpUploadListener();
+            if(httpUploadListener != null){
+                httpUploadListener.uploadComplete(result, task.getObjKey());
+            }
+        }finally {
+            //监听抛出异常时也需结束上传
+            endUpload();
+        }
+    }
+
+    /**
+     * 按 Content-Encoding 解压服务端返回的消息体
+     */
+    private String decodeBody() throws IOException {
+        if(!HttpContentDecoder.isEncoded(contentEncoding)) return body.toString("utf-8");
+        InputStream is = HttpContentDecoder.decode(new ByteArrayInputStream(body.toByteArray()), contentEncoding);
+        try {
+            ByteArrayOutputStream decoded = new ByteArrayOutputStream(body.size() * 4);
+            byte[] b = new byte[8 * 1024];
+            int len;
+            while ((len = is.read(b)) != -1){
+                decoded.write(b, 0, len);
+            }
+            return decoded.toString("utf-8");
+        }finally {
+            is.close();
+        }
+    }
+
+    @Override
+    protected void onError(Exception e) {
+        source.close();
+        task.stopProgress();
+        //打印日志
+        HttpPrintLog.getInstance().addPrintLog(new HttpLogBean(task.getUrl(), "POST", getRequestProperties(), getResponseCode(), e));
+        try {
+            HttpUploadListener httpUploadListener = task.getHttpUploadListener();
+            if(httpUploadListener != null){
+                httpUploadListener.uploadError(e, task.getObjKey());
+            }
+        }finally {
+            endUpload();
+        }
+    }
+
+    @Override
+    protected boolean isCancel() {
+        return task.isCancelUpload();
+    }
+
+    @Override
+    protected void onCancel() {
+        source.close();
+        task.stopProgress();
+        endUpload();
+    }
+
+    private void endUpload() {
+        HttpUploadRunnable.HttpUploadRunnableEndListener httpUploadRunnableEndListener = task.getHttpUploadRunnableEndListener();
+        if(httpUploadRunnableEndListener != null){
+            httpUploadRunnableEndListener.endUpload(task.getObjKey());
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.quexs.tool.httplib.upload;
+
+import com.quexs.tool.httplib.conn.HttpProgress;
+
+/**
+ * 上传进度
+ */
+public class HttpUploadProgress extends HttpProgress {
+
+    HttpUploadProgress(long uploadLen, long totalLen, double speed, double averageSpeed) {
+        super(uploadLen, totalLen, speed, averageSpeed);
+    }
+
+    /**
+     * 已写入长度（压缩上传为压缩前的长度）
+     */
+    public long getUploadLen() {
+        return getTransferLen();
+    }
+
+    /**
+     * 请求体总长度：普通上传为 multipart 请求体长度，分块上传及分片上传为文件长度
+     * @return -1 未知
+     */
+    public long getTotalLen() {
+        return getTransferTotal();
+    }
+}
@@ -0,0 +1,139 @@
+package com.quexs.tool.httplib.upload;
+
+import com.quexs.tool.httplib.conn.HttpProgressDispatcher;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * 上传进度回调设置（合并条件及回调线程见 HttpProgressDispatcher），上传完成前回调最终进度
+ * 设置停滞时间后检测上传停滞，可中止停滞的上传以便重新安排
+ */
+public class HttpUploadProgressDispatcher extends HttpProgressDispatcher {
+    //停滞检测线程（所有上传共用）
+    private static ScheduledThreadPoolExecutor watchdog;
+
+    //停滞时间（单位：毫秒），0 不检测
+    private long stallTimeoutMillis;
+    //最小速度（字节/秒）
+    private long minSpeed;
+    //停滞时是否中止上传
+    private boolean isAbortOnStall;
+
+    /**
+     * 设置停滞检测：每个停滞时间内写入的数据低于最小速度即判定停滞（请求体写完后不再检测）
+     * 启用停滞检测的上传使用线程池执行（不使用 NIO 传输）
+     * @param stallTimeoutMillis 停滞时间，0 不检测（默认）
+     * @param minSpeed 最小速度（字节/秒），0 表示停滞时间内没有任何写入才判定停滞
+     * @param isAbortOnStall 停滞时是否中止上传（断开连接，回调 uploadError）
+     */
+    public void setStallDetection(long stallTimeoutMillis, long minSpeed, boolean isAbortOnStall) {
+        this.stallTimeoutMillis = stallTimeoutMillis;
+        this.minSpeed = minSpeed;
+        this.isAbortOnStall = isAbortOnStall;
+    }
+
+    long getStallTimeoutMillis() {
+        return stallTimeoutMillis;
+    }
+
+    long getMinSpeed() {
+        return minSpeed;
+    }
+
+    boolean isAbortOnStall() {
+        return isAbortOnStall;
+    }
+
+    /**
+     * 停滞检测线程
+     */
+    static synchronized ScheduledThreadPoolExecutor getWatchdog() {
+        if(watchdog == null){
+            watchdog = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "HttpUploadWatchdog");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return watchdog;
+    }
+
+    /**
+     * 包装上传监听，在回调线程池中回调
+     * @return 未设置回调线程池时返回原监听
+     */
+    HttpUploadListener wrap(HttpUploadListener httpUploadListener) {
+        if(getExecutor() == null || httpUploadListener == null) return httpUploadListener;
+        return new ExecutorListener(getExecutor(), httpUploadListener);
+    }
+
+    /**
+     * 在回调线程池中回调的上传监听
+     */
+    private static class ExecutorListener implements HttpUploadProgressListener {
+        private final Executor executor;
+        private final HttpUploadListener httpUploadListener;
+
+        ExecutorListener(Executor executor, HttpUploadListener httpUploadListener) {
+            this.executor = executor;
+            this.httpUploadListener = httpUploadListener;
+        }
+
+        @Override
+        public void uploadStart(final Object objKey) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    httpUploadListener.uploadStart(objKey);
+                }
+            });
+        }
+
+        @Override
+        public void uploadProgress(final HttpUploadProgress progress, final Object objKey) {
+            if(!(httpUploadListener instanceof HttpUploadProgressListener)) return;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    ((HttpUploadProgressListener) httpUploadListener).uploadProgress(progress, objKey);
+                }
+            });
+        }
+
+        @Override
+        public void uploadStalled(final HttpUploadProgress progress, final Object objKey) {
+            if(!(httpUploadListener instanceof HttpUploadProgressListener)) return;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    ((HttpUploadProgressListener) httpUploadListener).uploadStalled(progress, objKey);
+                }
+            });
+        }
+
+        @Override
+        public void uploadComplete(final String body, final Object objKey) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    httpUploadListener.uploadComplete(body, objKey);
+                }
+            });
+        }
+
+        @Override
+        public void uploadError(final Exception e, final Object objKey) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    httpUploadListener.uploadError(e, objKey);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.quexs.tool.httplib.upload;
+
+/**
+ * 上传进度监听（含上传速度及停滞检测）
+ */
+public interface HttpUploadProgressListener extends HttpUploadListener {
+    void uploadProgress(HttpUploadProgress progress, Object objKey);
+
+    /**
+     * 上传停滞：超过停滞时间没有写入，或速度低于最小速度
+     * 设置停滞时中止的，随后回调 uploadError（SocketTimeoutException）
+     */
+    void uploadStalled(HttpUploadProgress progress, Object objKey);
+}
@@ -0,0 +1,122 @@
+package com.quexs.tool.httplib.upload;
+
+import com.quexs.tool.httplib.conn.HttpProgressTracker;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 上传进度合并、速度估算及停滞检测
+ * 进度合并及速度估算见 HttpProgressTracker，此类只负责停滞检测（分片上传多线程串行回调）
+ */
+class HttpUploadProgressTracker extends HttpProgressTracker implements Runnable {
+    private final HttpUploadRunnable task;
+    private final HttpUploadProgressDispatcher dispatcher;
+
+    //请求体总长度，-1 未知
+    private long totalLen = -1;
+    //停滞检测窗口
+    private long windowMillis;
+    private long windowLen;
+    //本次停滞是否已回调（恢复写入后重新检测）
+    private boolean isStalled;
+    private ScheduledFuture<?> watchdogFuture;
+
+    /**
+     * @param dispatcher null 不合并，每次写入都回调，不检测停滞
+     */
+    HttpUploadProgressTracker(HttpUploadRunnable task, HttpUploadProgressDispatcher dispatcher) {
+        super(dispatcher);
+        this.task = task;
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * 开始上传，启动停滞检测
+     */
+    synchronized void start() {
+        reset();
+        totalLen = -1;
+        windowMillis = now();
+        windowLen = 0;
+        isStalled = false;
+        long stallTimeoutMillis = dispatcher != null ? dispatcher.getStallTimeoutMillis() : 0;
+        if(stallTimeoutMillis > 0 && watchdogFuture == null){
+            long period = Math.max(100, stallTimeoutMillis / 4);
+            watchdogFuture = HttpUploadProgressDispatcher.getWatchdog().scheduleAtFixedRate(this, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 上传结束，停止停滞检测
+     */
+    synchronized void stop() {
+        if(watchdogFuture != null){
+            watchdogFuture.cancel(false);
+            watchdogFuture = null;
+        }
+    }
+
+    synchronized void setTotalLen(long totalLen) {
+        this.totalLen = totalLen;
+    }
+
+    /**
+     * 写入数据
+     */
+    synchronized void add(int len) {
+        update(getTransferLen() + len, totalLen);
+    }
+
+    /**
+     * 设置已写入长度（分块上传以服务端已接收的位置为准）
+     */
+    synchronized void set(long uploadLen) {
+        update(uploadLen, totalLen);
+    }
+
+    @Override
+    protected void onProgress(long uploadLen, long totalLen, double speed, double averageSpeed) {
+        HttpUploadListener httpUploadListener = task.getHttpUploadListener();
+        if(httpUploadListener instanceof HttpUploadProgressListener){
+            ((HttpUploadProgressListener) httpUploadListener).uploadProgress(new HttpUploadProgress(uploadLen, totalLen, speed, averageSpeed), task.getObjKey());
+        }
+    }
+
+    /**
+     * 停滞检测（在检测线程中执行）
+     */
+    @Override
+    public void run() {
+        boolean isAbort = false;
+        synchronized (this) {
+            long uploadLen = getTransferLen();
+            long now = now();
+            long elapsed = now - windowMillis;
+            //请求体已写完，等待服务端响应由读取超时处理
+            if(elapsed < dispatcher.getStallTimeoutMillis() || (totalLen > 0 && uploadLen >= totalLen)) return;
+            long windowBytes = uploadLen - windowLen;
+            boolean isSlow = dispatcher.getMinSpeed() > 0
+                    ? windowBytes * 1000.0 / elapsed < dispatcher.getMinSpeed()
+                    : windowBytes <= 0;
+            windowMillis = now;
+            windowLen = uploadLen;
+            if(!isSlow){
+                isStalled = false;
+                return;
+            }
+            if(isStalled) return;
+            isStalled = true;
+            HttpUploadListener httpUploadListener = task.getHttpUploadListener();
+            if(httpUploadListener instanceof HttpUploadProgressListener){
+                //停滞期间没有写入，瞬时速度按窗口计算
+                HttpUploadProgress progress = new HttpUploadProgress(uploadLen, totalLen, windowBytes * 1000.0 / elapsed, getAverageSpeed());
+                ((HttpUploadProgressListener) httpUploadListener).uploadStalled(progress, task.getObjKey());
+            }
+            isAbort = dispatcher.isAbortOnStall();
+        }
+        if(isAbort){
+            task.abortStalled();
+        }
+    }
+}
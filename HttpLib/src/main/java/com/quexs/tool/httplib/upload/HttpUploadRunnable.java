@@ -2,34 +2,51 @@ package com.quexs.tool.httplib.upload;
 
 import android.text.TextUtils;
 
+import com.quexs.tool.httplib.cache.HttpMemoryCache;
+import com.quexs.tool.httplib.conn.HttpConnectionTool;
+import com.quexs.tool.httplib.conn.HttpContentDecoder;
+import com.quexs.tool.httplib.conn.HttpRateLimiter;
+import com.quexs.tool.httplib.conn.HttpResponseException;
+import com.quexs.tool.httplib.conn.HttpRetryPolicy;
 import com.quexs.tool.httplib.log.HttpLogBean;
 import com.quexs.tool.httplib.log.HttpPrintLog;
 import com.quexs.tool.httplib.ssl.HttpSSLVerify;
 import com.quexs.tool.httplib.ssl.SSLSocketFactoryTool;
 
 import java.io.BufferedReader;
-import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
 import java.net.URL;
-import java.net.URLEncoder;
+import java.net.URLConnection;
+import java.nio.charset.Charset;
 import java.security.KeyManagementException;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.GZIPOutputStream;
 
-import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.HttpsURLConnection;
-import javax.net.ssl.SSLSession;
 
 /**
  * 文件上传
  */
 public class HttpUploadRunnable implements Runnable, Comparable<HttpUploadRunnable>{
+    //默认可压缩的文件类型
+    private static final String[] DEFAULT_GZIP_CONTENT_TYPES = {"text/*", "application/json", "application/xml",
+            "application/javascript", "application/x-ndjson"};
+
     //防重复Key
     private final Object objKey;
     //优先级
@@ -52,12 +69,46 @@ public class HttpUploadRunnable implements Runnable, Comparable<HttpUploadRunnab
     //上传结束监听
     private HttpUploadRunnableEndListener httpUploadRunnableEndListener;
     //取消上传
-    private boolean isCancelUpload;
+    private volatile boolean isCancelUpload;
+    //是否因停滞中止（本次尝试）
+    private volatile boolean isStallAborted;
+    //任务重试策略
+    private HttpRetryPolicy retryPolicy;
+    //HttpUpload 实例重试策略
+    private HttpRetryPolicy instanceRetryPolicy;
+    //已重试次数
+    private int retryCount;
+    //服务端对相同上传的处理是否幂等
+    private boolean isIdempotent;
+    //正在写入请求体的连接，停滞中止时断开
+    private final List<HttpURLConnection> writingConns = new ArrayList<>();
+    //上传进度合并、速度估算及停滞检测
+    private HttpUploadProgressTracker progressTracker = new HttpUploadProgressTracker(this, null);
+    //停滞检测设置
+    private HttpUploadProgressDispatcher progressDispatcher;
 
-    // 换行，或者说是回车
-    private final String newLine = "\r\n";
-    // 固定的前缀
-    private final String preFix = "--";
+    //分片上传线程池
+    private Executor uploadExecutor;
+    //响应内存缓存（由 HttpUpload 设置）
+    private HttpMemoryCache memoryCache;
+    //响应题头，用于写入内存缓存
+    private Map<String, List<String>> responseHeaders;
+    //文件写入缓冲区大小
+    private int bufferSize = HttpMultipartBody.DEFAULT_BUFFER_SIZE;
+    //是否压缩请求体
+    private boolean isGzipBody;
+    //启用压缩的最小请求体长度
+    private long gzipMinLength;
+    //可压缩的文件类型
+    private String[] gzipContentTypes = DEFAULT_GZIP_CONTENT_TYPES;
+    //任务限速
+    private HttpRateLimiter rateLimiter;
+    //HttpUpload 实例限速
+    private HttpRateLimiter instanceRateLimiter;
+    //带宽分配权重
+    private int rateWeight = 1;
+    //本次上传的限速（分片上传的各线程共用）
+    private volatile HttpRateLimiter.Transfer rateTransfer;
     // 分界线，就是上面提到的boundary，可以是任意字符串，建议写长一点，这里简单的写了一个#
     private final String bounDary = "----WebKitFormBoundaryCXRtmcVNK0H70msG";
 
@@ -105,6 +156,242 @@ public class HttpUploadRunnable implements Runnable, Comparable<HttpUploadRunnab
         this.verifyCode = verifyCode;
     }
 
+    /**
+     * 设置文件写入缓冲区大小
+     * @param bufferSize 默认 64K，小于等于 0 时使用默认大小
+     */
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * 启用请求体 gzip 压缩（只用于普通上传，需服务端支持 Content-Encoding: gzip 的请求体）
+     * 请求体边压缩边写入，压缩后长度未知，使用分块传输；上传进度及限速按压缩后实际发送的长度计算，总长度为未知
+     * @param minLength 请求体小于该长度时不压缩
+     * @param contentTypes 可压缩的文件类型（按文件名判断，支持 text/* 形式），为空时使用默认类型（文本、JSON、XML）
+     */
+    public void enableGzipBody(long minLength, String... contentTypes) {
+        this.isGzipBody = true;
+        this.gzipMinLength = minLength;
+        this.gzipContentTypes = contentTypes != null && contentTypes.length > 0 ? contentTypes : DEFAULT_GZIP_CONTENT_TYPES;
+    }
+
+    /**
+     * 设置任务限速（与 HttpUpload 实例限速、全局限速同时生效）
+     * @param rateLimiter 可由多个任务共用；null 不限速
+     */
+    public void setRateLimiter(HttpRateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * 设置带宽分配权重，同一限速下的传输按权重分配带宽
+     * @param rateWeight 默认 1，前台上传可设置较大的权重
+     */
+    public void setRateWeight(int rateWeight) {
+        if(rateWeight <= 0) throw new IllegalArgumentException("rateWeight <= 0");
+        this.rateWeight = rateWeight;
+    }
+
+    /**
+     * HttpUpload 实例限速（由 HttpUpload 设置）
+     * @param instanceRateLimiter
+     */
+    void setInstanceRateLimiter(HttpRateLimiter instanceRateLimiter) {
+        this.instanceRateLimiter = instanceRateLimiter;
+    }
+
+    /**
+     * 是否限速（NIO 传输不支持，使用线程池执行）
+     */
+    boolean isRateLimited() {
+        return rateLimiter != null || instanceRateLimiter != null || HttpRateLimiter.getGlobal() != null;
+    }
+
+    /**
+     * 写入前获取令牌（限速时等待），并更新上传进度
+     * @param len 写入长度
+     */
+    void recordWrite(int len) {
+        HttpRateLimiter.Transfer rateTransfer = this.rateTransfer;
+        if(rateTransfer != null){
+            rateTransfer.acquire(len);
+        }
+        progressTracker.add(len);
+    }
+
+    /**
+     * 上传进度回调设置（由 HttpUpload 设置）
+     * @param progressDispatcher null 每次写入都回调，不检测停滞
+     */
+    void setProgressDispatcher(HttpUploadProgressDispatcher progressDispatcher) {
+        this.progressDispatcher = progressDispatcher;
+        this.progressTracker = new HttpUploadProgressTracker(this, progressDispatcher);
+    }
+
+    /**
+     * 是否检测停滞（NIO 传输不支持，使用线程池执行）
+     */
+    boolean isStallDetection() {
+        return progressDispatcher != null && progressDispatcher.getStallTimeoutMillis() > 0;
+    }
+
+    void startProgress() {
+        progressTracker.start();
+    }
+
+    void stopProgress() {
+        progressTracker.stop();
+    }
+
+    void flushProgress() {
+        progressTracker.flush();
+    }
+
+    /**
+     * 设置上传进度的总长度
+     * @param totalLen -1 未知
+     */
+    void setProgressTotalLen(long totalLen) {
+        progressTracker.setTotalLen(totalLen);
+    }
+
+    /**
+     * 设置已上传长度（分块上传以服务端已接收的位置为准）
+     */
+    void setProgressLen(long uploadLen) {
+        progressTracker.set(uploadLen);
+    }
+
+    /**
+     * 开始写入请求体
+     */
+    void beginWrite(HttpURLConnection conn) {
+        synchronized (writingConns) {
+            writingConns.add(conn);
+        }
+        //中止与开始写入同时发生
+        if(isStallAborted) conn.disconnect();
+    }
+
+    /**
+     * 请求体写入结束
+     */
+    void endWrite(HttpURLConnection conn) {
+        synchronized (writingConns) {
+            writingConns.remove(conn);
+        }
+    }
+
+    /**
+     * 停滞中止：停止上传，断开正在写入的连接
+     */
+    void abortStalled() {
+        isStallAborted = true;
+        List<HttpURLConnection> conns;
+        synchronized (writingConns) {
+            conns = new ArrayList<>(writingConns);
+        }
+        for (HttpURLConnection conn : conns) {
+            conn.disconnect();
+        }
+    }
+
+    /**
+     * 设置任务重试策略（优先于 HttpUpload 实例重试策略）
+     * 普通上传（POST）未声明幂等（setIdempotent）时为非幂等请求，默认只在连接失败或服务端未处理（408/429/503）时重试；
+     * 分块上传从服务端已接收的位置继续，分片上传只重新上传未完成的分片
+     * @param retryPolicy null 使用实例重试策略
+     */
+    public void setRetryPolicy(HttpRetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * HttpUpload 实例重试策略（由 HttpUpload 设置）
+     * @param instanceRetryPolicy
+     */
+    void setInstanceRetryPolicy(HttpRetryPolicy instanceRetryPolicy) {
+        this.instanceRetryPolicy = instanceRetryPolicy;
+    }
+
+    /**
+     * 生效的重试策略（NIO 传输不支持，使用线程池执行）
+     * @return null 不重试
+     */
+    HttpRetryPolicy getRetryPolicy() {
+        return retryPolicy != null ? retryPolicy : instanceRetryPolicy;
+    }
+
+    /**
+     * 声明服务端对相同上传（链接、上传参数及上传文件相同）的处理幂等，重复上传的结果相同
+     * 幂等的普通上传按幂等请求重试，HttpUpload 启用内存缓存时可缓存响应；未声明时不缓存
+     * @param isIdempotent 默认 false（POST 非幂等）
+     */
+    public void setIdempotent(boolean isIdempotent) {
+        this.isIdempotent = isIdempotent;
+    }
+
+    /**
+     * 请求是否幂等，可安全地重复发送
+     */
+    boolean isIdempotent() {
+        return isIdempotent;
+    }
+
+    /**
+     * 分片上传线程池（由 HttpUpload 设置）
+     * @param uploadExecutor
+     */
+    void setUploadExecutor(Executor uploadExecutor) {
+        this.uploadExecutor = uploadExecutor;
+    }
+
+    /**
+     * 响应内存缓存（由 HttpUpload 设置）
+     * @param memoryCache
+     */
+    void setMemoryCache(HttpMemoryCache memoryCache) {
+        this.memoryCache = memoryCache;
+    }
+
+    HttpMemoryCache getMemoryCache() {
+        return memoryCache;
+    }
+
+    /**
+     * 读取内存缓存中的响应（需读取上传文件信息，在上传线程调用）
+     * @return null 未命中
+     */
+    private String getCachedBody() {
+        if(memoryCache == null) return null;
+        HttpMemoryCache.Entry entry = memoryCache.get("POST", getCacheUrl(), properties);
+        return entry != null ? new String(entry.getBody(), Charset.forName("UTF-8")) : null;
+    }
+
+    /**
+     * 写入内存缓存
+     */
+    private void cacheBody(String body) {
+        if(memoryCache == null || responseHeaders == null) return;
+        memoryCache.put("POST", getCacheUrl(), properties, HttpsURLConnection.HTTP_OK, responseHeaders,
+                body.getBytes(Charset.forName("UTF-8")));
+    }
+
+    /**
+     * 缓存标识：链接 + 上传参数 + 上传文件（路径、大小、修改时间）
+     */
+    private String getCacheUrl() {
+        StringBuilder builder = new StringBuilder(url);
+        builder.append('#').append(params != null ? new TreeMap<>(params) : "");
+        if(uploadFile != null){
+            builder.append('#').append(uploadFile.getAbsolutePath())
+                    .append(':').append(uploadFile.length())
+                    .append(':').append(uploadFile.lastModified());
+        }
+        return builder.toString();
+    }
+
     /**
      * 取消上传
      */
@@ -116,6 +403,87 @@ public class HttpUploadRunnable implements Runnable, Comparable<HttpUploadRunnab
         return objKey;
     }
 
+    String getUrl() {
+        return url;
+    }
+
+    Map<String, Object> getParams() {
+        return params;
+    }
+
+    String getBounDary() {
+        return bounDary;
+    }
+
+    int getVerifyCode() {
+        return verifyCode;
+    }
+
+    HttpUploadListener getHttpUploadListener() {
+        return httpUploadListener;
+    }
+
+    HttpUploadRunnableEndListener getHttpUploadRunnableEndListener() {
+        return httpUploadRunnableEndListener;
+    }
+
+    long getPriority() {
+        return priority;
+    }
+
+    String getSort() {
+        return sort;
+    }
+
+    Executor getUploadExecutor() {
+        return uploadExecutor;
+    }
+
+    File getUploadFile() {
+        return uploadFile;
+    }
+
+    Map<String, String> getProperties() {
+        return properties;
+    }
+
+    /**
+     * 文件写入缓冲区大小，未设置有效值时使用默认大小
+     */
+    int getBufferSize() {
+        return bufferSize > 0 ? bufferSize : HttpMultipartBody.DEFAULT_BUFFER_SIZE;
+    }
+
+    boolean isCancelUpload() {
+        return isCancelUpload || isStallAborted;
+    }
+
+    /**
+     * 是否启用请求体压缩（NIO 传输不支持，使用线程池执行）
+     */
+    boolean isGzipBody() {
+        return isGzipBody;
+    }
+
+    /**
+     * 请求体是否需要压缩：达到最小长度，且上传文件为可压缩的类型（已压缩的图片、视频等不再压缩）
+     * @param contentLength -1 长度未知
+     */
+    private boolean shouldGzipBody(long contentLength) {
+        if(!isGzipBody || (contentLength >= 0 && contentLength < gzipMinLength)) return false;
+        if(uploadFile == null) return true;
+        String contentType = URLConnection.guessContentTypeFromName(uploadFile.getName());
+        if(contentType == null) return false;
+        contentType = contentType.toLowerCase(Locale.US);
+        for (String allowType : gzipContentTypes) {
+            String type = allowType.toLowerCase(Locale.US);
+            if(type.endsWith("/*") ? contentType.startsWith(type.substring(0, type.length() - 1)) : contentType.equals(type)){
+                return true;
+            }
+        }
+        return false;
+    }
+
     @Override
     public int compareTo(HttpUploadRunnable o) {
         //降序
@@ -132,24 +500,99 @@ public class HttpUploadRunnable implements Runnable, Comparable<HttpUploadRunnab
             }
             return;
         }
-        if(httpUploadListener != null){
+        //重试时不再回调开始
+        if(retryCount == 0 && httpUploadListener != null){
             httpUploadListener.uploadStart(objKey);
         }
+        //已安排重试，上传尚未结束
+        boolean isRetrying = false;
+        isStallAborted = false;
+        try {
+            //命中内存缓存时不再上传
+            String body = getCachedBody();
+            if(body == null){
+                rateTransfer = HttpRateLimiter.newTransfer(rateWeight, rateLimiter, instanceRateLimiter, HttpRateLimiter.getGlobal());
+                startProgress();
+                body = runUpload();
+                if(isStallAborted) throw new SocketTimeoutException("upload stalled");
+                //已取消上传
+                if(isCancelUpload) return;
+                cacheBody(body);
+                flushProgress();
+            }
+            if (httpUploadListener != null) {
+                httpUploadListener.uploadComplete(body, objKey);
+            }
+        }catch (Exception e){
+            if(isStallAborted && !(e instanceof SocketTimeoutException)){
+                //断开连接导致的写入失败
+                SocketTimeoutException stalled = new SocketTimeoutException("upload stalled");
+                stalled.initCause(e);
+                e = stalled;
+            }
+            isRetrying = scheduleRetry(e);
+            if (!isRetrying && httpUploadListener != null) {
+                httpUploadListener.uploadError(e, objKey);
+            }
+        }finally {
+            stopProgress();
+            if(!isRetrying && httpUploadRunnableEndListener != null){
+                httpUploadRunnableEndListener.endUpload(objKey);
+            }
+        }
+    }
+
+    /**
+     * 按重试策略安排重试，退避期间不占用线程
+     * @param e 本次失败的异常
+     * @return false 不重试
+     */
+    private boolean scheduleRetry(final Exception e) {
+        HttpRetryPolicy retryPolicy = getRetryPolicy();
+        if(retryPolicy == null || isCancelUpload || uploadExecutor == null) return false;
+        long delayMillis = retryPolicy.getRetryDelay(e, retryCount, isIdempotent());
+        if(delayMillis < 0) return false;
+        retryCount++;
+        HttpRetryPolicy.schedule(new Runnable() {
+            @Override
+            public void run() {
+                resubmit(e);
+            }
+        }, delayMillis);
+        return true;
+    }
+
+    /**
+     * 退避结束，重新提交至线程池排队
+     * @param e 上次失败的异常，线程池已关闭时回调
+     */
+    private void resubmit(Exception e) {
+        try {
+            uploadExecutor.execute(this);
+        }catch (RejectedExecutionException ex){
+            //线程池已关闭
+            if(httpUploadListener != null){
+                httpUploadListener.uploadError(e, objKey);
+            }
+            if(httpUploadRunnableEndListener != null){
+                httpUploadRunnableEndListener.endUpload(objKey);
+            }
+        }
+    }
+
+    /**
+     * 执行上传
+     * @return 服务端返回的消息体
+     * @throws Exception
+     */
+    String runUpload() throws Exception {
         HttpsURLConnection conn = null;
+        Map<String, List<String>> requestProperties = null;
         int responseCode = -1;
+        //响应已读完，连接可复用
+        boolean isReusable = false;
         try {
-            URL connUrl = new URL(url);
-            conn = (HttpsURLConnection) connUrl.openConnection();
-            //SSL验证规则
-            runVerify(conn);
-            //设置连接主机超时（单位：毫秒）
-            //连接主机超时时间（单位：毫秒）
-            int connectTimeout = 10 * 1000;
-            conn.setConnectTimeout(connectTimeout);
-            //设置从主机读取数据超时（单位：毫秒）
-            //设置从主机读取数据超时时间（单位：毫秒）
-            int readTimeout = 10 * 1000;
-            conn.setReadTimeout(readTimeout);
+            conn = openConnection(url);
             //设置是否向httpURLConnection输出
             conn.setDoOutput(true);
             //设置请求方法默认为POST
@@ -160,65 +603,131 @@ public class HttpUploadRunnable implements Runnable, Comparable<HttpUploadRunnab
             //文件上传固定属性
             conn.setRequestProperty("Connection", "Keep-Alive");
             conn.setRequestProperty("Accept", "*/*");
-            conn.setRequestProperty("Accept-Encoding", "gzip, deflate, br");
+            //手动声明后需自行解码，见 readBody
+            conn.setRequestProperty("Accept-Encoding", HttpContentDecoder.ACCEPT_ENCODING);
             conn.setRequestProperty("Cache-Control", "no-cache");
             conn.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + bounDary);
             conn.setRequestProperty("User-Agent", "(Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/68.0.3440.84 Safari/537.36)");
-            //默认表单请求
-            conn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded;charset=UTF-8");
             //添加属性
             addRequestProperty(conn,properties);
+            //请求体：请求参数 + 上传文件
+            HttpMultipartBody multipartBody = new HttpMultipartBody(bounDary, params, uploadFile);
+            long contentLength = multipartBody.contentLength();
+            boolean isGzip = shouldGzipBody(contentLength);
+            //压缩时进度及限速按压缩后实际发送的长度计算，总长度未知
+            setProgressTotalLen(isGzip ? -1 : contentLength);
+            //流式写入，避免 HttpURLConnection 在内存中缓存整个请求体
+            if(isGzip){
+                //压缩后长度未知
+                conn.setRequestProperty("Content-Encoding", "gzip");
+                conn.setChunkedStreamingMode(getBufferSize());
+            }else if(contentLength >= 0){
+                conn.setFixedLengthStreamingMode(contentLength);
+            }else {
+                conn.setChunkedStreamingMode(getBufferSize());
+            }
+            //连接后不能再读取题头属性
+            requestProperties = conn.getRequestProperties();
             //写入数据
-            DataOutputStream dos = new DataOutputStream(conn.getOutputStream());
-            //添加请求参数
-            addRequestParams(dos, params);
-            //写入上传文件
-            writeUploadFile(dos, uploadFile);
-            //结束流
-            dos.writeBytes(preFix + bounDary + preFix + newLine);
-            //请求完成后关闭流
-            dos.flush();
+            beginWrite(conn);
+            try {
+                OutputStream os = isGzip ? new GZIPOutputStream(new RecordWriteOutputStream(conn.getOutputStream()), getBufferSize()) : conn.getOutputStream();
+                try {
+                    multipartBody.writeTo(os, getBufferSize(), isGzip ? null : new HttpMultipartBody.WriteCallback() {
+                        @Override
+                        public void onWrite(int len) {
+                            recordWrite(len);
+                        }
+                    });
+                }finally {
+                    //请求完成后关闭流（压缩流同时写入压缩结尾）
+                    os.close();
+                }
+            }finally {
+                endWrite(conn);
+            }
             //请求结果回调编码
             responseCode = conn.getResponseCode();
-            if(responseCode != HttpsURLConnection.HTTP_OK) throw new IOException("responseCode=" + responseCode);
+            if(responseCode != HttpsURLConnection.HTTP_OK){
+                isReusable = HttpConnectionTool.closeResponse(conn);
+                throw new HttpResponseException("responseCode=" + responseCode, responseCode, conn.getHeaderField("Retry-After"));
+            }
             //读取主机返回的数据
-            BufferedReader in = new BufferedReader(new InputStreamReader(conn.getInputStream()));
+            String body = readBody(conn);
+            isReusable = true;
+            if(memoryCache != null){
+                responseHeaders = conn.getHeaderFields();
+            }
+            //打印日志
+            HttpPrintLog.getInstance().addPrintLog(new HttpLogBean(url, "POST", requestProperties, responseCode, body));
+            return body;
+        }catch (Exception e){
+            printErrorLog(conn, url, "POST", requestProperties, responseCode, e);
+            throw e;
+        }finally {
+            //响应已读完时保留连接供复用
+            HttpConnectionTool.release(conn, isReusable);
+        }
+    }
+
+    /**
+     * 打开连接，并设置SSL验证规则、超时时间及题头属性
+     * @param url 请求链接
+     * @return
+     * @throws Exception
+     */
+    HttpsURLConnection openConnection(String url) throws Exception {
+        URL connUrl = new URL(url);
+        HttpsURLConnection conn = (HttpsURLConnection) connUrl.openConnection();
+        //SSL验证规则
+        runVerify(conn);
+        //设置连接主机超时（单位：毫秒）
+        //连接主机超时时间（单位：毫秒）
+        int connectTimeout = 10 * 1000;
+        conn.setConnectTimeout(connectTimeout);
+        //设置从主机读取数据超时（单位：毫秒）
+        //设置从主机读取数据超时时间（单位：毫秒）
+        int readTimeout = 10 * 1000;
+        conn.setReadTimeout(readTimeout);
+        return conn;
+    }
+
+    /**
+     * 读取主机返回的数据，按 Content-Encoding 解压
+     * @param conn
+     * @return
+     * @throws IOException
+     */
+    String readBody(HttpsURLConnection conn) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(HttpContentDecoder.decode(conn, conn.getInputStream())));
+        try {
             StringBuilder builder = new StringBuilder();
             String line;
             while ((line = in.readLine()) != null) {
                 builder.append(line);
             }
-            in.close();
-            //回调消息体
-            String body = builder.toString();
-            //打印日志
-            HttpPrintLog.getInstance().addPrintLog(new HttpLogBean(url, "POST", conn.getRequestProperties(), responseCode, body));
-            if (httpUploadListener != null) {
-                httpUploadListener.uploadComplete(body, objKey);
-            }
-        }catch (Exception e){
-            Map<String, List<String>> requestProperties = null;
-            if(conn != null){
-                requestProperties = conn.getRequestProperties();
-                try {
-                    responseCode = conn.getResponseCode();
-                } catch (IOException ex) {
-                    ex.printStackTrace();
-                }
-            }
-            //打印日志
-            HttpPrintLog.getInstance().addPrintLog(new HttpLogBean(url, "POST", requestProperties, responseCode, e));
-            if (httpUploadListener != null) {
-                httpUploadListener.uploadError(e, objKey);
-            }
+            return builder.toString();
         }finally {
-            if (conn != null) {
-                conn.disconnect();
-            }
-            if(httpUploadRunnableEndListener != null){
-                httpUploadRunnableEndListener.endUpload(objKey);
+            in.close();
+        }
+    }
+
+    /**
+     * 打印请求失败日志
+     */
+    void printErrorLog(HttpsURLConnection conn, String url, String requestMethod, Map<String, List<String>> requestProperties, int responseCode, Exception e) {
+        if(requestProperties == null){
+            //未发起连接
+            requestProperties = Collections.emptyMap();
+        }else if(conn != null && responseCode == -1){
+            try {
+                responseCode = conn.getResponseCode();
+            } catch (IOException ex) {
+                ex.printStackTrace();
             }
         }
+        //打印日志
+        HttpPrintLog.getInstance().addPrintLog(new HttpLogBean(url, requestMethod, requestProperties, responseCode, e));
     }
 
     /**
@@ -229,29 +738,15 @@ public class HttpUploadRunnable implements Runnable, Comparable<HttpUploadRunnab
      * @throws KeyManagementException
      */
     private void runVerify(HttpsURLConnection conn) throws Exception {
-        if(verifyCode != HttpSSLVerify.VerifyCode.DEFAULT_VERIFY){
-            if(verifyCode == HttpSSLVerify.VerifyCode.CLIENT_VERIFY){
-                //使用客户端默认密钥库验证-单向验证
-                conn.setSSLSocketFactory(SSLSocketFactoryTool.mGetClientVerifySSLSocketFactory());
-            }else {
-                //跳过所有验证
-                conn.setSSLSocketFactory(SSLSocketFactoryTool.mGetSkipVerifySSLSocketFactory());
-            }
-            //主机验证-默认true不验证
-            conn.setHostnameVerifier(new HostnameVerifier() {
-                @Override
-                public boolean verify(String hostname, SSLSession session) {
-                    return true;
-                }
-            });
-        }
+        //复用已初始化的 SSLSocketFactory
+        SSLSocketFactoryTool.applyVerify(conn, verifyCode);
     }
 
     /**
      * 设置RequestProperty
      * @param properties
      */
-    private void addRequestProperty(HttpsURLConnection conn, Map<String, String> properties){
+    void addRequestProperty(HttpsURLConnection conn, Map<String, String> properties){
         if(properties == null || properties.isEmpty()) return;
         for (Map.Entry<String, String> entry : properties.entrySet()) {
             String key = entry.getKey();
@@ -263,59 +758,29 @@ public class HttpUploadRunnable implements Runnable, Comparable<HttpUploadRunnab
         }
     }
 
-    /**
-     * 添加请求参数
-     */
-    private void addRequestParams(DataOutputStream dos, Map<String, Object> params) throws IOException {
-        if(params == null || params.isEmpty()) return;
-        for(Map.Entry<String, Object> entry : params.entrySet()) {
-            //获取参数名称和值
-            String key = entry.getKey();
-            Object value = params.get(key);
-            //向请求中写分割线
-            dos.writeBytes(preFix + bounDary + newLine);
-            //向请求拼接参数
-            dos.writeBytes("Content-Disposition: form-data; " + "name=\"" + URLEncoder.encode(key, "utf-8") + "\"" + newLine);
-            //向请求中拼接空格
-            dos.writeBytes(newLine);
-            //写入值
-            dos.writeBytes(URLEncoder.encode(String.valueOf(value), "utf-8"));
-            //向请求中拼接空格
-            dos.writeBytes(newLine);
-        }
+    public interface HttpUploadRunnableEndListener{
+        void endUpload(Object objKey);
     }
 
     /**
-     * 写入上传文件
-     * @param dos
-     * @param file
-     */
-    private void writeUploadFile(DataOutputStream dos, File file) throws IOException {
-        if(file == null) return;
-        String filePrams = "file";
-        String fileName = file.getName();
-        //向请求中加入分隔符号
-        dos.write((preFix + bounDary + newLine).getBytes());
-        //将byte写入
-        dos.writeBytes("Content-Disposition: form-data; " + "name=\"" + URLEncoder.encode(filePrams, "utf-8") + "\"" + ";filename=\"" + URLEncoder.encode(fileName, "utf-8") + "\"" + newLine);
-        dos.writeBytes(newLine);
-        //把file装换成byte
-        File upLoadFile = new File(file.toURI());
-        InputStream in = new FileInputStream(upLoadFile);
-        byte[] buff = new byte[100];
-        while (in.read(buff, 0, 100) != -1){
-            //写入流文件
-            dos.write(buff);
+     * 压缩流写入连接前记录写入长度，进度及限速按实际发送的字节计算
+     */
+    private class RecordWriteOutputStream extends FilterOutputStream {
+
+        RecordWriteOutputStream(OutputStream out) {
+            super(out);
         }
-        //向请求中拼接空格
-        dos.writeBytes(newLine);
-        //关闭文件流文件
-        in.close();
-    }
 
+        @Override
+        public void write(int b) throws IOException {
+            recordWrite(1);
+            out.write(b);
+        }
 
-    public interface HttpUploadRunnableEndListener{
-        void endUpload(Object objKey);
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            recordWrite(len);
+            out.write(b, off, len);
+        }
     }
-
 }
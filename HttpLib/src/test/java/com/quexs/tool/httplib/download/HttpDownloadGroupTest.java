@@ -0,0 +1,206 @@
+package com.quexs.tool.httplib.download;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 合并下载：只有 HttpDownloadProgressListener 时才创建进度，每次回调最多创建一次；
+ * 执行下载的 objKey 取消后文件交给剩余下载，不保留已取消下载的文件
+ */
+public class HttpDownloadGroupTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private HttpDownloadRunnable httpDownloadRunnable;
+    private CountingGroup group;
+
+    @Before
+    public void setUp() {
+        httpDownloadRunnable = new HttpDownloadRunnable("key", 0, null);
+        httpDownloadRunnable.setDownloadParams("https://127.0.0.1/file", null);
+        group = new CountingGroup(httpDownloadRunnable);
+        httpDownloadRunnable.setHttpDownloadListener(group);
+    }
+
+    @Test
+    public void plainListenerGetsNoProgressObjects() {
+        PlainListener first = new PlainListener();
+        PlainListener second = new PlainListener();
+        group.addMember("key", null, first);
+        group.addMember("other", null, second);
+
+        httpDownloadRunnable.dispatchProgress(100, 1000);
+        httpDownloadRunnable.dispatchProgress(500, 1000);
+
+        assertEquals(0, group.progressCount);
+        assertEquals(2, first.downloadLens.size());
+        assertEquals(500L, (long) first.downloadLens.get(1));
+        assertEquals(1000, first.fileLen);
+        assertEquals(2, second.downloadLens.size());
+    }
+
+    @Test
+    public void wrappedPlainListenerGetsNoProgressObjects() {
+        HttpDownloadProgressDispatcher dispatcher = new HttpDownloadProgressDispatcher();
+        dispatcher.setExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        PlainListener plainListener = new PlainListener();
+        group.addMember("key", null, dispatcher.wrap(plainListener));
+        httpDownloadRunnable.setProgressDispatcher(dispatcher);
+
+        httpDownloadRunnable.dispatchProgress(1000, 1000);
+
+        assertEquals(0, group.progressCount);
+        assertEquals(1, plainListener.downloadLens.size());
+    }
+
+    @Test
+    public void progressCreatedOncePerUpdate() {
+        PlainListener plainListener = new PlainListener();
+        ProgressListener first = new ProgressListener();
+        ProgressListener second = new ProgressListener();
+        group.addMember("key", null, plainListener);
+        group.addMember("first", null, first);
+        group.addMember("second", null, second);
+
+        httpDownloadRunnable.dispatchProgress(100, Integer.MAX_VALUE + 1L);
+
+        assertEquals(1, group.progressCount);
+        assertEquals(1, first.progresses.size());
+        assertSame(first.progresses.get(0), second.progresses.get(0));
+        assertEquals(Integer.MAX_VALUE + 1L, first.progresses.get(0).getFileLen());
+        //超出 int 的文件长度按未知回调
+        assertEquals(-1, plainListener.fileLen);
+    }
+
+    @Test
+    public void cancelledTargetFileMovedToSurvivor() throws IOException {
+        File targetFile = new File(temporaryFolder.getRoot(), "target.bin");
+        File survivorFile = new File(temporaryFolder.getRoot(), "survivor.bin");
+        File copyFile = new File(temporaryFolder.getRoot(), "copy.bin");
+        httpDownloadRunnable.setDownloadParams("https://127.0.0.1/file", targetFile.getPath());
+        PlainListener cancelled = new PlainListener();
+        PlainListener survivor = new PlainListener();
+        PlainListener copy = new PlainListener();
+        group.addMember("key", targetFile.getPath(), cancelled);
+        group.addMember("survivor", survivorFile.getPath(), survivor);
+        group.addMember("copy", copyFile.getPath(), copy);
+
+        assertEquals(2, group.removeMember("key"));
+        writeFile(targetFile, 10);
+        group.downloadComplete(targetFile.getPath(), "key");
+
+        assertFalse(targetFile.exists());
+        assertNull(cancelled.completePath);
+        assertEquals(survivorFile.getPath(), survivor.completePath);
+        assertEquals(copyFile.getPath(), copy.completePath);
+        assertEquals(10, survivorFile.length());
+        assertEquals(10, copyFile.length());
+    }
+
+    @Test
+    public void cancelledTargetPartialFileDeletedOnError() throws IOException {
+        File targetFile = new File(temporaryFolder.getRoot(), "target.bin");
+        File survivorFile = new File(temporaryFolder.getRoot(), "survivor.bin");
+        httpDownloadRunnable.setDownloadParams("https://127.0.0.1/file", targetFile.getPath());
+        PlainListener survivor = new PlainListener();
+        group.addMember("key", targetFile.getPath(), new PlainListener());
+        group.addMember("survivor", survivorFile.getPath(), survivor);
+
+        group.removeMember("key");
+        writeFile(targetFile, 5);
+        group.downloadError(new IOException("closed"), "key");
+
+        assertFalse(targetFile.exists());
+        assertEquals(1, survivor.errorCount);
+    }
+
+    @Test
+    public void nullObjKeyMember() {
+        PlainListener first = new PlainListener();
+        PlainListener second = new PlainListener();
+        group.addMember(null, null, first);
+        group.setListener(null, second);
+
+        assertTrue(group.getMemberKeys().contains(null));
+        assertEquals(0, group.removeMember(null));
+    }
+
+    private static void writeFile(File file, int len) throws IOException {
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            fos.write(new byte[len]);
+        }finally {
+            fos.close();
+        }
+    }
+
+    private static class CountingGroup extends HttpDownloadGroup {
+        private int progressCount;
+
+        CountingGroup(HttpDownloadRunnable httpDownloadRunnable) {
+            super(httpDownloadRunnable, null);
+        }
+
+        @Override
+        HttpDownloadProgress newProgress(long downloadLen, long fileLen, double speed, double averageSpeed) {
+            progressCount++;
+            return super.newProgress(downloadLen, fileLen, speed, averageSpeed);
+        }
+    }
+
+    private static class PlainListener implements HttpDownloadListener {
+        private final List<Long> downloadLens = new ArrayList<>();
+        private int fileLen;
+        private String completePath;
+        private int errorCount;
+
+        @Override
+        public void downloadStart(Object objKey) {
+        }
+
+        @Override
+        public void downloadProgress(long downloadLen, int fileLen, Object objKey) {
+            downloadLens.add(downloadLen);
+            this.fileLen = fileLen;
+        }
+
+        @Override
+        public void downloadComplete(String filePath, Object objKey) {
+            completePath = filePath;
+        }
+
+        @Override
+        public void downloadError(Exception e, Object objKey) {
+            errorCount++;
+        }
+    }
+
+    private static class ProgressListener extends PlainListener implements HttpDownloadProgressListener {
+        private final List<HttpDownloadProgress> progresses = new ArrayList<>();
+
+        @Override
+        public void downloadProgress(HttpDownloadProgress progress, Object objKey) {
+            progresses.add(progress);
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.quexs.tool.httplib.http2;
+
+import com.quexs.tool.httplib.ssl.HttpSSLVerify;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * HTTP/2 帧：请求 HEADERS、响应 HEADERS + CONTINUATION + DATA 的解析，
+ * 回调不在读取线程执行，非法的 SETTINGS_MAX_FRAME_SIZE 以 GOAWAY(PROTOCOL_ERROR) 关闭连接
+ */
+public class Http2ConnectionTest {
+    private static final int TYPE_DATA = 0x0;
+    private static final int TYPE_HEADERS = 0x1;
+    private static final int TYPE_SETTINGS = 0x4;
+    private static final int TYPE_GOAWAY = 0x7;
+    private static final int TYPE_CONTINUATION = 0x9;
+    private static final int FLAG_END_STREAM = 0x1;
+    private static final int FLAG_END_HEADERS = 0x4;
+
+    private ServerSocket serverSocket;
+    private Socket server;
+    private DataInputStream serverIn;
+    private OutputStream serverOut;
+    private Http2Connection connection;
+
+    @Before
+    public void setUp() throws IOException {
+        serverSocket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        Socket client = new Socket("127.0.0.1", serverSocket.getLocalPort());
+        server = serverSocket.accept();
+        serverIn = new DataInputStream(server.getInputStream());
+        serverOut = server.getOutputStream();
+        connection = new Http2Connection(Http2ConnectionPool.getInstance(), "https://127.0.0.1:443", client);
+        connection.start("127.0.0.1");
+
+        byte[] preface = new byte[24];
+        serverIn.readFully(preface);
+        assertEquals("PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n", new String(preface, "ISO-8859-1"));
+        assertEquals(TYPE_SETTINGS, readFrame().type);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+        serverSocket.close();
+    }
+
+    @Test
+    public void responseFramesDispatchedOffReaderThread() throws Exception {
+        writeFrame(TYPE_SETTINGS, 0, 0, new byte[0]);
+        TestStream stream = new TestStream();
+        assertTrue(connection.newStream(stream));
+
+        Frame request = nextFrame(TYPE_HEADERS);
+        assertEquals(FLAG_END_STREAM | FLAG_END_HEADERS, request.flags);
+        List<String[]> requestHeaders = new Http2Hpack.Decoder(4096).decode(request.payload, 0, request.payload.length);
+        assertEquals(":method", requestHeaders.get(0)[0]);
+        assertEquals("GET", requestHeaders.get(0)[1]);
+        assertTrue(containsHeader(requestHeaders, ":path", "/file"));
+
+        List<String[]> responseHeaders = new ArrayList<>();
+        responseHeaders.add(new String[]{":status", "200"});
+        responseHeaders.add(new String[]{"content-length", "5"});
+        byte[] block = new Http2Hpack.Encoder().encode(responseHeaders);
+        //题头块拆分为 HEADERS + CONTINUATION
+        writeFrame(TYPE_HEADERS, 0, request.streamId, copyOf(block, 0, 1));
+        writeFrame(TYPE_CONTINUATION, FLAG_END_HEADERS, request.streamId, copyOf(block, 1, block.length - 1));
+        writeFrame(TYPE_DATA, 0, request.streamId, "hel".getBytes("ISO-8859-1"));
+        writeFrame(TYPE_DATA, FLAG_END_STREAM, request.streamId, "lo".getBytes("ISO-8859-1"));
+
+        assertTrue(stream.done.await(10, TimeUnit.SECONDS));
+        assertNull(stream.error);
+        assertTrue(stream.isComplete);
+        assertEquals(200, stream.responseCode);
+        assertNotNull(stream.responseHeaders.get("content-length"));
+        assertEquals("hello", stream.body.toString("ISO-8859-1"));
+        assertFalse(stream.callbackThread.startsWith("Http2Connection-"));
+    }
+
+    @Test
+    public void invalidMaxFrameSizeSendsGoAway() throws Exception {
+        TestStream stream = new TestStream();
+        assertTrue(connection.newStream(stream));
+        nextFrame(TYPE_HEADERS);
+
+        //SETTINGS_MAX_FRAME_SIZE = 100，小于 16384
+        writeFrame(TYPE_SETTINGS, 0, 0, new byte[]{0, 0x5, 0, 0, 0, 100});
+
+        Frame goAway = nextFrame(TYPE_GOAWAY);
+        assertEquals(8, goAway.payload.length);
+        assertEquals(0x1, readInt(goAway.payload, 4));
+        assertTrue(stream.done.await(10, TimeUnit.SECONDS));
+        assertNotNull(stream.error);
+        assertFalse(connection.newStream(new TestStream()));
+    }
+
+    private Frame nextFrame(int type) throws IOException {
+        while (true){
+            Frame frame = readFrame();
+            if(frame.type == type) return frame;
+        }
+    }
+
+    private Frame readFrame() throws IOException {
+        byte[] header = new byte[9];
+        serverIn.readFully(header);
+        Frame frame = new Frame();
+        int len = ((header[0] & 0xFF) << 16) | ((header[1] & 0xFF) << 8) | (header[2] & 0xFF);
+        frame.type = header[3] & 0xFF;
+        frame.flags = header[4] & 0xFF;
+        frame.streamId = readInt(header, 5) & 0x7FFFFFFF;
+        frame.payload = new byte[len];
+        serverIn.readFully(frame.payload);
+        return frame;
+    }
+
+    private void writeFrame(int type, int flags, int streamId, byte[] payload) throws IOException {
+        byte[] header = new byte[9];
+        header[0] = (byte) (payload.length >>> 16);
+        header[1] = (byte) (payload.length >>> 8);
+        header[2] = (byte) payload.length;
+        header[3] = (byte) type;
+        header[4] = (byte) flags;
+        header[5] = (byte) (streamId >>> 24);
+        header[6] = (byte) (streamId >>> 16);
+        header[7] = (byte) (streamId >>> 8);
+        header[8] = (byte) streamId;
+        serverOut.write(header);
+        serverOut.write(payload);
+        serverOut.flush();
+    }
+
+    private static int readInt(byte[] b, int offset) {
+        return ((b[offset] & 0xFF) << 24) | ((b[offset + 1] & 0xFF) << 16) | ((b[offset + 2] & 0xFF) << 8) | (b[offset + 3] & 0xFF);
+    }
+
+    private static byte[] copyOf(byte[] b, int offset, int len) {
+        byte[] copy = new byte[len];
+        System.arraycopy(b, offset, copy, 0, len);
+        return copy;
+    }
+
+    private static boolean containsHeader(List<String[]> headers, String name, String value) {
+        for (String[] header : headers) {
+            if(header[0].equals(name) && header[1].equals(value)) return true;
+        }
+        return false;
+    }
+
+    private static class Frame {
+        int type;
+        int flags;
+        int streamId;
+        byte[] payload;
+    }
+
+    private static class TestStream extends Http2Stream {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        private volatile int responseCode;
+        private volatile Map<String, List<String>> responseHeaders;
+        private volatile boolean isComplete;
+        private volatile Exception error;
+        private volatile String callbackThread;
+
+        TestStream() throws MalformedURLException {
+            super("https://127.0.0.1/file", "GET", HttpSSLVerify.VerifyCode.DEFAULT_VERIFY, 0, null);
+        }
+
+        @Override
+        protected void onResponse(int responseCode, Map<String, List<String>> headers) {
+            this.responseCode = responseCode;
+            this.responseHeaders = headers;
+        }
+
+        @Override
+        protected void onResponseBody(byte[] data, int offset, int len) {
+            body.write(data, offset, len);
+            callbackThread = Thread.currentThread().getName();
+        }
+
+        @Override
+        protected void onComplete() {
+            isComplete = true;
+            done.countDown();
+        }
+
+        @Override
+        protected void onError(Exception e) {
+            error = e;
+            done.countDown();
+        }
+
+        @Override
+        protected boolean isCancel() {
+            return false;
+        }
+
+        @Override
+        protected void onCancel() {
+            done.countDown();
+        }
+
+        @Override
+        protected void onFallback() {
+        }
+    }
+}
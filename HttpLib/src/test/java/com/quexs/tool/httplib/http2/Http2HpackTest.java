@@ -0,0 +1,164 @@
+package com.quexs.tool.httplib.http2;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * HPACK 编解码：RFC 7541 附录 C 示例（C.3、C.5 同一解码器依次解码，验证动态表及淘汰）
+ */
+public class Http2HpackTest {
+
+    @Test
+    public void literalWithIndexing() throws IOException {
+        //C.2.1
+        Http2Hpack.Decoder decoder = new Http2Hpack.Decoder(4096);
+        assertHeaders(decoder, "400a637573746f6d2d6b65790d637573746f6d2d686561646572",
+                "custom-key", "custom-header");
+        //已加入动态表（索引 62）
+        assertHeaders(decoder, "be", "custom-key", "custom-header");
+    }
+
+    @Test
+    public void literalWithoutIndexing() throws IOException {
+        //C.2.2、C.2.3、C.2.4
+        Http2Hpack.Decoder decoder = new Http2Hpack.Decoder(4096);
+        assertHeaders(decoder, "040c2f73616d706c652f70617468", ":path", "/sample/path");
+        assertHeaders(decoder, "100870617373776f726406736563726574", "password", "secret");
+        assertHeaders(decoder, "82", ":method", "GET");
+    }
+
+    @Test
+    public void requestsWithoutHuffman() throws IOException {
+        //C.3
+        Http2Hpack.Decoder decoder = new Http2Hpack.Decoder(4096);
+        assertHeaders(decoder, "828684410f7777772e6578616d706c652e636f6d",
+                ":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com");
+        assertHeaders(decoder, "828684be58086e6f2d6361636865",
+                ":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com",
+                "cache-control", "no-cache");
+        assertHeaders(decoder, "828785bf400a637573746f6d2d6b65790c637573746f6d2d76616c7565",
+                ":method", "GET", ":scheme", "https", ":path", "/index.html", ":authority", "www.example.com",
+                "custom-key", "custom-value");
+    }
+
+    @Test
+    public void requestsWithHuffman() throws IOException {
+        //C.4
+        Http2Hpack.Decoder decoder = new Http2Hpack.Decoder(4096);
+        assertHeaders(decoder, "828684418cf1e3c2e5f23a6ba0ab90f4ff",
+                ":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com");
+        assertHeaders(decoder, "828684be5886a8eb10649cbf",
+                ":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com",
+                "cache-control", "no-cache");
+        assertHeaders(decoder, "828785bf408825a849e95ba97d7f8925a849e95bb8e8b4bf",
+                ":method", "GET", ":scheme", "https", ":path", "/index.html", ":authority", "www.example.com",
+                "custom-key", "custom-value");
+    }
+
+    @Test
+    public void responsesWithoutHuffman() throws IOException {
+        //C.5（动态表上限 256，第二、三个响应淘汰旧条目）
+        Http2Hpack.Decoder decoder = new Http2Hpack.Decoder(256);
+        assertHeaders(decoder, "4803333032580770726976617465611d4d6f6e2c203231204f637420323031332032303a31333a323120474d546e1768747470733a2f2f7777772e6578616d706c652e636f6d",
+                ":status", "302", "cache-control", "private", "date", "Mon, 21 Oct 2013 20:13:21 GMT",
+                "location", "https://www.example.com");
+        assertHeaders(decoder, "4803333037c1c0bf",
+                ":status", "307", "cache-control", "private", "date", "Mon, 21 Oct 2013 20:13:21 GMT",
+                "location", "https://www.example.com");
+        assertHeaders(decoder, "88c1611d4d6f6e2c203231204f637420323031332032303a31333a323220474d54c05a04677a69707738666f6f3d4153444a4b48514b425a584f5157454f50495541585157454f49553b206d61782d6167653d333630303b2076657273696f6e3d31",
+                ":status", "200", "cache-control", "private", "date", "Mon, 21 Oct 2013 20:13:22 GMT",
+                "location", "https://www.example.com", "content-encoding", "gzip",
+                "set-cookie", "foo=ASDJKHQKBZXOQWEOPIUAXQWEOIU; max-age=3600; version=1");
+    }
+
+    @Test
+    public void responsesWithHuffman() throws IOException {
+        //C.6
+        Http2Hpack.Decoder decoder = new Http2Hpack.Decoder(256);
+        assertHeaders(decoder, "488264025885aec3771a4b6196d07abe941054d444a8200595040b8166e082a62d1bff6e919d29ad171863c78f0b97c8e9ae82ae43d3",
+                ":status", "302", "cache-control", "private", "date", "Mon, 21 Oct 2013 20:13:21 GMT",
+                "location", "https://www.example.com");
+        assertHeaders(decoder, "4883640effc1c0bf",
+                ":status", "307", "cache-control", "private", "date", "Mon, 21 Oct 2013 20:13:21 GMT",
+                "location", "https://www.example.com");
+        assertHeaders(decoder, "88c16196d07abe941054d444a8200595040b8166e084a62d1bffc05a839bd9ab77ad94e7821dd7f2e6c7b335dfdfcd5b3960d5af27087f3672c1ab270fb5291f9587316065c003ed4ee5b1063d5007",
+                ":status", "200", "cache-control", "private", "date", "Mon, 21 Oct 2013 20:13:22 GMT",
+                "location", "https://www.example.com", "content-encoding", "gzip",
+                "set-cookie", "foo=ASDJKHQKBZXOQWEOPIUAXQWEOIU; max-age=3600; version=1");
+    }
+
+    @Test
+    public void encodeRoundTrip() throws IOException {
+        List<String[]> headers = new ArrayList<>();
+        headers.add(new String[]{":method", "GET"});
+        headers.add(new String[]{":scheme", "https"});
+        headers.add(new String[]{":path", "/file?name=a%20b"});
+        headers.add(new String[]{":authority", "www.example.com"});
+        headers.add(new String[]{"accept-encoding", "gzip, deflate"});
+        headers.add(new String[]{"range", "bytes=1024-"});
+        headers.add(new String[]{"x-custom", "value"});
+        byte[] block = new Http2Hpack.Encoder().encode(headers);
+
+        //完全匹配静态表时为索引
+        assertEquals((byte) 0x82, block[0]);
+        assertEquals((byte) 0x87, block[1]);
+        List<String[]> decoded = new Http2Hpack.Decoder(4096).decode(block, 0, block.length);
+        assertEquals(headers.size(), decoded.size());
+        for (int i = 0; i < headers.size(); i++) {
+            assertEquals(headers.get(i)[0], decoded.get(i)[0]);
+            assertEquals(headers.get(i)[1], decoded.get(i)[1]);
+        }
+    }
+
+    @Test
+    public void encodeLongValueUsesMultiByteLength() throws IOException {
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            value.append((char) ('a' + i % 26));
+        }
+        List<String[]> headers = new ArrayList<>();
+        headers.add(new String[]{"cookie", value.toString()});
+        byte[] block = new Http2Hpack.Encoder().encode(headers);
+
+        List<String[]> decoded = new Http2Hpack.Decoder(4096).decode(block, 0, block.length);
+        assertEquals(1, decoded.size());
+        assertEquals("cookie", decoded.get(0)[0]);
+        assertEquals(value.toString(), decoded.get(0)[1]);
+    }
+
+    @Test(expected = IOException.class)
+    public void invalidIndex() throws IOException {
+        //动态表为空时索引 62 无效
+        new Http2Hpack.Decoder(4096).decode(hex("be"), 0, 1);
+    }
+
+    @Test(expected = IOException.class)
+    public void tableSizeUpdateTooLarge() throws IOException {
+        //动态表大小更新为 4097，超出 SETTINGS_HEADER_TABLE_SIZE
+        byte[] block = hex("3fe21f");
+        new Http2Hpack.Decoder(4096).decode(block, 0, block.length);
+    }
+
+    private static void assertHeaders(Http2Hpack.Decoder decoder, String hex, String... expected) throws IOException {
+        byte[] block = hex(hex);
+        List<String[]> headers = decoder.decode(block, 0, block.length);
+        assertEquals(expected.length / 2, headers.size());
+        for (int i = 0; i < headers.size(); i++) {
+            assertEquals(expected[i * 2], headers.get(i)[0]);
+            assertEquals(expected[i * 2 + 1], headers.get(i)[1]);
+        }
+    }
+
+    static byte[] hex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
+}
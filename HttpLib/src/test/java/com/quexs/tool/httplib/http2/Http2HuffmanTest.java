@@ -0,0 +1,62 @@
+package com.quexs.tool.httplib.http2;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static com.quexs.tool.httplib.http2.Http2HpackTest.hex;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 霍夫曼解码：RFC 7541 附录 C.4、C.6 中的字符串，结尾填充需不超过 7 位且全为 1
+ */
+public class Http2HuffmanTest {
+
+    @Test
+    public void decodeRequestStrings() throws IOException {
+        assertDecode("www.example.com", "f1e3c2e5f23a6ba0ab90f4ff");
+        assertDecode("no-cache", "a8eb10649cbf");
+        assertDecode("custom-key", "25a849e95ba97d7f");
+        assertDecode("custom-value", "25a849e95bb8e8b4bf");
+    }
+
+    @Test
+    public void decodeResponseStrings() throws IOException {
+        assertDecode("302", "6402");
+        assertDecode("private", "aec3771a4b");
+        assertDecode("Mon, 21 Oct 2013 20:13:21 GMT", "d07abe941054d444a8200595040b8166e082a62d1bff");
+        assertDecode("https://www.example.com", "9d29ad171863c78f0b97c8e9ae82ae43d3");
+        assertDecode("gzip", "9bd9ab");
+        assertDecode("foo=ASDJKHQKBZXOQWEOPIUAXQWEOIU; max-age=3600; version=1",
+                "94e7821dd7f2e6c7b335dfdfcd5b3960d5af27087f3672c1ab270fb5291f9587316065c003ed4ee5b1063d5007");
+    }
+
+    @Test
+    public void decodeWithOffset() throws IOException {
+        byte[] src = hex("00f1e3c2e5f23a6ba0ab90f4ff00");
+        assertEquals("www.example.com", new String(Http2Huffman.decode(src, 1, src.length - 2), "ISO-8859-1"));
+    }
+
+    @Test(expected = IOException.class)
+    public void paddingNotAllOnes() throws IOException {
+        //"0" 为 00000，结尾 3 位填充为 000
+        Http2Huffman.decode(hex("00"), 0, 1);
+    }
+
+    @Test(expected = IOException.class)
+    public void paddingTooLong() throws IOException {
+        //"0" 之后 11 位全为 1，超过 7 位
+        Http2Huffman.decode(hex("07ff"), 0, 2);
+    }
+
+    @Test(expected = IOException.class)
+    public void eosInString() throws IOException {
+        //EOS 为 30 位全 1
+        Http2Huffman.decode(hex("ffffffff"), 0, 4);
+    }
+
+    private static void assertDecode(String expected, String hex) throws IOException {
+        byte[] src = hex(hex);
+        assertEquals(expected, new String(Http2Huffman.decode(src, 0, src.length), "ISO-8859-1"));
+    }
+}
@@ -0,0 +1,124 @@
+package com.quexs.tool.httplib.nio;
+
+import com.quexs.tool.httplib.ssl.HttpSSLVerify;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * NIO 请求引擎：回调抛出异常只结束该请求，Selector 线程继续处理后续请求
+ */
+public class HttpNioEngineTest {
+    private static final byte[] BODY = "hello".getBytes();
+
+    private HttpServer server;
+    private String url;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.sendResponseHeaders(200, BODY.length);
+                OutputStream os = exchange.getResponseBody();
+                os.write(BODY);
+                os.close();
+            }
+        });
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/file";
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void listenerExceptionDoesNotStopEngine() throws Exception {
+        HttpNioEngine engine = new HttpNioEngine();
+        TestExchange failing = new TestExchange(url, new RuntimeException("listener"), null);
+        engine.execute(failing);
+        assertTrue(failing.done.await(10, TimeUnit.SECONDS));
+        assertEquals("listener", failing.error.getMessage());
+
+        TestExchange throwingComplete = new TestExchange(url, null, new RuntimeException("complete"));
+        engine.execute(throwingComplete);
+        assertTrue(throwingComplete.done.await(10, TimeUnit.SECONDS));
+
+        TestExchange next = new TestExchange(url, null, null);
+        engine.execute(next);
+        assertTrue(next.done.await(10, TimeUnit.SECONDS));
+        assertEquals(200, next.getResponseCode());
+        assertEquals(BODY.length, next.bodyLen);
+    }
+
+    private static class TestExchange extends HttpNioExchange {
+        private final RuntimeException startException;
+        private final RuntimeException completeException;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private Exception error;
+        private int bodyLen;
+
+        TestExchange(String url, RuntimeException startException, RuntimeException completeException) throws MalformedURLException {
+            super(url, "GET", HttpSSLVerify.VerifyCode.DEFAULT_VERIFY, 0, null);
+            this.startException = startException;
+            this.completeException = completeException;
+        }
+
+        @Override
+        protected void onStart() {
+            if(startException != null) throw startException;
+        }
+
+        @Override
+        protected void onResponse(int responseCode, Map<String, List<String>> headers) {
+        }
+
+        @Override
+        protected void onResponseBody(ByteBuffer body) {
+            bodyLen += body.remaining();
+            body.position(body.limit());
+        }
+
+        @Override
+        protected void onComplete() {
+            done.countDown();
+            if(completeException != null) throw completeException;
+        }
+
+        @Override
+        protected void onError(Exception e) {
+            error = e;
+            done.countDown();
+        }
+
+        @Override
+        protected boolean isCancel() {
+            return false;
+        }
+
+        @Override
+        protected void onCancel() {
+            done.countDown();
+        }
+    }
+}
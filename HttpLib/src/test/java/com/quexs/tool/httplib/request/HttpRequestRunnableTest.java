@@ -0,0 +1,126 @@
+package com.quexs.tool.httplib.request;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.util.concurrent.PriorityBlockingQueue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 通用请求：同优先级按提交顺序执行；PATCH 只在声明 methodOverride 时以 POST + X-HTTP-Method-Override 发送
+ */
+public class HttpRequestRunnableTest {
+    private HttpServer server;
+    private String url;
+    private volatile String receivedMethod;
+    private volatile String receivedOverride;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                receivedMethod = exchange.getRequestMethod();
+                receivedOverride = exchange.getRequestHeaders().getFirst("X-HTTP-Method-Override");
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
+            }
+        });
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/item";
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void samePriorityRunsInSubmitOrder() {
+        PriorityBlockingQueue<HttpRequestRunnable> queue = new PriorityBlockingQueue<>();
+        HttpRequestRunnable[] runnables = new HttpRequestRunnable[20];
+        for (int i = 0; i < runnables.length; i++) {
+            runnables[i] = new HttpRequestRunnable(new HttpRequest.Builder().url(url).priority(1, null).build());
+            queue.add(runnables[i]);
+        }
+        HttpRequestRunnable high = new HttpRequestRunnable(new HttpRequest.Builder().url(url).priority(0, null).build());
+        queue.add(high);
+
+        assertSame(high, queue.poll());
+        for (HttpRequestRunnable runnable : runnables) {
+            assertSame(runnable, queue.poll());
+        }
+    }
+
+    @Test
+    public void patchFailsWithoutMethodOverride() {
+        Result result = run(new HttpRequest.Builder().url(url).patch(new byte[]{1}, "application/octet-stream").build());
+
+        assertTrue(result.error instanceof ProtocolException);
+        assertNull(receivedMethod);
+    }
+
+    @Test
+    public void patchSentAsPostWithMethodOverride() {
+        Result result = run(new HttpRequest.Builder().url(url).patch(new byte[]{1}, "application/octet-stream")
+                .methodOverride(true).build());
+
+        assertNull(result.error);
+        assertEquals(200, result.responseCode);
+        assertEquals("POST", receivedMethod);
+        assertEquals("PATCH", receivedOverride);
+    }
+
+    @Test
+    public void supportedMethodNotOverridden() {
+        Result result = run(new HttpRequest.Builder().url(url).put(new byte[]{1}, "application/octet-stream")
+                .methodOverride(true).build());
+
+        assertNull(result.error);
+        assertEquals("PUT", receivedMethod);
+        assertNull(receivedOverride);
+    }
+
+    /**
+     * 在当前线程执行一次请求
+     */
+    private static Result run(HttpRequest httpRequest) {
+        final Result result = new Result();
+        HttpRequestRunnable runnable = new HttpRequestRunnable(httpRequest);
+        runnable.setHttpRequestListener(new HttpRequestListener() {
+            @Override
+            public void requestStart(Object objKey) {
+            }
+
+            @Override
+            public void requestComplete(HttpResponse response, Object objKey) {
+                result.responseCode = response.getResponseCode();
+            }
+
+            @Override
+            public void requestError(Exception e, Object objKey) {
+                result.error = e;
+            }
+        });
+        runnable.run();
+        return result;
+    }
+
+    private static class Result {
+        private int responseCode;
+        private Exception error;
+    }
+}
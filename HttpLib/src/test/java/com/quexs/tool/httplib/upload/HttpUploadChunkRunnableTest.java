@@ -0,0 +1,321 @@
+package com.quexs.tool.httplib.upload;
+
+import com.quexs.tool.httplib.ssl.HttpSSLVerify;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 分块断点续传上传：本地 HTTPS 服务模拟上传会话（308 + Range 确认已接收位置，200/201 完成）
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 32)
+public class HttpUploadChunkRunnableTest {
+    private static final int FILE_LEN = 200 * 1000;
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private UploadSession session;
+    private HttpsServer server;
+    private String uploadUrl;
+    private File uploadFile;
+    private File recordFile;
+    private byte[] fileBytes;
+
+    @Before
+    public void setUp() throws Exception {
+        session = new UploadSession(FILE_LEN);
+        server = HttpsServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setHttpsConfigurator(new HttpsConfigurator(newServerSSLContext()));
+        server.createContext("/session", session);
+        server.start();
+        uploadUrl = "https://127.0.0.1:" + server.getAddress().getPort() + "/session";
+
+        fileBytes = new byte[FILE_LEN];
+        new Random(1).nextBytes(fileBytes);
+        uploadFile = temporaryFolder.newFile("upload.bin");
+        FileOutputStream fos = new FileOutputStream(uploadFile);
+        try {
+            fos.write(fileBytes);
+        }finally {
+            fos.close();
+        }
+        recordFile = new File(temporaryFolder.getRoot(), "upload.record");
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void uploadsChunksUntilServerCreates() {
+        Result result = upload();
+
+        assertNull(result.error);
+        assertEquals("created", result.body);
+        assertEquals(Arrays.asList(
+                "bytes 0-65535/200000",
+                "bytes 65536-131071/200000",
+                "bytes 131072-196607/200000",
+                "bytes 196608-199999/200000"), session.contentRanges);
+        assertArrayEquals(fileBytes, session.received());
+        assertFalse(recordFile.exists());
+    }
+
+    @Test
+    public void resumesFromServerOffsetAfterInterruptedChunk() {
+        //第二块写入 10000 字节后连接断开，服务端保留已接收的数据
+        session.interruptChunk = 1;
+        session.interruptAfter = 10000;
+        Result first = upload();
+        assertNotNull(first.error);
+        assertTrue(recordFile.exists());
+
+        session.contentRanges.clear();
+        Result second = upload();
+
+        assertNull(second.error);
+        assertEquals("created", second.body);
+        assertEquals("bytes */200000", session.contentRanges.get(0));
+        assertEquals("bytes 75536-141071/200000", session.contentRanges.get(1));
+        assertArrayEquals(fileBytes, session.received());
+        assertFalse(recordFile.exists());
+    }
+
+    @Test
+    public void resumesFromRecordWhenServerQueryFails() {
+        session.interruptChunk = 1;
+        session.interruptAfter = 0;
+        assertNotNull(upload().error);
+
+        //服务端不支持查询，以本地记录的位置续传
+        session.isQueryFailing = true;
+        session.contentRanges.clear();
+        Result second = upload();
+
+        assertNull(second.error);
+        assertEquals("bytes */200000", session.contentRanges.get(0));
+        assertEquals("bytes 65536-131071/200000", session.contentRanges.get(1));
+        assertArrayEquals(fileBytes, session.received());
+    }
+
+    @Test
+    public void finishesWithOkWhenQueryReportsComplete() {
+        //最后一块已全部接收，完成响应丢失
+        session.interruptChunk = 3;
+        session.interruptAfter = FILE_LEN - 3 * CHUNK_SIZE;
+        assertNotNull(upload().error);
+
+        session.contentRanges.clear();
+        Result second = upload();
+
+        assertNull(second.error);
+        assertEquals("complete", second.body);
+        assertEquals(Arrays.asList("bytes */200000"), session.contentRanges);
+        assertArrayEquals(fileBytes, session.received());
+        assertFalse(recordFile.exists());
+    }
+
+    //缓冲区为 0 时读取文件不前进，超时视为失败
+    @Test(timeout = 30000)
+    public void nonPositiveBufferSizeUsesDefault() {
+        Result result = upload(0);
+
+        assertNull(result.error);
+        assertEquals("created", result.body);
+        assertArrayEquals(fileBytes, session.received());
+    }
+
+    private Result upload() {
+        return upload(HttpMultipartBody.DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * 在当前线程执行一次上传
+     */
+    private Result upload(int bufferSize) {
+        final Result result = new Result();
+        HttpUploadChunkRunnable runnable = new HttpUploadChunkRunnable("chunk", 0, null);
+        runnable.setChunkUploadParams(uploadUrl, uploadFile, recordFile, null);
+        runnable.setChunkSize(CHUNK_SIZE);
+        runnable.setBufferSize(bufferSize);
+        runnable.setVerifyCode(HttpSSLVerify.VerifyCode.SKIP_VERIFY);
+        runnable.setHttpUploadListener(new HttpUploadListener() {
+            @Override
+            public void uploadStart(Object objKey) {
+            }
+
+            @Override
+            public void uploadComplete(String body, Object objKey) {
+                result.body = body;
+            }
+
+            @Override
+            public void uploadError(Exception e, Object objKey) {
+                result.error = e;
+            }
+        });
+        runnable.run();
+        return result;
+    }
+
+    private static SSLContext newServerSSLContext() throws Exception {
+        char[] password = "changeit".toCharArray();
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        InputStream is = HttpUploadChunkRunnableTest.class.getResourceAsStream("/test-server.p12");
+        try {
+            keyStore.load(is, password);
+        }finally {
+            is.close();
+        }
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(keyStore, password);
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(kmf.getKeyManagers(), null, null);
+        return sslContext;
+    }
+
+    private static class Result {
+        String body;
+        Exception error;
+    }
+
+    /**
+     * 上传会话：按 Content-Range 接收分块，未完成时返回 308 及已接收的 Range，完成时返回 201（查询时为 200）
+     */
+    private static class UploadSession implements HttpHandler {
+        private static final Pattern CHUNK_RANGE = Pattern.compile("bytes (\\d+)-(\\d+)/(\\d+)");
+
+        private final int total;
+        private final ByteArrayOutputStream received = new ByteArrayOutputStream();
+        final List<String> contentRanges = new ArrayList<>();
+        //第几个分块请求写入 interruptAfter 字节后断开连接，-1 不断开
+        volatile int interruptChunk = -1;
+        volatile int interruptAfter;
+        //查询请求是否返回 500
+        volatile boolean isQueryFailing;
+        private int chunkCount;
+
+        UploadSession(int total) {
+            this.total = total;
+        }
+
+        synchronized byte[] received() {
+            return received.toByteArray();
+        }
+
+        @Override
+        public synchronized void handle(HttpExchange exchange) throws IOException {
+            String contentRange = exchange.getRequestHeaders().getFirst("Content-Range");
+            contentRanges.add(contentRange);
+            InputStream body = exchange.getRequestBody();
+            if(contentRange.startsWith("bytes */")){
+                drain(body);
+                if(isQueryFailing){
+                    respond(exchange, 500, null);
+                }else if(received.size() == total){
+                    respond(exchange, 200, "complete");
+                }else {
+                    respondIncomplete(exchange);
+                }
+                return;
+            }
+            Matcher matcher = CHUNK_RANGE.matcher(contentRange);
+            assertTrue(contentRange, matcher.matches());
+            if(Long.parseLong(matcher.group(1)) != received.size()){
+                drain(body);
+                respondIncomplete(exchange);
+                return;
+            }
+            int chunkLen = (int) (Long.parseLong(matcher.group(2)) - Long.parseLong(matcher.group(1)) + 1);
+            if(chunkCount++ == interruptChunk){
+                interruptChunk = -1;
+                copy(body, Math.min(interruptAfter, chunkLen));
+                //不返回响应直接断开
+                throw new IOException("interrupted");
+            }
+            copy(body, chunkLen);
+            if(received.size() == total){
+                respond(exchange, 201, "created");
+            }else {
+                respondIncomplete(exchange);
+            }
+        }
+
+        private void respondIncomplete(HttpExchange exchange) throws IOException {
+            if(received.size() > 0){
+                exchange.getResponseHeaders().set("Range", "bytes=0-" + (received.size() - 1));
+            }
+            respond(exchange, 308, null);
+        }
+
+        private void copy(InputStream body, int len) throws IOException {
+            byte[] buffer = new byte[8192];
+            while (len > 0){
+                int read = body.read(buffer, 0, Math.min(buffer.length, len));
+                if(read == -1) throw new IOException("chunk incomplete");
+                received.write(buffer, 0, read);
+                len -= read;
+            }
+        }
+
+        private static void drain(InputStream body) throws IOException {
+            byte[] buffer = new byte[8192];
+            while (body.read(buffer) != -1){
+                //丢弃
+            }
+        }
+
+        private static void respond(HttpExchange exchange, int code, String text) throws IOException {
+            if(text == null){
+                //没有消息体
+                exchange.sendResponseHeaders(code, -1);
+                exchange.getResponseBody().close();
+                return;
+            }
+            byte[] bytes = text.getBytes("UTF-8");
+            exchange.sendResponseHeaders(code, bytes.length);
+            OutputStream os = exchange.getResponseBody();
+            os.write(bytes);
+            os.close();
+        }
+    }
+}